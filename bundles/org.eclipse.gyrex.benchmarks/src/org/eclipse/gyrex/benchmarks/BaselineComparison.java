@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.CharEncoding;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compares two JSON result files written by {@link BenchmarkMain} and reports
+ * regressions.
+ * <p>
+ * Usage:
+ * <code>BaselineComparison &lt;baseline-file&gt; &lt;result-file&gt; [threshold-percent]</code>
+ * </p>
+ * <p>
+ * The primary score and the normalized allocation rate (bytes per operation,
+ * if available) of every benchmark found in both files are compared. A change
+ * for the worse that exceeds the threshold (default 10%) is reported as a
+ * regression and the tool exits with a non-zero exit code.
+ * </p>
+ */
+public final class BaselineComparison {
+
+	private static final class Score {
+		final double value;
+		final String unit;
+		final boolean higherIsBetter;
+
+		Score(final double value, final String unit, final boolean higherIsBetter) {
+			this.value = value;
+			this.unit = unit;
+			this.higherIsBetter = higherIsBetter;
+		}
+	}
+
+	private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+	/**
+	 * Compares the scores and prints the result.
+	 *
+	 * @return the number of regressions
+	 */
+	static int compare(final Map<String, Score> baseline, final Map<String, Score> current, final double thresholdPercent) {
+		int regressions = 0;
+		for (final Entry<String, Score> entry : current.entrySet()) {
+			final Score before = baseline.get(entry.getKey());
+			final Score after = entry.getValue();
+			if (null == before) {
+				System.out.printf("%-90s %14s %14.3f %s (new)%n", entry.getKey(), "-", after.value, after.unit);
+				continue;
+			}
+
+			final double change = before.value == 0 ? 0 : ((after.value - before.value) * 100) / before.value;
+			final boolean regression = after.higherIsBetter ? change < -thresholdPercent : change > thresholdPercent;
+			if (regression) {
+				regressions++;
+			}
+			System.out.printf("%-90s %14.3f %14.3f %s %+8.1f%%%s%n", entry.getKey(), before.value, after.value, after.unit, change, regression ? "  REGRESSION" : "");
+		}
+		return regressions;
+	}
+
+	/**
+	 * Reads the scores from a JMH JSON result file.
+	 */
+	static Map<String, Score> load(final File file) throws IOException, JSONException {
+		final Map<String, Score> scores = new TreeMap<String, Score>();
+		final JSONArray results = new JSONArray(FileUtils.readFileToString(file, CharEncoding.UTF_8));
+		for (int i = 0; i < results.length(); i++) {
+			final JSONObject result = results.getJSONObject(i);
+			final String name = result.getString("benchmark") + toString(result.optJSONObject("params"));
+			final JSONObject primaryMetric = result.getJSONObject("primaryMetric");
+			scores.put(name, new Score(primaryMetric.getDouble("score"), primaryMetric.getString("scoreUnit"), "thrpt".equals(result.getString("mode"))));
+
+			final JSONObject secondaryMetrics = result.optJSONObject("secondaryMetrics");
+			if (null != secondaryMetrics) {
+				for (final Iterator<?> keys = secondaryMetrics.keys(); keys.hasNext();) {
+					final String key = (String) keys.next();
+					if (key.endsWith(ALLOCATION_METRIC)) {
+						final JSONObject metric = secondaryMetrics.getJSONObject(key);
+						scores.put(name + " [alloc]", new Score(metric.getDouble("score"), metric.getString("scoreUnit"), false));
+					}
+				}
+			}
+		}
+		return scores;
+	}
+
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: BaselineComparison <baseline-file> <result-file> [threshold-percent]");
+			System.exit(2);
+			return;
+		}
+
+		final Map<String, Score> baseline = load(new File(args[0]));
+		final Map<String, Score> current = load(new File(args[1]));
+		final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+		final int regressions = compare(baseline, current, threshold);
+		if (regressions > 0) {
+			System.out.printf("%d regression(s) exceeding %.1f%% found.%n", regressions, threshold);
+			System.exit(1);
+		}
+		System.out.println("No regressions found.");
+	}
+
+	private static String toString(final JSONObject params) throws JSONException {
+		if ((null == params) || (params.length() == 0))
+			return "";
+
+		final Map<String, String> sorted = new TreeMap<String, String>();
+		for (final Iterator<?> keys = params.keys(); keys.hasNext();) {
+			final String key = (String) keys.next();
+			sorted.put(key, params.getString(key));
+		}
+		return sorted.toString();
+	}
+
+	private BaselineComparison() {
+		// empty
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the platform benchmarks and writes the results in JSON format.
+ * <p>
+ * Usage: <code>BenchmarkMain [include-regex] [result-file]</code>
+ * </p>
+ * <p>
+ * All benchmarks are run with the GC profiler in order to also report the
+ * allocation rate per operation. Benchmarks which require a running platform
+ * are excluded when run from the command line. The result file can be
+ * compared with a previous run using {@link BaselineComparison}.
+ * </p>
+ */
+public final class BenchmarkMain {
+
+	/** the default result file */
+	public static final String DEFAULT_RESULT_FILE = "benchmarks.json";
+
+	/** benchmarks which can only run inside a running platform */
+	public static final String IN_FRAMEWORK_BENCHMARKS = "org\\.eclipse\\.gyrex\\.benchmarks\\.(context|persistence)\\..*";
+
+	public static void main(final String[] args) throws Exception {
+		final String include = args.length > 0 ? args[0] : ".*";
+		final File resultFile = new File(args.length > 1 ? args[1] : DEFAULT_RESULT_FILE);
+		run(include, IN_FRAMEWORK_BENCHMARKS, resultFile, false);
+	}
+
+	/**
+	 * Runs benchmarks.
+	 *
+	 * @param include
+	 *            regular expression of benchmarks to include
+	 * @param exclude
+	 *            regular expression of benchmarks to exclude (may be
+	 *            <code>null</code>)
+	 * @param resultFile
+	 *            the file to write the JSON results to
+	 * @param inProcess
+	 *            <code>true</code> if the benchmarks must run within the
+	 *            current JVM, <code>false</code> if forking is allowed
+	 * @return the results
+	 * @throws RunnerException
+	 *             if the benchmarks failed
+	 */
+	public static Collection<RunResult> run(final String include, final String exclude, final File resultFile, final boolean inProcess) throws RunnerException {
+		final ChainedOptionsBuilder options = new OptionsBuilder().include(include).addProfiler(GCProfiler.class).resultFormat(ResultFormatType.JSON).result(resultFile.getAbsolutePath()).shouldFailOnError(true);
+		if (null != exclude) {
+			options.exclude(exclude);
+		}
+		if (inProcess) {
+			options.forks(0);
+		}
+		return new Runner(options.build()).run();
+	}
+
+	private BenchmarkMain() {
+		// empty
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.cloud;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+
+/**
+ * A standalone ZooKeeper server running in the benchmark JVM.
+ * <p>
+ * The server stores its data in a temporary directory which will be deleted
+ * on {@link #stop()}.
+ * </p>
+ */
+public final class EmbeddedZooKeeper {
+
+	private static Object createFactory(final InetSocketAddress socketAddress, final int maxClientConnections) throws Exception {
+		// try ZooKeeper 3.4 way
+		try {
+			return Class.forName("org.apache.zookeeper.server.ServerCnxnFactory").getMethod("createFactory", InetSocketAddress.class, Integer.TYPE).invoke(null, socketAddress, maxClientConnections);
+		} catch (final ClassNotFoundException e) {
+			// fallback to ZooKeeper 3.3 way
+			return Class.forName("org.apache.zookeeper.server.NIOServerCnxn$Factory").getConstructor(InetSocketAddress.class, Integer.TYPE).newInstance(socketAddress, maxClientConnections);
+		}
+	}
+
+	private final File dataDir;
+	private ZooKeeperServer server;
+	private Object factory;
+	private int port;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @throws IOException
+	 *             if the data directory could not be created
+	 */
+	public EmbeddedZooKeeper() throws IOException {
+		dataDir = File.createTempFile("gyrex-benchmark-zk", "");
+		if (!dataDir.delete() || !dataDir.mkdirs())
+			throw new IOException("Unable to create data directory " + dataDir);
+	}
+
+	/**
+	 * Opens a new client connection and waits until it is connected.
+	 *
+	 * @return the connected client
+	 * @throws Exception
+	 *             if the client could not connect
+	 */
+	public ZooKeeper connect() throws Exception {
+		final CountDownLatch connected = new CountDownLatch(1);
+		final ZooKeeper zooKeeper = new ZooKeeper("127.0.0.1:" + port, 30000, new Watcher() {
+			@Override
+			public void process(final WatchedEvent event) {
+				if (event.getState() == KeeperState.SyncConnected) {
+					connected.countDown();
+				}
+			}
+		});
+		if (!connected.await(30, TimeUnit.SECONDS)) {
+			zooKeeper.close();
+			throw new IllegalStateException("Timeout waiting for ZooKeeper connection.");
+		}
+		return zooKeeper;
+	}
+
+	/**
+	 * Starts the server on a free local port.
+	 *
+	 * @throws Exception
+	 *             if the server could not be started
+	 */
+	public void start() throws Exception {
+		System.setProperty("zookeeper.jmx.log4j.disable", Boolean.TRUE.toString());
+
+		server = new ZooKeeperServer();
+		server.setTxnLogFactory(new FileTxnSnapLog(new File(dataDir, "logs"), dataDir));
+		server.setTickTime(ZooKeeperServer.DEFAULT_TICK_TIME);
+		server.setMinSessionTimeout(2 * ZooKeeperServer.DEFAULT_TICK_TIME);
+		server.setMaxSessionTimeout(10 * ZooKeeperServer.DEFAULT_TICK_TIME);
+
+		factory = createFactory(new InetSocketAddress("127.0.0.1", 0), 10);
+		factory.getClass().getMethod("startup", ZooKeeperServer.class).invoke(factory, server);
+		port = ((Integer) factory.getClass().getMethod("getLocalPort").invoke(factory)).intValue();
+	}
+
+	/**
+	 * Stops the server and deletes all data.
+	 */
+	public void stop() throws Exception {
+		if (null != factory) {
+			factory.getClass().getMethod("shutdown").invoke(factory);
+			factory = null;
+		}
+		if ((null != server) && server.isRunning()) {
+			server.shutdown();
+		}
+		server = null;
+		FileUtils.deleteQuietly(dataDir);
+	}
+}
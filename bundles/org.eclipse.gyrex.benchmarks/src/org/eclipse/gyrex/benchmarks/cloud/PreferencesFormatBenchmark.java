@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.cloud;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.cloud.internal.preferences.PreferencesFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks (de-)serialization of ZooKeeper based preference nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreferencesFormatBenchmark {
+
+	/**
+	 * Creates properties as typically found in a node.
+	 */
+	static Properties createProperties(final int count) {
+		final Properties properties = new Properties();
+		for (int i = 0; i < count; i++) {
+			properties.setProperty("some.preference.key" + i, "some value with special characters = : # " + i);
+		}
+		return properties;
+	}
+
+	/** the number of properties in a node */
+	@Param({ "10", "200" })
+	public int properties;
+
+	private Properties node;
+	private byte[] bytes;
+
+	@Benchmark
+	public Properties deserialize() throws IOException {
+		return PreferencesFormat.fromBytes(bytes);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		return PreferencesFormat.toBytes(node);
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		node = createProperties(properties);
+		bytes = PreferencesFormat.toBytes(node);
+	}
+}
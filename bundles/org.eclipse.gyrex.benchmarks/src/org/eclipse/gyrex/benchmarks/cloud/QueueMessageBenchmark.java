@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.cloud;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.cloud.internal.queue.Message;
+import org.eclipse.gyrex.cloud.internal.queue.ZooKeeperQueue;
+
+import org.apache.zookeeper.data.Stat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks encoding and decoding of queue messages as they are stored in
+ * ZooKeeper nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueMessageBenchmark {
+
+	/** the message body size in bytes */
+	@Param({ "128", "4096" })
+	public int bodySize;
+
+	private Message message;
+	private ZooKeeperQueue queue;
+	private byte[] record;
+	private Stat stat;
+
+	@Benchmark
+	public Message decode() throws IOException {
+		return new Message("msg-0000000001", queue, record, stat);
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return message.toByteArray();
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		final byte[] body = new byte[bodySize];
+		new Random(42).nextBytes(body);
+		message = new Message("benchmark", body);
+		queue = new ZooKeeperQueue("benchmark");
+		record = message.toByteArray();
+		stat = new Stat();
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.cloud;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.cloud.internal.preferences.PreferencesFormat;
+import org.eclipse.gyrex.cloud.internal.queue.Message;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the ZooKeeper round trips performed for queue messages and
+ * preference nodes against an {@link EmbeddedZooKeeper embedded server}.
+ * <p>
+ * The records are written in the same format the platform uses. The numbers
+ * include the local network stack and the server transaction log, i.e. they
+ * are a lower bound of what a remote ensemble delivers.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZooKeeperRoundTripBenchmark {
+
+	private static final String QUEUE_PATH = "/benchmark/queue";
+	private static final String PREFERENCES_PATH = "/benchmark/preferences";
+
+	private EmbeddedZooKeeper server;
+	private ZooKeeper zooKeeper;
+	private byte[] messageRecord;
+	private Properties preferences;
+
+	@Benchmark
+	public Properties preferencesRoundTrip() throws Exception {
+		zooKeeper.setData(PREFERENCES_PATH, PreferencesFormat.toBytes(preferences), -1);
+		final Stat stat = new Stat();
+		return PreferencesFormat.fromBytes(zooKeeper.getData(PREFERENCES_PATH, false, stat));
+	}
+
+	@Benchmark
+	public byte[] queueRoundTrip() throws Exception {
+		final String path = zooKeeper.create(QUEUE_PATH + "/msg-", messageRecord, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
+		final Stat stat = new Stat();
+		final byte[] record = zooKeeper.getData(path, false, stat);
+		zooKeeper.delete(path, stat.getVersion());
+		return record;
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		server = new EmbeddedZooKeeper();
+		server.start();
+		zooKeeper = server.connect();
+
+		zooKeeper.create("/benchmark", null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+		zooKeeper.create(QUEUE_PATH, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+		zooKeeper.create(PREFERENCES_PATH, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+		messageRecord = new Message("benchmark", new byte[512]).toByteArray();
+		preferences = PreferencesFormatBenchmark.createProperties(20);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		try {
+			if (null != zooKeeper) {
+				zooKeeper.close();
+			}
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.common;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.common.internal.services.ServiceProxy;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks calls through the dynamic proxy handed out by
+ * {@link ServiceProxy#getProxy()} compared to direct calls.
+ * <p>
+ * The proxy tracks a single service through a minimal in-memory
+ * {@link BundleContext} so that no OSGi framework is required.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceProxyBenchmark {
+
+	public static interface Echo {
+		int echo(int value);
+	}
+
+	static final class EchoImpl implements Echo {
+		@Override
+		public int echo(final int value) {
+			return value;
+		}
+	}
+
+	/**
+	 * Creates a {@link BundleContext} which provides exactly one service.
+	 */
+	static BundleContext createBundleContext(final Object service) {
+		final ServiceReference<?> reference = (ServiceReference<?>) Proxy.newProxyInstance(ServiceProxyBenchmark.class.getClassLoader(), new Class<?>[] { ServiceReference.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				switch (method.getName()) {
+					case "compareTo":
+						return 0;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					case "toString":
+						return "ServiceReference[benchmark]";
+					default:
+						return null;
+				}
+			}
+		});
+		return (BundleContext) Proxy.newProxyInstance(ServiceProxyBenchmark.class.getClassLoader(), new Class<?>[] { BundleContext.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				switch (method.getName()) {
+					case "addServiceListener":
+					case "removeServiceListener":
+						return null;
+					case "getServiceReferences":
+						return Collections.singletonList(reference);
+					case "getService":
+						return service;
+					case "ungetService":
+						return Boolean.TRUE;
+					case "toString":
+						return "BundleContext[benchmark]";
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			}
+		});
+	}
+
+	private Echo direct;
+	private Echo proxied;
+	private ServiceProxy<Echo> serviceProxy;
+	private int value;
+
+	@Benchmark
+	public int direct() {
+		return direct.echo(value++);
+	}
+
+	@Benchmark
+	public int proxy() {
+		return proxied.echo(value++);
+	}
+
+	@Benchmark
+	public Echo getService() {
+		return serviceProxy.getService();
+	}
+
+	@Setup
+	public void setup() {
+		direct = new EchoImpl();
+		serviceProxy = new ServiceProxy<Echo>(createBundleContext(direct), Echo.class, null);
+		proxied = serviceProxy.getProxy();
+	}
+
+	@TearDown
+	public void tearDown() {
+		serviceProxy.dispose();
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.context;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.context.IRuntimeContext;
+import org.eclipse.gyrex.context.provider.RuntimeContextObjectProvider;
+import org.eclipse.gyrex.context.registry.IRuntimeContextRegistry;
+
+import org.eclipse.core.runtime.Path;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the lookup of contextual objects via
+ * {@link IRuntimeContext#get(Class)}.
+ * <p>
+ * The context implementation depends on the cloud preferences and the OSGi
+ * service registry. Therefore this benchmark must run in-process inside a
+ * running platform (see the <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class ContextGetBenchmark {
+
+	public static class BenchmarkObject {
+		// empty
+	}
+
+	static final class BenchmarkObjectProvider extends RuntimeContextObjectProvider {
+		@Override
+		public <T> T getObject(final Class<T> type, final IRuntimeContext context) {
+			if (type.equals(BenchmarkObject.class))
+				return type.cast(new BenchmarkObject());
+			return null;
+		}
+
+		@Override
+		public Class<?>[] getObjectTypes() {
+			return new Class<?>[] { BenchmarkObject.class };
+		}
+	}
+
+	private BundleContext context;
+	private ServiceRegistration<RuntimeContextObjectProvider> providerRegistration;
+	private ServiceReference<IRuntimeContextRegistry> registryReference;
+	private IRuntimeContext rootContext;
+
+	@Benchmark
+	public BenchmarkObject get() {
+		return rootContext.get(BenchmarkObject.class);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public BenchmarkObject getContended() {
+		return rootContext.get(BenchmarkObject.class);
+	}
+
+	@Benchmark
+	public Object getUnknown() {
+		return rootContext.get(ContextGetBenchmark.class);
+	}
+
+	@Setup
+	public void setup() {
+		context = BenchmarksActivator.getContext();
+		if (null == context)
+			throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+
+		final Hashtable<String, Object> properties = new Hashtable<String, Object>(2);
+		properties.put(Constants.SERVICE_VENDOR, "Eclipse Gyrex");
+		properties.put(Constants.SERVICE_DESCRIPTION, "Benchmark object provider.");
+		providerRegistration = context.registerService(RuntimeContextObjectProvider.class, new BenchmarkObjectProvider(), properties);
+
+		registryReference = context.getServiceReference(IRuntimeContextRegistry.class);
+		if (null == registryReference)
+			throw new IllegalStateException("The context registry is not available.");
+		rootContext = context.getService(registryReference).get(Path.ROOT);
+
+		// compute once
+		if (null == get())
+			throw new IllegalStateException("The benchmark object provider has not been picked up by the context registry.");
+	}
+
+	@TearDown
+	public void tearDown() {
+		rootContext = null;
+		if (null != providerRegistration) {
+			providerRegistration.unregister();
+			providerRegistration = null;
+		}
+		if (null != registryReference) {
+			context.ungetService(registryReference);
+			registryReference = null;
+		}
+	}
+}
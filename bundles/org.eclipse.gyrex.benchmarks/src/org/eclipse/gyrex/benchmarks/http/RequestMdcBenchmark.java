@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.http;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.context.registry.IRuntimeContextRegistry;
+import org.eclipse.gyrex.http.application.Application;
+import org.eclipse.gyrex.http.jetty.internal.app.RequestMdc;
+
+import org.eclipse.core.runtime.Path;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+/**
+ * Compares the per request cost of the request logging MDC populated eagerly
+ * (as done previously) with the lazily populated {@link RequestMdc}.
+ * <p>
+ * Every operation mimics a request which issues a single debug log statement.
+ * The <code>level</code> parameter is the level of the benchmark logger. At
+ * <code>INFO</code> the statement is not logged and the lazy MDC is never
+ * populated. At <code>DEBUG</code> a logging event is created (without
+ * appenders) and both variants populate the MDC. Use the GC profiler (enabled
+ * by default) to compare the allocation rate per operation.
+ * </p>
+ * <p>
+ * The lazy MDC requires Logback as the active SLF4J backend and the
+ * application requires the context registry. Therefore this benchmark must
+ * run in-process inside a running platform (see the
+ * <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class RequestMdcBenchmark {
+
+	/**
+	 * A request returning fixed values for the information put into the MDC.
+	 */
+	static final class BenchmarkRequest extends HttpServletRequestWrapper {
+
+		BenchmarkRequest() {
+			super((HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+					throw new UnsupportedOperationException(method.getName());
+				}
+			}));
+		}
+
+		@Override
+		public String getHeader(final String name) {
+			if ("User-Agent".equals(name))
+				return "Mozilla/5.0 (X11; Linux x86_64) Gecko/20100101 Firefox/24.0";
+			return null;
+		}
+
+		@Override
+		public String getQueryString() {
+			return "item=42&quantity=1";
+		}
+
+		@Override
+		public String getRemoteHost() {
+			return "127.0.0.1";
+		}
+
+		@Override
+		public String getRequestURI() {
+			return "/shop/cart/add";
+		}
+
+		@Override
+		public StringBuffer getRequestURL() {
+			// like Jetty, a new buffer is created on every call
+			final StringBuffer url = new StringBuffer(64);
+			url.append("http://localhost:8080").append(getRequestURI());
+			return url;
+		}
+	}
+
+	private static final String MDC_KEY_CONTEXT_PATH = "gyrex.contextPath";
+	private static final String MDC_KEY_APPLICATION_ID = "gyrex.applicationId";
+	private static final String MDC_KEY_REQUEST_REMOTE_HOST = "req.remoteHost";
+	private static final String MDC_KEY_REQUEST_USER_AGENT_MDC_KEY = "req.userAgent";
+	private static final String MDC_KEY_REQUEST_REQUEST_URI = "req.requestURI";
+	private static final String MDC_KEY_REQUEST_REQUEST_URL = "req.requestURL";
+	private static final String MDC_KEY_REQUEST_QUERY_STRING = "req.queryString";
+	private static final String MDC_KEY_REQUEST_X_FORWARDED_FOR = "req.xForwardedFor";
+
+	/** the level of the benchmark logger */
+	@Param({ "INFO", "DEBUG" })
+	public String level;
+
+	private BundleContext context;
+	private ServiceReference<IRuntimeContextRegistry> registryReference;
+	private Logger logger;
+	private Application application;
+	private HttpServletRequest request;
+
+	private void clearEagerMdc() {
+		MDC.remove(MDC_KEY_APPLICATION_ID);
+		MDC.remove(MDC_KEY_CONTEXT_PATH);
+		MDC.remove(MDC_KEY_REQUEST_REMOTE_HOST);
+		MDC.remove(MDC_KEY_REQUEST_REQUEST_URI);
+		MDC.remove(MDC_KEY_REQUEST_QUERY_STRING);
+		MDC.remove(MDC_KEY_REQUEST_REQUEST_URL);
+		MDC.remove(MDC_KEY_REQUEST_USER_AGENT_MDC_KEY);
+		MDC.remove(MDC_KEY_REQUEST_X_FORWARDED_FOR);
+	}
+
+	@Benchmark
+	public void eager() {
+		setupEagerMdc();
+		try {
+			logger.debug("Processing request {}", request);
+		} finally {
+			clearEagerMdc();
+		}
+	}
+
+	@Benchmark
+	public void lazy() {
+		RequestMdc.setup(application, request);
+		try {
+			logger.debug("Processing request {}", request);
+		} finally {
+			RequestMdc.clear();
+		}
+	}
+
+	@Setup
+	public void setup() {
+		context = BenchmarksActivator.getContext();
+		if (null == context)
+			throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+
+		final org.slf4j.Logger slf4jLogger = LoggerFactory.getLogger(RequestMdcBenchmark.class);
+		if (!(slf4jLogger instanceof Logger))
+			throw new IllegalStateException("This benchmark requires Logback as the SLF4J backend.");
+		logger = (Logger) slf4jLogger;
+		logger.setLevel(Level.toLevel(level));
+		// create logging events but don't write them anywhere
+		logger.setAdditive(false);
+
+		registryReference = context.getServiceReference(IRuntimeContextRegistry.class);
+		if (null == registryReference)
+			throw new IllegalStateException("The context registry is not available.");
+		application = new Application("mdcBenchmark", context.getService(registryReference).get(Path.ROOT)) {
+			// empty
+		};
+		request = new BenchmarkRequest();
+	}
+
+	/**
+	 * Populates the MDC the way it was done before it was populated lazily.
+	 */
+	private void setupEagerMdc() {
+		MDC.put(MDC_KEY_APPLICATION_ID, application.getId());
+		MDC.put(MDC_KEY_CONTEXT_PATH, application.getContext().getContextPath().toString());
+		MDC.put(MDC_KEY_REQUEST_REMOTE_HOST, request.getRemoteHost());
+		MDC.put(MDC_KEY_REQUEST_REQUEST_URI, request.getRequestURI());
+		final StringBuffer requestURL = request.getRequestURL();
+		if (requestURL != null) {
+			MDC.put(MDC_KEY_REQUEST_REQUEST_URL, requestURL.toString());
+		}
+		MDC.put(MDC_KEY_REQUEST_QUERY_STRING, request.getQueryString());
+		MDC.put(MDC_KEY_REQUEST_USER_AGENT_MDC_KEY, request.getHeader("User-Agent"));
+		MDC.put(MDC_KEY_REQUEST_X_FORWARDED_FOR, request.getHeader("X-Forwarded-For"));
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (null != logger) {
+			logger.setLevel(null);
+			logger.setAdditive(true);
+			logger = null;
+		}
+		application = null;
+		if (null != registryReference) {
+			context.ungetService(registryReference);
+			registryReference = null;
+		}
+	}
+}
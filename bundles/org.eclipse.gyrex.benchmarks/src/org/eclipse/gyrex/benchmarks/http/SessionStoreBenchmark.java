@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.http;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.benchmarks.persistence.JdbcPoolBenchmark;
+import org.eclipse.gyrex.http.jetty.internal.sessions.FileSessionStore;
+import org.eclipse.gyrex.http.jetty.internal.sessions.ISessionStore;
+import org.eclipse.gyrex.http.jetty.internal.sessions.JdbcSessionStore;
+import org.eclipse.gyrex.http.jetty.internal.sessions.StoreBackedSessionManager;
+import org.eclipse.gyrex.persistence.jdbc.internal.SimpledPooledJdbcRepositoryImpl;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.session.AbstractSessionManager;
+import org.eclipse.jetty.server.session.HashSessionManager;
+import org.eclipse.jetty.server.session.SessionHandler;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks session-heavy requests against the application session
+ * managers.
+ * <p>
+ * Every operation mimics a request: the session is looked up, accessed, an
+ * attribute is read (or modified) and the request is completed. The
+ * <code>memory</code> store uses a plain {@link HashSessionManager} (the
+ * default), the <code>file</code> and <code>jdbc</code> stores use a
+ * {@link StoreBackedSessionManager} with the default write-behind settings.
+ * </p>
+ * <p>
+ * The <code>jdbc</code> store uses a pooled JDBC repository which registers
+ * its metrics with the OSGi service registry. Therefore this benchmark must
+ * run in-process inside a running platform (see the
+ * <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+@Threads(8)
+public class SessionStoreBenchmark {
+
+	private static final int SESSIONS = 1000;
+	private static final String DATABASE_NAME = "memory:sessionStoreBenchmark";
+
+	/**
+	 * Creates a minimal request (only attributes are supported) which is
+	 * sufficient for creating new sessions.
+	 */
+	private static HttpServletRequest newRequest() {
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			private final Map<Object, Object> attributes = new HashMap<Object, Object>();
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				switch (method.getName()) {
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					case "getAttribute":
+						return attributes.get(args[0]);
+					case "setAttribute":
+						attributes.put(args[0], args[1]);
+						return null;
+					case "removeAttribute":
+						attributes.remove(args[0]);
+						return null;
+				}
+				final Class<?> returnType = method.getReturnType();
+				if (returnType == boolean.class)
+					return Boolean.FALSE;
+				if (returnType == int.class)
+					return Integer.valueOf(0);
+				if (returnType == long.class)
+					return Long.valueOf(0);
+				return null;
+			}
+		});
+	}
+
+	@Param({ "memory", "file", "jdbc" })
+	public String store;
+
+	private AbstractSessionManager sessionManager;
+	private String[] sessionIds;
+	private File directory;
+	private SimpledPooledJdbcRepositoryImpl repository;
+
+	private HttpSession access() {
+		final HttpSession session = sessionManager.getSession(sessionIds[ThreadLocalRandom.current().nextInt(SESSIONS)]);
+		sessionManager.access(session, false);
+		return session;
+	}
+
+	@Benchmark
+	public Object readRequest() {
+		final HttpSession session = access();
+		try {
+			return session.getAttribute("cart");
+		} finally {
+			sessionManager.complete(session);
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		switch (store) {
+			case "memory":
+				sessionManager = new HashSessionManager();
+				break;
+			case "file":
+				directory = new File(System.getProperty("java.io.tmpdir"), "gyrex-sessionStoreBenchmark-" + System.nanoTime());
+				sessionManager = newStoreBackedSessionManager(new FileSessionStore(directory));
+				break;
+			case "jdbc":
+				if (null == BenchmarksActivator.getContext())
+					throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+				final EmbeddedConnectionPoolDataSource dataSource = new EmbeddedConnectionPoolDataSource();
+				dataSource.setDatabaseName(DATABASE_NAME);
+				dataSource.setCreateDatabase("create");
+				repository = new SimpledPooledJdbcRepositoryImpl("sessionStoreBenchmark", new JdbcPoolBenchmark.BenchmarkRepositoryProvider(), dataSource, 16);
+				sessionManager = newStoreBackedSessionManager(new JdbcSessionStore(repository, "sessionStoreBenchmark", JdbcSessionStore.DEFAULT_TABLE));
+				break;
+			default:
+				throw new IllegalArgumentException("unknown store: " + store);
+		}
+
+		final SessionHandler sessionHandler = new SessionHandler(sessionManager);
+		sessionHandler.setServer(new Server());
+		sessionManager.start();
+
+		sessionIds = new String[SESSIONS];
+		for (int i = 0; i < SESSIONS; i++) {
+			final HttpSession session = sessionManager.newHttpSession(newRequest());
+			session.setAttribute("user", "user" + i);
+			session.setAttribute("cart", new HashMap<String, Integer>());
+			sessionIds[i] = session.getId();
+			sessionManager.complete(session);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		try {
+			sessionManager.stop();
+		} finally {
+			sessionManager = null;
+			if (null != repository) {
+				repository.close();
+				repository = null;
+			}
+			if (null != directory) {
+				FileUtils.deleteQuietly(directory);
+				directory = null;
+			}
+		}
+	}
+
+	private StoreBackedSessionManager newStoreBackedSessionManager(final ISessionStore store) {
+		return new StoreBackedSessionManager(store, "sessionStoreBenchmark", 1000L, 100, 300000L);
+	}
+
+	@Benchmark
+	public Object writeRequest() {
+		final HttpSession session = access();
+		try {
+			final HashMap<String, Integer> cart = new HashMap<String, Integer>();
+			cart.put("item", ThreadLocalRandom.current().nextInt(100));
+			session.setAttribute("cart", cart);
+			return cart;
+		} finally {
+			sessionManager.complete(session);
+		}
+	}
+}
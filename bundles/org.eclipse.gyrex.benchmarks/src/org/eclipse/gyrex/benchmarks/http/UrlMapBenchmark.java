@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.http.jetty.internal.app.UrlMap;
+
+import org.eclipse.jetty.http.PathMap.MappedEntry;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.handler.DefaultHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the lookup of the application handler for an incoming request
+ * in the {@link UrlMap}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlMapBenchmark {
+
+	/** the number of mounted applications */
+	@Param({ "10", "100" })
+	public int applications;
+
+	private UrlMap urlMap;
+
+	@Benchmark
+	public MappedEntry<Handler> matchDomain() {
+		return urlMap.getMatch("https", "shop3.example.com", 443, "/app3/checkout/cart");
+	}
+
+	@Benchmark
+	public MappedEntry<Handler> matchMiss() {
+		return urlMap.getMatch("http", "unknown.example.org", 8080, "/not/mounted");
+	}
+
+	@Benchmark
+	public MappedEntry<Handler> matchPath() {
+		return urlMap.getMatch("http", "localhost", 8080, "/app7/some/deep/resource.html");
+	}
+
+	@Setup
+	public void setup() {
+		urlMap = new UrlMap();
+		final Handler handler = new DefaultHandler();
+		for (int i = 0; i < applications; i++) {
+			urlMap.put("http://localhost/app" + i, handler);
+			urlMap.put("https://shop" + i + ".example.com/app" + i, handler);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.internal;
+
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+public class BenchmarksActivator implements BundleActivator {
+
+	private static volatile BundleContext context;
+
+	/**
+	 * Returns the bundle context.
+	 *
+	 * @return the bundle context (<code>null</code> when not running inside
+	 *         an OSGi framework)
+	 */
+	public static BundleContext getContext() {
+		return context;
+	}
+
+	@Override
+	public void start(final BundleContext bundleContext) throws Exception {
+		context = bundleContext;
+	}
+
+	@Override
+	public void stop(final BundleContext bundleContext) throws Exception {
+		context = null;
+	}
+
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.internal;
+
+import org.eclipse.gyrex.common.console.BaseCommandProvider;
+
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+
+/**
+ * Commands for running benchmarks inside a running platform
+ */
+public class BenchmarksConsoleCommands extends BaseCommandProvider {
+
+	/**
+	 * Creates a new instance.
+	 */
+	public BenchmarksConsoleCommands() {
+		registerCommand("run", RunBenchmarksCmd.class);
+	}
+
+	public void _benchmarks(final CommandInterpreter ci) throws Exception {
+		execute(ci);
+	}
+
+	@Override
+	protected String getCommandName() {
+		return "benchmarks";
+	}
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.internal;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.eclipse.gyrex.benchmarks.BenchmarkMain;
+import org.eclipse.gyrex.common.console.Command;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+
+/**
+ * Runs benchmarks within the running platform
+ */
+public class RunBenchmarksCmd extends Command {
+
+	@Argument(index = 0, usage = "a regular expression of the benchmarks to run (defaults to the in-platform benchmarks)", required = false, metaVar = "REGEX")
+	String include;
+
+	@Option(name = "-o", aliases = "--output", usage = "the file to write the JSON results to")
+	String resultFile;
+
+	/**
+	 * Creates a new instance.
+	 */
+	public RunBenchmarksCmd() {
+		super("<regex> - runs benchmarks in-process (blocks the console until finished)");
+	}
+
+	@Override
+	protected void doExecute() throws Exception {
+		final File file = new File(null != resultFile ? resultFile : BenchmarkMain.DEFAULT_RESULT_FILE);
+
+		// JMH discovers benchmarks using the context class loader
+		final Thread thread = Thread.currentThread();
+		final ClassLoader contextClassLoader = thread.getContextClassLoader();
+		final Collection<RunResult> results;
+		thread.setContextClassLoader(RunBenchmarksCmd.class.getClassLoader());
+		try {
+			results = BenchmarkMain.run(null != include ? include : BenchmarkMain.IN_FRAMEWORK_BENCHMARKS, null, file, true);
+		} finally {
+			thread.setContextClassLoader(contextClassLoader);
+		}
+
+		for (final RunResult result : results) {
+			final Result<?> primaryResult = result.getPrimaryResult();
+			printf("%s %.3f %s", result.getParams().getBenchmark(), primaryResult.getScore(), primaryResult.getScoreUnit());
+		}
+		printf("Results written to %s", file.getAbsolutePath());
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.monitoring;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.Counter;
+import org.eclipse.gyrex.monitoring.metrics.TimerMetric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how the throughput of metric updates scales with the number of
+ * updating threads.
+ * <p>
+ * The same update is run with 1 to 32 threads against a single shared
+ * {@link Counter} and a single shared {@link TimerMetric}. Because updates
+ * never block each other, the total throughput (operations per microsecond)
+ * is expected to grow linearly with the number of threads up to the number
+ * of available cores and stay flat beyond.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricScalingBenchmark {
+
+	private static long nextAmount() {
+		return 100 + ThreadLocalRandom.current().nextInt(1000);
+	}
+
+	private Counter counter;
+	private TimerMetric timer;
+
+	@Benchmark
+	@Threads(1)
+	public void counter01() {
+		counter.increment(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(2)
+	public void counter02() {
+		counter.increment(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void counter04() {
+		counter.increment(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void counter08() {
+		counter.increment(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void counter16() {
+		counter.increment(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(32)
+	public void counter32() {
+		counter.increment(nextAmount());
+	}
+
+	@Setup
+	public void setup() {
+		counter = new Counter();
+		timer = new TimerMetric("benchmark.scaling", TimeUnit.MICROSECONDS);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void timer01() {
+		timer.processFinished(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(2)
+	public void timer02() {
+		timer.processFinished(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void timer04() {
+		timer.processFinished(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void timer08() {
+		timer.processFinished(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(16)
+	public void timer16() {
+		timer.processFinished(nextAmount());
+	}
+
+	@Benchmark
+	@Threads(32)
+	public void timer32() {
+		timer.processFinished(nextAmount());
+	}
+}
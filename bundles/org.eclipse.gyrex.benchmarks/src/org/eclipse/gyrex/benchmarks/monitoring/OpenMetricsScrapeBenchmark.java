@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.monitoring;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.internal.ExposedMetricSet;
+import org.eclipse.gyrex.monitoring.internal.OpenMetricsWriter;
+import org.eclipse.gyrex.monitoring.metrics.CapacityMetric;
+import org.eclipse.gyrex.monitoring.metrics.ErrorMetric;
+import org.eclipse.gyrex.monitoring.metrics.MetricSet;
+import org.eclipse.gyrex.monitoring.metrics.StatusMetric;
+import org.eclipse.gyrex.monitoring.metrics.ThroughputMetric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a full scrape of ~10k series in the OpenMetrics text format.
+ * <p>
+ * The metric sets look like the application handler metrics, i.e. they use
+ * bare metric ids which are shared across all metric sets. The output is
+ * discarded, so the benchmark measures reading the metrics, grouping the
+ * samples by family and formatting them.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenMetricsScrapeBenchmark {
+
+	/**
+	 * A writer which only counts the written characters.
+	 */
+	static final class CountingWriter extends Writer {
+
+		long count;
+
+		@Override
+		public void close() {
+			// empty
+		}
+
+		@Override
+		public void flush() {
+			// empty
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) {
+			count += len;
+		}
+	}
+
+	static final class ApplicationMetrics extends MetricSet {
+		ApplicationMetrics(final String applicationId) {
+			super("org.eclipse.gyrex.http.jetty.handler.application." + applicationId + ".metric", "Benchmark metrics", new StatusMetric("status", "created", "not initialized"), new ThroughputMetric("requests", TimeUnit.NANOSECONDS), new ErrorMetric("errors", 5), new CapacityMetric("admission", 0));
+			for (int i = 0; i < 100; i++) {
+				getMetric(1, ThroughputMetric.class).requestStarted();
+				getMetric(1, ThroughputMetric.class).requestFinished(1024, TimeUnit.MILLISECONDS.toNanos(i));
+			}
+			getMetric(3, CapacityMetric.class).channelStarted(0);
+		}
+	}
+
+	private static final int SERIES = 10000;
+
+	private static int countSeries(final ExposedMetricSet metricSet) throws IOException {
+		final StringWriter out = new StringWriter();
+		new OpenMetricsWriter(out, true, null, null).write(Collections.singletonList(metricSet));
+		int series = 0;
+		for (final String line : out.toString().split("\n")) {
+			if (!line.startsWith("#")) {
+				series++;
+			}
+		}
+		return series;
+	}
+
+	private List<ExposedMetricSet> metricSets;
+
+	@Benchmark
+	public long scrape() throws IOException {
+		final CountingWriter counter = new CountingWriter();
+		final BufferedWriter writer = new BufferedWriter(counter, 8192);
+		new OpenMetricsWriter(writer, true, null, null).write(metricSets);
+		return counter.count;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		final int seriesPerSet = countSeries(new ExposedMetricSet(new ApplicationMetrics("probe"), null));
+		final int sets = (SERIES + seriesPerSet - 1) / seriesPerSet;
+		metricSets = new ArrayList<ExposedMetricSet>(sets);
+		for (int i = 0; i < sets; i++) {
+			metricSets.add(new ExposedMetricSet(new ApplicationMetrics("app" + i), Collections.singletonMap("service_id", String.valueOf(i))));
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.ThroughputMetric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks recording requests in a {@link ThroughputMetric}, which happens
+ * for every HTTP request and every job execution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThroughputMetricBenchmark {
+
+	private ThroughputMetric metric;
+
+	@Benchmark
+	public Map<String, Object> readAttributes() {
+		final Map<String, Object> values = new HashMap<String, Object>();
+		metric.collectAttributeValues(values);
+		return values;
+	}
+
+	@Benchmark
+	public void request() {
+		metric.requestStarted();
+		metric.requestFinished(512, 3);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void requestContended() {
+		metric.requestStarted();
+		metric.requestFinished(512, 3);
+	}
+
+	@Benchmark
+	public void requestFailed() {
+		metric.requestStarted();
+		metric.requestFailed();
+	}
+
+	@Setup
+	public void setup() {
+		metric = new ThroughputMetric("benchmark.throughput", TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 1000; i++) {
+			request();
+		}
+	}
+}
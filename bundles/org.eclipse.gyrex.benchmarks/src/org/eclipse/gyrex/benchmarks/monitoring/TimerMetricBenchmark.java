@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.monitoring;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.Histogram;
+import org.eclipse.gyrex.monitoring.metrics.TimerMetric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks recording durations into a {@link TimerMetric} (including its
+ * percentile histograms) and into a plain {@link Histogram} under heavy
+ * contention.
+ * <p>
+ * Durations are recorded in nanoseconds, i.e. the histograms cover the widest
+ * range supported by the metrics. The per record cost is expected to stay in
+ * the range of tens of nanoseconds with 32 threads recording concurrently.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+public class TimerMetricBenchmark {
+
+	/** durations between 100 microseconds and ~100 milliseconds */
+	private static long nextDuration() {
+		return TimeUnit.MICROSECONDS.toNanos(100) << ThreadLocalRandom.current().nextInt(10);
+	}
+
+	private TimerMetric metric;
+	private Histogram histogram;
+
+	@Benchmark
+	public void recordHistogram() {
+		histogram.record(nextDuration());
+	}
+
+	@Benchmark
+	public void recordTimer() {
+		metric.processFinished(nextDuration());
+	}
+
+	@Setup
+	public void setup() {
+		metric = new TimerMetric("benchmark.timer", TimeUnit.NANOSECONDS);
+		histogram = new Histogram(Histogram.DEFAULT_PRECISION, TimeUnit.HOURS.toNanos(1));
+	}
+}
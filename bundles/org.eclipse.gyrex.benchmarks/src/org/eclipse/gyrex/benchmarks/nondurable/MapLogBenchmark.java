@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.nondurable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapPersistence;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapPersistence.FsyncPolicy;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.EvictionPolicy;
+
+import org.apache.commons.io.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the write path overhead of map repository persistence. The
+ * <code>none</code> variant writes to the store only; the other variants log
+ * every write using the respective fsync policy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class MapLogBenchmark {
+
+	private static final int KEYS = 100000;
+
+	@Param({ "none", "NEVER", "INTERVAL", "ALWAYS" })
+	public String fsyncPolicy;
+
+	private final byte[] value = new byte[256];
+	private File directory;
+	private MapStore store;
+	private MapPersistence persistence;
+
+	@Benchmark
+	public boolean put() {
+		final String key = "key".concat(String.valueOf(ThreadLocalRandom.current().nextInt(KEYS)));
+		if (null == persistence)
+			return store.put(key, value, 0);
+		return persistence.put(key, value, 0);
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		ThreadLocalRandom.current().nextBytes(value);
+		store = new MapStore(256 * 1024 * 1024, 1024 * 1024, false, 0, EvictionPolicy.LRU, new CacheMetric("benchmark.map.cache"));
+		if ("none".equals(fsyncPolicy))
+			return;
+
+		directory = File.createTempFile("gyrex-benchmark-map", "");
+		if (!directory.delete() || !directory.mkdirs())
+			throw new IOException("Unable to create directory " + directory);
+		persistence = new MapPersistence(directory, store, FsyncPolicy.valueOf(fsyncPolicy), TimeUnit.MINUTES.toMillis(5), 64 * 1024 * 1024, "Map Log Benchmark");
+		persistence.open();
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (null != persistence) {
+			persistence.close();
+			FileUtils.deleteQuietly(directory);
+		}
+		store.clear();
+	}
+}
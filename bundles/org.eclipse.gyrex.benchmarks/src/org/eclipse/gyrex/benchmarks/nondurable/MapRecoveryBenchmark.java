@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.nondurable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapPersistence;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapPersistence.FsyncPolicy;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.EvictionPolicy;
+
+import org.apache.commons.io.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks recovering a persistent map repository on open, either from a
+ * snapshot (after a clean shutdown) or by replaying the log (after a crash).
+ * <p>
+ * Recovering 10M entries requires a large heap (about 4GB).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class MapRecoveryBenchmark {
+
+	private static final long MAX_MEMORY = 2048L * 1024 * 1024;
+	private static final int PAGE_SIZE = 1024 * 1024;
+
+	@Param({ "1000000", "10000000" })
+	public int entries;
+
+	@Param({ "snapshot", "log" })
+	public String source;
+
+	private File directory;
+	private MapStore store;
+	private MapPersistence persistence;
+
+	private MapPersistence newPersistence(final MapStore store) {
+		return new MapPersistence(directory, store, FsyncPolicy.NEVER, TimeUnit.DAYS.toMillis(1), Long.MAX_VALUE, "Map Recovery Benchmark");
+	}
+
+	private MapStore newStore() {
+		return new MapStore(MAX_MEMORY, PAGE_SIZE, false, 0, EvictionPolicy.LRU, new CacheMetric("benchmark.map.cache"));
+	}
+
+	@Setup(Level.Invocation)
+	public void prepare() {
+		store = newStore();
+		persistence = newPersistence(store);
+	}
+
+	@Benchmark
+	public int recover() throws IOException {
+		return persistence.open();
+	}
+
+	@TearDown(Level.Invocation)
+	public void reset() {
+		persistence.close();
+		store.clear();
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		directory = File.createTempFile("gyrex-benchmark-map", "");
+		if (!directory.delete() || !directory.mkdirs())
+			throw new IOException("Unable to create directory " + directory);
+
+		final MapStore store = newStore();
+		final MapPersistence persistence = newPersistence(store);
+		persistence.open();
+		final byte[] value = new byte[32];
+		for (int i = 0; i < entries; i++) {
+			persistence.put("key".concat(String.valueOf(i)), value, 0);
+		}
+		if ("log".equals(source)) {
+			// simulate a crash (i.e. no snapshot)
+			persistence.flush();
+		} else {
+			persistence.close();
+		}
+		store.clear();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+}
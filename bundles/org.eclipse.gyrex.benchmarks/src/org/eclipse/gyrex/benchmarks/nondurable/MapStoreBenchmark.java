@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.nondurable;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.EvictionPolicy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the key/value engine behind the map repository under an eviction
+ * heavy load, i.e. the key space is a lot larger than what fits into memory.
+ * Values are between 64 and 2048 bytes so that several slab classes are in
+ * use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class MapStoreBenchmark {
+
+	private static final int KEYS = 200000;
+	private static final long MAX_MEMORY = 16 * 1024 * 1024;
+	private static final int PAGE_SIZE = 1024 * 1024;
+
+	/** percentage of operations which are reads */
+	private static final int READ_PERCENTAGE = 80;
+
+	@Param({ "LRU", "LFU" })
+	public String evictionPolicy;
+
+	@Param({ "heap", "offHeap" })
+	public String memory;
+
+	private final byte[][] values = new byte[6][];
+	private MapStore store;
+
+	@Benchmark
+	public Object getOrPut() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		// skewed key distribution so that there is a hot set worth keeping
+		final int key = random.nextBoolean() ? random.nextInt(KEYS / 20) : random.nextInt(KEYS);
+		final String k = "key".concat(String.valueOf(key));
+		if (random.nextInt(100) < READ_PERCENTAGE) {
+			final byte[] value = store.get(k);
+			if (null != value)
+				return value;
+		}
+		return store.put(k, values[key % values.length], 0);
+	}
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new byte[64 << i];
+			ThreadLocalRandom.current().nextBytes(values[i]);
+		}
+		store = new MapStore(MAX_MEMORY, PAGE_SIZE, "offHeap".equals(memory), 0, EvictionPolicy.valueOf(evictionPolicy), new CacheMetric("benchmark.map.cache"));
+		for (int i = 0; i < KEYS; i++) {
+			store.put("key".concat(String.valueOf(i)), values[i % values.length], 0);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		store.clear();
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.persistence;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.context.registry.IRuntimeContextRegistry;
+import org.eclipse.gyrex.persistence.context.preferences.IContextPreferencesRepositoryBatch;
+import org.eclipse.gyrex.persistence.context.preferences.internal.ContextPreferencesRepositoryImpl;
+import org.eclipse.gyrex.persistence.context.preferences.internal.ContextPreferencesRepositoryType;
+
+import org.eclipse.core.runtime.Path;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.prefs.BackingStoreException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks reading small entries and listing keys of a context preferences
+ * repository which also contains large entries.
+ * <p>
+ * The <code>inlineThreshold</code> parameter controls whether the large
+ * entries are stored in chunks (<code>4096</code>, the default) or directly
+ * with their keys (<code>2147483647</code>).
+ * </p>
+ * <p>
+ * The context registry depends on the OSGi service registry. Therefore this
+ * benchmark must run in-process inside a running platform (see the
+ * <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class ContextPreferencesReadBenchmark {
+
+	private static final int SMALL_ENTRIES = 100;
+	/** kept small enough to fit into a single ZooKeeper node when inlined */
+	private static final int LARGE_ENTRIES = 4;
+	private static final int LARGE_SIZE = 128 * 1024;
+
+	@Param({ "4096", "2147483647" })
+	public int inlineThreshold;
+
+	private final byte[] smallData = new byte[128];
+	private final byte[] largeData = new byte[LARGE_SIZE];
+	private BundleContext context;
+	private ServiceReference<IRuntimeContextRegistry> registryReference;
+	private ContextPreferencesRepositoryImpl repository;
+	private int next;
+
+	@Benchmark
+	public byte[] get() {
+		next = (next + 1) % SMALL_ENTRIES;
+		return repository.get("small" + next);
+	}
+
+	@Benchmark
+	public Collection<String> getKeys() throws BackingStoreException {
+		return repository.getKeys();
+	}
+
+	@Setup
+	public void setup() throws BackingStoreException {
+		context = BenchmarksActivator.getContext();
+		if (null == context)
+			throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+
+		registryReference = context.getServiceReference(IRuntimeContextRegistry.class);
+		if (null == registryReference)
+			throw new IllegalStateException("The context registry is not available.");
+
+		final ContextPreferencesRepositoryType repositoryType = new ContextPreferencesRepositoryType();
+		repositoryType.setContextRegistry(context.getService(registryReference));
+		repository = new ContextPreferencesRepositoryImpl("contextPreferencesReadBenchmark", repositoryType, repositoryType.getContextRegistry().get(Path.ROOT));
+		repository.setInlineThreshold(inlineThreshold);
+
+		final IContextPreferencesRepositoryBatch batch = repository.createBatch();
+		for (int i = 0; i < SMALL_ENTRIES; i++) {
+			batch.store("small" + i, smallData);
+		}
+		for (int i = 0; i < LARGE_ENTRIES; i++) {
+			batch.store("large" + i, largeData);
+		}
+		batch.commit();
+	}
+
+	@TearDown
+	public void tearDown() throws BackingStoreException {
+		if (null != repository) {
+			final IContextPreferencesRepositoryBatch batch = repository.createBatch();
+			for (int i = 0; i < SMALL_ENTRIES; i++) {
+				batch.remove("small" + i);
+			}
+			for (int i = 0; i < LARGE_ENTRIES; i++) {
+				batch.remove("large" + i);
+			}
+			batch.commit();
+			repository.close();
+			repository = null;
+		}
+		if (null != registryReference) {
+			context.ungetService(registryReference);
+			registryReference = null;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.persistence;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.context.registry.IRuntimeContextRegistry;
+import org.eclipse.gyrex.persistence.context.preferences.IContextPreferencesRepositoryBatch;
+import org.eclipse.gyrex.persistence.context.preferences.internal.ContextPreferencesRepositoryImpl;
+import org.eclipse.gyrex.persistence.context.preferences.internal.ContextPreferencesRepositoryType;
+
+import org.eclipse.core.runtime.Path;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.prefs.BackingStoreException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks storing many entries in a context preferences repository, which
+ * writes to the cloud preferences of the root context.
+ * <ul>
+ * <li><code>flush</code> flushes every entry (the default)</li>
+ * <li><code>batch</code> stores all entries in one batch</li>
+ * <li><code>writeBehind</code> enables write-behind and flushes once at the
+ * end (so that all entries are written when the operation returns)</li>
+ * </ul>
+ * <p>
+ * The context registry depends on the OSGi service registry. Therefore this
+ * benchmark must run in-process inside a running platform (see the
+ * <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class ContextPreferencesStoreBenchmark {
+
+	private static final int ENTRIES = 1000;
+
+	@Param({ "flush", "batch", "writeBehind" })
+	public String mode;
+
+	private final byte[] data = new byte[128];
+	private final String[] keys = new String[ENTRIES];
+	private BundleContext context;
+	private ServiceReference<IRuntimeContextRegistry> registryReference;
+	private ContextPreferencesRepositoryImpl repository;
+
+	@Setup
+	public void setup() {
+		context = BenchmarksActivator.getContext();
+		if (null == context)
+			throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+
+		registryReference = context.getServiceReference(IRuntimeContextRegistry.class);
+		if (null == registryReference)
+			throw new IllegalStateException("The context registry is not available.");
+
+		final ContextPreferencesRepositoryType repositoryType = new ContextPreferencesRepositoryType();
+		repositoryType.setContextRegistry(context.getService(registryReference));
+		repository = new ContextPreferencesRepositoryImpl("contextPreferencesBenchmark", repositoryType, repositoryType.getContextRegistry().get(Path.ROOT));
+		if ("writeBehind".equals(mode)) {
+			repository.setWriteBehind(100, Integer.MAX_VALUE);
+		}
+		for (int i = 0; i < ENTRIES; i++) {
+			keys[i] = "entry" + i;
+		}
+	}
+
+	@Benchmark
+	public void store() throws BackingStoreException {
+		if ("batch".equals(mode)) {
+			final IContextPreferencesRepositoryBatch batch = repository.createBatch();
+			for (final String key : keys) {
+				batch.store(key, data);
+			}
+			batch.commit();
+			return;
+		}
+
+		for (final String key : keys) {
+			repository.store(key, data);
+		}
+		if ("writeBehind".equals(mode)) {
+			repository.flush();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws BackingStoreException {
+		if (null != repository) {
+			final IContextPreferencesRepositoryBatch batch = repository.createBatch();
+			for (final String key : keys) {
+				batch.remove(key);
+			}
+			batch.commit();
+			repository.close();
+			repository = null;
+		}
+		if (null != registryReference) {
+			context.ungetService(registryReference);
+			registryReference = null;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.persistence.jdbc.internal.SimpledPooledJdbcRepositoryImpl;
+
+import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks short insert and select transactions against an embedded Derby
+ * database.
+ * <p>
+ * The <code>pooled</code> mode borrows connections from a repository pool
+ * configured like the Derby repository provider does. The
+ * <code>unpooled</code> mode opens a new physical connection per transaction
+ * (which is what a pool capacity of <code>0</code> used to do).
+ * </p>
+ * <p>
+ * Repositories register their metrics with the OSGi service registry.
+ * Therefore this benchmark must run in-process inside a running platform (see
+ * the <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+@Threads(8)
+public class DerbyInsertSelectBenchmark {
+
+	private static final int ROWS = 10000;
+
+	@Param({ "pooled", "unpooled" })
+	public String mode;
+
+	private final AtomicInteger nextId = new AtomicInteger(ROWS);
+	private EmbeddedConnectionPoolDataSource dataSource;
+	private SimpledPooledJdbcRepositoryImpl repository;
+
+	private Connection getConnection() throws SQLException {
+		if (null != repository)
+			return repository.getConnection();
+		return dataSource.getConnection();
+	}
+
+	@Benchmark
+	public int insert() throws SQLException {
+		final int id = nextId.incrementAndGet();
+		try (Connection connection = getConnection(); PreparedStatement statement = connection.prepareStatement("INSERT INTO bench (id, val) VALUES (?, ?)")) {
+			statement.setInt(1, id);
+			statement.setString(2, "value" + id);
+			return statement.executeUpdate();
+		}
+	}
+
+	@Benchmark
+	public String select() throws SQLException {
+		try (Connection connection = getConnection(); PreparedStatement statement = connection.prepareStatement("SELECT val FROM bench WHERE id = ?")) {
+			statement.setInt(1, ThreadLocalRandom.current().nextInt(ROWS));
+			try (ResultSet resultSet = statement.executeQuery()) {
+				return resultSet.next() ? resultSet.getString(1) : null;
+			}
+		}
+	}
+
+	@Setup
+	public void setup() throws SQLException {
+		if (null == BenchmarksActivator.getContext())
+			throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+
+		dataSource = new EmbeddedConnectionPoolDataSource();
+		dataSource.setDatabaseName("memory:derbyInsertSelectBenchmark");
+		dataSource.setCreateDatabase("create");
+		if ("pooled".equals(mode)) {
+			repository = new SimpledPooledJdbcRepositoryImpl("derbyInsertSelectBenchmark", new JdbcPoolBenchmark.BenchmarkRepositoryProvider(), dataSource, 16);
+			repository.setMinimumIdle(1);
+		}
+
+		try (Connection connection = getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE bench (id INT PRIMARY KEY, val VARCHAR(64))");
+			try (PreparedStatement insert = connection.prepareStatement("INSERT INTO bench (id, val) VALUES (?, ?)")) {
+				for (int i = 0; i < ROWS; i++) {
+					insert.setInt(1, i);
+					insert.setString(2, "value" + i);
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		try (Connection connection = getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("DROP TABLE bench");
+		} finally {
+			if (null != repository) {
+				repository.close();
+				repository = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.persistence.eclipselink.internal.JdbcRepositoryDataSource;
+import org.eclipse.gyrex.persistence.jdbc.internal.SimpledPooledJdbcRepositoryImpl;
+
+import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the DataSource used by EclipseLink repositories against an
+ * embedded Derby database.
+ * <p>
+ * Every operation mimics an EclipseLink transaction: a connection is acquired
+ * from the non-JTA DataSource, a query is executed and committed, and the
+ * connection is closed. The <code>driver</code> mode uses the plain
+ * DataSource of the driver (repository preference
+ * <code>connectionPool=none</code>), the <code>pooled</code> mode uses the
+ * Gyrex managed pool (the default).
+ * </p>
+ * <p>
+ * Repositories register their metrics with the OSGi service registry.
+ * Therefore this benchmark must run in-process inside a running platform (see
+ * the <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+@Threads(8)
+public class EclipseLinkDataSourceBenchmark {
+
+	private static final String DATABASE_NAME = "memory:eclipseLinkDataSourceBenchmark";
+	private static final int ROWS = 10000;
+
+	@Param({ "pooled", "driver" })
+	public String mode;
+
+	private DataSource dataSource;
+
+	@Setup
+	public void setup() throws SQLException {
+		if (null == BenchmarksActivator.getContext())
+			throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+
+		if ("pooled".equals(mode)) {
+			final EmbeddedConnectionPoolDataSource connectionPoolDataSource = new EmbeddedConnectionPoolDataSource();
+			connectionPoolDataSource.setDatabaseName(DATABASE_NAME);
+			connectionPoolDataSource.setCreateDatabase("create");
+			final SimpledPooledJdbcRepositoryImpl pool = new SimpledPooledJdbcRepositoryImpl("eclipseLinkDataSourceBenchmark", new JdbcPoolBenchmark.BenchmarkRepositoryProvider(), connectionPoolDataSource, 16);
+			pool.setMinimumIdle(1);
+			pool.setStatementCacheSize(32);
+			dataSource = new JdbcRepositoryDataSource(pool);
+		} else {
+			final EmbeddedDataSource embeddedDataSource = new EmbeddedDataSource();
+			embeddedDataSource.setDatabaseName(DATABASE_NAME);
+			embeddedDataSource.setCreateDatabase("create");
+			dataSource = embeddedDataSource;
+		}
+
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE bench (id INT PRIMARY KEY, val VARCHAR(64))");
+			try (PreparedStatement insert = connection.prepareStatement("INSERT INTO bench (id, val) VALUES (?, ?)")) {
+				for (int i = 0; i < ROWS; i++) {
+					insert.setInt(1, i);
+					insert.setString(2, "value" + i);
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("DROP TABLE bench");
+		} finally {
+			if (dataSource instanceof JdbcRepositoryDataSource) {
+				((JdbcRepositoryDataSource) dataSource).close();
+			}
+			dataSource = null;
+		}
+	}
+
+	@Benchmark
+	public String transaction() throws SQLException {
+		try (Connection connection = dataSource.getConnection()) {
+			connection.setAutoCommit(false);
+			final String value;
+			try (PreparedStatement statement = connection.prepareStatement("SELECT val FROM bench WHERE id = ?")) {
+				statement.setInt(1, ThreadLocalRandom.current().nextInt(ROWS));
+				try (ResultSet resultSet = statement.executeQuery()) {
+					value = resultSet.next() ? resultSet.getString(1) : null;
+				}
+			}
+			connection.commit();
+			return value;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.persistence.jdbc.internal.SimpledPooledJdbcRepositoryImpl;
+import org.eclipse.gyrex.persistence.jdbc.storage.JdbcRepository;
+import org.eclipse.gyrex.persistence.storage.Repository;
+import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
+import org.eclipse.gyrex.persistence.storage.settings.IRepositoryPreferences;
+
+import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks borrowing and returning connections from the JDBC repository
+ * connection pool under contention using an in-memory Derby database.
+ * <p>
+ * Repositories register their metrics with the OSGi service registry.
+ * Therefore this benchmark must run in-process inside a running platform (see
+ * the <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+public class JdbcPoolBenchmark {
+
+	public static final class BenchmarkRepositoryProvider extends RepositoryProvider {
+		public BenchmarkRepositoryProvider() {
+			super("org.eclipse.gyrex.benchmarks.persistence.jdbc", JdbcRepository.class);
+		}
+
+		@Override
+		public Repository createRepositoryInstance(final String repositoryId, final IRepositoryPreferences repositoryPreferences) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** the pool capacity (0 for unbounded) */
+	@Param({ "8", "0" })
+	public int poolCapacity;
+
+	private SimpledPooledJdbcRepositoryImpl repository;
+
+	@Benchmark
+	@Threads(64)
+	public boolean borrow() throws SQLException {
+		try (Connection connection = repository.getConnection()) {
+			return connection.getAutoCommit();
+		}
+	}
+
+	@Setup
+	public void setup() throws SQLException {
+		if (null == BenchmarksActivator.getContext())
+			throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+
+		final EmbeddedConnectionPoolDataSource dataSource = new EmbeddedConnectionPoolDataSource();
+		dataSource.setDatabaseName("memory:jdbcPoolBenchmark");
+		dataSource.setCreateDatabase("create");
+		repository = new SimpledPooledJdbcRepositoryImpl("jdbcPoolBenchmark", new BenchmarkRepositoryProvider(), dataSource, poolCapacity);
+
+		// borrow once
+		borrow();
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (null != repository) {
+			repository.close();
+			repository = null;
+		}
+	}
+}
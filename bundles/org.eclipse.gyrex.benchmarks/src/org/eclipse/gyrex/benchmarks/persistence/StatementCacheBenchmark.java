@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.benchmarks.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.benchmarks.internal.BenchmarksActivator;
+import org.eclipse.gyrex.persistence.jdbc.internal.SimpledPooledJdbcRepositoryImpl;
+
+import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks a parameterized query workload against an embedded Derby
+ * database with and without the prepared statement cache of the JDBC
+ * repository pool.
+ * <p>
+ * Each operation borrows a connection, prepares one of a few distinct queries,
+ * executes it and returns the connection.
+ * </p>
+ * <p>
+ * Repositories register their metrics with the OSGi service registry.
+ * Therefore this benchmark must run in-process inside a running platform (see
+ * the <code>benchmarks run</code> console command).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(0)
+@Threads(8)
+public class StatementCacheBenchmark {
+
+	private static final int ROWS = 10000;
+
+	private static final String[] QUERIES = { //
+	"SELECT val FROM stmtbench WHERE id = ?", //
+			"SELECT id FROM stmtbench WHERE id = ? AND val IS NOT NULL", //
+			"SELECT COUNT(*) FROM stmtbench WHERE id BETWEEN ? AND ?", //
+			"SELECT val FROM stmtbench WHERE id = ? ORDER BY val" };
+	private static final int[] PARAMETERS = { 1, 1, 2, 1 };
+
+	/** the number of cached statements per connection (0 disables caching) */
+	@Param({ "0", "32" })
+	public int statementCacheSize;
+
+	private SimpledPooledJdbcRepositoryImpl repository;
+
+	@Benchmark
+	public int query() throws SQLException {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int query = random.nextInt(QUERIES.length);
+		final int id = random.nextInt(ROWS);
+		try (Connection connection = repository.getConnection(); PreparedStatement statement = connection.prepareStatement(QUERIES[query])) {
+			for (int i = 1; i <= PARAMETERS[query]; i++) {
+				statement.setInt(i, id + i - 1);
+			}
+			try (ResultSet resultSet = statement.executeQuery()) {
+				return resultSet.next() ? 1 : 0;
+			}
+		}
+	}
+
+	@Setup
+	public void setup() throws SQLException {
+		if (null == BenchmarksActivator.getContext())
+			throw new IllegalStateException("This benchmark must be run inside a running platform using the 'benchmarks run' console command.");
+
+		final EmbeddedConnectionPoolDataSource dataSource = new EmbeddedConnectionPoolDataSource();
+		dataSource.setDatabaseName("memory:statementCacheBenchmark");
+		dataSource.setCreateDatabase("create");
+		repository = new SimpledPooledJdbcRepositoryImpl("statementCacheBenchmark", new JdbcPoolBenchmark.BenchmarkRepositoryProvider(), dataSource, 16);
+		repository.setStatementCacheSize(statementCacheSize);
+
+		try (Connection connection = repository.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE stmtbench (id INT PRIMARY KEY, val VARCHAR(64))");
+			try (PreparedStatement insert = connection.prepareStatement("INSERT INTO stmtbench (id, val) VALUES (?, ?)")) {
+				for (int i = 0; i < ROWS; i++) {
+					insert.setInt(1, i);
+					insert.setString(2, "value" + i);
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		try (Connection connection = repository.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("DROP TABLE stmtbench");
+		} finally {
+			repository.close();
+			repository = null;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.cloud.internal.preferences;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The storage format of preference node properties in ZooKeeper.
+ * <p>
+ * Properties are stored in {@link Properties#store(java.io.OutputStream, String)
+ * properties file format} with sorted keys and a format version.
+ * </p>
+ */
+public final class PreferencesFormat {
+
+	private static final class SortedProperties extends Properties {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Enumeration<Object> keys() {
+			return Collections.enumeration(keySet());
+		}
+
+		@Override
+		public Set<Object> keySet() {
+			return new TreeSet<Object>(super.keySet());
+		}
+	}
+
+	static final String VERSION_KEY = "gyrex.preferences.version"; //$NON-NLS-1$
+	static final String VERSION_VALUE = "1"; //$NON-NLS-1$
+
+	/**
+	 * Reads properties from the specified bytes.
+	 *
+	 * @param bytes
+	 *            the bytes (as written by {@link #toBytes(Properties)})
+	 * @return the properties (without the format version) or <code>null</code>
+	 *         if the bytes use an incompatible format version
+	 * @throws IOException
+	 *             if the bytes cannot be read
+	 */
+	public static Properties fromBytes(final byte[] bytes) throws IOException {
+		final Properties properties = new Properties();
+		properties.load(new ByteArrayInputStream(bytes));
+
+		// check version
+		final Object formatVersion = properties.remove(VERSION_KEY);
+		if ((formatVersion == null) || !VERSION_VALUE.equals(formatVersion))
+			return null;
+
+		return properties;
+	}
+
+	/**
+	 * Writes the specified properties into bytes.
+	 * <p>
+	 * <code>null</code> values are ignored.
+	 * </p>
+	 *
+	 * @param properties
+	 *            the properties to write
+	 * @return the bytes
+	 * @throws IOException
+	 *             if the properties cannot be written
+	 */
+	public static byte[] toBytes(final Properties properties) throws IOException {
+		final Properties toSave = new SortedProperties();
+		for (final String key : properties.stringPropertyNames()) {
+			final String value = properties.getProperty(key);
+			if (value != null) {
+				toSave.put(key, value);
+			}
+		}
+		toSave.put(VERSION_KEY, VERSION_VALUE);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		toSave.store(out, null);
+		return out.toByteArray();
+	}
+
+	private PreferencesFormat() {
+		// empty
+	}
+}
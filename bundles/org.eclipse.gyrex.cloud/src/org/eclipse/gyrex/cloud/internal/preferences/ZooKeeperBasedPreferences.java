@@ -11,21 +11,16 @@
  *******************************************************************************/
 package org.eclipse.gyrex.cloud.internal.preferences;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
@@ -56,27 +51,10 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class ZooKeeperBasedPreferences implements IEclipsePreferences {
 
-	private static final class SortedProperties extends Properties {
-		private static final long serialVersionUID = 1L;
-
-		@Override
-		public synchronized Enumeration<Object> keys() {
-			return Collections.enumeration(keySet());
-		}
-
-		@Override
-		public Set<Object> keySet() {
-			return new TreeSet<Object>(super.keySet());
-		}
-	}
-
 	private static final long RELOAD_AGE = Long.getLong("gyrex.preferences.reloadAfter", 3000L);
 
 	private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperBasedPreferences.class);
 
-	private static final String VERSION_KEY = "gyrex.preferences.version"; //$NON-NLS-1$
-	private static final String VERSION_VALUE = "1"; //$NON-NLS-1$
-
 	private static final String[] EMPTY_NAMES_ARRAY = new String[0];
 	private static final String PATH_SEPARATOR = String.valueOf(IPath.SEPARATOR);
 	private static final String EMPTY_STRING = "";
@@ -806,15 +784,12 @@ public abstract class ZooKeeperBasedPreferences implements IEclipsePreferences {
 
 			// load remote properties
 			// (note, can be null if there is a node in ZooKeeper but without data)
-			final Properties loadedProps = new Properties();
+			Properties loadedProps = new Properties();
 			if (remotePropertyBytes != null) {
-				loadedProps.load(new ByteArrayInputStream(remotePropertyBytes));
-
-				// check version
-				final Object formatVersion = loadedProps.remove(VERSION_KEY);
-				if ((formatVersion == null) || !VERSION_VALUE.equals(formatVersion)) {
+				loadedProps = PreferencesFormat.fromBytes(remotePropertyBytes);
+				if (loadedProps == null) {
 					// ignore for now
-					LOG.warn("Properties with incompatible storage format version ({}) found for node {}.", formatVersion, this);
+					LOG.warn("Properties with incompatible storage format version found for node {}.", this);
 					return;
 				}
 			}
@@ -1286,23 +1261,12 @@ public abstract class ZooKeeperBasedPreferences implements IEclipsePreferences {
 				return;
 			}
 
-			// collect properties to save
-			final Properties toSave = new SortedProperties();
-			for (final String key : properties.stringPropertyNames()) {
-				final String value = properties.getProperty(key);
-				if (value != null) {
-					toSave.put(key, value);
-				}
-			}
-			toSave.put(VERSION_KEY, VERSION_VALUE);
-
 			// convert to bytes
-			final ByteArrayOutputStream out = new ByteArrayOutputStream();
-			toSave.store(out, null);
+			final byte[] bytes = PreferencesFormat.toBytes(properties);
 
 			// save record data
 			// (note, we do it within the lock in order to get proper stats/version info)
-			propertiesVersion = service.writeProperties(zkPath, out.toByteArray(), propertiesVersion);
+			propertiesVersion = service.writeProperties(zkPath, bytes, propertiesVersion);
 			propertiesLoadTimestamp = System.currentTimeMillis();
 
 			if (CloudDebug.zooKeeperPreferences) {
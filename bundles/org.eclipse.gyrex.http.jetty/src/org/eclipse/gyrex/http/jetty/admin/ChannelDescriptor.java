@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2011, 2012 AGETO Service GmbH and others.
+ * Copyright (c) 2011, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -31,6 +31,10 @@ public final class ChannelDescriptor {
 	private String secureChannelId;
 	private int port;
 	private String nodeFilter;
+	private boolean http2;
+	private int http2MaxConcurrentStreams;
+	private int http2InitialSessionWindow;
+	private int http2InitialStreamWindow;
 
 	/**
 	 * Returns the certificateId.
@@ -41,6 +45,36 @@ public final class ChannelDescriptor {
 		return certificateId;
 	}
 
+	/**
+	 * Returns the initial HTTP/2 flow-control window (in bytes) of a session.
+	 * 
+	 * @return the initial session window (<code>0</code> for the Jetty
+	 *         default)
+	 */
+	public int getHttp2InitialSessionWindow() {
+		return http2InitialSessionWindow;
+	}
+
+	/**
+	 * Returns the initial HTTP/2 flow-control window (in bytes) of a stream.
+	 * 
+	 * @return the initial stream window (<code>0</code> for the Jetty default)
+	 */
+	public int getHttp2InitialStreamWindow() {
+		return http2InitialStreamWindow;
+	}
+
+	/**
+	 * Returns the maximum number of concurrent HTTP/2 streams allowed per
+	 * connection.
+	 * 
+	 * @return the maximum number of concurrent streams (<code>0</code> for the
+	 *         Jetty default)
+	 */
+	public int getHttp2MaxConcurrentStreams() {
+		return http2MaxConcurrentStreams;
+	}
+
 	/**
 	 * Returns the id.
 	 * 
@@ -77,6 +111,21 @@ public final class ChannelDescriptor {
 		return secureChannelId;
 	}
 
+	/**
+	 * Indicates if the channel supports HTTP/2.
+	 * <p>
+	 * Secure channels negotiate HTTP/2 (<code>h2</code>) using ALPN. Plain
+	 * channels accept HTTP/2 over cleartext (<code>h2c</code>). HTTP/1.1 is
+	 * always supported as a fallback.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if HTTP/2 is enabled, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean isHttp2() {
+		return http2;
+	}
+
 	/**
 	 * Returns the secure.
 	 * 
@@ -99,6 +148,60 @@ public final class ChannelDescriptor {
 		this.certificateId = certificateId;
 	}
 
+	/**
+	 * Enables or disables HTTP/2 support.
+	 * 
+	 * @param http2
+	 *            <code>true</code> to enable HTTP/2, <code>false</code>
+	 *            otherwise
+	 */
+	public void setHttp2(final boolean http2) {
+		this.http2 = http2;
+	}
+
+	/**
+	 * Sets the initial HTTP/2 flow-control window (in bytes) of a session.
+	 * 
+	 * @param http2InitialSessionWindow
+	 *            the initial session window to set (<code>0</code> for the
+	 *            Jetty default)
+	 */
+	public void setHttp2InitialSessionWindow(final int http2InitialSessionWindow) {
+		if (http2InitialSessionWindow < 0) {
+			throw new IllegalArgumentException("invalid HTTP/2 initial session window: " + http2InitialSessionWindow);
+		}
+		this.http2InitialSessionWindow = http2InitialSessionWindow;
+	}
+
+	/**
+	 * Sets the initial HTTP/2 flow-control window (in bytes) of a stream.
+	 * 
+	 * @param http2InitialStreamWindow
+	 *            the initial stream window to set (<code>0</code> for the
+	 *            Jetty default)
+	 */
+	public void setHttp2InitialStreamWindow(final int http2InitialStreamWindow) {
+		if (http2InitialStreamWindow < 0) {
+			throw new IllegalArgumentException("invalid HTTP/2 initial stream window: " + http2InitialStreamWindow);
+		}
+		this.http2InitialStreamWindow = http2InitialStreamWindow;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent HTTP/2 streams allowed per
+	 * connection.
+	 * 
+	 * @param http2MaxConcurrentStreams
+	 *            the maximum number of concurrent streams to set (<code>0</code>
+	 *            for the Jetty default)
+	 */
+	public void setHttp2MaxConcurrentStreams(final int http2MaxConcurrentStreams) {
+		if (http2MaxConcurrentStreams < 0) {
+			throw new IllegalArgumentException("invalid HTTP/2 max concurrent streams: " + http2MaxConcurrentStreams);
+		}
+		this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+	}
+
 	/**
 	 * Sets the id.
 	 * 
@@ -174,6 +277,7 @@ public final class ChannelDescriptor {
 		builder.append("secure", secure);
 		builder.append("certificateId", certificateId);
 		builder.append("secureChannelId", secureChannelId);
+		builder.append("http2", http2);
 		return builder.toString();
 	}
 }
@@ -233,6 +233,33 @@ public class JettyConsoleCommands implements CommandProvider {
 			}
 		});
 
+		commands.put("http2", new Command("<connectorId> <enabled> [<maxConcurrentStreams> [<sessionWindow> <streamWindow>]]\t - configures HTTP/2 support of a connector") {
+			@Override
+			public void execute(final IJettyManager jettyManager, final CommandInterpreter ci) throws Exception {
+				final String channelId = ci.nextArgument();
+				final String enabled = ci.nextArgument();
+				if ((channelId == null) || (enabled == null)) {
+					printInvalidArgs(ci);
+					return;
+				}
+
+				final ChannelDescriptor channelDescriptor = jettyManager.getChannel(channelId);
+				if (channelDescriptor == null) {
+					ci.println("Connector " + channelId + " not found!");
+					return;
+				}
+
+				channelDescriptor.setHttp2(BooleanUtils.toBoolean(enabled));
+				channelDescriptor.setHttp2MaxConcurrentStreams(NumberUtils.toInt(ci.nextArgument()));
+				channelDescriptor.setHttp2InitialSessionWindow(NumberUtils.toInt(ci.nextArgument()));
+				channelDescriptor.setHttp2InitialStreamWindow(NumberUtils.toInt(ci.nextArgument()));
+
+				jettyManager.saveChannel(channelDescriptor);
+
+				ci.println("HTTP/2 " + (channelDescriptor.isHttp2() ? "enabled" : "disabled") + " for connector " + channelId + "!");
+			}
+		});
+
 		commands.put("removeConnector", new Command("<connectorId>\t - removes a connector") {
 			@Override
 			public void execute(final IJettyManager jettyManager, final CommandInterpreter ci) throws Exception {
@@ -12,7 +12,6 @@
 package org.eclipse.gyrex.http.jetty.internal;
 
 import java.lang.management.ManagementFactory;
-import java.lang.reflect.Constructor;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -28,6 +27,7 @@ import org.eclipse.gyrex.http.jetty.admin.ICertificate;
 import org.eclipse.gyrex.http.jetty.admin.IJettyManager;
 import org.eclipse.gyrex.http.jetty.internal.app.JettyGateway;
 import org.eclipse.gyrex.http.jetty.internal.connectors.CertificateSslContextFactory;
+import org.eclipse.gyrex.http.jetty.internal.connectors.Http2ConnectorFactory;
 import org.eclipse.gyrex.monitoring.metrics.MetricSet;
 import org.eclipse.gyrex.preferences.CloudScope;
 import org.eclipse.gyrex.server.Platform;
@@ -187,7 +187,7 @@ public class JettyEngineApplication implements IApplication {
 				}
 			}
 
-			final ServerConnector connector = createJettyConnector(server, sslFactory, httpConfig);
+			final ServerConnector connector = createJettyConnector(server, channel, sslFactory, httpConfig);
 			connector.setPort(channel.getPort());
 			connector.setIdleTimeout(200000);
 			// TODO: (Jetty9?) connector.setAcceptors(2);
@@ -204,29 +204,24 @@ public class JettyEngineApplication implements IApplication {
 		}
 	}
 
-	private ServerConnector createJettyConnector(final Server server, final SslContextFactory sslFactory, final HttpConfiguration httpConfig) {
-		try {
-			// use SPDY if NPN is available
-			final Class<?> npnClass = HttpJettyActivator.getInstance().getBundle().loadClass("org.eclipse.jetty.npn.NextProtoNego");
-			if (npnClass.getClassLoader() == null) {
-				// NPN is available; try loading the SPDY connector
-				// note, we still use reflection because SPDY is optional
-				final Class<?> spdyConnectorClass = HttpJettyActivator.getInstance().getBundle().loadClass("org.eclipse.jetty.spdy.server.http.HTTPSPDYServerConnector");
-				// HTTPSPDYServerConnector(Server server, HttpConfiguration config, SslContextFactory sslContextFactory, Map<Short, PushStrategy> pushStrategies)
-				final Constructor<?> constructor = spdyConnectorClass.getConstructor(Server.class, HttpConfiguration.class, SslContextFactory.class, Map.class);
-				return (ServerConnector) constructor.newInstance(server, httpConfig, sslFactory, null);
-			} else {
-				// log error and fall through; will force standard connector belog
-				LOG.error("Jetty NPN not loaded via boot class loader. Falling back to non-SPDY setup. Please check your server setup (see http://wiki.eclipse.org/Jetty/Feature/NPN for details)! ({})", npnClass.getClassLoader());
-			}
-		} catch (AssertionError | LinkageError | ClassNotFoundException e) {
-			if (JettyDebug.engine) {
-				LOG.debug("Jetty SPDY environment not available: {}", ExceptionUtils.getRootCauseMessage(e), e);
+	private ServerConnector createJettyConnector(final Server server, final ChannelDescriptor channel, final SslContextFactory sslFactory, final HttpConfiguration httpConfig) {
+		if (channel.isHttp2()) {
+			try {
+				// HTTP/2 is optional; verify that Jetty HTTP/2 is available before touching the connector factory
+				HttpJettyActivator.getInstance().getBundle().loadClass("org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory");
+				if (null != sslFactory) {
+					HttpJettyActivator.getInstance().getBundle().loadClass("org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory");
+				}
+				return Http2ConnectorFactory.createConnector(server, channel, sslFactory, httpConfig);
+			} catch (AssertionError | LinkageError | ClassNotFoundException e) {
+				LOG.warn("Jetty HTTP/2 implementation not available. Channel {} will only support HTTP/1.1. ({})", channel.getId(), ExceptionUtils.getRootCauseMessage(e));
+				if (JettyDebug.engine) {
+					LOG.debug("Jetty HTTP/2 environment not available: {}", ExceptionUtils.getRootCauseMessage(e), e);
+				}
+			} catch (final IllegalStateException e) {
+				LOG.error("Jetty ALPN not available. Channel {} will only support HTTP/1.1. Please check your server setup (see http://www.eclipse.org/jetty/documentation/current/alpn-chapter.html for details)! ({})", channel.getId(), ExceptionUtils.getRootCauseMessage(e));
 			}
-		} catch (final Exception e) {
-			LOG.error("Error loading the Jetty SPDY implementation. {}", ExceptionUtils.getRootCauseMessage(e), e);
 		}
-		LOG.info("Jetty SPDY environment not available. Using non SPDY implementation.");
 		return new ServerConnector(server, sslFactory, new HttpConnectionFactory(httpConfig));
 	}
 
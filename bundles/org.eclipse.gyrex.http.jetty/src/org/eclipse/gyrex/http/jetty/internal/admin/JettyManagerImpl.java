@@ -49,6 +49,10 @@ public class JettyManagerImpl implements IJettyManager {
 	private static final String PREF_KEY_SECURE_CHANNEL_ID = "secureChannelId";
 	private static final String PREF_KEY_SECURE = "secure";
 	private static final String PREF_KEY_PORT = "port";
+	private static final String PREF_KEY_HTTP2 = "http2";
+	private static final String PREF_KEY_HTTP2_MAX_CONCURRENT_STREAMS = "http2MaxConcurrentStreams";
+	private static final String PREF_KEY_HTTP2_INITIAL_SESSION_WINDOW = "http2InitialSessionWindow";
+	private static final String PREF_KEY_HTTP2_INITIAL_STREAM_WINDOW = "http2InitialStreamWindow";
 
 	private static final String PREF_KEY_KEY_PASSWORD = "keyPassword";
 	private static final String PREF_KEY_KEYSTORE_PASSWORD = "keystorePassword";
@@ -188,6 +192,14 @@ public class JettyManagerImpl implements IJettyManager {
 		return Collections.unmodifiableCollection(certificateChannels);
 	}
 
+	private void putOrRemove(final Preferences node, final String key, final int value) {
+		if (value > 0) {
+			node.putInt(key, value);
+		} else {
+			node.remove(key);
+		}
+	}
+
 	private ICertificate readCertificate(final String certificateId) {
 		try {
 			final CertificateDefinition definition = new CertificateDefinition();
@@ -220,6 +232,10 @@ public class JettyManagerImpl implements IJettyManager {
 			descriptor.setSecureChannelId(node.get(PREF_KEY_SECURE_CHANNEL_ID, null));
 			descriptor.setCertificateId(node.get(PREF_KEY_CERTIFICATE_ID, null));
 			descriptor.setNodeFilter(node.get(PREF_KEY_NODE_FILTER, null));
+			descriptor.setHttp2(node.getBoolean(PREF_KEY_HTTP2, false));
+			descriptor.setHttp2MaxConcurrentStreams(node.getInt(PREF_KEY_HTTP2_MAX_CONCURRENT_STREAMS, 0));
+			descriptor.setHttp2InitialSessionWindow(node.getInt(PREF_KEY_HTTP2_INITIAL_SESSION_WINDOW, 0));
+			descriptor.setHttp2InitialStreamWindow(node.getInt(PREF_KEY_HTTP2_INITIAL_STREAM_WINDOW, 0));
 			return descriptor;
 		} catch (final IllegalArgumentException e) {
 			LOG.warn("Unable to read Jetty channel {}. {}", channelId, e.getMessage());
@@ -307,6 +323,14 @@ public class JettyManagerImpl implements IJettyManager {
 			} else {
 				node.remove(PREF_KEY_NODE_FILTER);
 			}
+			if (channel.isHttp2()) {
+				node.putBoolean(PREF_KEY_HTTP2, true);
+			} else {
+				node.remove(PREF_KEY_HTTP2);
+			}
+			putOrRemove(node, PREF_KEY_HTTP2_MAX_CONCURRENT_STREAMS, channel.getHttp2MaxConcurrentStreams());
+			putOrRemove(node, PREF_KEY_HTTP2_INITIAL_SESSION_WINDOW, channel.getHttp2InitialSessionWindow());
+			putOrRemove(node, PREF_KEY_HTTP2_INITIAL_STREAM_WINDOW, channel.getHttp2InitialStreamWindow());
 			node.flush();
 
 			restartMayBeNeeded();
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.app;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.gyrex.monitoring.metrics.CapacityMetric;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+/**
+ * Limits the number of requests processed concurrently by an application.
+ * <p>
+ * Requests exceeding the limit wait in a bounded queue for a limited time. If
+ * the queue is full or the wait time exceeded the request is rejected. This
+ * prevents a single slow application from occupying all threads of a node.
+ * Note, waiting requests still occupy a thread. Thus, the queue should be
+ * kept small.
+ * </p>
+ * <p>
+ * The following application properties are supported (see
+ * {@link org.eclipse.gyrex.http.application.manager.IApplicationManager#setProperties(String, Map)}
+ * ):
+ * <ul>
+ * <li><code>admission.maxConcurrentRequests</code> - max. number of requests
+ * processed concurrently (default 0, i.e. admission control disabled)</li>
+ * <li><code>admission.maxQueueSize</code> - max. number of requests waiting
+ * (default 0, i.e. reject immediately)</li>
+ * <li><code>admission.queueTimeout</code> - max. time in milliseconds a request
+ * waits (default 1000)</li>
+ * <li><code>admission.retryAfter</code> - seconds sent to clients in the
+ * <code>Retry-After</code> header of rejected requests (default 5)</li>
+ * <li><code>admission.adaptive</code> - <code>true</code> to adapt the limit
+ * based on observed latency (default <code>false</code>)</li>
+ * <li><code>admission.adaptive.minConcurrentRequests</code> - lower bound for
+ * the adaptive limit (default 1)</li>
+ * <li><code>admission.adaptive.targetLatency</code> - latency in milliseconds
+ * above which the adaptive limit is decreased (default 1000)</li>
+ * </ul>
+ * </p>
+ * <p>
+ * The adaptive mode uses AIMD (additive increase, multiplicative decrease).
+ * The limit starts at <code>admission.maxConcurrentRequests</code>. It is
+ * decreased by 10% if a request is slower than the target latency. After a
+ * decrease, further slow requests are ignored until the requests in flight at
+ * the time of the decrease completed, i.e. the limit is decreased at most once
+ * per window of requests admitted under the same limit. It slowly grows back (by one per
+ * limit requests) for faster requests as long as the limit is actually used.
+ * </p>
+ */
+public class AdmissionController {
+
+	public static final String PARAM_MAX_CONCURRENT_REQUESTS = "admission.maxConcurrentRequests";
+	public static final String PARAM_MAX_QUEUE_SIZE = "admission.maxQueueSize";
+	public static final String PARAM_QUEUE_TIMEOUT = "admission.queueTimeout";
+	public static final String PARAM_RETRY_AFTER = "admission.retryAfter";
+	public static final String PARAM_ADAPTIVE = "admission.adaptive";
+	public static final String PARAM_ADAPTIVE_MIN_CONCURRENT_REQUESTS = "admission.adaptive.minConcurrentRequests";
+	public static final String PARAM_ADAPTIVE_TARGET_LATENCY = "admission.adaptive.targetLatency";
+
+	private static final double BACKOFF_RATIO = 0.9;
+
+	/**
+	 * Creates an admission controller based on application properties.
+	 *
+	 * @param initParams
+	 *            the application properties
+	 * @param metric
+	 *            the metric for tracking admissions
+	 * @return the admission controller (maybe <code>null</code> if admission
+	 *         control is not enabled)
+	 */
+	public static AdmissionController create(final Map<String, String> initParams, final CapacityMetric metric) {
+		final int maxConcurrentRequests = NumberUtils.toInt(initParams.get(PARAM_MAX_CONCURRENT_REQUESTS), 0);
+		if (maxConcurrentRequests <= 0) {
+			metric.setChannelsCapacity(0);
+			return null;
+		}
+
+		final int maxQueueSize = Math.max(0, NumberUtils.toInt(initParams.get(PARAM_MAX_QUEUE_SIZE), 0));
+		final long queueTimeout = Math.max(0, NumberUtils.toLong(initParams.get(PARAM_QUEUE_TIMEOUT), 1000L));
+		final int retryAfter = Math.max(0, NumberUtils.toInt(initParams.get(PARAM_RETRY_AFTER), 5));
+		final boolean adaptive = BooleanUtils.toBoolean(initParams.get(PARAM_ADAPTIVE));
+		final int minConcurrentRequests = Math.min(maxConcurrentRequests, Math.max(1, NumberUtils.toInt(initParams.get(PARAM_ADAPTIVE_MIN_CONCURRENT_REQUESTS), 1)));
+		final long targetLatency = Math.max(1, NumberUtils.toLong(initParams.get(PARAM_ADAPTIVE_TARGET_LATENCY), 1000L));
+		return new AdmissionController(metric, maxConcurrentRequests, maxQueueSize, queueTimeout, retryAfter, adaptive, minConcurrentRequests, targetLatency);
+	}
+
+	private final CapacityMetric metric;
+	private final int maxLimit;
+	private final int minLimit;
+	private final int maxQueueSize;
+	private final long queueTimeoutNanos;
+	private final int retryAfter;
+	private final boolean adaptive;
+	private final long targetLatencyNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+
+	/** current limit (guarded by lock) */
+	private double limit;
+	/** requests in flight (guarded by lock) */
+	private int inFlight;
+	/** requests waiting (guarded by lock) */
+	private int waiting;
+	/** requests released since the last decrease of the limit (guarded by lock) */
+	private int releasedSinceDecrease = Integer.MAX_VALUE;
+	/** requests in flight at the last decrease of the limit (guarded by lock) */
+	private int decreaseWindow;
+
+	public AdmissionController(final CapacityMetric metric, final int maxConcurrentRequests, final int maxQueueSize, final long queueTimeout, final int retryAfter, final boolean adaptive, final int minConcurrentRequests, final long targetLatency) {
+		if (null == metric)
+			throw new IllegalArgumentException("metric must not be null");
+		if (maxConcurrentRequests <= 0)
+			throw new IllegalArgumentException("max concurrent requests must be greater than zero");
+		this.metric = metric;
+		maxLimit = maxConcurrentRequests;
+		minLimit = adaptive ? minConcurrentRequests : maxConcurrentRequests;
+		this.maxQueueSize = maxQueueSize;
+		queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+		this.retryAfter = retryAfter;
+		this.adaptive = adaptive;
+		targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+		limit = maxConcurrentRequests;
+		metric.setChannelsCapacity(maxConcurrentRequests);
+	}
+
+	/**
+	 * Acquires a permit for processing a request.
+	 * <p>
+	 * If no permit is available the calling thread waits in the queue. If the
+	 * queue is full or the queue timeout exceeded the request must be rejected.
+	 * </p>
+	 *
+	 * @return <code>true</code> if the request may be processed (callers must
+	 *         call {@link #release(long)} when done), <code>false</code> if
+	 *         the request must be rejected
+	 */
+	public boolean acquire() {
+		final long start = System.nanoTime();
+		lock.lock();
+		try {
+			if (inFlight >= (int) limit) {
+				if (waiting >= maxQueueSize) {
+					metric.channelDenied();
+					return false;
+				}
+				waiting++;
+				try {
+					long remaining = queueTimeoutNanos;
+					while (inFlight >= (int) limit) {
+						if (remaining <= 0) {
+							metric.channelDenied();
+							return false;
+						}
+						remaining = available.awaitNanos(remaining);
+					}
+				} finally {
+					waiting--;
+				}
+			}
+			inFlight++;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			metric.channelDenied();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+		metric.channelStarted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return true;
+	}
+
+	/**
+	 * Returns the number of requests currently processed.
+	 *
+	 * @return the number of requests in flight
+	 */
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the current limit.
+	 *
+	 * @return the current limit
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the value of the <code>Retry-After</code> header to send for
+	 * rejected requests.
+	 *
+	 * @return the number of seconds clients should wait before retrying
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Releases a permit acquired by {@link #acquire()}.
+	 *
+	 * @param latencyNanos
+	 *            the time in nanoseconds it took to process the request
+	 */
+	public void release(final long latencyNanos) {
+		int newLimit = -1;
+		lock.lock();
+		try {
+			inFlight--;
+			if (adaptive) {
+				final int oldLimit = (int) limit;
+				if (releasedSinceDecrease < Integer.MAX_VALUE) {
+					releasedSinceDecrease++;
+				}
+				if (latencyNanos > targetLatencyNanos) {
+					// decrease only once per window (requests in flight were admitted with the old limit)
+					if (releasedSinceDecrease > decreaseWindow) {
+						limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+						releasedSinceDecrease = 0;
+						decreaseWindow = inFlight;
+					}
+				} else if ((inFlight + 1) * 2 >= oldLimit) {
+					// only grow if the limit is actually used
+					limit = Math.min(maxLimit, limit + (1.0 / limit));
+				}
+				if ((int) limit != oldLimit) {
+					newLimit = (int) limit;
+				}
+			}
+			if (newLimit > 0) {
+				available.signalAll();
+			} else {
+				available.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		metric.channelFinished();
+		if (newLimit > 0) {
+			metric.setChannelsCapacity(newLimit);
+		}
+	}
+}
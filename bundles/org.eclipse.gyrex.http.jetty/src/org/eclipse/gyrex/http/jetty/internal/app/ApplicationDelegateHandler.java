@@ -36,7 +36,6 @@ import org.apache.commons.lang.StringUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 
 /**
  * This handler delegates all requests to the application and handles requests
@@ -46,16 +45,6 @@ import org.slf4j.MDC;
  */
 public class ApplicationDelegateHandler extends ScopedHandler {
 
-	private static final String MDC_KEY_CONTEXT_PATH = "gyrex.contextPath";
-	private static final String MDC_KEY_APPLICATION_ID = "gyrex.applicationId";
-
-	private static final String MDC_KEY_REQUEST_REMOTE_HOST = "req.remoteHost"; // same as Logback
-	private static final String MDC_KEY_REQUEST_USER_AGENT_MDC_KEY = "req.userAgent"; // same as Logback
-	private static final String MDC_KEY_REQUEST_REQUEST_URI = "req.requestURI"; // same as Logback
-	private static final String MDC_KEY_REQUEST_REQUEST_URL = "req.requestURL"; // same as Logback
-	private static final String MDC_KEY_REQUEST_QUERY_STRING = "req.queryString"; // same as Logback
-	private static final String MDC_KEY_REQUEST_X_FORWARDED_FOR = "req.xForwardedFor"; // same as Logback
-
 	private static final Logger LOG = LoggerFactory.getLogger(ApplicationDelegateHandler.class);
 
 	private final ApplicationHandler applicationHandler;
@@ -69,20 +58,6 @@ public class ApplicationDelegateHandler extends ScopedHandler {
 		metrics = applicationHandler.getMetrics();
 	}
 
-	private void clearMdc() {
-		// clear application specific information
-		MDC.remove(MDC_KEY_APPLICATION_ID);
-		MDC.remove(MDC_KEY_CONTEXT_PATH);
-
-		// clear general request information
-		MDC.remove(MDC_KEY_REQUEST_REMOTE_HOST);
-		MDC.remove(MDC_KEY_REQUEST_REQUEST_URI);
-		MDC.remove(MDC_KEY_REQUEST_QUERY_STRING);
-		MDC.remove(MDC_KEY_REQUEST_REQUEST_URL);
-		MDC.remove(MDC_KEY_REQUEST_USER_AGENT_MDC_KEY);
-		MDC.remove(MDC_KEY_REQUEST_X_FORWARDED_FOR);
-	}
-
 	@Override
 	public void doHandle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException {
 		// FIXME: wird zweimal aufgerufen...
@@ -143,8 +118,8 @@ public class ApplicationDelegateHandler extends ScopedHandler {
 		try {
 			final Application application = applicationHandler.getApplication();
 
-			// setup MDC
-			setupMdc(application, request);
+			// setup MDC (populated lazily)
+			RequestMdc.setup(application, request);
 
 			// check application status
 			final IStatus status = application.getStatus();
@@ -201,7 +176,7 @@ public class ApplicationDelegateHandler extends ScopedHandler {
 			throw e;
 		} finally {
 			// clear the MDC
-			clearMdc();
+			RequestMdc.clear();
 		}
 
 		// mark the request handled (if this point is reached)
@@ -245,23 +220,6 @@ public class ApplicationDelegateHandler extends ScopedHandler {
 		return baseRequest.isHandled();
 	}
 
-	private void setupMdc(final Application application, final HttpServletRequest request) {
-		// application specific information
-		MDC.put(MDC_KEY_APPLICATION_ID, application.getId());
-		MDC.put(MDC_KEY_CONTEXT_PATH, application.getContext().getContextPath().toString());
-
-		// general request information
-		MDC.put(MDC_KEY_REQUEST_REMOTE_HOST, request.getRemoteHost());
-		MDC.put(MDC_KEY_REQUEST_REQUEST_URI, request.getRequestURI());
-		final StringBuffer requestURL = request.getRequestURL();
-		if (requestURL != null) {
-			MDC.put(MDC_KEY_REQUEST_REQUEST_URL, requestURL.toString());
-		}
-		MDC.put(MDC_KEY_REQUEST_QUERY_STRING, request.getQueryString());
-		MDC.put(MDC_KEY_REQUEST_USER_AGENT_MDC_KEY, request.getHeader("User-Agent"));
-		MDC.put(MDC_KEY_REQUEST_X_FORWARDED_FOR, request.getHeader("X-Forwarded-For"));
-	}
-
 	@Override
 	public String toString() {
 		final StringBuilder string = new StringBuilder();
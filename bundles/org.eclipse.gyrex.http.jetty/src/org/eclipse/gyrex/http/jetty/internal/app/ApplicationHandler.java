@@ -17,6 +17,8 @@ import java.net.URL;
 import java.util.EventListener;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.RequestDispatcher;
@@ -32,9 +34,13 @@ import org.eclipse.gyrex.http.internal.application.manager.ApplicationInstance;
 import org.eclipse.gyrex.http.internal.application.manager.ApplicationRegistration;
 import org.eclipse.gyrex.http.jetty.internal.JettyDebug;
 import org.eclipse.gyrex.http.jetty.internal.JettyEngineApplication;
+import org.eclipse.gyrex.http.jetty.internal.sessions.SessionStoreFactory;
+import org.eclipse.gyrex.http.jetty.internal.sessions.StoreBackedSessionManager;
 import org.eclipse.gyrex.server.Platform;
 
 import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.PathMap;
 import org.eclipse.jetty.http.PathMap.MappedEntry;
 import org.eclipse.jetty.security.SecurityHandler;
@@ -132,6 +138,41 @@ public class ApplicationHandler extends ServletContextHandler {
 		}
 	}
 
+	/**
+	 * Releases an admission permit when an asynchronous request completes.
+	 */
+	private static final class AdmissionReleaseListener implements AsyncListener {
+
+		private final AdmissionController admission;
+		private final long admissionStart;
+
+		AdmissionReleaseListener(final AdmissionController admission, final long admissionStart) {
+			this.admission = admission;
+			this.admissionStart = admissionStart;
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) throws IOException {
+			admission.release(System.nanoTime() - admissionStart);
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) throws IOException {
+			// onComplete follows
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) throws IOException {
+			// listeners must register again when async processing is re-started
+			event.getAsyncContext().addListener(this);
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
+			// onComplete follows
+		}
+	}
+
 	public static final String ATTRIBUTE_DEBUG_INFO = ApplicationHandler.class.getName().concat(".debugInfo");
 
 	static final String EMPTY_STRING = "";
@@ -149,6 +190,7 @@ public class ApplicationHandler extends ServletContextHandler {
 	private volatile ApplicationInstance applicationInstance;
 	private ApplicationDelegateHandler applicationDelegateHandler;
 	private SessionHandler sessionHandler;
+	private volatile AdmissionController admissionController;
 
 	/**
 	 * Creates a new instance.
@@ -195,9 +237,14 @@ public class ApplicationHandler extends ServletContextHandler {
 	}
 
 	private SessionHandler createSessionHandler() {
+		// use a persistent session store if configured; in-memory otherwise
+		HashSessionManager sessionManager = SessionStoreFactory.createSessionManager(getApplicationId(), applicationRegistration.getContext(), applicationRegistration.getInitProperties());
+		if (null == sessionManager) {
+			sessionManager = new HashSessionManager();
+		}
+
 		// make sure the set a proper session inactive interval
 		// otherwise Jetty will keep sessions open forever
-		final HashSessionManager sessionManager = new HashSessionManager();
 		sessionManager.setMaxInactiveInterval(NumberUtils.toInt(getInitParameter("session.maxInactiveInterval"), 1800));
 		return new SessionHandler(sessionManager);
 	}
@@ -245,6 +292,9 @@ public class ApplicationHandler extends ServletContextHandler {
 			// correct context path on the request
 			currentContextPath.set(baseRequest.getContextPath());
 		}
+		long admissionStart = 0;
+		AdmissionController admission = null;
+		RequestResourceAccounting resourceAccounting = null;
 		try {
 			final String contextPath = currentContextPath.get();
 			String pathInfo = null;
@@ -311,6 +361,23 @@ public class ApplicationHandler extends ServletContextHandler {
 				baseRequest.setAttribute(ATTRIBUTE_DEBUG_INFO, dump.toString());
 			}
 
+			// apply admission control to new requests
+			// (async re-dispatches still hold the permit acquired by the initial dispatch)
+			if (newContext && (DispatcherType.REQUEST.equals(dispatch) || DispatcherType.ASYNC.equals(dispatch))) {
+				admission = DispatcherType.REQUEST.equals(dispatch) ? admissionController : null;
+				if (null != admission) {
+					if (!admission.acquire()) {
+						rejectRequest(admission, baseRequest, response);
+						admission = null;
+						return;
+					}
+					admissionStart = System.nanoTime();
+				}
+
+				// measure resource usage of sampled requests
+				resourceAccounting = RequestResourceAccounting.start();
+			}
+
 			// next scope
 			// start manual inline of nextScope(target,baseRequest,request,response);
 			if (never()) {
@@ -323,6 +390,12 @@ public class ApplicationHandler extends ServletContextHandler {
 				doHandle(target, baseRequest, request, response);
 			} // end manual inline (pathetic attempt to reduce stack depth)
 		} finally {
+			if (null != resourceAccounting) {
+				resourceAccounting.finish(metrics.getResourcesMetric(), baseRequest.getRequestURI());
+			}
+			if (null != admission) {
+				releaseAdmission(admission, admissionStart, baseRequest);
+			}
 			if (newContext) {
 				// reset the context and servlet path
 				baseRequest.setContext(origContext);
@@ -365,6 +438,7 @@ public class ApplicationHandler extends ServletContextHandler {
 				applicationRegistration.destroyApplication(context);
 			}
 			sessionHandler = null;
+			admissionController = null;
 		}
 	}
 
@@ -547,6 +621,35 @@ public class ApplicationHandler extends ServletContextHandler {
 		urls.remove(url);
 	}
 
+	private void rejectRequest(final AdmissionController admission, final Request baseRequest, final HttpServletResponse response) throws IOException {
+		if (JettyDebug.handlers) {
+			LOG.debug("Rejecting request {} to application {} (concurrency limit {} reached)", new Object[] { baseRequest.getRequestURI(), getApplicationId(), admission.getLimit() });
+		}
+
+		// fail fast; don't involve the (potentially busy) application error handler
+		baseRequest.setHandled(true);
+		if (response.isCommitted())
+			return;
+		response.setStatus(HttpStatus.SERVICE_UNAVAILABLE_503);
+		if (admission.getRetryAfter() > 0) {
+			response.setHeader(HttpHeader.RETRY_AFTER.asString(), String.valueOf(admission.getRetryAfter()));
+		}
+		response.setContentLength(0);
+	}
+
+	private void releaseAdmission(final AdmissionController admission, final long admissionStart, final Request baseRequest) {
+		// keep the permit while an asynchronous request is still processed
+		if (baseRequest.isAsyncStarted()) {
+			try {
+				baseRequest.getAsyncContext().addListener(new AdmissionReleaseListener(admission, admissionStart));
+				return;
+			} catch (final IllegalStateException e) {
+				// async processing already completed
+			}
+		}
+		admission.release(System.nanoTime() - admissionStart);
+	}
+
 	@Override
 	protected void startContext() throws Exception {
 		if (JettyDebug.handlers) {
@@ -559,6 +662,9 @@ public class ApplicationHandler extends ServletContextHandler {
 		// create servlet handler early
 		_servletHandler = new ApplicationServletHandler(this);
 
+		// setup admission control
+		admissionController = AdmissionController.create(applicationRegistration.getInitProperties(), metrics.getAdmissionMetric());
+
 		// create remaining the handlers
 		applicationDelegateHandler = new ApplicationDelegateHandler(this);
 		sessionHandler = createSessionHandler();
@@ -588,6 +694,11 @@ public class ApplicationHandler extends ServletContextHandler {
 		if (application == null)
 			throw new IllegalStateException("no application object returned from instance for " + applicationRegistration);
 
+		// session attributes must be de-serialized using the application class loader
+		if (sessionHandler.getSessionManager() instanceof StoreBackedSessionManager) {
+			((StoreBackedSessionManager) sessionHandler.getSessionManager()).setAttributesClassLoader(application.getClass().getClassLoader());
+		}
+
 		// set important attributes
 		setAttribute(IApplicationContext.SERVLET_CONTEXT_ATTRIBUTE_APPLICATION, application);
 		setAttribute(IApplicationContext.SERVLET_CONTEXT_ATTRIBUTE_CONTEXT, application.getContext());
@@ -127,7 +127,7 @@ public class ApplicationHandlerCollection extends AbstractHandlerContainer {
 				LOG.debug("adjusted context path for {} to {}", request.getRequestURL(), baseRequest.getContextPath());
 			}
 
-			// lazy start handler
+			// lazy start handler (if not already started by warm-up)
 			if (!handler.isStarted()) {
 				if (JettyDebug.handlers) {
 					LOG.debug("lazy start of handler {}", handler);
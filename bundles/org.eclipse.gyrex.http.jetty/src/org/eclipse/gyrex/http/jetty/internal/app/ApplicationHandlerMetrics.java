@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2012 AGETO Service GmbH and others.
+ * Copyright (c) 2010, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -14,8 +14,10 @@ package org.eclipse.gyrex.http.jetty.internal.app;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.gyrex.http.jetty.internal.HttpJettyActivator;
+import org.eclipse.gyrex.monitoring.metrics.CapacityMetric;
 import org.eclipse.gyrex.monitoring.metrics.ErrorMetric;
 import org.eclipse.gyrex.monitoring.metrics.MetricSet;
+import org.eclipse.gyrex.monitoring.metrics.ResourceUsageMetric;
 import org.eclipse.gyrex.monitoring.metrics.StatusMetric;
 import org.eclipse.gyrex.monitoring.metrics.ThroughputMetric;
 
@@ -30,15 +32,19 @@ public class ApplicationHandlerMetrics extends MetricSet {
 	private final StatusMetric statusMetric;
 	private final ThroughputMetric requestsMetric;
 	private final ErrorMetric errorsMetric;
+	private final CapacityMetric admissionMetric;
+	private final ResourceUsageMetric resourcesMetric;
 
 	/**
 	 * Creates a new instance.
 	 */
 	protected ApplicationHandlerMetrics(final String applicationId) {
-		super(String.format(HttpJettyActivator.SYMBOLIC_NAME + ".handler.application.%s.metric", applicationId), String.format("Metrics for Jetty Server requests handled by Gyrex application '%s'.", applicationId), new StatusMetric("status", "created", "not initialized"), new ThroughputMetric("requests", TimeUnit.NANOSECONDS), new ErrorMetric("errors", 5));
+		super(String.format(HttpJettyActivator.SYMBOLIC_NAME + ".handler.application.%s.metric", applicationId), String.format("Metrics for Jetty Server requests handled by Gyrex application '%s'.", applicationId), new StatusMetric("status", "created", "not initialized"), new ThroughputMetric("requests", TimeUnit.NANOSECONDS), new ErrorMetric("errors", 5), new CapacityMetric("admission", 0), new ResourceUsageMetric("resources", Math.max(1, RequestResourceAccounting.SAMPLE_INTERVAL), RequestResourceAccounting.SLOWEST_REQUESTS));
 		statusMetric = getMetric(0, StatusMetric.class);
 		requestsMetric = getMetric(1, ThroughputMetric.class);
 		errorsMetric = getMetric(2, ErrorMetric.class);
+		admissionMetric = getMetric(3, CapacityMetric.class);
+		resourcesMetric = getMetric(4, ResourceUsageMetric.class);
 	}
 
 	public void error(final int status, final String reason) {
@@ -49,10 +55,30 @@ public class ApplicationHandlerMetrics extends MetricSet {
 		errorsMetric.setLastError(message, ExceptionUtils.getFullStackTrace(t));
 	}
 
+	/**
+	 * Returns the metric tracking admission control, i.e. the concurrency
+	 * limit, requests in flight, queue time and rejected requests.
+	 * 
+	 * @return the admission metric
+	 */
+	public CapacityMetric getAdmissionMetric() {
+		return admissionMetric;
+	}
+
 	public ThroughputMetric getRequestsMetric() {
 		return requestsMetric;
 	}
 
+	/**
+	 * Returns the metric tracking the CPU time and memory allocated by a
+	 * sample of the requests.
+	 * 
+	 * @return the resource usage metric
+	 */
+	public ResourceUsageMetric getResourcesMetric() {
+		return resourcesMetric;
+	}
+
 	public void setStatus(final String status, final String reasons) {
 		statusMetric.setStatus(status, reasons);
 	}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.app;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.gyrex.http.jetty.internal.HttpJettyActivator;
+import org.eclipse.gyrex.http.jetty.internal.JettyDebug;
+import org.eclipse.gyrex.monitoring.diagnostics.IStatusConstants;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jetty.server.Handler;
+
+import org.osgi.framework.ServiceRegistration;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts and initializes mounted applications eagerly in the background.
+ * <p>
+ * Without warm-up, application handlers are started lazily by
+ * {@link ApplicationHandlerCollection} on the first request, i.e. the first
+ * user of every application pays the initialization latency. With warm-up,
+ * handlers are started in parallel on a bounded pool as soon as they are
+ * mapped. Requests arriving while a handler is still being started simply wait
+ * for the start to complete.
+ * </p>
+ * <p>
+ * Readiness is reported per application via the status of
+ * {@link ApplicationHandlerMetrics}. While warm-up is in progress a status is
+ * registered with the system status so that the node does not report itself
+ * ready until all applications have been started.
+ * </p>
+ * <p>
+ * Warm-up can be disabled by setting system property
+ * <code>gyrex.http.warmup</code> to <code>false</code>. The pool size
+ * defaults to the number of available processors and can be configured using
+ * system property <code>gyrex.http.warmup.threads</code>.
+ * </p>
+ */
+final class ApplicationWarmup {
+
+	/**
+	 * The warm-up status registered with the system status.
+	 * <p>
+	 * The status is registered once and updated in place while warm-up is in
+	 * progress. The severity never changes, thus the status tracker does not
+	 * need to be notified about progress.
+	 * </p>
+	 */
+	private static final class WarmupStatus extends Status {
+
+		WarmupStatus() {
+			super(IStatus.WARNING, HttpJettyActivator.SYMBOLIC_NAME, "HTTP applications are warming up.");
+		}
+
+		void update(final int remaining, final int scheduled) {
+			setMessage(String.format("HTTP applications are warming up (%d of %d remaining).", remaining, scheduled));
+		}
+	}
+
+	static final String PROP_ENABLED = "gyrex.http.warmup";
+	static final String PROP_THREADS = "gyrex.http.warmup.threads";
+
+	private static final Logger LOG = LoggerFactory.getLogger(ApplicationWarmup.class);
+
+	/**
+	 * Creates a warm-up instance if enabled.
+	 *
+	 * @return the warm-up (maybe <code>null</code> if disabled)
+	 */
+	static ApplicationWarmup createIfEnabled() {
+		if (!BooleanUtils.toBoolean(System.getProperty(PROP_ENABLED, Boolean.TRUE.toString())))
+			return null;
+		return new ApplicationWarmup(Math.max(1, NumberUtils.toInt(System.getProperty(PROP_THREADS), Runtime.getRuntime().availableProcessors())));
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger scheduled = new AtomicInteger();
+
+	private final WarmupStatus status = new WarmupStatus();
+
+	private ServiceRegistration statusRegistration;
+	private volatile boolean closed;
+
+	ApplicationWarmup(final int threads) {
+		executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, String.format("Gyrex Application Warm-up %d", count.incrementAndGet()));
+				t.setDaemon(true);
+				t.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+					@Override
+					public void uncaughtException(final Thread t, final Throwable e) {
+						LOG.error("Unhandled error warming up applications. {}", ExceptionUtils.getRootCauseMessage(e), e);
+					}
+				});
+				return t;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Stops the warm-up.
+	 * <p>
+	 * Pending handlers will not be started. They will be started lazily on
+	 * first request.
+	 * </p>
+	 */
+	void close() {
+		closed = true;
+		executor.shutdownNow();
+		updateStatus();
+	}
+
+	private void start(final Handler handler, final ApplicationHandler applicationHandler) {
+		if (closed || handler.isStarted())
+			return;
+
+		if (JettyDebug.handlers) {
+			LOG.debug("eager start of handler {}", handler);
+		}
+		try {
+			// note, Jetty synchronizes start; concurrent requests will wait
+			handler.start();
+
+			// applications may defer initialization to the first request
+			if (!applicationHandler.getApplication().isInitialized()) {
+				LOG.info("Initialization of application {} has been deferred to the first request.", applicationHandler.getApplicationId());
+				applicationHandler.getMetrics().setStatus("not initialized", "Initialization has been deferred to the first request");
+			}
+		} catch (final Exception e) {
+			// the handler will be retried lazily on first request
+			LOG.warn("Unable to start application {} during warm-up. {}", applicationHandler.getApplicationId(), ExceptionUtils.getRootCauseMessage(e));
+			applicationHandler.getMetrics().setStatus("error", "Warm-up failed: " + ExceptionUtils.getRootCauseMessage(e));
+		} catch (final LinkageError e) {
+			LOG.warn("Unable to start application {} during warm-up. {}", applicationHandler.getApplicationId(), ExceptionUtils.getRootCauseMessage(e));
+			applicationHandler.getMetrics().setStatus("error", "Warm-up failed: " + ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	private synchronized void updateStatus() {
+		final int remaining = pending.get();
+		try {
+			if ((remaining > 0) && !closed) {
+				status.update(remaining, scheduled.get());
+				if (null == statusRegistration) {
+					statusRegistration = HttpJettyActivator.getInstance().getServiceHelper().registerService(IStatusConstants.SERVICE_NAME, status, "Eclipse Gyrex", "HTTP Application Warm-up Status", HttpJettyActivator.SYMBOLIC_NAME.concat(".status.warmup"), null);
+				}
+			} else if (null != statusRegistration) {
+				statusRegistration.unregister();
+				statusRegistration = null;
+			}
+		} catch (final IllegalStateException e) {
+			LOG.warn("Unable to update application warm-up status. {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Schedules eager start of the specified handler.
+	 *
+	 * @param handler
+	 *            the handler as registered with
+	 *            {@link ApplicationHandlerCollection}
+	 * @param applicationHandler
+	 *            the application handler
+	 */
+	void warmup(final Handler handler, final ApplicationHandler applicationHandler) {
+		if (closed || handler.isStarted() || handler.isStarting())
+			return;
+
+		applicationHandler.getMetrics().setStatus("warming up", "Handler has been scheduled for eager start");
+		pending.incrementAndGet();
+		scheduled.incrementAndGet();
+		updateStatus();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start(handler, applicationHandler);
+					} finally {
+						if ((pending.decrementAndGet() == 0) && !closed) {
+							scheduled.set(0);
+							LOG.info("Warm-up of HTTP applications complete.");
+						}
+						updateStatus();
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// closed concurrently; handler will be started lazily
+			pending.decrementAndGet();
+			updateStatus();
+		}
+	}
+}
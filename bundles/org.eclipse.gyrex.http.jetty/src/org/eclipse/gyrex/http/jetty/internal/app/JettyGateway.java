@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2012 AGETO Service GmbH and others.
+ * Copyright (c) 2010, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -46,6 +46,7 @@ public class JettyGateway implements IHttpGateway {
 	private final Server server;
 	private final ApplicationHandlerCollection appHandlerCollection;
 	private final File logsBaseDirectory;
+	private final ApplicationWarmup warmup;
 
 	/**
 	 * Creates a new instance.
@@ -80,6 +81,9 @@ public class JettyGateway implements IHttpGateway {
 		serverHandlers.addHandler(new DefaultHandler());
 
 		server.setHandler(serverHandlers);
+
+		// eager start of applications
+		warmup = ApplicationWarmup.createIfEnabled();
 	}
 
 	/**
@@ -96,6 +100,9 @@ public class JettyGateway implements IHttpGateway {
 			LOG.debug("{} URL handler {}", added ? "Added" : "Updated", handler);
 			LOG.debug(server.dump());
 		}
+		if (null != warmup) {
+			warmup.warmup(handler, getApplicationHandler(handler));
+		}
 		return added;
 	}
 
@@ -103,6 +110,9 @@ public class JettyGateway implements IHttpGateway {
 	 * Closes the gateway.
 	 */
 	public void close() {
+		if (null != warmup) {
+			warmup.close();
+		}
 		urlRegistryByManager.clear();
 	}
 
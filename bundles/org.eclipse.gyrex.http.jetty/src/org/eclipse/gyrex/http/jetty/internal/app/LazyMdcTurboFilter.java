@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.app;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * A Logback {@link TurboFilter} which populates the {@link RequestMdc} right
+ * before a log event is created.
+ * <p>
+ * Turbo filters are called for every logging call, even for disabled levels.
+ * Therefore, the MDC is only populated if the level is actually enabled.
+ * </p>
+ * <p>
+ * Note, this class directly references Logback which is optional. Callers
+ * must be prepared to handle {@link LinkageError}.
+ * </p>
+ */
+final class LazyMdcTurboFilter extends TurboFilter implements LoggerContextListener {
+
+	/**
+	 * Installs the filter into the Logback logger context.
+	 *
+	 * @return <code>true</code> if the filter has been installed,
+	 *         <code>false</code> if Logback is not the active SLF4J backend
+	 */
+	static Boolean install() {
+		final ILoggerFactory loggerFactory = LoggerFactory.getILoggerFactory();
+		if (!(loggerFactory instanceof LoggerContext))
+			return Boolean.FALSE;
+
+		final LoggerContext loggerContext = (LoggerContext) loggerFactory;
+		final LazyMdcTurboFilter filter = new LazyMdcTurboFilter(loggerContext);
+		filter.start();
+		loggerContext.addTurboFilter(filter);
+
+		// a reset (i.e. re-configuration) removes all turbo filters
+		loggerContext.addListener(filter);
+		return Boolean.TRUE;
+	}
+
+	private final LoggerContext loggerContext;
+
+	private LazyMdcTurboFilter(final LoggerContext loggerContext) {
+		this.loggerContext = loggerContext;
+		setName("gyrex-http-lazy-mdc");
+		setContext(loggerContext);
+	}
+
+	@Override
+	public FilterReply decide(final Marker marker, final Logger logger, final Level level, final String format, final Object[] params, final Throwable t) {
+		// ignore isXXXEnabled checks (no format and no throwable)
+		// note, we must not call Logger#isEnabledFor because it invokes turbo filters again
+		if (((null != format) || (null != t)) && (null != level) && level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+			RequestMdc.populate();
+		}
+		return FilterReply.NEUTRAL;
+	}
+
+	@Override
+	public boolean isResetResistant() {
+		return true;
+	}
+
+	@Override
+	public void onLevelChange(final Logger logger, final Level level) {
+		// empty
+	}
+
+	@Override
+	public void onReset(final LoggerContext context) {
+		// re-add after reset
+		if (!loggerContext.getTurboFilterList().contains(this)) {
+			loggerContext.addTurboFilter(this);
+		}
+	}
+
+	@Override
+	public void onStart(final LoggerContext context) {
+		// empty
+	}
+
+	@Override
+	public void onStop(final LoggerContext context) {
+		// empty
+	}
+}
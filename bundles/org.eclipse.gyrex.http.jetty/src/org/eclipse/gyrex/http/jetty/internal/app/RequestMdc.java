@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.app;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.gyrex.http.application.Application;
+import org.eclipse.gyrex.http.jetty.internal.JettyDebug;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Request information for the logging {@link MDC}.
+ * <p>
+ * Putting request information into the MDC eagerly costs several map
+ * operations and allocations per request whether or not anything is logged.
+ * Therefore, the request is only remembered (allocation free) when processing
+ * starts. The MDC is populated lazily when the first log event is created
+ * during processing of the request. This requires Logback (see
+ * {@link LazyMdcTurboFilter}). With other logging backends the MDC is populated
+ * eagerly.
+ * </p>
+ * <p>
+ * The MDC keys to populate can be configured using the system property
+ * {@value #PROP_KEYS} (a comma separated list of keys). By default all keys are
+ * populated.
+ * </p>
+ */
+public final class RequestMdc {
+
+	/** system property for configuring the enabled keys */
+	static final String PROP_KEYS = "gyrex.http.mdc.keys";
+
+	static final String MDC_KEY_CONTEXT_PATH = "gyrex.contextPath";
+	static final String MDC_KEY_APPLICATION_ID = "gyrex.applicationId";
+	static final String MDC_KEY_REQUEST_REMOTE_HOST = "req.remoteHost"; // same as Logback
+	static final String MDC_KEY_REQUEST_USER_AGENT_MDC_KEY = "req.userAgent"; // same as Logback
+	static final String MDC_KEY_REQUEST_REQUEST_URI = "req.requestURI"; // same as Logback
+	static final String MDC_KEY_REQUEST_REQUEST_URL = "req.requestURL"; // same as Logback
+	static final String MDC_KEY_REQUEST_QUERY_STRING = "req.queryString"; // same as Logback
+	static final String MDC_KEY_REQUEST_X_FORWARDED_FOR = "req.xForwardedFor"; // same as Logback
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestMdc.class);
+
+	private static final ThreadLocal<RequestMdc> current = new ThreadLocal<RequestMdc>();
+
+	private static final boolean contextPathEnabled;
+	private static final boolean applicationIdEnabled;
+	private static final boolean remoteHostEnabled;
+	private static final boolean userAgentEnabled;
+	private static final boolean requestUriEnabled;
+	private static final boolean requestUrlEnabled;
+	private static final boolean queryStringEnabled;
+	private static final boolean xForwardedForEnabled;
+	static {
+		final String keys = System.getProperty(PROP_KEYS);
+		final String[] enabledKeys = null != keys ? StringUtils.split(keys, ", ") : null;
+		contextPathEnabled = isEnabled(enabledKeys, MDC_KEY_CONTEXT_PATH);
+		applicationIdEnabled = isEnabled(enabledKeys, MDC_KEY_APPLICATION_ID);
+		remoteHostEnabled = isEnabled(enabledKeys, MDC_KEY_REQUEST_REMOTE_HOST);
+		userAgentEnabled = isEnabled(enabledKeys, MDC_KEY_REQUEST_USER_AGENT_MDC_KEY);
+		requestUriEnabled = isEnabled(enabledKeys, MDC_KEY_REQUEST_REQUEST_URI);
+		requestUrlEnabled = isEnabled(enabledKeys, MDC_KEY_REQUEST_REQUEST_URL);
+		queryStringEnabled = isEnabled(enabledKeys, MDC_KEY_REQUEST_QUERY_STRING);
+		xForwardedForEnabled = isEnabled(enabledKeys, MDC_KEY_REQUEST_X_FORWARDED_FOR);
+	}
+
+	private static volatile Boolean lazy;
+
+	/**
+	 * Clears the MDC of the current thread.
+	 */
+	public static void clear() {
+		final RequestMdc mdc = current.get();
+		if (null == mdc)
+			return;
+
+		if (mdc.populated) {
+			// clear application specific information
+			MDC.remove(MDC_KEY_APPLICATION_ID);
+			MDC.remove(MDC_KEY_CONTEXT_PATH);
+
+			// clear general request information
+			MDC.remove(MDC_KEY_REQUEST_REMOTE_HOST);
+			MDC.remove(MDC_KEY_REQUEST_REQUEST_URI);
+			MDC.remove(MDC_KEY_REQUEST_QUERY_STRING);
+			MDC.remove(MDC_KEY_REQUEST_REQUEST_URL);
+			MDC.remove(MDC_KEY_REQUEST_USER_AGENT_MDC_KEY);
+			MDC.remove(MDC_KEY_REQUEST_X_FORWARDED_FOR);
+		}
+
+		// release references
+		mdc.application = null;
+		mdc.request = null;
+		mdc.populated = false;
+	}
+
+	private static boolean isEnabled(final String[] enabledKeys, final String key) {
+		if (null == enabledKeys)
+			return true;
+		for (final String enabledKey : enabledKeys) {
+			if (key.equals(enabledKey))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isLazy() {
+		Boolean isLazy = lazy;
+		if (null == isLazy) {
+			try {
+				// note, Logback is optional
+				isLazy = LazyMdcTurboFilter.install();
+			} catch (final LinkageError e) {
+				if (JettyDebug.debug) {
+					LOG.debug("Logback not available, MDC will be populated eagerly. ({})", ExceptionUtils.getRootCauseMessage(e));
+				}
+				isLazy = Boolean.FALSE;
+			}
+			lazy = isLazy;
+		}
+		return isLazy.booleanValue();
+	}
+
+	/**
+	 * Populates the MDC of the current thread if a request is currently
+	 * processed and the MDC has not been populated yet.
+	 * <p>
+	 * This method is called for every log event and must be as cheap as
+	 * possible.
+	 * </p>
+	 */
+	static void populate() {
+		final RequestMdc mdc = current.get();
+		if ((null != mdc) && !mdc.populated && (null != mdc.request)) {
+			mdc.doPopulate();
+		}
+	}
+
+	/**
+	 * Remembers the request for populating the MDC of the current thread.
+	 */
+	public static void setup(final Application application, final HttpServletRequest request) {
+		RequestMdc mdc = current.get();
+		if (null == mdc) {
+			mdc = new RequestMdc();
+			current.set(mdc);
+		}
+		mdc.application = application;
+		mdc.request = request;
+		mdc.populated = false;
+
+		if (!isLazy()) {
+			mdc.doPopulate();
+		}
+	}
+
+	private Application application;
+	private HttpServletRequest request;
+	private boolean populated;
+
+	private RequestMdc() {
+		// empty
+	}
+
+	private void doPopulate() {
+		// set flag first to prevent recursion when logging from within the request
+		populated = true;
+
+		// application specific information
+		if (applicationIdEnabled) {
+			MDC.put(MDC_KEY_APPLICATION_ID, application.getId());
+		}
+		if (contextPathEnabled) {
+			MDC.put(MDC_KEY_CONTEXT_PATH, application.getContext().getContextPath().toString());
+		}
+
+		// general request information
+		if (remoteHostEnabled) {
+			MDC.put(MDC_KEY_REQUEST_REMOTE_HOST, request.getRemoteHost());
+		}
+		if (requestUriEnabled) {
+			MDC.put(MDC_KEY_REQUEST_REQUEST_URI, request.getRequestURI());
+		}
+		if (requestUrlEnabled) {
+			final StringBuffer requestURL = request.getRequestURL();
+			if (requestURL != null) {
+				MDC.put(MDC_KEY_REQUEST_REQUEST_URL, requestURL.toString());
+			}
+		}
+		if (queryStringEnabled) {
+			MDC.put(MDC_KEY_REQUEST_QUERY_STRING, request.getQueryString());
+		}
+		if (userAgentEnabled) {
+			MDC.put(MDC_KEY_REQUEST_USER_AGENT_MDC_KEY, request.getHeader("User-Agent"));
+		}
+		if (xForwardedForEnabled) {
+			MDC.put(MDC_KEY_REQUEST_X_FORWARDED_FOR, request.getHeader("X-Forwarded-For"));
+		}
+	}
+}
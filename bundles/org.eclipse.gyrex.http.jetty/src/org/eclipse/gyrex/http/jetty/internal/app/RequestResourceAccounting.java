@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.app;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.gyrex.monitoring.metrics.ResourceUsageMetric;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the CPU time and the bytes allocated by the current thread while
+ * processing a request.
+ * <p>
+ * Only a random sample of the requests is measured in order to bound the
+ * overhead. The average number of requests per measured request can be
+ * configured using the system property {@value #PROP_SAMPLE_INTERVAL} (a value
+ * of <code>0</code> disables measuring). Allocated bytes are only available on
+ * JVMs supporting <code>com.sun.management.ThreadMXBean</code>.
+ * </p>
+ */
+final class RequestResourceAccounting {
+
+	/** system property for configuring the sample interval */
+	static final String PROP_SAMPLE_INTERVAL = "gyrex.http.resourceAccounting.sampleInterval";
+
+	/** the average number of requests per measured request (0 if disabled) */
+	static final int SAMPLE_INTERVAL = Math.max(0, NumberUtils.toInt(System.getProperty(PROP_SAMPLE_INTERVAL), 16));
+
+	/** the number of slowest requests to track per application */
+	static final int SLOWEST_REQUESTS = 10;
+
+	private static final Logger LOG = LoggerFactory.getLogger(RequestResourceAccounting.class);
+
+	private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+	private static final boolean cpuTimeEnabled;
+	private static final Method getThreadAllocatedBytes;
+	static {
+		boolean cpuTime = false;
+		Method allocatedBytes = null;
+		if (SAMPLE_INTERVAL > 0) {
+			try {
+				cpuTime = threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled();
+				allocatedBytes = findAllocatedBytesMethod();
+			} catch (final Exception e) {
+				LOG.debug("Unable to measure request resource usage. {}", e.toString());
+			}
+		}
+		cpuTimeEnabled = cpuTime;
+		getThreadAllocatedBytes = allocatedBytes;
+	}
+
+	private static long currentThreadAllocatedBytes() {
+		if (null == getThreadAllocatedBytes)
+			return -1;
+		try {
+			return ((Long) getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread().getId())).longValue();
+		} catch (final Exception e) {
+			return -1;
+		}
+	}
+
+	private static long currentThreadCpuTime() {
+		return cpuTimeEnabled ? threadMXBean.getCurrentThreadCpuTime() : -1;
+	}
+
+	private static Method findAllocatedBytesMethod() throws Exception {
+		// com.sun.management.ThreadMXBean is not visible to bundles, use the public interface implemented by the bean
+		for (Class<?> beanClass = threadMXBean.getClass(); null != beanClass; beanClass = beanClass.getSuperclass()) {
+			for (final Class<?> type : beanClass.getInterfaces()) {
+				if (ThreadMXBean.class.isAssignableFrom(type) && (ThreadMXBean.class != type)) {
+					final Method isSupported = type.getMethod("isThreadAllocatedMemorySupported");
+					final Method isEnabled = type.getMethod("isThreadAllocatedMemoryEnabled");
+					if (Boolean.TRUE.equals(isSupported.invoke(threadMXBean)) && Boolean.TRUE.equals(isEnabled.invoke(threadMXBean)))
+						return type.getMethod("getThreadAllocatedBytes", long.class);
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Starts measuring the current request if it's part of the sample.
+	 *
+	 * @return the started measurement (<code>null</code> if the request should
+	 *         not be measured)
+	 */
+	static RequestResourceAccounting start() {
+		if ((SAMPLE_INTERVAL == 0) || ((SAMPLE_INTERVAL > 1) && (ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) != 0)))
+			return null;
+		return new RequestResourceAccounting();
+	}
+
+	private final long startNanos;
+	private final long cpuTimeStart;
+	private final long allocatedBytesStart;
+
+	private RequestResourceAccounting() {
+		allocatedBytesStart = currentThreadAllocatedBytes();
+		cpuTimeStart = currentThreadCpuTime();
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Finishes the measurement and records it.
+	 * <p>
+	 * Must be called from the thread which started the measurement.
+	 * </p>
+	 *
+	 * @param metric
+	 *            the metric to record into
+	 * @param name
+	 *            the request name
+	 */
+	void finish(final ResourceUsageMetric metric, final String name) {
+		final long duration = System.nanoTime() - startNanos;
+		final long cpuTime = cpuTimeStart >= 0 ? currentThreadCpuTime() - cpuTimeStart : -1;
+		final long allocatedBytes = allocatedBytesStart >= 0 ? currentThreadAllocatedBytes() - allocatedBytesStart : -1;
+		metric.requestMeasured(name, duration, cpuTime, allocatedBytes);
+	}
+}
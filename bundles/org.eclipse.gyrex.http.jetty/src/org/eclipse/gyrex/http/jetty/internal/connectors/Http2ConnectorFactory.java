@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.connectors;
+
+import org.eclipse.gyrex.http.jetty.admin.ChannelDescriptor;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.NegotiatingServerConnectionFactory;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+/**
+ * Factory for Jetty connectors speaking HTTP/2 in addition to HTTP/1.1.
+ * <p>
+ * Secure channels negotiate <code>h2</code> via ALPN and fall back to
+ * HTTP/1.1 for clients not supporting it. Plain channels accept HTTP/1.1 as
+ * well as <code>h2c</code> (either via upgrade or with prior knowledge).
+ * </p>
+ * <p>
+ * Note, this class directly references the optional Jetty HTTP/2 packages.
+ * Callers must verify that they are available before using it.
+ * </p>
+ */
+public class Http2ConnectorFactory {
+
+	private static void configure(final AbstractHTTP2ServerConnectionFactory factory, final ChannelDescriptor channel) {
+		if (channel.getHttp2MaxConcurrentStreams() > 0) {
+			factory.setMaxConcurrentStreams(channel.getHttp2MaxConcurrentStreams());
+		}
+		if (channel.getHttp2InitialSessionWindow() > 0) {
+			factory.setInitialSessionRecvWindow(channel.getHttp2InitialSessionWindow());
+		}
+		if (channel.getHttp2InitialStreamWindow() > 0) {
+			factory.setInitialStreamRecvWindow(channel.getHttp2InitialStreamWindow());
+		}
+	}
+
+	/**
+	 * Creates a new HTTP/2 connector.
+	 *
+	 * @param server
+	 *            the server
+	 * @param channel
+	 *            the channel to create the connector for
+	 * @param sslFactory
+	 *            the SSL factory for secure channels (may be <code>null</code>
+	 *            for plain channels)
+	 * @param httpConfig
+	 *            the HTTP configuration
+	 * @return the connector
+	 * @throws IllegalStateException
+	 *             if a secure connector is requested but ALPN is not
+	 *             available in the running JVM
+	 */
+	public static ServerConnector createConnector(final Server server, final ChannelDescriptor channel, final SslContextFactory sslFactory, final HttpConfiguration httpConfig) throws IllegalStateException {
+		if (null == sslFactory) {
+			final HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfig);
+			final HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpConfig);
+			configure(h2c, channel);
+			return new ServerConnector(server, http1, h2c);
+		}
+
+		// fail early if ALPN is not available (requires boot class path setup)
+		NegotiatingServerConnectionFactory.checkProtocolNegotiationAvailable();
+
+		final HttpConfiguration httpsConfig = new HttpConfiguration(httpConfig);
+		httpsConfig.addCustomizer(new SecureRequestCustomizer());
+
+		final HttpConnectionFactory http1 = new HttpConnectionFactory(httpsConfig);
+		final HTTP2ServerConnectionFactory h2 = new HTTP2ServerConnectionFactory(httpsConfig);
+		configure(h2, channel);
+
+		final ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory(h2.getProtocol(), http1.getProtocol());
+		alpn.setDefaultProtocol(http1.getProtocol());
+
+		// HTTP/2 black-lists many TLS ciphers; prefer the allowed ones
+		sslFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+		sslFactory.setUseCipherSuitesOrder(true);
+
+		final SslConnectionFactory ssl = new SslConnectionFactory(sslFactory, alpn.getProtocol());
+		return new ServerConnector(server, ssl, alpn, h2, http1);
+	}
+
+	private Http2ConnectorFactory() {
+		// empty
+	}
+}
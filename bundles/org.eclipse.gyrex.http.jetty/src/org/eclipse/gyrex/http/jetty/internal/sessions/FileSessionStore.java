@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.sessions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A {@link ISessionStore} which stores one file per session in a local
+ * directory.
+ * <p>
+ * This store is intended for local development and single node deployments
+ * where sessions should survive a restart. Files are written to a temporary
+ * file first and then renamed in order to never expose partially written
+ * sessions.
+ * </p>
+ */
+public class FileSessionStore implements ISessionStore {
+
+	private static final int FORMAT_VERSION = 1;
+	private static final String FILE_EXTENSION = ".session";
+
+	private final File directory;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param directory
+	 *            the directory to store sessions in
+	 * @throws IOException
+	 *             if the directory could not be created
+	 */
+	public FileSessionStore(final File directory) throws IOException {
+		if (null == directory)
+			throw new IllegalArgumentException("directory must not be null");
+		FileUtils.forceMkdir(directory);
+		this.directory = directory;
+	}
+
+	@Override
+	public void close() {
+		// nothing to close
+	}
+
+	@Override
+	public void delete(final Collection<String> sessionIds) throws Exception {
+		for (final String id : sessionIds) {
+			final File file = getFile(id);
+			if (file.isFile() && !file.delete())
+				throw new IOException(String.format("Unable to delete session file %s", file));
+		}
+	}
+
+	@Override
+	public int deleteExpired(final long now) throws Exception {
+		final File[] files = directory.listFiles();
+		if (null == files)
+			return 0;
+
+		int deleted = 0;
+		for (final File file : files) {
+			if (!file.getName().endsWith(FILE_EXTENSION)) {
+				continue;
+			}
+			try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64))) {
+				final SessionData header = readHeader(in);
+				if ((null != header) && !header.isExpired(now)) {
+					continue;
+				}
+			} catch (final FileNotFoundException e) {
+				// deleted concurrently
+				continue;
+			}
+			if (file.delete()) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	private File getFile(final String sessionId) {
+		// session ids are typically safe but we must not allow escaping the directory
+		final StringBuilder name = new StringBuilder(sessionId.length() + FILE_EXTENSION.length());
+		for (int i = 0; i < sessionId.length(); i++) {
+			final char c = sessionId.charAt(i);
+			if (Character.isLetterOrDigit(c) || (c == '-') || (c == '_')) {
+				name.append(c);
+			} else {
+				name.append('_').append(Integer.toHexString(c)).append('_');
+			}
+		}
+		return new File(directory, name.append(FILE_EXTENSION).toString());
+	}
+
+	@Override
+	public SessionData load(final String sessionId) throws Exception {
+		final File file = getFile(sessionId);
+		if (!file.isFile())
+			return null;
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			final SessionData header = readHeader(in);
+			if (null == header)
+				return null;
+			final byte[] attributes = new byte[in.readInt()];
+			in.readFully(attributes);
+			return new SessionData(header.getId(), header.getCreated(), header.getAccessed(), header.getMaxInactiveInterval(), attributes);
+		} catch (final FileNotFoundException e) {
+			// deleted concurrently
+			return null;
+		}
+	}
+
+	private SessionData readHeader(final DataInputStream in) throws IOException {
+		if (in.readInt() != FORMAT_VERSION)
+			return null;
+		final String id = in.readUTF();
+		final long created = in.readLong();
+		final long accessed = in.readLong();
+		final int maxInactiveInterval = in.readInt();
+		return new SessionData(id, created, accessed, maxInactiveInterval, null);
+	}
+
+	@Override
+	public void store(final Collection<SessionData> sessions) throws Exception {
+		for (final SessionData session : sessions) {
+			final File file = getFile(session.getId());
+			final File tempFile = new File(directory, file.getName().concat(".tmp"));
+			try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(session.getId());
+				out.writeLong(session.getCreated());
+				out.writeLong(session.getAccessed());
+				out.writeInt(session.getMaxInactiveInterval());
+				out.writeInt(session.getAttributes().length);
+				out.write(session.getAttributes());
+			}
+			if (!tempFile.renameTo(file)) {
+				// some platforms don't allow renaming over existing files
+				if (!file.delete() || !tempFile.renameTo(file))
+					throw new IOException(String.format("Unable to write session file %s", file));
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FileSessionStore [" + directory + "]";
+	}
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.sessions;
+
+import java.util.Collection;
+
+/**
+ * A store for persisting HTTP sessions outside of a single node.
+ * <p>
+ * Stores are used by {@link StoreBackedSessionManager} which keeps sessions
+ * in memory as a near-cache and writes changes to the store in batches. Thus,
+ * stores only deal with already serialized {@link SessionData} and never see
+ * the actual session objects.
+ * </p>
+ * <p>
+ * Implementations must be thread safe. Sessions are loaded from request
+ * threads whereas writes typically happen on a background thread.
+ * </p>
+ */
+public interface ISessionStore {
+
+	/**
+	 * Closes the store and releases any resources held.
+	 */
+	void close();
+
+	/**
+	 * Deletes the sessions with the specified ids.
+	 * 
+	 * @param sessionIds
+	 *            the session ids
+	 * @throws Exception
+	 *             if an error occurred deleting the sessions
+	 */
+	void delete(Collection<String> sessionIds) throws Exception;
+
+	/**
+	 * Deletes all sessions which expired before the specified time.
+	 * 
+	 * @param now
+	 *            the current time (in milliseconds)
+	 * @return the number of deleted sessions
+	 * @throws Exception
+	 *             if an error occurred deleting the sessions
+	 */
+	int deleteExpired(long now) throws Exception;
+
+	/**
+	 * Loads a session.
+	 * 
+	 * @param sessionId
+	 *            the session id
+	 * @return the session data (maybe <code>null</code> if no such session
+	 *         exists)
+	 * @throws Exception
+	 *             if an error occurred loading the session
+	 */
+	SessionData load(String sessionId) throws Exception;
+
+	/**
+	 * Stores (inserts or updates) the specified sessions.
+	 * 
+	 * @param sessions
+	 *            the sessions to store
+	 * @throws Exception
+	 *             if an error occurred storing the sessions
+	 */
+	void store(Collection<SessionData> sessions) throws Exception;
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.sessions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.gyrex.context.IRuntimeContext;
+import org.eclipse.gyrex.persistence.PersistenceUtil;
+import org.eclipse.gyrex.persistence.jdbc.storage.JdbcRepository;
+import org.eclipse.gyrex.persistence.storage.Repository;
+import org.eclipse.gyrex.persistence.storage.content.RepositoryContentType;
+
+/**
+ * A {@link ISessionStore} which stores sessions in a database table using a
+ * {@link JdbcRepository}.
+ * <p>
+ * Sessions of all applications may share the same table. They are
+ * distinguished by the application id. The table is created on first use if
+ * it does not exist.
+ * </p>
+ */
+public class JdbcSessionStore implements ISessionStore {
+
+	/** the content type used to lookup the session repository from the context */
+	public static final RepositoryContentType CONTENT_TYPE = new RepositoryContentType("application", "x-gyrex-http-sessions", JdbcRepository.class.getName(), "1.0");
+
+	/** the default table name */
+	public static final String DEFAULT_TABLE = "GYREX_HTTP_SESSIONS";
+
+	/**
+	 * Creates a new store using the repository assigned to the specified
+	 * context.
+	 *
+	 * @param context
+	 *            the context to lookup the repository from
+	 * @param applicationId
+	 *            the application id
+	 * @param table
+	 *            the table name
+	 * @return the store
+	 * @throws IllegalStateException
+	 *             if no suitable repository is available
+	 * @throws SQLException
+	 *             if the table could not be created
+	 */
+	public static JdbcSessionStore create(final IRuntimeContext context, final String applicationId, final String table) throws IllegalStateException, SQLException {
+		final Repository repository = PersistenceUtil.getRepository(context, CONTENT_TYPE);
+		if (!(repository instanceof JdbcRepository))
+			throw new IllegalStateException(String.format("Repository '%s' is not a JDBC repository.", repository.getRepositoryId()));
+		return new JdbcSessionStore((JdbcRepository) repository, applicationId, table);
+	}
+
+	private final JdbcRepository repository;
+	private final String applicationId;
+	private final String table;
+
+	private final String sqlSelect;
+	private final String sqlInsert;
+	private final String sqlUpdate;
+	private final String sqlDelete;
+	private final String sqlDeleteExpired;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param repository
+	 *            the repository
+	 * @param applicationId
+	 *            the application id
+	 * @param table
+	 *            the table name
+	 * @throws SQLException
+	 *             if the table could not be created
+	 */
+	public JdbcSessionStore(final JdbcRepository repository, final String applicationId, final String table) throws SQLException {
+		if (null == repository)
+			throw new IllegalArgumentException("repository must not be null");
+		if (null == applicationId)
+			throw new IllegalArgumentException("application id must not be null");
+		if ((null == table) || !table.matches("[A-Za-z_][A-Za-z0-9_]*"))
+			throw new IllegalArgumentException("invalid table name: " + table);
+		this.repository = repository;
+		this.applicationId = applicationId;
+		this.table = table;
+
+		sqlSelect = "SELECT CREATED, ACCESSED, MAX_INACTIVE, ATTRIBUTES FROM " + table + " WHERE APP_ID = ? AND ID = ?";
+		sqlInsert = "INSERT INTO " + table + " (APP_ID, ID, CREATED, ACCESSED, MAX_INACTIVE, EXPIRY, ATTRIBUTES) VALUES (?, ?, ?, ?, ?, ?, ?)";
+		sqlUpdate = "UPDATE " + table + " SET ACCESSED = ?, MAX_INACTIVE = ?, EXPIRY = ?, ATTRIBUTES = ? WHERE APP_ID = ? AND ID = ?";
+		sqlDelete = "DELETE FROM " + table + " WHERE APP_ID = ? AND ID = ?";
+		sqlDeleteExpired = "DELETE FROM " + table + " WHERE APP_ID = ? AND EXPIRY < ?";
+
+		createTableIfNecessary();
+	}
+
+	@Override
+	public void close() {
+		// the repository is managed by Gyrex
+	}
+
+	private void createTableIfNecessary() throws SQLException {
+		try (Connection connection = repository.getConnection()) {
+			try (Statement statement = connection.createStatement()) {
+				statement.executeQuery("SELECT ID FROM " + table + " WHERE 1 = 0").close();
+				return;
+			} catch (final SQLException e) {
+				// assume table does not exist
+			}
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("CREATE TABLE " + table + " (APP_ID VARCHAR(255) NOT NULL, ID VARCHAR(120) NOT NULL, CREATED BIGINT NOT NULL, ACCESSED BIGINT NOT NULL, MAX_INACTIVE INTEGER NOT NULL, EXPIRY BIGINT NOT NULL, ATTRIBUTES BLOB, PRIMARY KEY (APP_ID, ID))");
+				statement.executeUpdate("CREATE INDEX " + table + "_EXPIRY ON " + table + " (APP_ID, EXPIRY)");
+			}
+			if (!connection.getAutoCommit()) {
+				connection.commit();
+			}
+		}
+	}
+
+	@Override
+	public void delete(final Collection<String> sessionIds) throws Exception {
+		try (Connection connection = repository.getConnection()) {
+			try (PreparedStatement statement = connection.prepareStatement(sqlDelete)) {
+				for (final String id : sessionIds) {
+					statement.setString(1, applicationId);
+					statement.setString(2, id);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+			if (!connection.getAutoCommit()) {
+				connection.commit();
+			}
+		}
+	}
+
+	@Override
+	public int deleteExpired(final long now) throws Exception {
+		try (Connection connection = repository.getConnection()) {
+			final int deleted;
+			try (PreparedStatement statement = connection.prepareStatement(sqlDeleteExpired)) {
+				statement.setString(1, applicationId);
+				statement.setLong(2, now);
+				deleted = statement.executeUpdate();
+			}
+			if (!connection.getAutoCommit()) {
+				connection.commit();
+			}
+			return deleted;
+		}
+	}
+
+	@Override
+	public SessionData load(final String sessionId) throws Exception {
+		try (Connection connection = repository.getConnection()) {
+			try (PreparedStatement statement = connection.prepareStatement(sqlSelect)) {
+				statement.setString(1, applicationId);
+				statement.setString(2, sessionId);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					if (!resultSet.next())
+						return null;
+					return new SessionData(sessionId, resultSet.getLong(1), resultSet.getLong(2), resultSet.getInt(3), resultSet.getBytes(4));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void store(final Collection<SessionData> sessions) throws Exception {
+		try (Connection connection = repository.getConnection()) {
+			// try updating all sessions first (common case)
+			final List<SessionData> inserts = new ArrayList<SessionData>();
+			try (PreparedStatement statement = connection.prepareStatement(sqlUpdate)) {
+				for (final SessionData session : sessions) {
+					setUpdateParameters(statement, session);
+					statement.addBatch();
+				}
+				final int[] updateCounts = statement.executeBatch();
+				int i = 0;
+				for (final SessionData session : sessions) {
+					final int updateCount = i < updateCounts.length ? updateCounts[i] : Statement.SUCCESS_NO_INFO;
+					if (updateCount == 0) {
+						inserts.add(session);
+					} else if (updateCount == Statement.SUCCESS_NO_INFO) {
+						// driver does not report affected rows for batches; update again individually
+						// (this is idempotent and tells whether the row exists)
+						setUpdateParameters(statement, session);
+						if (statement.executeUpdate() == 0) {
+							inserts.add(session);
+						}
+					}
+					i++;
+				}
+			}
+
+			// insert new sessions
+			if (!inserts.isEmpty()) {
+				try (PreparedStatement statement = connection.prepareStatement(sqlInsert)) {
+					for (final SessionData session : inserts) {
+						statement.setString(1, applicationId);
+						statement.setString(2, session.getId());
+						statement.setLong(3, session.getCreated());
+						statement.setLong(4, session.getAccessed());
+						statement.setInt(5, session.getMaxInactiveInterval());
+						statement.setLong(6, session.getExpiry());
+						statement.setBytes(7, session.getAttributes());
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+			}
+
+			if (!connection.getAutoCommit()) {
+				connection.commit();
+			}
+		}
+	}
+
+	private void setUpdateParameters(final PreparedStatement statement, final SessionData session) throws SQLException {
+		statement.setLong(1, session.getAccessed());
+		statement.setInt(2, session.getMaxInactiveInterval());
+		statement.setLong(3, session.getExpiry());
+		statement.setBytes(4, session.getAttributes());
+		statement.setString(5, applicationId);
+		statement.setString(6, session.getId());
+	}
+
+	@Override
+	public String toString() {
+		return "JdbcSessionStore [" + repository.getRepositoryId() + "/" + table + "]";
+	}
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.sessions;
+
+/**
+ * Immutable, serialized form of a HTTP session as exchanged with an
+ * {@link ISessionStore}.
+ */
+public final class SessionData {
+
+	private final String id;
+	private final long created;
+	private final long accessed;
+	private final int maxInactiveInterval;
+	private final byte[] attributes;
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param id
+	 *            the session id
+	 * @param created
+	 *            the creation time (in milliseconds)
+	 * @param accessed
+	 *            the last access time (in milliseconds)
+	 * @param maxInactiveInterval
+	 *            the max inactive interval (in seconds, <code>&lt;=0</code>
+	 *            for never expiring sessions)
+	 * @param attributes
+	 *            the serialized session attributes
+	 */
+	public SessionData(final String id, final long created, final long accessed, final int maxInactiveInterval, final byte[] attributes) {
+		if (null == id)
+			throw new IllegalArgumentException("id must not be null");
+		this.id = id;
+		this.created = created;
+		this.accessed = accessed;
+		this.maxInactiveInterval = maxInactiveInterval;
+		this.attributes = null != attributes ? attributes : new byte[0];
+	}
+
+	/**
+	 * Returns the last access time.
+	 * 
+	 * @return the last access time (in milliseconds)
+	 */
+	public long getAccessed() {
+		return accessed;
+	}
+
+	/**
+	 * Returns the serialized session attributes.
+	 * <p>
+	 * Note, for performance reasons the array is not copied. It must not be
+	 * modified.
+	 * </p>
+	 * 
+	 * @return the serialized session attributes
+	 */
+	public byte[] getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * Returns the creation time.
+	 * 
+	 * @return the creation time (in milliseconds)
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * Returns the time the session will expire.
+	 * 
+	 * @return the expiry time (in milliseconds, {@link Long#MAX_VALUE} for
+	 *         never expiring sessions)
+	 */
+	public long getExpiry() {
+		if (maxInactiveInterval <= 0)
+			return Long.MAX_VALUE;
+		return accessed + (maxInactiveInterval * 1000L);
+	}
+
+	/**
+	 * Returns the session id.
+	 * 
+	 * @return the session id
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the max inactive interval.
+	 * 
+	 * @return the max inactive interval (in seconds)
+	 */
+	public int getMaxInactiveInterval() {
+		return maxInactiveInterval;
+	}
+
+	/**
+	 * Indicates if the session is expired.
+	 * 
+	 * @param now
+	 *            the current time (in milliseconds)
+	 * @return <code>true</code> if expired, <code>false</code> otherwise
+	 */
+	public boolean isExpired(final long now) {
+		return getExpiry() < now;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("SessionData [id=").append(id).append(", accessed=").append(accessed).append(", maxInactiveInterval=").append(maxInactiveInterval).append(", attributes=").append(attributes.length).append(" bytes]");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.sessions;
+
+import java.io.File;
+import java.util.Map;
+
+import org.eclipse.gyrex.context.IRuntimeContext;
+import org.eclipse.gyrex.http.jetty.internal.HttpJettyActivator;
+import org.eclipse.gyrex.server.Platform;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates {@link ISessionStore session stores} based on application init
+ * parameters.
+ * <p>
+ * The following init parameters are supported:
+ * <ul>
+ * <li><code>session.store</code> - the store type, i.e. <code>memory</code>
+ * (default, sessions are not persisted), <code>file</code> (local files) or
+ * <code>jdbc</code> (a JDBC repository)</li>
+ * <li><code>session.store.writeBehindDelay</code> - max. delay in milliseconds
+ * for writing modified sessions (default 1000, 0 writes synchronously)</li>
+ * <li><code>session.store.batchSize</code> - max. number of sessions written at
+ * once (default 100)</li>
+ * <li><code>session.store.nearCacheIdleTime</code> - seconds after which
+ * sessions not accessed on a node are evicted from memory (default 300)</li>
+ * <li><code>session.store.file.directory</code> - the directory for the
+ * <code>file</code> store (default is a folder in the bundle state location)</li>
+ * <li><code>session.store.jdbc.table</code> - the table name for the
+ * <code>jdbc</code> store (default {@value JdbcSessionStore#DEFAULT_TABLE})</li>
+ * </ul>
+ * The JDBC repository is looked up from the application context using the
+ * content type {@link JdbcSessionStore#CONTENT_TYPE}.
+ * </p>
+ */
+public class SessionStoreFactory {
+
+	public static final String PARAM_STORE = "session.store";
+	public static final String PARAM_WRITE_BEHIND_DELAY = "session.store.writeBehindDelay";
+	public static final String PARAM_BATCH_SIZE = "session.store.batchSize";
+	public static final String PARAM_NEAR_CACHE_IDLE_TIME = "session.store.nearCacheIdleTime";
+	public static final String PARAM_FILE_DIRECTORY = "session.store.file.directory";
+	public static final String PARAM_JDBC_TABLE = "session.store.jdbc.table";
+
+	public static final String TYPE_MEMORY = "memory";
+	public static final String TYPE_FILE = "file";
+	public static final String TYPE_JDBC = "jdbc";
+
+	private static final Logger LOG = LoggerFactory.getLogger(SessionStoreFactory.class);
+
+	private static ISessionStore createFileStore(final String applicationId, final Map<String, String> initParams) throws Exception {
+		final String directory = StringUtils.trimToNull(initParams.get(PARAM_FILE_DIRECTORY));
+		if (null != directory)
+			return new FileSessionStore(new File(directory));
+		return new FileSessionStore(Platform.getStateLocation(HttpJettyActivator.getInstance().getBundle()).append("sessions").append(applicationId).toFile());
+	}
+
+	/**
+	 * Creates a session manager for an application based on the init
+	 * parameters.
+	 *
+	 * @param applicationId
+	 *            the application id
+	 * @param context
+	 *            the application context
+	 * @param initParams
+	 *            the application init parameters
+	 * @return the session manager (maybe <code>null</code> if sessions should
+	 *         not be persisted)
+	 */
+	public static StoreBackedSessionManager createSessionManager(final String applicationId, final IRuntimeContext context, final Map<String, String> initParams) {
+		final String type = StringUtils.trimToNull(initParams.get(PARAM_STORE));
+		if ((null == type) || TYPE_MEMORY.equals(type))
+			return null;
+
+		final ISessionStore store;
+		try {
+			if (TYPE_FILE.equals(type)) {
+				store = createFileStore(applicationId, initParams);
+			} else if (TYPE_JDBC.equals(type)) {
+				// note, JDBC support is optional
+				store = JdbcSessionStore.create(context, applicationId, StringUtils.defaultIfEmpty(StringUtils.trimToNull(initParams.get(PARAM_JDBC_TABLE)), JdbcSessionStore.DEFAULT_TABLE));
+			} else {
+				LOG.warn("Unknown session store '{}' configured for application {}. Sessions will not be persisted.", type, applicationId);
+				return null;
+			}
+		} catch (final LinkageError e) {
+			LOG.error("Session store '{}' not available for application {}. Sessions will not be persisted. Please check your server setup! ({})", type, applicationId, ExceptionUtils.getRootCauseMessage(e));
+			return null;
+		} catch (final Exception e) {
+			LOG.error("Error creating session store '{}' for application {}. Sessions will not be persisted. {}", type, applicationId, ExceptionUtils.getRootCauseMessage(e));
+			return null;
+		}
+
+		final long writeBehindDelay = Math.max(0, NumberUtils.toLong(initParams.get(PARAM_WRITE_BEHIND_DELAY), 1000L));
+		final int batchSize = Math.max(1, NumberUtils.toInt(initParams.get(PARAM_BATCH_SIZE), 100));
+		final long nearCacheIdleTime = Math.max(0, NumberUtils.toLong(initParams.get(PARAM_NEAR_CACHE_IDLE_TIME), 300L)) * 1000L;
+		return new StoreBackedSessionManager(store, applicationId, writeBehindDelay, batchSize, nearCacheIdleTime);
+	}
+
+	private SessionStoreFactory() {
+		// empty
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.sessions;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.server.session.HashedSession;
+
+/**
+ * A session which tracks modifications so that only dirty sessions are
+ * written to the {@link ISessionStore}.
+ * <p>
+ * Note, only changes made through {@link #setAttribute(String, Object)} and
+ * {@link #removeAttribute(String)} are detected. Mutating an attribute value
+ * in place does not mark the session dirty.
+ * </p>
+ */
+public class StoreBackedSession extends HashedSession {
+
+	private final StoreBackedSessionManager manager;
+	private final AtomicInteger activeRequests = new AtomicInteger();
+
+	private volatile boolean dirty;
+	private volatile boolean timedOut;
+	private volatile long storedAccessed;
+
+	/**
+	 * Creates a new session for a request.
+	 */
+	protected StoreBackedSession(final StoreBackedSessionManager manager, final HttpServletRequest request) {
+		super(manager, request);
+		this.manager = manager;
+
+		// new sessions must always be written
+		dirty = true;
+	}
+
+	/**
+	 * Creates a session for existing session data.
+	 */
+	protected StoreBackedSession(final StoreBackedSessionManager manager, final long created, final long accessed, final String clusterId) {
+		super(manager, created, accessed, clusterId);
+		this.manager = manager;
+		storedAccessed = accessed;
+	}
+
+	@Override
+	protected boolean access(final long time) {
+		// an invalid session is not accessed and thus never completed
+		if (!super.access(time))
+			return false;
+		activeRequests.incrementAndGet();
+		return true;
+	}
+
+	@Override
+	protected void complete() {
+		super.complete();
+		activeRequests.decrementAndGet();
+	}
+
+	@Override
+	protected Object doPutOrRemove(final String name, final Object value) {
+		dirty = true;
+		return super.doPutOrRemove(name, value);
+	}
+
+	/**
+	 * Indicates if the session is currently in use by a request.
+	 */
+	boolean isInUse() {
+		return activeRequests.get() > 0;
+	}
+
+	/**
+	 * Indicates if the session needs to be written to the store.
+	 * <p>
+	 * This is the case if the session attributes were modified or if the last
+	 * access time recorded in the store is getting too old for other nodes to
+	 * judge expiration correctly.
+	 * </p>
+	 */
+	boolean isStoreNeeded(final long now) {
+		if (dirty)
+			return true;
+		final int maxInactiveInterval = getMaxInactiveInterval();
+		if (maxInactiveInterval <= 0)
+			return false;
+		// refresh access time after a quarter of the inactive interval
+		return (now - storedAccessed) > (maxInactiveInterval * 250L);
+	}
+
+	/**
+	 * Indicates if the session was invalidated because it timed out locally.
+	 */
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Marks the session dirty so that it will be written again.
+	 */
+	void markDirty() {
+		dirty = true;
+	}
+
+	/**
+	 * Creates a snapshot of the session for writing to the store and resets
+	 * the dirty state.
+	 *
+	 * @return the snapshot (maybe <code>null</code> if the session is no
+	 *         longer valid)
+	 */
+	SessionData snapshot() throws IOException {
+		final Map<String, Object> attributes;
+		final long accessed;
+		synchronized (this) {
+			if (!isValid())
+				return null;
+			attributes = new HashMap<String, Object>(getAttributeMap());
+			accessed = getAccessed();
+			dirty = false;
+			storedAccessed = accessed;
+		}
+		return new SessionData(getClusterId(), getCreationTime(), accessed, getMaxInactiveInterval(), manager.serializeAttributes(attributes));
+	}
+
+	@Override
+	protected void timeout() throws IllegalStateException {
+		timedOut = true;
+		super.timeout();
+	}
+}
@@ -0,0 +1,448 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.jetty.internal.sessions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.gyrex.http.jetty.internal.JettyDebug;
+
+import org.eclipse.jetty.server.session.AbstractSession;
+import org.eclipse.jetty.server.session.HashSessionManager;
+import org.eclipse.jetty.server.session.HashedSession;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link HashSessionManager} which uses an {@link ISessionStore} for
+ * persisting sessions.
+ * <p>
+ * The in-memory session map of the {@link HashSessionManager} is used as a
+ * near-cache, i.e. reads are always served from memory. Sessions unknown to
+ * this node are loaded from the store on first access. Only sessions modified
+ * by a request (or whose stored access time becomes stale) are written to the
+ * store. Writes are coalesced per session and written in batches by a
+ * background thread (write-behind). Thus, at most the changes of the
+ * configured write-behind delay may be lost when a node crashes.
+ * </p>
+ * <p>
+ * Sessions not accessed locally for some time are evicted from the near-cache
+ * (without invalidating them). This keeps memory bounded and ensures that
+ * changes made by other nodes are picked up when a user moves between nodes.
+ * </p>
+ */
+public class StoreBackedSessionManager extends HashSessionManager {
+
+	/**
+	 * {@link ObjectInputStream} which resolves classes using a specific class
+	 * loader.
+	 */
+	private static final class ClassLoadingObjectInputStream extends ObjectInputStream {
+		private final ClassLoader classLoader;
+
+		ClassLoadingObjectInputStream(final InputStream in, final ClassLoader classLoader) throws IOException {
+			super(in);
+			this.classLoader = classLoader;
+		}
+
+		@Override
+		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (null != classLoader) {
+				try {
+					return Class.forName(desc.getName(), false, classLoader);
+				} catch (final ClassNotFoundException e) {
+					// fall back to default
+				}
+			}
+			return super.resolveClass(desc);
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(StoreBackedSessionManager.class);
+
+	/** interval for purging expired sessions from the store */
+	private static final long PURGE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+	private final ISessionStore store;
+	private final String name;
+	private final long writeBehindDelay;
+	private final int batchSize;
+	private final long nearCacheIdleTime;
+	private final ConcurrentMap<String, StoreBackedSession> pendingWrites = new ConcurrentHashMap<String, StoreBackedSession>();
+	private final ConcurrentMap<String, Boolean> pendingDeletes = new ConcurrentHashMap<String, Boolean>();
+	private final Object loadLock = new Object();
+
+	private volatile ClassLoader attributesClassLoader;
+	private ScheduledExecutorService writer;
+	private long lastPurge;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param store
+	 *            the store
+	 * @param name
+	 *            a name used for identifying the manager in log messages and
+	 *            thread names
+	 * @param writeBehindDelay
+	 *            the maximum delay (in milliseconds) for writing modified
+	 *            sessions to the store (<code>0</code> for writing them
+	 *            synchronously at the end of each request)
+	 * @param batchSize
+	 *            the maximum number of sessions written to the store at once
+	 * @param nearCacheIdleTime
+	 *            the time (in milliseconds) after which sessions not accessed
+	 *            on this node are evicted from memory
+	 */
+	public StoreBackedSessionManager(final ISessionStore store, final String name, final long writeBehindDelay, final int batchSize, final long nearCacheIdleTime) {
+		if (null == store)
+			throw new IllegalArgumentException("store must not be null");
+		if (writeBehindDelay < 0)
+			throw new IllegalArgumentException("write-behind delay must not be negative");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batch size must be greater than zero");
+		this.store = store;
+		this.name = name;
+		this.writeBehindDelay = writeBehindDelay;
+		this.batchSize = batchSize;
+		this.nearCacheIdleTime = nearCacheIdleTime;
+	}
+
+	@Override
+	public void complete(final HttpSession session) {
+		super.complete(session);
+
+		if (!(session instanceof StoreBackedSession))
+			return;
+
+		final StoreBackedSession storeBackedSession = (StoreBackedSession) session;
+		if (!storeBackedSession.isValid() || !storeBackedSession.isStoreNeeded(System.currentTimeMillis()))
+			return;
+
+		if (writeBehindDelay == 0) {
+			// write-through
+			writeSessions(Collections.singletonList(storeBackedSession));
+		} else {
+			pendingWrites.put(storeBackedSession.getClusterId(), storeBackedSession);
+		}
+	}
+
+	/**
+	 * De-serializes session attributes.
+	 */
+	@SuppressWarnings("unchecked")
+	Map<String, Object> deserializeAttributes(final byte[] bytes) throws IOException, ClassNotFoundException {
+		if ((null == bytes) || (bytes.length == 0))
+			return Collections.emptyMap();
+		try (final ObjectInputStream in = new ClassLoadingObjectInputStream(new ByteArrayInputStream(bytes), attributesClassLoader)) {
+			return (Map<String, Object>) in.readObject();
+		}
+	}
+
+	@Override
+	public void doStart() throws Exception {
+		writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, String.format("Gyrex Session Writer (%s)", name));
+				t.setDaemon(true);
+				t.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+					@Override
+					public void uncaughtException(final Thread t, final Throwable e) {
+						LOG.error("Unhandled error writing sessions ({}). {}", name, ExceptionUtils.getRootCauseMessage(e), e);
+					}
+				});
+				return t;
+			}
+		});
+		final long period = writeBehindDelay > 0 ? writeBehindDelay : 1000L;
+		writer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+					maintain();
+				} catch (final Exception e) {
+					// don't let the writer die
+					LOG.warn("Error writing sessions ({}). {}", name, ExceptionUtils.getRootCauseMessage(e), e);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+
+		super.doStart();
+	}
+
+	@Override
+	public void doStop() throws Exception {
+		try {
+			super.doStop();
+		} finally {
+			final ScheduledExecutorService writer = this.writer;
+			this.writer = null;
+			if (null != writer) {
+				writer.shutdown();
+				writer.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			// write anything still pending
+			flush();
+			store.close();
+		}
+	}
+
+	/**
+	 * Writes all pending changes to the store.
+	 */
+	void flush() {
+		if (!pendingDeletes.isEmpty()) {
+			final List<String> ids = new ArrayList<String>(pendingDeletes.keySet());
+			for (int i = 0; i < ids.size(); i += batchSize) {
+				final List<String> batch = ids.subList(i, Math.min(i + batchSize, ids.size()));
+				try {
+					store.delete(batch);
+					for (final String id : batch) {
+						pendingDeletes.remove(id);
+					}
+				} catch (final Exception e) {
+					// keep pending and retry on next flush
+					LOG.warn("Error deleting {} sessions from store ({}). {}", batch.size(), name, ExceptionUtils.getRootCauseMessage(e));
+				}
+			}
+		}
+
+		if (!pendingWrites.isEmpty()) {
+			final List<StoreBackedSession> sessions = new ArrayList<StoreBackedSession>(Math.min(pendingWrites.size(), batchSize));
+			for (final Iterator<StoreBackedSession> iterator = pendingWrites.values().iterator(); iterator.hasNext();) {
+				sessions.add(iterator.next());
+				iterator.remove();
+				if (sessions.size() >= batchSize) {
+					writeSessions(sessions);
+					sessions.clear();
+				}
+			}
+			if (!sessions.isEmpty()) {
+				writeSessions(sessions);
+			}
+		}
+	}
+
+	@Override
+	public AbstractSession getSession(final String idInCluster) {
+		final AbstractSession session = super.getSession(idInCluster);
+		if ((null != session) || (null == idInCluster))
+			return session;
+
+		// don't resurrect sessions which are about to be deleted
+		if (pendingDeletes.containsKey(idInCluster))
+			return null;
+
+		// load from store (serialized to prevent duplicate sessions in memory)
+		synchronized (loadLock) {
+			final AbstractSession existing = super.getSession(idInCluster);
+			if (null != existing)
+				return existing;
+
+			final SessionData data;
+			try {
+				data = store.load(idInCluster);
+			} catch (final Exception e) {
+				LOG.warn("Error loading session {} from store ({}). {}", idInCluster, name, ExceptionUtils.getRootCauseMessage(e));
+				return null;
+			}
+			if ((null == data) || data.isExpired(System.currentTimeMillis()))
+				return null;
+
+			final StoreBackedSession loaded = (StoreBackedSession) newSession(data.getCreated(), data.getAccessed(), data.getId());
+			loaded.setMaxInactiveInterval(data.getMaxInactiveInterval());
+			try {
+				loaded.addAttributes(deserializeAttributes(data.getAttributes()));
+			} catch (final Exception e) {
+				LOG.warn("Error de-serializing session {} from store ({}). {}", idInCluster, name, ExceptionUtils.getRootCauseMessage(e));
+				return null;
+			}
+			addSession(loaded, false);
+			if (JettyDebug.debug) {
+				LOG.debug("Loaded session {} from store ({}).", data, name);
+			}
+			return loaded;
+		}
+	}
+
+	/**
+	 * Purges expired sessions from the store and evicts idle sessions from the
+	 * near-cache.
+	 */
+	private void maintain() {
+		final long now = System.currentTimeMillis();
+
+		if ((now - lastPurge) > PURGE_INTERVAL) {
+			lastPurge = now;
+			try {
+				final int purged = store.deleteExpired(now);
+				if (JettyDebug.debug && (purged > 0)) {
+					LOG.debug("Purged {} expired sessions from store ({}).", purged, name);
+				}
+			} catch (final Exception e) {
+				LOG.warn("Error purging expired sessions from store ({}). {}", name, ExceptionUtils.getRootCauseMessage(e));
+			}
+		}
+
+		if (nearCacheIdleTime > 0) {
+			for (final HashedSession session : _sessions.values()) {
+				if (!(session instanceof StoreBackedSession)) {
+					continue;
+				}
+				final StoreBackedSession storeBackedSession = (StoreBackedSession) session;
+				if (storeBackedSession.isInUse() || pendingWrites.containsKey(storeBackedSession.getClusterId()) || ((now - storeBackedSession.getAccessed()) < nearCacheIdleTime)) {
+					continue;
+				}
+				if (storeBackedSession.isStoreNeeded(now)) {
+					// write before evicting
+					writeSessions(Collections.singletonList(storeBackedSession));
+				}
+				// evict from memory only (no invalidation)
+				super.removeSession(storeBackedSession.getClusterId());
+			}
+		}
+	}
+
+	@Override
+	protected AbstractSession newSession(final HttpServletRequest request) {
+		return new StoreBackedSession(this, request);
+	}
+
+	@Override
+	protected AbstractSession newSession(final long created, final long accessed, final String clusterId) {
+		return new StoreBackedSession(this, created, accessed, clusterId);
+	}
+
+	@Override
+	protected boolean removeSession(final String clusterId) {
+		final HashedSession session = _sessions.get(clusterId);
+		final boolean removed = super.removeSession(clusterId);
+		if (removed) {
+			pendingWrites.remove(clusterId);
+			// sessions which timed out locally might still be in use by other nodes;
+			// the store purges them once they expired globally
+			if (!((session instanceof StoreBackedSession) && ((StoreBackedSession) session).isTimedOut())) {
+				if (writeBehindDelay == 0) {
+					try {
+						store.delete(Collections.singletonList(clusterId));
+					} catch (final Exception e) {
+						LOG.warn("Error deleting session {} from store ({}). {}", clusterId, name, ExceptionUtils.getRootCauseMessage(e));
+					}
+				} else {
+					pendingDeletes.put(clusterId, Boolean.TRUE);
+				}
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Serializes session attributes.
+	 * <p>
+	 * Attributes which are not {@link Serializable} are skipped.
+	 * </p>
+	 */
+	byte[] serializeAttributes(final Map<String, Object> attributes) throws IOException {
+		final HashMap<String, Object> serializable = new HashMap<String, Object>(attributes.size());
+		for (final Entry<String, Object> entry : attributes.entrySet()) {
+			if (entry.getValue() instanceof Serializable) {
+				serializable.put(entry.getKey(), entry.getValue());
+			} else if (JettyDebug.debug) {
+				LOG.debug("Skipping non-serializable session attribute {} ({}).", entry.getKey(), name);
+			}
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(serializable);
+		} catch (final NotSerializableException e) {
+			throw new IOException(String.format("Session attributes contain non-serializable object: %s", e.getMessage()), e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Sets the class loader to use for loading classes of session attributes.
+	 *
+	 * @param attributesClassLoader
+	 *            the class loader to set (maybe <code>null</code>)
+	 */
+	public void setAttributesClassLoader(final ClassLoader attributesClassLoader) {
+		this.attributesClassLoader = attributesClassLoader;
+	}
+
+	@Override
+	protected void shutdownSessions() throws Exception {
+		// don't invalidate sessions on shutdown; they live on in the store
+		flush();
+		for (final String clusterId : new ArrayList<String>(_sessions.keySet())) {
+			super.removeSession(clusterId);
+		}
+	}
+
+	private void writeSessions(final List<StoreBackedSession> sessions) {
+		final List<SessionData> batch = new ArrayList<SessionData>(sessions.size());
+		for (final StoreBackedSession session : sessions) {
+			try {
+				final SessionData data = session.snapshot();
+				if (null != data) {
+					batch.add(data);
+				}
+			} catch (final IOException e) {
+				LOG.warn("Error serializing session {} ({}). {}", session.getClusterId(), name, ExceptionUtils.getRootCauseMessage(e));
+			}
+		}
+		if (batch.isEmpty())
+			return;
+
+		try {
+			store.store(batch);
+		} catch (final Exception e) {
+			LOG.warn("Error writing {} sessions to store ({}). {}", batch.size(), name, ExceptionUtils.getRootCauseMessage(e));
+			// re-schedule for next flush
+			for (final StoreBackedSession session : sessions) {
+				if (session.isValid()) {
+					session.markDirty();
+					pendingWrites.putIfAbsent(session.getClusterId(), session);
+				}
+			}
+		}
+	}
+}
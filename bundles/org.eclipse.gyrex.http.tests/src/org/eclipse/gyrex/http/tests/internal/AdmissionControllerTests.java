@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.http.tests.internal;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.gyrex.http.jetty.internal.app.AdmissionController;
+import org.eclipse.gyrex.monitoring.metrics.CapacityMetric;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link AdmissionController}.
+ */
+public class AdmissionControllerTests {
+
+	@Test
+	public void testAdaptiveLimit() throws Exception {
+		final CapacityMetric metric = new CapacityMetric("test", 0);
+		final AdmissionController controller = new AdmissionController(metric, 10, 0, 0, 5, true, 2, 100);
+
+		// slow requests decrease the limit down to the minimum
+		for (int i = 0; i < 50; i++) {
+			assertTrue(controller.acquire());
+			controller.release(TimeUnit.MILLISECONDS.toNanos(500));
+		}
+		assertEquals(2, controller.getLimit());
+		assertEquals(2, metric.getChannelsCapacity());
+
+		// fast requests using the limit increase it again
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(controller.acquire());
+			assertTrue(controller.acquire());
+			controller.release(TimeUnit.MILLISECONDS.toNanos(1));
+			controller.release(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		assertTrue(controller.getLimit() > 2);
+	}
+
+	@Test
+	public void testAdaptiveLimitDecreasesOncePerWindow() throws Exception {
+		final CapacityMetric metric = new CapacityMetric("test", 0);
+		final AdmissionController controller = new AdmissionController(metric, 10, 0, 0, 5, true, 2, 100);
+
+		// a burst of concurrent slow requests decreases the limit only once
+		for (int i = 0; i < 10; i++) {
+			assertTrue(controller.acquire());
+		}
+		for (int i = 0; i < 10; i++) {
+			controller.release(TimeUnit.MILLISECONDS.toNanos(500));
+		}
+		assertEquals(9, controller.getLimit());
+
+		// the next window may decrease it again
+		assertTrue(controller.acquire());
+		controller.release(TimeUnit.MILLISECONDS.toNanos(500));
+		assertEquals(8, controller.getLimit());
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		assertNull(AdmissionController.create(Collections.<String, String> emptyMap(), new CapacityMetric("test", 0)));
+	}
+
+	@Test
+	public void testLimitAndReject() throws Exception {
+		final CapacityMetric metric = new CapacityMetric("test", 0);
+		final AdmissionController controller = new AdmissionController(metric, 2, 0, 0, 5, false, 1, 1000);
+
+		assertTrue(controller.acquire());
+		assertTrue(controller.acquire());
+		assertFalse(controller.acquire());
+		assertEquals(2, controller.getInFlight());
+		assertEquals(1, metric.getChannelsStatsDenied());
+
+		controller.release(0);
+		assertTrue(controller.acquire());
+		assertEquals(3, metric.getChannelsStatsRequests());
+	}
+
+	@Test
+	public void testQueue() throws Exception {
+		final CapacityMetric metric = new CapacityMetric("test", 0);
+		final AdmissionController controller = new AdmissionController(metric, 1, 1, 10000, 5, false, 1, 1000);
+		assertTrue(controller.acquire());
+
+		// a second request waits in the queue
+		final CountDownLatch admitted = new CountDownLatch(1);
+		final AtomicBoolean result = new AtomicBoolean();
+		final Thread waiter = new Thread("AdmissionControllerTests-waiter") {
+			@Override
+			public void run() {
+				result.set(controller.acquire());
+				admitted.countDown();
+			}
+		};
+		waiter.start();
+
+		// wait for the request being queued
+		final long deadline = System.currentTimeMillis() + 10000;
+		while ((waiter.getState() != Thread.State.TIMED_WAITING) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+		assertEquals(Thread.State.TIMED_WAITING, waiter.getState());
+
+		// queue is full
+		assertFalse(controller.acquire());
+		assertEquals(1, metric.getChannelsStatsDenied());
+
+		controller.release(0);
+		assertTrue(admitted.await(10, TimeUnit.SECONDS));
+		assertTrue(result.get());
+		assertEquals(1, controller.getInFlight());
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.http.tests.internal;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.gyrex.http.jetty.internal.sessions.FileSessionStore;
+import org.eclipse.gyrex.http.jetty.internal.sessions.SessionData;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FileSessionStore}.
+ */
+public class FileSessionStoreTests {
+
+	private File directory;
+	private FileSessionStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = new File(System.getProperty("java.io.tmpdir"), "gyrex-sessions-" + System.nanoTime());
+		store = new FileSessionStore(directory);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testDeleteExpired() throws Exception {
+		final long now = System.currentTimeMillis();
+		store.store(Arrays.asList(new SessionData("expired", now - 10000, now - 5000, 1, null), new SessionData("active", now, now, 60, null), new SessionData("eternal", now - 10000, now - 10000, 0, null)));
+
+		assertEquals(1, store.deleteExpired(now));
+		assertNull(store.load("expired"));
+		assertNotNull(store.load("active"));
+		assertNotNull(store.load("eternal"));
+	}
+
+	@Test
+	public void testStoreLoadDelete() throws Exception {
+		final byte[] attributes = new byte[] { 1, 2, 3, 4 };
+		final SessionData data = new SessionData("abc../123", 1000, 2000, 60, attributes);
+
+		assertNull(store.load(data.getId()));
+
+		store.store(Collections.singletonList(data));
+		final SessionData loaded = store.load(data.getId());
+		assertNotNull(loaded);
+		assertEquals(data.getId(), loaded.getId());
+		assertEquals(1000, loaded.getCreated());
+		assertEquals(2000, loaded.getAccessed());
+		assertEquals(60, loaded.getMaxInactiveInterval());
+		assertTrue(Arrays.equals(attributes, loaded.getAttributes()));
+
+		// ids must not escape the store directory
+		assertEquals(1, directory.list().length);
+
+		store.delete(Collections.singletonList(data.getId()));
+		assertNull(store.load(data.getId()));
+	}
+}
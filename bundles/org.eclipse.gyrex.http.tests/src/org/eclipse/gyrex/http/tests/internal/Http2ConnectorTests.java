@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.http.tests.internal;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.gyrex.http.jetty.admin.ChannelDescriptor;
+import org.eclipse.gyrex.http.jetty.internal.connectors.Http2ConnectorFactory;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.api.server.ServerSessionListener;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.Promise;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Integration tests for HTTP/2 (h2c) connectors.
+ */
+public class Http2ConnectorTests {
+
+	private static final int REQUESTS = 100;
+
+	private Server server;
+	private ServerConnector connector;
+	private HTTP2Client client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new Server();
+
+		final ChannelDescriptor channel = new ChannelDescriptor();
+		channel.setId("h2c-test");
+		channel.setHttp2(true);
+		channel.setHttp2MaxConcurrentStreams(128);
+		channel.setHttp2InitialSessionWindow(1024 * 1024);
+		channel.setHttp2InitialStreamWindow(256 * 1024);
+
+		connector = Http2ConnectorFactory.createConnector(server, channel, null, new HttpConfiguration());
+		connector.setPort(0);
+		server.addConnector(connector);
+
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(final String target, final Request baseRequest, final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException {
+				// simulate some work to force streams to overlap
+				try {
+					Thread.sleep(50);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				response.setContentType("text/plain");
+				response.getWriter().print(request.getProtocol());
+				baseRequest.setHandled(true);
+			}
+		});
+		server.start();
+
+		client = new HTTP2Client();
+		client.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (null != client) {
+			client.stop();
+		}
+		if (null != server) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testConcurrentMultiplexedRequests() throws Exception {
+		final int port = connector.getLocalPort();
+
+		final FuturePromise<Session> sessionPromise = new FuturePromise<Session>();
+		client.connect(new InetSocketAddress("localhost", port), new ServerSessionListener.Adapter(), sessionPromise);
+		final Session session = sessionPromise.get(5, TimeUnit.SECONDS);
+
+		final CountDownLatch responses = new CountDownLatch(REQUESTS);
+		final AtomicInteger ok = new AtomicInteger();
+		for (int i = 0; i < REQUESTS; i++) {
+			final MetaData.Request request = new MetaData.Request("GET", new HttpURI("http://localhost:" + port + "/test/" + i), HttpVersion.HTTP_2, new HttpFields());
+			session.newStream(new HeadersFrame(request, null, true), new Promise.Adapter<Stream>(), new Stream.Listener.Adapter() {
+				@Override
+				public void onData(final Stream stream, final DataFrame frame, final Callback callback) {
+					callback.succeeded();
+					if (frame.isEndStream()) {
+						responses.countDown();
+					}
+				}
+
+				@Override
+				public void onHeaders(final Stream stream, final HeadersFrame frame) {
+					final MetaData.Response response = (MetaData.Response) frame.getMetaData();
+					if (response.getStatus() == 200) {
+						ok.incrementAndGet();
+					}
+					if (frame.isEndStream()) {
+						responses.countDown();
+					}
+				}
+			});
+		}
+
+		// all requests must be served concurrently, i.e. in far less time than serially
+		assertTrue("not all responses received", responses.await(REQUESTS * 50 / 2, TimeUnit.MILLISECONDS));
+		assertEquals(REQUESTS, ok.get());
+
+		// everything must have been multiplexed over a single connection
+		assertEquals(1, connector.getConnectedEndPoints().size());
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.http.tests.internal;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.http.HttpSession;
+
+import org.eclipse.gyrex.http.jetty.internal.sessions.ISessionStore;
+import org.eclipse.gyrex.http.jetty.internal.sessions.SessionData;
+import org.eclipse.gyrex.http.jetty.internal.sessions.StoreBackedSessionManager;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.session.SessionHandler;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StoreBackedSessionManager}.
+ */
+public class StoreBackedSessionManagerTests {
+
+	/**
+	 * In-memory store which records all writes.
+	 */
+	static class RecordingSessionStore implements ISessionStore {
+
+		final ConcurrentMap<String, SessionData> sessions = new ConcurrentHashMap<String, SessionData>();
+		final List<SessionData> writes = new CopyOnWriteArrayList<SessionData>();
+		final List<String> deletes = new CopyOnWriteArrayList<String>();
+		volatile boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		@Override
+		public void delete(final Collection<String> sessionIds) throws Exception {
+			for (final String id : sessionIds) {
+				deletes.add(id);
+				sessions.remove(id);
+			}
+		}
+
+		@Override
+		public int deleteExpired(final long now) throws Exception {
+			return 0;
+		}
+
+		@Override
+		public SessionData load(final String sessionId) throws Exception {
+			return sessions.get(sessionId);
+		}
+
+		@Override
+		public void store(final Collection<SessionData> sessions) throws Exception {
+			for (final SessionData data : sessions) {
+				writes.add(data);
+				this.sessions.put(data.getId(), data);
+			}
+		}
+	}
+
+	private static final long WRITE_BEHIND_DISABLED = 0;
+	private static final long WRITE_BEHIND_LONG = 3600000L;
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> readAttributes(final SessionData data) throws Exception {
+		try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data.getAttributes()))) {
+			return (Map<String, Object>) in.readObject();
+		}
+	}
+
+	private final List<StoreBackedSessionManager> managers = new ArrayList<StoreBackedSessionManager>();
+
+	private HttpSession access(final StoreBackedSessionManager manager, final String sessionId) {
+		final HttpSession session = manager.getSession(sessionId);
+		assertNotNull("session not found: " + sessionId, session);
+		manager.access(session, false);
+		return session;
+	}
+
+	private StoreBackedSessionManager createManager(final ISessionStore store, final long writeBehindDelay) throws Exception {
+		final StoreBackedSessionManager manager = new StoreBackedSessionManager(store, "test", writeBehindDelay, 2, 0);
+		final SessionHandler sessionHandler = new SessionHandler(manager);
+		sessionHandler.setServer(new Server());
+		manager.start();
+		managers.add(manager);
+		return manager;
+	}
+
+	private SessionData existingSession(final RecordingSessionStore store, final String sessionId) {
+		final long now = System.currentTimeMillis();
+		final SessionData data = new SessionData(sessionId, now, now, 600, null);
+		store.sessions.put(sessionId, data);
+		return data;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (final StoreBackedSessionManager manager : managers) {
+			if (manager.isStarted()) {
+				manager.stop();
+			}
+		}
+		managers.clear();
+	}
+
+	@Test
+	public void testCleanSessionIsNotWritten() throws Exception {
+		final RecordingSessionStore store = new RecordingSessionStore();
+		existingSession(store, "clean");
+		final StoreBackedSessionManager manager = createManager(store, WRITE_BEHIND_DISABLED);
+
+		for (int i = 0; i < 5; i++) {
+			final HttpSession session = access(manager, "clean");
+			assertNull(session.getAttribute("foo"));
+			manager.complete(session);
+		}
+
+		assertTrue("reading a session must not write it", store.writes.isEmpty());
+	}
+
+	@Test
+	public void testDirtySessionIsWrittenThrough() throws Exception {
+		final RecordingSessionStore store = new RecordingSessionStore();
+		existingSession(store, "dirty");
+		final StoreBackedSessionManager manager = createManager(store, WRITE_BEHIND_DISABLED);
+
+		final HttpSession session = access(manager, "dirty");
+		session.setAttribute("foo", "bar");
+		assertTrue("nothing must be written while the request is in progress", store.writes.isEmpty());
+		manager.complete(session);
+
+		assertEquals(1, store.writes.size());
+		assertEquals("bar", readAttributes(store.writes.get(0)).get("foo"));
+
+		// subsequent read-only request must not write again
+		manager.complete(access(manager, "dirty"));
+		assertEquals(1, store.writes.size());
+	}
+
+	@Test
+	public void testLoadFromStore() throws Exception {
+		final RecordingSessionStore store = new RecordingSessionStore();
+		existingSession(store, "other");
+		final StoreBackedSessionManager writer = createManager(store, WRITE_BEHIND_DISABLED);
+		final HttpSession session = access(writer, "other");
+		session.setAttribute("foo", "bar");
+		writer.complete(session);
+
+		// a second manager (i.e. another node) must see the attributes
+		final StoreBackedSessionManager reader = createManager(store, WRITE_BEHIND_DISABLED);
+		final HttpSession loaded = access(reader, "other");
+		assertEquals("bar", loaded.getAttribute("foo"));
+		reader.complete(loaded);
+
+		assertNull(reader.getSession("unknown"));
+	}
+
+	@Test
+	public void testStopKeepsSessionsInStore() throws Exception {
+		final RecordingSessionStore store = new RecordingSessionStore();
+		existingSession(store, "survivor");
+		final StoreBackedSessionManager manager = createManager(store, WRITE_BEHIND_LONG);
+
+		final HttpSession session = access(manager, "survivor");
+		session.setAttribute("foo", "bar");
+		manager.complete(session);
+		manager.stop();
+
+		assertTrue(store.closed);
+		assertTrue("sessions must not be deleted on shutdown", store.deletes.isEmpty());
+		assertEquals("bar", readAttributes(store.sessions.get("survivor")).get("foo"));
+	}
+
+	@Test
+	public void testWriteBehindCoalescesWrites() throws Exception {
+		final RecordingSessionStore store = new RecordingSessionStore();
+		existingSession(store, "s1");
+		existingSession(store, "s2");
+		existingSession(store, "s3");
+		final StoreBackedSessionManager manager = createManager(store, WRITE_BEHIND_LONG);
+
+		for (int i = 0; i < 10; i++) {
+			for (final String id : new String[] { "s1", "s2", "s3" }) {
+				final HttpSession session = access(manager, id);
+				session.setAttribute("counter", Integer.valueOf(i));
+				manager.complete(session);
+			}
+		}
+		assertTrue("writes must be deferred", store.writes.isEmpty());
+
+		// stopping flushes pending writes
+		manager.stop();
+
+		assertEquals("one write per session expected", 3, store.writes.size());
+		for (final String id : new String[] { "s1", "s2", "s3" }) {
+			assertEquals(Integer.valueOf(9), readAttributes(store.sessions.get(id)).get("counter"));
+		}
+	}
+
+	@Test
+	public void testWriteBehindInvalidate() throws Exception {
+		final RecordingSessionStore store = new RecordingSessionStore();
+		existingSession(store, "invalid");
+		final StoreBackedSessionManager manager = createManager(store, WRITE_BEHIND_LONG);
+
+		final HttpSession session = access(manager, "invalid");
+		session.setAttribute("foo", "bar");
+		session.invalidate();
+		manager.complete(session);
+
+		// pending deletes must not be resurrected from the store
+		assertNull(manager.getSession("invalid"));
+
+		manager.stop();
+		assertEquals(Collections.singletonList("invalid"), store.deletes);
+		assertFalse(store.sessions.containsKey("invalid"));
+		assertTrue("invalidated sessions must not be written", store.writes.isEmpty());
+	}
+}
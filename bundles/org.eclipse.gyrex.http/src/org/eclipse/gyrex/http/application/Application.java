@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2012 Gunnar Wagenknecht and others.
+ * Copyright (c) 2008, 2013 Gunnar Wagenknecht and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -465,6 +465,22 @@ public abstract class Application extends PlatformObject {
 		}
 	}
 
+	/**
+	 * Indicates if the application has been initialized successfully.
+	 * <p>
+	 * Returns <code>false</code> if {@link #doInit()} has not been called yet
+	 * or if initialization has been deferred to the first request because
+	 * {@link #doInit()} threw an {@link IllegalStateException}.
+	 * </p>
+	 * 
+	 * @return <code>true</code> if initialized, <code>false</code> otherwise
+	 * @noreference This method is not intended to be referenced by clients.
+	 * @since 1.1
+	 */
+	public final boolean isInitialized() {
+		return initTimestamp.get() != 0;
+	}
+
 	/**
 	 * Sets or resets the application status.
 	 * 
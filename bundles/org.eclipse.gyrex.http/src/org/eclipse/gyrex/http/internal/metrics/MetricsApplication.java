@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.internal.metrics;
+
+import org.eclipse.gyrex.context.IRuntimeContext;
+import org.eclipse.gyrex.http.application.Application;
+
+/**
+ * An application which exposes all registered metric sets in the OpenMetrics
+ * (Prometheus) text format.
+ * <p>
+ * The application can be mounted like any other application (eg. at
+ * <code>http://admin:3110/metrics</code>). See {@link MetricsServlet} for
+ * supported request parameters.
+ * </p>
+ */
+public class MetricsApplication extends Application {
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param id
+	 * @param context
+	 */
+	public MetricsApplication(final String id, final IRuntimeContext context) {
+		super(id, context);
+	}
+
+	@Override
+	protected void doInit() throws Exception {
+		getApplicationContext().registerServlet("/", new MetricsServlet(), null);
+	}
+}
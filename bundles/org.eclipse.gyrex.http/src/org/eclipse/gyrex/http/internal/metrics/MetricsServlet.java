@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.http.internal.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.gyrex.monitoring.internal.ExposedMetricSet;
+import org.eclipse.gyrex.monitoring.internal.MonitoringActivator;
+import org.eclipse.gyrex.monitoring.internal.OpenMetricsWriter;
+
+import org.apache.commons.lang.CharEncoding;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Servlet which streams all registered metric sets in the OpenMetrics
+ * (Prometheus) text format.
+ * <p>
+ * The following request parameters are supported:
+ * <ul>
+ * <li><code>name[]</code> - metric family name to expose (may be specified
+ * multiple times)</li>
+ * <li><code>prefix</code> - metric family name prefix to expose (may be
+ * specified multiple times)</li>
+ * </ul>
+ * If neither is specified all metric families are exposed. The OpenMetrics
+ * format is used when requested by the client via the <code>Accept</code>
+ * header, the Prometheus text format otherwise. The response is compressed if
+ * the client accepts <code>gzip</code> encoding.
+ * </p>
+ */
+public class MetricsServlet extends HttpServlet {
+
+	/** serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	@Override
+	protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+		final List<ExposedMetricSet> metricSets;
+		try {
+			metricSets = MonitoringActivator.getInstance().getMetricSetTracker().getExposedMetricSets();
+		} catch (final IllegalStateException e) {
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Monitoring is not available.");
+			return;
+		}
+
+		final boolean openMetrics = StringUtils.contains(req.getHeader("Accept"), "application/openmetrics-text");
+		final boolean gzip = StringUtils.contains(req.getHeader("Accept-Encoding"), "gzip");
+
+		resp.setStatus(HttpServletResponse.SC_OK);
+		resp.setContentType(openMetrics ? OpenMetricsWriter.CONTENT_TYPE_OPENMETRICS : OpenMetricsWriter.CONTENT_TYPE_TEXT);
+		resp.setHeader("Cache-Control", "no-cache");
+		resp.addHeader("Vary", "Accept, Accept-Encoding");
+
+		OutputStream out = resp.getOutputStream();
+		if (gzip) {
+			resp.setHeader("Content-Encoding", "gzip");
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+		try {
+			final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, CharEncoding.UTF_8), BUFFER_SIZE);
+			new OpenMetricsWriter(writer, openMetrics, getNames(req), getPrefixes(req)).write(metricSets);
+		} finally {
+			out.close();
+		}
+	}
+
+	private Set<String> getNames(final HttpServletRequest req) {
+		final String[] names = req.getParameterValues("name[]");
+		if (null == names)
+			return null;
+		return new HashSet<String>(Arrays.asList(names));
+	}
+
+	private List<String> getPrefixes(final HttpServletRequest req) {
+		final String[] prefixes = req.getParameterValues("prefix");
+		if (null == prefixes)
+			return null;
+		return Arrays.asList(prefixes);
+	}
+}
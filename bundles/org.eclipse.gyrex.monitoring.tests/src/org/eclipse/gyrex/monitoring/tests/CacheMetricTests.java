@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+
+import org.junit.Test;
+
+public class CacheMetricTests {
+
+	@Test
+	public void testHitRatio() throws Exception {
+		final CacheMetric metric = new CacheMetric("test.cache");
+		assertEquals(0F, metric.getHitRatio(), 0F);
+
+		for (int i = 0; i < 3; i++) {
+			metric.hit();
+		}
+		metric.miss();
+		metric.evicted();
+
+		assertEquals(3, metric.getHits());
+		assertEquals(1, metric.getMisses());
+		assertEquals(1, metric.getEvictions());
+		assertEquals(0.75F, metric.getHitRatio(), 0F);
+
+		final Map<String, Object> values = new HashMap<String, Object>();
+		metric.collectAttributeValues(values);
+		assertEquals(3L, values.get("hits"));
+		assertEquals(0.75F, values.get("hitRatio"));
+
+		metric.resetStats();
+		assertEquals(0, metric.getHits());
+		assertEquals(0, metric.getMisses());
+		assertEquals(0, metric.getEvictions());
+	}
+}
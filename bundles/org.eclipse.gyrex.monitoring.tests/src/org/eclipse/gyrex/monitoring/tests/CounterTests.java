@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.gyrex.monitoring.metrics.CapacityMetric;
+import org.eclipse.gyrex.monitoring.metrics.Counter;
+import org.eclipse.gyrex.monitoring.metrics.ThroughputMetric;
+
+import org.junit.Test;
+
+public class CounterTests {
+
+	private static void runConcurrently(final int threads, final Runnable runnable) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						runnable.run();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		assertTrue("timeout waiting for threads", done.await(1, TimeUnit.MINUTES));
+	}
+
+	@Test
+	public void testConcurrentIncrements() throws Exception {
+		final Counter counter = new Counter();
+		final int threads = 8;
+		final int increments = 100000;
+		runConcurrently(threads, new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 1; i <= increments; i++) {
+					counter.increment(i % 10);
+				}
+			}
+		});
+
+		// each thread adds 45 per 10 increments
+		assertEquals(threads * increments, counter.getNumberOfSamples());
+		assertEquals(threads * (increments / 10) * 45L, counter.getValue());
+		assertEquals(0, counter.getLow());
+		assertEquals(9, counter.getHigh());
+		assertEquals(4, counter.getAverage());
+	}
+
+	@Test
+	public void testConcurrentSnapshotsAreConsistent() throws Exception {
+		final Counter counter = new Counter();
+		final long amount = 1000000007L;
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				int i = 0;
+				while (!done.get() && (failure.get() == null)) {
+					if ((++i % 100) == 0) {
+						// resets must not mix with concurrent updates either
+						counter.reset();
+					}
+					final Counter.Snapshot snapshot = counter.getSnapshot();
+					if (snapshot.getValue() != (snapshot.getNumberOfSamples() * amount)) {
+						failure.set("value does not match samples: " + snapshot.getValue() + " / " + snapshot.getNumberOfSamples());
+					} else if ((snapshot.getNumberOfSamples() > 0) && ((snapshot.getLow() != amount) || (snapshot.getHigh() != amount))) {
+						failure.set("unexpected low/high: " + snapshot.getLow() + " / " + snapshot.getHigh());
+					} else if (snapshot.getVariance() != 0.0) {
+						failure.set("unexpected variance: " + snapshot.getVariance());
+					}
+				}
+			}
+		};
+		reader.start();
+		try {
+			runConcurrently(8, new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200000; i++) {
+						counter.increment(amount);
+					}
+				}
+			});
+		} finally {
+			done.set(true);
+			reader.join();
+		}
+		assertEquals(null, failure.get());
+	}
+
+	@Test
+	public void testConcurrentMetricUpdates() throws Exception {
+		final ThroughputMetric throughput = new ThroughputMetric("test.throughput");
+		final CapacityMetric capacity = new CapacityMetric("test.capacity", 100);
+		final int threads = 8;
+		final int requests = 50000;
+		runConcurrently(threads, new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < requests; i++) {
+					throughput.requestStarted();
+					capacity.channelStarted(1);
+					if ((i % 4) == 0) {
+						throughput.requestFailed();
+					} else {
+						throughput.requestFinished(10, 2);
+					}
+					capacity.channelFinished();
+				}
+			}
+		});
+
+		assertEquals(0, throughput.getRequestsActive());
+		assertEquals((threads * requests) / 4, throughput.getRequestsStatsFailed());
+		assertEquals((threads * requests * 3) / 4, throughput.getRequestsStatsProcessed());
+		assertEquals(25.0F, throughput.getRequestsStatsFailureRate(), 0.001F);
+		assertEquals(10, throughput.getRequestsStatsSizeAverage());
+		assertEquals(2, throughput.getRequestsStatsProcessingTimeAverage());
+		assertTrue(throughput.getRequestsStatsHigh() >= 1);
+		assertTrue(throughput.getRequestsStatsHigh() <= threads);
+
+		assertEquals(0, capacity.getChannelsUsed());
+		assertEquals(threads * requests, capacity.getChannelsStatsRequests());
+		assertEquals(threads * requests, capacity.getChannelsStatsWaitTime());
+		assertEquals(1, capacity.getChannelsStatsWaitTimeAverage());
+
+		throughput.resetStats();
+		assertEquals(0, throughput.getRequestsStatsProcessed());
+		assertEquals(0, throughput.getRequestsStatsFailed());
+		assertEquals(0, throughput.getRequestsStatsSizeAverage());
+		assertEquals(0.0F, throughput.getRequestsStatsFailureRate(), 0.0F);
+	}
+
+	@Test
+	public void testVariance() throws Exception {
+		final Counter counter = new Counter();
+		assertEquals(0.0, counter.getVariance(), 0.0);
+
+		// large offset must not hurt precision
+		final long offset = 1000000000000L;
+		final long[] samples = { 2, 4, 4, 4, 5, 5, 7, 9 };
+		for (final long sample : samples) {
+			counter.increment(offset + sample);
+		}
+
+		// sample variance of {2,4,4,4,5,5,7,9} is 32/7
+		assertEquals(32.0 / 7.0, counter.getVariance(), 1e-9);
+		assertEquals(Math.sqrt(32.0 / 7.0), counter.getStandardDeviation(), 1e-9);
+		assertEquals(offset + 2, counter.getLow());
+		assertEquals(offset + 9, counter.getHigh());
+
+		counter.reset();
+		assertEquals(0, counter.getNumberOfSamples());
+		assertEquals(0.0, counter.getVariance(), 0.0);
+	}
+}
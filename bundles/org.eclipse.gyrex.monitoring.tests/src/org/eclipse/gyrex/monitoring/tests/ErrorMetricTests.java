@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.ErrorMetric;
+import org.eclipse.gyrex.monitoring.metrics.ErrorMetric.ErrorStats;
+
+import org.junit.Test;
+
+public class ErrorMetricTests {
+
+	private static void recordErrors(final ErrorMetric metric, final String error, final int count) {
+		for (int i = 0; i < count; i++) {
+			metric.setLastError(error, "details");
+		}
+	}
+
+	@Test
+	public void testConcurrentErrors() throws Exception {
+		final ErrorMetric metric = new ErrorMetric("test.errors", 10);
+		final int threads = 8;
+		final int errors = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < errors; i++) {
+							metric.setLastError("hot", "details");
+							if ((i % 10) == 0) {
+								// a long tail of rare errors
+								metric.setLastError("rare" + thread + "-" + i, "details");
+							}
+						}
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		assertTrue("timeout waiting for threads", done.await(1, TimeUnit.MINUTES));
+
+		assertEquals(threads * (errors + (errors / 10)), metric.getTotalNumberOfErrors());
+		assertTrue("table must be bounded", metric.getErrorStats().length <= 10);
+
+		// the heavy hitter is never evicted and therefore counted exactly
+		final ErrorStats[] top = metric.getTopErrors(1);
+		assertEquals(1, top.length);
+		assertEquals("hot", top[0].getError());
+		assertEquals(threads * errors, top[0].getErrorOccuredCount());
+		assertEquals(0, top[0].getMaxOverestimation());
+	}
+
+	@Test
+	public void testSpaceSaving() throws Exception {
+		final ErrorMetric metric = new ErrorMetric("test.errors", 3);
+		recordErrors(metric, "a", 100);
+		recordErrors(metric, "b", 50);
+		recordErrors(metric, "c", 10);
+
+		// table is full, "d" replaces the least frequent error
+		recordErrors(metric, "d", 1);
+
+		final ErrorStats[] stats = metric.getErrorStats();
+		assertEquals(3, stats.length);
+		assertEquals("a", stats[0].getError());
+		assertEquals(100, stats[0].getErrorOccuredCount());
+		assertEquals("b", stats[1].getError());
+		assertEquals("d", stats[2].getError());
+		assertEquals(11, stats[2].getErrorOccuredCount());
+		assertEquals(10, stats[2].getMaxOverestimation());
+
+		final ErrorStats[] top = metric.getTopErrors(2);
+		assertEquals(2, top.length);
+		assertEquals("a", top[0].getError());
+		assertEquals("b", top[1].getError());
+
+		final Map<String, Object> values = new HashMap<String, Object>();
+		metric.collectAttributeValues(values);
+		assertEquals("a", values.get("topError"));
+		assertEquals(100L, values.get("topErrorCount"));
+		assertEquals(161L, values.get("totalNumberOfErrors"));
+		assertTrue(values.containsKey("errorRatePerSecond"));
+
+		metric.resetStats();
+		assertEquals(0, metric.getErrorStats().length);
+		assertEquals(0, metric.getTotalNumberOfErrors());
+		assertEquals(0.0F, metric.getErrorRatePerSecond(), 0.0F);
+	}
+
+	@Test
+	public void testStatsDisabled() throws Exception {
+		final ErrorMetric metric = new ErrorMetric("test.errors", 0);
+		recordErrors(metric, "a", 5);
+		assertEquals(5, metric.getTotalNumberOfErrors());
+		assertEquals(0, metric.getErrorStats().length);
+		assertEquals(0, metric.getTopErrors(3).length);
+		assertEquals("a", metric.getLastError());
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.Histogram;
+import org.eclipse.gyrex.monitoring.metrics.TimerMetric;
+
+import org.junit.Test;
+
+public class HistogramTests {
+
+	private static void assertWithinPrecision(final long expected, final long actual, final int precision) {
+		final double error = Math.abs(actual - expected) / (double) expected;
+		assertTrue(String.format("expected %d but was %d", expected, actual), error <= (1.0 / (1 << precision)));
+	}
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		final Histogram histogram = new Histogram(5, TimeUnit.HOURS.toNanos(1));
+		final int threads = 8;
+		final int values = 100000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < values; i++) {
+						histogram.record(i);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertEquals(threads * values, histogram.getCount());
+	}
+
+	@Test
+	public void testMerge() throws Exception {
+		final Histogram a = new Histogram(5, 100000);
+		final Histogram b = new Histogram(5, 100000);
+		for (int i = 1; i <= 500; i++) {
+			a.record(i);
+			b.record(i + 500);
+		}
+		a.add(b);
+		assertEquals(1000, a.getCount());
+		assertWithinPrecision(500, a.getValueAtPercentile(50), 5);
+		assertWithinPrecision(990, a.getValueAtPercentile(99), 5);
+	}
+
+	@Test
+	public void testPercentiles() throws Exception {
+		final int precision = 5;
+		final Histogram histogram = new Histogram(precision, TimeUnit.HOURS.toMillis(1));
+		assertEquals(0, histogram.getValueAtPercentile(99));
+
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(10000, histogram.getCount());
+		assertWithinPrecision(5000, histogram.getValueAtPercentile(50), precision);
+		assertWithinPrecision(9500, histogram.getValueAtPercentile(95), precision);
+		assertWithinPrecision(9900, histogram.getValueAtPercentile(99), precision);
+		assertWithinPrecision(9990, histogram.getValueAtPercentile(99.9), precision);
+		assertWithinPrecision(10000, histogram.getValueAtPercentile(100), precision);
+
+		// small values are exact
+		histogram.reset();
+		histogram.record(3);
+		assertEquals(3, histogram.getValueAtPercentile(50));
+
+		// values above the trackable range are clamped
+		histogram.record(Long.MAX_VALUE);
+		assertWithinPrecision(TimeUnit.HOURS.toMillis(1), histogram.getValueAtPercentile(100), precision);
+	}
+
+	@Test
+	public void testTimerMetricPercentiles() throws Exception {
+		final TimerMetric metric = new TimerMetric("test", TimeUnit.MILLISECONDS);
+		for (int i = 1; i <= 1000; i++) {
+			metric.processFinished(i);
+		}
+		assertWithinPrecision(990, metric.getProcessingTimePercentile(99), Histogram.DEFAULT_PRECISION);
+		assertWithinPrecision(990, (Long) metric.getAttributeValues().get("processingTimeLast1mPercentile99"), Histogram.DEFAULT_PRECISION);
+		assertWithinPrecision(500, (Long) metric.getAttributeValues().get("processingTimePercentile50"), Histogram.DEFAULT_PRECISION);
+
+		metric.resetStats();
+		assertEquals(0, metric.getProcessingTimePercentile(99));
+	}
+}
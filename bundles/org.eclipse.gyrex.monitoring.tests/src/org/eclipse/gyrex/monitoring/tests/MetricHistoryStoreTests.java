@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.gyrex.monitoring.internal.history.MetricHistoryStore;
+import org.eclipse.gyrex.monitoring.internal.history.TimeSeries;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricHistoryStoreTests {
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (null != children) {
+			for (final File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private File directory;
+
+	private File[] getSegments() {
+		final File[] segments = directory.listFiles();
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	private void record(final MetricHistoryStore store, final long timestamp, final long count, final double rate, final boolean active) throws IOException {
+		store.startSample(timestamp);
+		store.add("requests", "count", "metricSet=web", count);
+		store.add("requests", "rate", "metricSet=web", rate);
+		store.add("pool", "active", "metricSet=db", active ? 1 : 0);
+		store.endSample();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("history", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		delete(directory);
+	}
+
+	@Test
+	public void testBoundedSegments() throws Exception {
+		final MetricHistoryStore store = new MetricHistoryStore(directory, 1024, 3, false);
+		try {
+			for (int i = 0; i < 2000; i++) {
+				record(store, 1000000L + (i * 10000L), i * 7, i / 3.0, (i % 2) == 0);
+			}
+			store.flush();
+			assertEquals(3, getSegments().length);
+
+			// only the most recent samples are kept
+			final List<TimeSeries> series = store.query("requests", "count", 0, Long.MAX_VALUE);
+			assertEquals(1, series.size());
+			final TimeSeries count = series.get(0);
+			assertTrue(count.size() > 0);
+			assertTrue(count.size() < 2000);
+			assertEquals(1000000L + (1999 * 10000L), count.getTimestamp(count.size() - 1));
+			assertEquals(1999 * 7, count.getValue(count.size() - 1), 0.0);
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testQuery() throws Exception {
+		final MetricHistoryStore store = new MetricHistoryStore(directory, 64 * 1024, 4, false);
+		try {
+			record(store, 1000L, 10, 1.5, true);
+			record(store, 2000L, 15, 0.25, false);
+			record(store, 3000L, 12, 2.125, true);
+
+			List<TimeSeries> series = store.query(null, null, 0, Long.MAX_VALUE);
+			assertEquals(3, series.size());
+
+			series = store.query("requests", "rate", 0, Long.MAX_VALUE);
+			assertEquals(1, series.size());
+			final TimeSeries rate = series.get(0);
+			assertEquals("requests", rate.getMetricId());
+			assertEquals("rate", rate.getAttribute());
+			assertEquals("metricSet=web", rate.getLabels());
+			assertEquals(3, rate.size());
+			assertEquals(1.5, rate.getValue(0), 0.0);
+			assertEquals(0.25, rate.getValue(1), 0.0);
+			assertEquals(2.125, rate.getValue(2), 0.0);
+
+			series = store.query("requests", null, 1500L, 2500L);
+			assertEquals(2, series.size());
+			for (final TimeSeries s : series) {
+				assertEquals(1, s.size());
+				assertEquals(2000L, s.getTimestamp(0));
+			}
+			assertEquals(15, series.get(0).getValue(0), 0.0);
+
+			series = store.query("pool", "active", 0, Long.MAX_VALUE);
+			assertEquals(1, series.size());
+			assertEquals(1, series.get(0).getValue(0), 0.0);
+			assertEquals(0, series.get(0).getValue(1), 0.0);
+		} finally {
+			store.close();
+		}
+
+		// reopen continues in a new segment
+		final MetricHistoryStore reopened = new MetricHistoryStore(directory, 64 * 1024, 4, false);
+		try {
+			record(reopened, 4000L, 20, 3, false);
+			final List<TimeSeries> series = reopened.query("requests", "count", 0, Long.MAX_VALUE);
+			assertEquals(1, series.size());
+			assertEquals(4, series.get(0).size());
+			assertEquals(20, series.get(0).getValue(3), 0.0);
+			assertEquals(2, getSegments().length);
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void testTruncatedSegment() throws Exception {
+		final MetricHistoryStore store = new MetricHistoryStore(directory, 64 * 1024, 4, false);
+		try {
+			record(store, 1000L, 10, 1, true);
+			record(store, 2000L, 11, 2, true);
+		} finally {
+			store.close();
+		}
+
+		// simulate a torn write
+		final File segment = getSegments()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.setLength(file.length() - 3);
+		}
+
+		final MetricHistoryStore reopened = new MetricHistoryStore(directory, 64 * 1024, 4, false);
+		try {
+			final List<TimeSeries> series = reopened.query("requests", "count", 0, Long.MAX_VALUE);
+			assertEquals(1, series.size());
+			assertEquals(1, series.get(0).size());
+			assertEquals(10, series.get(0).getValue(0), 0.0);
+		} finally {
+			reopened.close();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.internal.ExposedMetricSet;
+import org.eclipse.gyrex.monitoring.internal.OpenMetricsWriter;
+import org.eclipse.gyrex.monitoring.metrics.MetricSet;
+import org.eclipse.gyrex.monitoring.metrics.StatusMetric;
+import org.eclipse.gyrex.monitoring.metrics.ThroughputMetric;
+
+import org.junit.Test;
+
+public class OpenMetricsWriterTests {
+
+	/**
+	 * Uses bare metric ids (like most metric sets in the platform) which are
+	 * not unique across metric sets.
+	 */
+	static class TestMetrics extends MetricSet {
+		TestMetrics(final String id) {
+			super(id, "Test metrics", new StatusMetric("status", "ok", "test"), new ThroughputMetric("requests", TimeUnit.MILLISECONDS));
+		}
+
+		ThroughputMetric getRequests() {
+			return getMetric(1, ThroughputMetric.class);
+		}
+
+		StatusMetric getStatus() {
+			return getMetric(0, StatusMetric.class);
+		}
+	}
+
+	private static void assertFamiliesWrittenOnce(final String output) {
+		final List<String> families = new ArrayList<String>();
+		String currentFamily = null;
+		for (final String line : output.split("\n")) {
+			if (line.startsWith("# TYPE ")) {
+				currentFamily = line.split(" ")[2];
+				assertFalse("family written twice: " + currentFamily, families.contains(currentFamily));
+				families.add(currentFamily);
+			} else if (!line.startsWith("#")) {
+				// every sample must follow the header of its family
+				assertTrue(line, line.startsWith(currentFamily + "{") || line.startsWith(currentFamily + " "));
+			}
+		}
+	}
+
+	private static String write(final List<ExposedMetricSet> sets, final boolean openMetrics, final String... names) throws Exception {
+		final StringWriter out = new StringWriter();
+		new OpenMetricsWriter(out, openMetrics, names.length > 0 ? new HashSet<String>(Arrays.asList(names)) : null, null).write(sets);
+		return out.toString();
+	}
+
+	@Test
+	public void testFilter() throws Exception {
+		final TestMetrics metrics = new TestMetrics("test.app");
+		final List<ExposedMetricSet> sets = Collections.singletonList(new ExposedMetricSet(metrics, null));
+
+		final String output = write(sets, false, "requests_requests_active");
+		assertEquals("# HELP requests_requests_active the number of active requests\n# TYPE requests_requests_active gauge\nrequests_requests_active{metric_set=\"test.app\"} 0\n", output);
+
+		final StringWriter out = new StringWriter();
+		new OpenMetricsWriter(out, true, null, Collections.singleton("requests_requests_stats_")).write(sets);
+		assertTrue(out.toString().contains("requests_requests_stats_processing_time_percentile99{"));
+		assertFalse(out.toString().contains("requests_requests_active"));
+		assertTrue(out.toString().endsWith("# EOF\n"));
+	}
+
+	@Test
+	public void testGroupsFamilies() throws Exception {
+		final TestMetrics a = new TestMetrics("test.app");
+		final TestMetrics b = new TestMetrics("test.app");
+		a.getRequests().requestStarted();
+		b.getRequests().requestStarted();
+		b.getRequests().requestStarted();
+
+		final List<ExposedMetricSet> sets = new ArrayList<ExposedMetricSet>();
+		sets.add(new ExposedMetricSet(a, Collections.singletonMap("service_id", "1")));
+		sets.add(new ExposedMetricSet(new TestMetrics("other"), Collections.singletonMap("service_id", "3")));
+		sets.add(new ExposedMetricSet(b, Collections.singletonMap("service_id", "2")));
+
+		final String output = write(sets, false, "requests_requests_active");
+		assertEquals("# HELP requests_requests_active the number of active requests\n# TYPE requests_requests_active gauge\nrequests_requests_active{metric_set=\"other\",service_id=\"3\"} 0\nrequests_requests_active{metric_set=\"test.app\",service_id=\"1\"} 1\nrequests_requests_active{metric_set=\"test.app\",service_id=\"2\"} 2\n", output);
+
+		final String all = write(sets, true);
+		assertFamiliesWrittenOnce(all);
+		// strings are not exposed
+		assertFalse(all.contains("stats_since"));
+	}
+
+	@Test
+	public void testLabelEscaping() throws Exception {
+		final List<ExposedMetricSet> sets = Collections.singletonList(new ExposedMetricSet(new TestMetrics("test"), Collections.singletonMap("metric_path", "a\"b\\c\nd")));
+		final String output = write(sets, false, "requests_requests_active");
+		assertTrue(output, output.contains("requests_requests_active{metric_set=\"test\",metric_path=\"a\\\"b\\\\c\\nd\"} 0\n"));
+	}
+
+	@Test
+	public void testSameMetricIdInDifferentSets() throws Exception {
+		final TestMetrics jobs = new TestMetrics("org.eclipse.gyrex.jobs.worker.engine.metric");
+		final TestMetrics http = new TestMetrics("org.eclipse.gyrex.http.jetty.handler.applications.metric");
+		jobs.getStatus().setStatus("busy", "test");
+		http.getRequests().requestStarted();
+
+		final List<ExposedMetricSet> sets = new ArrayList<ExposedMetricSet>();
+		sets.add(new ExposedMetricSet(jobs, Collections.singletonMap("service_id", "1")));
+		sets.add(new ExposedMetricSet(http, Collections.singletonMap("service_id", "2")));
+
+		final String all = write(sets, true);
+		assertFamiliesWrittenOnce(all);
+
+		// one family with a distinguishable series per metric set
+		final String output = write(sets, false, "requests_requests_active");
+		assertEquals("# HELP requests_requests_active the number of active requests\n# TYPE requests_requests_active gauge\nrequests_requests_active{metric_set=\"org.eclipse.gyrex.http.jetty.handler.applications.metric\",service_id=\"2\"} 1\nrequests_requests_active{metric_set=\"org.eclipse.gyrex.jobs.worker.engine.metric\",service_id=\"1\"} 0\n", output);
+
+		final String status = write(sets, false, "status_status_stats_change_count");
+		assertTrue(status, status.contains("status_status_stats_change_count{metric_set=\"org.eclipse.gyrex.jobs.worker.engine.metric\",service_id=\"1\"} 1\n"));
+		assertTrue(status, status.contains("status_status_stats_change_count{metric_set=\"org.eclipse.gyrex.http.jetty.handler.applications.metric\",service_id=\"2\"} 0\n"));
+
+		// the metric set id label must not be overridden
+		final ExposedMetricSet overridden = new ExposedMetricSet(jobs, Collections.singletonMap("metric_set", "fake"));
+		final String single = write(Collections.singletonList(overridden), false, "requests_requests_active");
+		assertTrue(single, single.contains("{metric_set=\"org.eclipse.gyrex.jobs.worker.engine.metric\"} 0\n"));
+	}
+}
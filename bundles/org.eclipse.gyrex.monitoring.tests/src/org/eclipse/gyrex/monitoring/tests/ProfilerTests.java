@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.internal.profiling.TransactionSampleBuffer;
+import org.eclipse.gyrex.monitoring.internal.profiling.TransactionSampleBuffer.SampleHandler;
+import org.eclipse.gyrex.monitoring.profiling.Profiler;
+import org.eclipse.gyrex.monitoring.profiling.Transaction;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ProfilerTests {
+
+	@After
+	public void resetSampling() {
+		Profiler.finishTransaction();
+		Profiler.setSampleInterval(0);
+		Profiler.setMaxSamplesPerSecond(0);
+	}
+
+	@Test
+	public void testSampleBuffer() throws Exception {
+		final TransactionSampleBuffer buffer = new TransactionSampleBuffer(3);
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer("test" + i, i, 0));
+		}
+		assertFalse("buffer must be full", buffer.offer("full", 0, 0));
+		assertEquals(1, buffer.getAndResetDropped());
+
+		final List<String> ids = new ArrayList<String>();
+		final SampleHandler handler = new SampleHandler() {
+			@Override
+			public void sample(final String id, final long durationNanos, final long cpuTimeNanos) {
+				ids.add(id + ":" + durationNanos);
+			}
+		};
+		assertEquals(4, buffer.drain(handler));
+		assertEquals("[test0:0, test1:1, test2:2, test3:3]", ids.toString());
+
+		// wrap around
+		ids.clear();
+		assertTrue(buffer.offer("again", 5, 0));
+		assertEquals(1, buffer.drain(handler));
+		assertEquals("[again:5]", ids.toString());
+		assertEquals(0, buffer.drain(handler));
+	}
+
+	@Test
+	public void testSampling() throws Exception {
+		// disabled by default
+		assertNull(Profiler.startTransaction("test", 0, TimeUnit.MILLISECONDS));
+
+		Profiler.setSampleInterval(3);
+		int sampled = 0;
+		Transaction previous = null;
+		for (int i = 0; i < 30; i++) {
+			final Transaction transaction = Profiler.startTransaction("test", 0, TimeUnit.MILLISECONDS);
+			if (null != transaction) {
+				sampled++;
+				assertSame(transaction, Profiler.getTransaction());
+				assertEquals("test", transaction.getId());
+				if (null != previous) {
+					assertSame("transactions must be pooled", previous, transaction);
+				}
+				previous = transaction;
+			}
+			Profiler.finishTransaction();
+			assertNull(Profiler.getTransaction());
+		}
+		assertEquals(10, sampled);
+
+		// nested transactions are not sampled
+		Profiler.setSampleInterval(1);
+		final Transaction transaction = Profiler.startTransaction("test", Transaction.COLLECT_THREAD_CPU_TIME, TimeUnit.MILLISECONDS);
+		assertNotNull(transaction);
+		assertNull(Profiler.startTransaction("nested", 0, TimeUnit.MILLISECONDS));
+		assertSame(transaction, Profiler.getTransaction());
+		Profiler.finishTransaction();
+		assertNull(Profiler.getTransaction());
+	}
+
+	@Test
+	public void testSamplingRateLimit() throws Exception {
+		Profiler.setSampleInterval(1);
+		Profiler.setMaxSamplesPerSecond(5);
+		int sampled = 0;
+		for (int i = 0; i < 100; i++) {
+			if (null != Profiler.startTransaction("test", 0, TimeUnit.MILLISECONDS)) {
+				sampled++;
+			}
+			Profiler.finishTransaction();
+		}
+		assertTrue("too many samples: " + sampled, sampled <= 10);
+		assertTrue("no samples", sampled > 0);
+	}
+}
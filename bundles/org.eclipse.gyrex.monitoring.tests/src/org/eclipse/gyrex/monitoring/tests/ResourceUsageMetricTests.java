@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.ResourceUsageMetric;
+
+import org.junit.Test;
+
+public class ResourceUsageMetricTests {
+
+	@Test
+	public void testRequestMeasured() throws Exception {
+		final ResourceUsageMetric metric = new ResourceUsageMetric("test.resources", 4, 3);
+		for (int i = 1; i <= 10; i++) {
+			metric.requestMeasured("/url" + (i % 5), TimeUnit.MILLISECONDS.toNanos(i), TimeUnit.MILLISECONDS.toNanos(1), 1024);
+		}
+
+		// totals are extrapolated
+		assertEquals(10, metric.getSampledRequests());
+		assertEquals(40, metric.getCpuTime());
+		assertEquals(40 * 1024, metric.getAllocatedBytes());
+
+		// slowest occurrence of the three slowest urls
+		final String[] slowest = metric.getSlowestRequests();
+		assertEquals(3, slowest.length);
+		assertEquals("/url0 (10 ms, 1 ms cpu)", slowest[0]);
+		assertEquals("/url4 (9 ms, 1 ms cpu)", slowest[1]);
+		assertEquals("/url3 (8 ms, 1 ms cpu)", slowest[2]);
+
+		final Map<String, Object> values = new HashMap<String, Object>();
+		metric.collectAttributeValues(values);
+		assertEquals(40L, values.get("cpuTime"));
+		assertEquals(4, values.get("sampleInterval"));
+		assertTrue(values.containsKey("allocationRate"));
+		assertTrue(((String) values.get("slowestRequests")).startsWith("/url0"));
+
+		metric.resetStats();
+		assertEquals(0, metric.getSampledRequests());
+		assertEquals(0, metric.getCpuTime());
+		assertEquals(0, metric.getSlowestRequests().length);
+	}
+
+	@Test
+	public void testUnavailableValues() throws Exception {
+		final ResourceUsageMetric metric = new ResourceUsageMetric("test.resources", 1, 0);
+		metric.requestMeasured("/url", 1000, -1, -1);
+		assertEquals(1, metric.getSampledRequests());
+		assertEquals(0, metric.getCpuTime());
+		assertEquals(0, metric.getAllocatedBytes());
+		assertEquals(0, metric.getSlowestRequests().length);
+	}
+}
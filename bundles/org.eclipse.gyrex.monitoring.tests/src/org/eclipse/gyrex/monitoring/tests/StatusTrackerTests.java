@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.monitoring.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.diagnostics.StatusTracker;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatusTrackerTests {
+
+	/**
+	 * Records all published system status.
+	 */
+	static class RecordingStatusTracker extends StatusTracker {
+
+		final List<IStatus> published = new CopyOnWriteArrayList<IStatus>();
+
+		RecordingStatusTracker(final BundleContext context) {
+			super(context);
+		}
+
+		@Override
+		protected void setSystemStatus(final IStatus systemStatus) {
+			published.add(systemStatus);
+			super.setSystemStatus(systemStatus);
+		}
+	}
+
+	private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+	private static IStatus findChild(final IStatus systemStatus, final String message) {
+		for (final IStatus child : systemStatus.getChildren()) {
+			if (message.equals(child.getMessage()))
+				return child;
+		}
+		return null;
+	}
+
+	private static IStatus waitForChild(final StatusTracker tracker, final String message, final long timeout) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeout;
+		while (System.currentTimeMillis() < deadline) {
+			final IStatus child = findChild(tracker.getSystemStatus(), message);
+			if (null != child)
+				return child;
+			Thread.sleep(10);
+		}
+		return null;
+	}
+
+	private BundleContext context;
+	private final List<ServiceRegistration<IStatus>> registrations = new ArrayList<ServiceRegistration<IStatus>>();
+	private final List<StatusTracker> trackers = new ArrayList<StatusTracker>();
+
+	private RecordingStatusTracker openTracker() {
+		final RecordingStatusTracker tracker = new RecordingStatusTracker(context);
+		trackers.add(tracker);
+		tracker.open();
+		return tracker;
+	}
+
+	private ServiceRegistration<IStatus> registerStatus(final int severity, final String message) {
+		final ServiceRegistration<IStatus> registration = context.registerService(IStatus.class, new Status(severity, "org.eclipse.gyrex.monitoring.tests", message), new Hashtable<String, Object>());
+		registrations.add(registration);
+		return registration;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		context = MonitoringTestsActivator.getContext();
+		assertNotNull("the tests must run inside a running OSGi framework", context);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (final ServiceRegistration<IStatus> registration : registrations) {
+			try {
+				registration.unregister();
+			} catch (final IllegalStateException e) {
+				// already unregistered
+			}
+		}
+		registrations.clear();
+		for (final StatusTracker tracker : trackers) {
+			tracker.close();
+		}
+		trackers.clear();
+	}
+
+	@Test
+	public void testAddAndRemove() throws Exception {
+		final RecordingStatusTracker tracker = openTracker();
+
+		final ServiceRegistration<IStatus> registration = registerStatus(IStatus.ERROR, "testAddAndRemove");
+		assertNotNull("status not published", waitForChild(tracker, "testAddAndRemove", TIMEOUT));
+		assertEquals(IStatus.ERROR, tracker.getSystemStatus().getSeverity());
+
+		registration.unregister();
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while ((null != findChild(tracker.getSystemStatus(), "testAddAndRemove")) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+		assertNull("status not removed", findChild(tracker.getSystemStatus(), "testAddAndRemove"));
+	}
+
+	@Test
+	public void testFlappingStatusDoesNotDelayOthers() throws Exception {
+		final RecordingStatusTracker tracker = openTracker();
+		final ServiceRegistration<IStatus> flapping = registerStatus(IStatus.OK, "testFlapping");
+		assertNotNull("status not published", waitForChild(tracker, "testFlapping", TIMEOUT));
+		tracker.published.clear();
+
+		// keep modifying one status service (shorter than the max. delay)
+		registerStatus(IStatus.WARNING, "testStable");
+		final long flappingEnd = System.currentTimeMillis() + 1500;
+		long stableSeen = -1;
+		int i = 0;
+		while (System.currentTimeMillis() < flappingEnd) {
+			final Hashtable<String, Object> properties = new Hashtable<String, Object>();
+			properties.put("flap", i++);
+			flapping.setProperties(properties);
+			if ((stableSeen < 0) && (null != findChild(tracker.getSystemStatus(), "testStable"))) {
+				stableSeen = System.currentTimeMillis();
+			}
+			Thread.sleep(10);
+		}
+
+		// the stable status must be published while the other one is still flapping
+		assertTrue("stable status not published while another status was flapping", stableSeen > 0);
+		// the flapping status must not trigger any further updates
+		assertTrue("too many updates: " + tracker.published.size(), tracker.published.size() <= 2);
+	}
+
+	@Test
+	public void testOpenPublishesInitialStatus() throws Exception {
+		final RecordingStatusTracker tracker = openTracker();
+
+		// published synchronously even if no status changed
+		assertEquals(1, tracker.published.size());
+		assertTrue(tracker.getSystemStatus().isMultiStatus());
+		assertTrue("system status must be initialized", tracker.getSystemStatus().getSeverity() != IStatus.CANCEL);
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		final RecordingStatusTracker tracker = openTracker();
+		tracker.close();
+		tracker.open();
+
+		registerStatus(IStatus.WARNING, "testReopen");
+		assertNotNull("re-opened tracker must publish changes", waitForChild(tracker, "testReopen", TIMEOUT));
+	}
+}
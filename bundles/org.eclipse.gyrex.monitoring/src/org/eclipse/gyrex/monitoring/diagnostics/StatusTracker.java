@@ -11,24 +11,48 @@
  *******************************************************************************/
 package org.eclipse.gyrex.monitoring.diagnostics;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.gyrex.monitoring.internal.MonitoringActivator;
 
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.MultiStatus;
 import org.eclipse.core.runtime.Status;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * A service tracker for {@link IStatus} objects registered as OSGi services
  * using {@link IStatusConstants#SERVICE_NAME}.
  * <p>
  * Whenever a status is updated or removed/added, a new system status will be
- * calculated and passed to {@link #setSystemStatus(MultiStatus)}.
+ * calculated and passed to {@link #setSystemStatus(IStatus)}. Changes are
+ * debounced per status service, i.e. a change is only considered once its
+ * service has been quiet for a short delay (but not later than a maximum
+ * delay) and only the latest change of every status service is considered.
+ * The system status is calculated on a background thread. Thus, a storm of
+ * service events (eg. when a subsystem flaps) results in a single update,
+ * never delays changes of other status services and never blocks the
+ * dispatching of service events.
+ * </p>
+ * <p>
+ * The system status is published synchronously when the tracker is opened
+ * (even if no status services are available) and when it is closed. A closed
+ * tracker may be opened again.
  * </p>
  * <p>
  * This class may be subclassed or instantiated by clients.
@@ -36,9 +60,111 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class StatusTracker extends ServiceTracker<IStatus, IStatus> {
 
+	/**
+	 * The multi status passed to {@link StatusTracker#setSystemStatus(IStatus)}
+	 * (with a pre-computed severity).
+	 */
+	private static final class SystemStatus extends Status {
+
+		private final IStatus[] children;
+
+		SystemStatus(final int severity, final IStatus[] children) {
+			super(severity, MonitoringActivator.SYMBOLIC_NAME, 0, "System Status", null);
+			this.children = children;
+		}
+
+		@Override
+		public IStatus[] getChildren() {
+			return children;
+		}
+
+		@Override
+		public boolean isMultiStatus() {
+			return true;
+		}
+	}
+
+	/** a pending change of a status service */
+	private static final class PendingChange {
+
+		/** the new status or {@link StatusTracker#REMOVED} */
+		final Object change;
+		/** when the first not yet applied change happened */
+		final long firstChangeNanos;
+		/** when the last change happened */
+		final long lastChangeNanos;
+
+		PendingChange(final Object change, final long firstChangeNanos, final long lastChangeNanos) {
+			this.change = change;
+			this.firstChangeNanos = firstChangeNanos;
+			this.lastChangeNanos = lastChangeNanos;
+		}
+
+		long getDueNanos() {
+			return Math.min(lastChangeNanos + UPDATE_DELAY_NANOS, firstChangeNanos + MAX_UPDATE_DELAY_NANOS);
+		}
+	}
+
+	/** a tracked status (as seen by the last evaluation) */
+	private static final class TrackedStatus {
+		IStatus status;
+		int severity;
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(StatusTracker.class);
+
 	private static final IStatus UNINITIALIZED = new Status(IStatus.CANCEL, MonitoringActivator.SYMBOLIC_NAME, "Not Initialized.");
 
-	private final CopyOnWriteArrayList<IStatus> statusList = new CopyOnWriteArrayList<IStatus>();
+	/**
+	 * the delay (in milliseconds) a status service must be quiet before its
+	 * change is considered
+	 */
+	private static final long UPDATE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("gyrex.monitoring.diagnostics.statusUpdateDelay", 250L));
+
+	/**
+	 * the maximum delay (in milliseconds) of a change of a status service which
+	 * changes continuously
+	 */
+	private static final long MAX_UPDATE_DELAY_NANOS = Math.max(UPDATE_DELAY_NANOS, TimeUnit.MILLISECONDS.toNanos(Long.getLong("gyrex.monitoring.diagnostics.statusMaxUpdateDelay", 2000L)));
+
+	/** marker for a removed status in the pending changes */
+	private static final Object REMOVED = new Object();
+
+	/** all severities in ascending order */
+	private static final int[] SEVERITIES = { IStatus.OK, IStatus.INFO, IStatus.WARNING, IStatus.ERROR, IStatus.CANCEL };
+
+	private static int toSeverityIndex(final int severity) {
+		for (int i = SEVERITIES.length - 1; i > 0; i--) {
+			if (severity >= SEVERITIES[i])
+				return i;
+		}
+		return 0;
+	}
+
+	private final ConcurrentMap<ServiceReference<IStatus>, PendingChange> pendingChanges = new ConcurrentHashMap<ServiceReference<IStatus>, PendingChange>();
+	private final AtomicBoolean updateScheduled = new AtomicBoolean();
+	private final Runnable update = new Runnable() {
+		@Override
+		public void run() {
+			// allow scheduling of changes happening while updating
+			updateScheduled.set(false);
+			try {
+				updateStatus(false);
+			} catch (final RuntimeException e) {
+				LOG.warn("Error updating system status. {}", ExceptionUtils.getRootCauseMessage(e));
+			}
+			// changes which are not due yet
+			scheduleUpdate();
+		}
+	};
+
+	/** created when opened (a closed tracker may be re-opened) */
+	private volatile ScheduledThreadPoolExecutor executor;
+
+	/** guarded by itself */
+	private final Map<ServiceReference<IStatus>, TrackedStatus> trackedStatus = new LinkedHashMap<ServiceReference<IStatus>, TrackedStatus>();
+	private final int[] severityCounts = new int[SEVERITIES.length];
+
 	private volatile IStatus systemStatus = UNINITIALIZED;
 
 	public StatusTracker(final BundleContext context) {
@@ -49,34 +175,90 @@ public class StatusTracker extends ServiceTracker<IStatus, IStatus> {
 	public final IStatus addingService(final ServiceReference<IStatus> reference) {
 		final IStatus status = super.addingService(reference);
 		if (status != null) {
-			statusList.add(status);
-			updateStatus();
+			statusChanged(reference, status);
 		}
 		return status;
 	}
 
+	@Override
+	public void close() {
+		super.close();
+
+		// publish the final status synchronously
+		updateStatus(true);
+		final ScheduledThreadPoolExecutor executor = this.executor;
+		if (null != executor) {
+			executor.shutdownNow();
+		}
+	}
+
 	public final IStatus getSystemStatus() {
 		return systemStatus;
 	}
 
 	@Override
 	public final void modifiedService(final ServiceReference<IStatus> reference, final IStatus service) {
-		updateStatus();
+		statusChanged(reference, service);
+	}
+
+	@Override
+	public void open(final boolean trackAllServices) {
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "Gyrex Status Tracker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		this.executor = executor;
+		// a previous executor may have been shut down with a scheduled update
+		updateScheduled.set(false);
+
+		super.open(trackAllServices);
+
+		// publish the initial status synchronously (even without any status)
+		updateStatus(true);
 	}
 
 	@Override
 	public final void removedService(final ServiceReference<IStatus> reference, final IStatus service) {
-		statusList.remove(service);
-		updateStatus();
+		statusChanged(reference, REMOVED);
 		super.removedService(reference, service);
 	}
 
+	private void scheduleUpdate() {
+		// find the next due change
+		long nextDueNanos = Long.MAX_VALUE;
+		for (final PendingChange pending : pendingChanges.values()) {
+			nextDueNanos = Math.min(nextDueNanos, pending.getDueNanos());
+		}
+		if (nextDueNanos == Long.MAX_VALUE)
+			return;
+
+		final ScheduledThreadPoolExecutor executor = this.executor;
+		if ((null != executor) && updateScheduled.compareAndSet(false, true)) {
+			try {
+				executor.schedule(update, Math.max(0, nextDueNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (final RejectedExecutionException e) {
+				// closed
+				updateScheduled.set(false);
+			}
+		}
+	}
+
 	/**
 	 * Called when a status was changed, added or removed.
 	 * <p>
 	 * Clients may override to hook there custom triggers. However, they must
 	 * call super.
 	 * </p>
+	 * <p>
+	 * Note, this method is called from a background thread (or the thread
+	 * opening/closing the tracker).
+	 * </p>
 	 * 
 	 * @param systemStatus
 	 *            the new system status to set
@@ -85,15 +267,88 @@ public class StatusTracker extends ServiceTracker<IStatus, IStatus> {
 		this.systemStatus = null != systemStatus ? systemStatus : UNINITIALIZED;
 	}
 
-	private void updateStatus() {
-		// create multi status
-		final MultiStatus systemStatus = new MultiStatus(MonitoringActivator.SYMBOLIC_NAME, 0, "System Status", null);
-		for (final IStatus status : statusList) {
-			systemStatus.add(status);
+	private void statusChanged(final ServiceReference<IStatus> reference, final Object change) {
+		// the latest change wins (but the first change limits the delay)
+		final long now = System.nanoTime();
+		PendingChange previous = pendingChanges.get(reference);
+		while (true) {
+			if (null == previous) {
+				previous = pendingChanges.putIfAbsent(reference, new PendingChange(change, now, now));
+				if (null == previous) {
+					break;
+				}
+			} else if (pendingChanges.replace(reference, previous, new PendingChange(change, previous.firstChangeNanos, now))) {
+				break;
+			} else {
+				previous = pendingChanges.get(reference);
+			}
 		}
 
-		// update status
-		setSystemStatus(systemStatus);
+		scheduleUpdate();
+	}
+
+	/**
+	 * Applies due pending changes and publishes a new system status if
+	 * necessary.
+	 * 
+	 * @param force
+	 *            <code>true</code> to apply all pending changes and to always
+	 *            publish the system status
+	 */
+	private void updateStatus(final boolean force) {
+		synchronized (trackedStatus) {
+			// apply pending changes
+			boolean changed = force;
+			final long now = System.nanoTime();
+			for (final Entry<ServiceReference<IStatus>, PendingChange> entry : pendingChanges.entrySet()) {
+				final ServiceReference<IStatus> reference = entry.getKey();
+				final PendingChange pending = entry.getValue();
+				if ((!force && ((pending.getDueNanos() - now) > 0)) || !pendingChanges.remove(reference, pending)) {
+					// not due yet or changed concurrently (will be applied later)
+					continue;
+				}
+				final Object change = pending.change;
+				if (change == REMOVED) {
+					final TrackedStatus tracked = trackedStatus.remove(reference);
+					if (null != tracked) {
+						severityCounts[tracked.severity]--;
+						changed = true;
+					}
+				} else if (null != change) {
+					TrackedStatus tracked = trackedStatus.get(reference);
+					if (null == tracked) {
+						tracked = new TrackedStatus();
+						trackedStatus.put(reference, tracked);
+					} else {
+						severityCounts[tracked.severity]--;
+					}
+					tracked.status = (IStatus) change;
+					tracked.severity = toSeverityIndex(tracked.status.getSeverity());
+					severityCounts[tracked.severity]++;
+					changed = true;
+				}
+			}
+			if (!changed)
+				return;
+
+			// the highest severity present
+			int severity = 0;
+			for (int i = SEVERITIES.length - 1; i > 0; i--) {
+				if (severityCounts[i] > 0) {
+					severity = i;
+					break;
+				}
+			}
+
+			final IStatus[] children = new IStatus[trackedStatus.size()];
+			int i = 0;
+			for (final TrackedStatus tracked : trackedStatus.values()) {
+				children[i++] = tracked.status;
+			}
+
+			// update status
+			setSystemStatus(new SystemStatus(SEVERITIES[severity], children));
+		}
 	}
 
 }
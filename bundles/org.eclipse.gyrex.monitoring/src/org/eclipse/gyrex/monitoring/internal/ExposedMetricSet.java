@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.gyrex.monitoring.metrics.BaseMetric;
+import org.eclipse.gyrex.monitoring.metrics.MetricAttribute;
+import org.eclipse.gyrex.monitoring.metrics.MetricSet;
+
+/**
+ * A {@link MetricSet} prepared for exposition by {@link OpenMetricsWriter}.
+ * <p>
+ * Metric family names, descriptions and labels are computed once when the
+ * metric set is tracked so that scraping only needs to read the metric values.
+ * Only numeric and boolean attributes are exposed.
+ * </p>
+ * <p>
+ * The family names are derived from the metric id and the attribute name only.
+ * Metric ids are typically not unique across metric sets (eg. most metric sets
+ * contain a <code>status</code> metric). Therefore, every sample is labeled
+ * with the metric set id (see {@link #LABEL_METRIC_SET}).
+ * </p>
+ */
+public final class ExposedMetricSet {
+
+	/** label which carries the metric set id */
+	public static final String LABEL_METRIC_SET = "metric_set";
+
+	/**
+	 * Returns a valid metric or label name for the specified string.
+	 * <p>
+	 * Camel case is converted into snake case and all characters not allowed in
+	 * names are replaced with <code>'_'</code>.
+	 * </p>
+	 */
+	static String toName(final String string) {
+		final StringBuilder name = new StringBuilder(string.length() + 8);
+		char previous = '_';
+		for (int i = 0; i < string.length(); i++) {
+			final char c = string.charAt(i);
+			if ((c >= 'A') && (c <= 'Z')) {
+				if (((previous >= 'a') && (previous <= 'z')) || ((previous >= '0') && (previous <= '9'))) {
+					name.append('_');
+				}
+				name.append(Character.toLowerCase(c));
+			} else if (((c >= 'a') && (c <= 'z')) || ((c >= '0') && (c <= '9') && (i > 0))) {
+				name.append(c);
+			} else {
+				name.append('_');
+			}
+			previous = c;
+		}
+		return name.toString();
+	}
+
+	private static boolean isExposable(final Class<?> type) {
+		return Number.class.isAssignableFrom(type) || (Boolean.class == type) || (type.isPrimitive() && (Character.TYPE != type) && (Void.TYPE != type));
+	}
+
+	private final MetricSet metricSet;
+	private final String labels;
+	private final BaseMetric[] metrics;
+	private final String[][] attributeNames;
+	private final String[][] familyNames;
+	private final String[][] descriptions;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param metricSet
+	 *            the metric set
+	 * @param labels
+	 *            additional labels to add to all samples (may be
+	 *            <code>null</code>; a label named {@link #LABEL_METRIC_SET}
+	 *            is ignored)
+	 */
+	public ExposedMetricSet(final MetricSet metricSet, final Map<String, String> labels) {
+		if (null == metricSet)
+			throw new IllegalArgumentException("metric set must not be null");
+		this.metricSet = metricSet;
+
+		// pre-format labels
+		final StringBuilder labelsString = new StringBuilder();
+		labelsString.append('{').append(LABEL_METRIC_SET).append("=\"");
+		OpenMetricsWriter.escape(metricSet.getId(), true, labelsString);
+		labelsString.append('"');
+		if (null != labels) {
+			for (final Entry<String, String> label : labels.entrySet()) {
+				final String name = toName(label.getKey());
+				if (LABEL_METRIC_SET.equals(name)) {
+					continue;
+				}
+				labelsString.append(',').append(name).append("=\"");
+				OpenMetricsWriter.escape(label.getValue(), true, labelsString);
+				labelsString.append('"');
+			}
+		}
+		labelsString.append('}');
+		this.labels = labelsString.toString();
+
+		// pre-compute names
+		final List<BaseMetric> metricList = metricSet.getMetrics();
+		metrics = metricList.toArray(new BaseMetric[metricList.size()]);
+		attributeNames = new String[metrics.length][];
+		familyNames = new String[metrics.length][];
+		descriptions = new String[metrics.length][];
+		for (int i = 0; i < metrics.length; i++) {
+			final List<String> names = new ArrayList<String>();
+			final List<String> families = new ArrayList<String>();
+			final List<String> helps = new ArrayList<String>();
+			final String prefix = toName(metrics[i].getId()).concat("_");
+			for (final MetricAttribute attribute : metrics[i].getAttributes()) {
+				if (isExposable(attribute.getType())) {
+					names.add(attribute.getName());
+					families.add(prefix.concat(toName(attribute.getName())));
+					helps.add(attribute.getDescription());
+				}
+			}
+			attributeNames[i] = names.toArray(new String[names.size()]);
+			familyNames[i] = families.toArray(new String[families.size()]);
+			descriptions[i] = helps.toArray(new String[helps.size()]);
+		}
+	}
+
+	String[] getAttributeNames(final int metric) {
+		return attributeNames[metric];
+	}
+
+	String[] getDescriptions(final int metric) {
+		return descriptions[metric];
+	}
+
+	String[] getFamilyNames(final int metric) {
+		return familyNames[metric];
+	}
+
+	String getLabels() {
+		return labels;
+	}
+
+	BaseMetric getMetric(final int metric) {
+		return metrics[metric];
+	}
+
+	int getMetricCount() {
+		return metrics.length;
+	}
+
+	/**
+	 * Returns the metric set.
+	 *
+	 * @return the metric set
+	 */
+	public MetricSet getMetricSet() {
+		return metricSet;
+	}
+}
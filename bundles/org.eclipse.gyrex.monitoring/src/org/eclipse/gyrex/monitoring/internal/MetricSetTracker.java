@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2012 AGETO Service GmbH and others.
+ * Copyright (c) 2010, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -12,7 +12,12 @@
 package org.eclipse.gyrex.monitoring.internal;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.management.MBeanServer;
@@ -41,10 +46,12 @@ public class MetricSetTracker extends ServiceTracker<MetricSet, MetricSetJmxRegi
 	static class MetricSetJmxRegistration {
 		final ObjectName objectName;
 		final MetricSet metricSet;
+		final ExposedMetricSet exposedMetricSet;
 
-		MetricSetJmxRegistration(final ObjectName objectName, final MetricSet metricSet) {
+		MetricSetJmxRegistration(final ObjectName objectName, final MetricSet metricSet, final ExposedMetricSet exposedMetricSet) {
 			this.objectName = objectName;
 			this.metricSet = metricSet;
+			this.exposedMetricSet = exposedMetricSet;
 		}
 	}
 
@@ -62,15 +69,42 @@ public class MetricSetTracker extends ServiceTracker<MetricSet, MetricSetJmxRegi
 			return null;
 		}
 
+		ObjectName objectName = null;
 		try {
 			final MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
-			final ObjectName objectName = getObjectName(reference, metricSet);
+			objectName = getObjectName(reference, metricSet);
 			beanServer.registerMBean(new MetricSetMBean(metricSet, reference), objectName);
-			return new MetricSetJmxRegistration(objectName, metricSet);
 		} catch (final Exception e) {
 			LOG.warn("Failed to expose metric {} using JMX. {}", metricSet, ExceptionUtils.getRootCauseMessage(e));
+			objectName = null;
 		}
-		return null;
+
+		// always track for exposition
+		return new MetricSetJmxRegistration(objectName, metricSet, new ExposedMetricSet(metricSet, getLabels(reference, metricSet)));
+	}
+
+	/**
+	 * Returns all tracked metric sets prepared for exposition.
+	 *
+	 * @return a list of exposed metric sets
+	 */
+	public List<ExposedMetricSet> getExposedMetricSets() {
+		final Collection<MetricSetJmxRegistration> registrations = getTracked().values();
+		final List<ExposedMetricSet> metricSets = new ArrayList<ExposedMetricSet>(registrations.size());
+		for (final MetricSetJmxRegistration registration : registrations) {
+			metricSets.add(registration.exposedMetricSet);
+		}
+		return metricSets;
+	}
+
+	private Map<String, String> getLabels(final ServiceReference<MetricSet> reference, final MetricSet metricSet) {
+		final Map<String, String> labels = new LinkedHashMap<String, String>();
+		labels.put("service_id", String.valueOf(reference.getProperty(Constants.SERVICE_ID)));
+		for (final Entry<String, String> property : metricSet.getProperties().entrySet()) {
+			// prefix each with "metric_" to avoid name clash with common labels
+			labels.put("metric_".concat(property.getKey()), property.getValue());
+		}
+		return labels;
 	}
 
 	private ObjectName getObjectName(final ServiceReference<MetricSet> reference, final MetricSet metricSet) throws MalformedObjectNameException {
@@ -100,6 +134,10 @@ public class MetricSetTracker extends ServiceTracker<MetricSet, MetricSetJmxRegi
 
 	@Override
 	public void removedService(final ServiceReference<MetricSet> reference, final MetricSetJmxRegistration metricSetJmxRegistration) {
+		if (null == metricSetJmxRegistration.objectName) {
+			context.ungetService(reference);
+			return;
+		}
 		try {
 			// unregister MBean
 			final MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
@@ -11,17 +11,45 @@
  *******************************************************************************/
 package org.eclipse.gyrex.monitoring.internal;
 
+import java.io.File;
+
 import org.eclipse.gyrex.common.runtime.BaseBundleActivator;
+import org.eclipse.gyrex.monitoring.internal.history.MetricRecorder;
+import org.eclipse.gyrex.monitoring.internal.profiling.TransactionAggregator;
+import org.eclipse.gyrex.monitoring.internal.profiling.TransactionSampleBuffer;
 
 import org.osgi.framework.BundleContext;
 
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class MonitoringActivator extends BaseBundleActivator {
 
+	private static final Logger LOG = LoggerFactory.getLogger(MonitoringActivator.class);
+
 	/** plug-in id */
 	public static final String SYMBOLIC_NAME = "org.eclipse.gyrex.monitoring";
 
-	private MetricSetTracker metricSetTracker;
+	/** the shared instance */
+	private static MonitoringActivator sharedInstance;
+
+	/**
+	 * Returns the instance.
+	 *
+	 * @return the instance
+	 */
+	public static MonitoringActivator getInstance() throws IllegalStateException {
+		final MonitoringActivator instance = sharedInstance;
+		if (null == instance)
+			throw new IllegalStateException("Gyrex Monitoring has not been started.");
+		return instance;
+	}
+
+	private volatile MetricSetTracker metricSetTracker;
 	private StatusTrackerWithMetric statusTracker;
+	private TransactionAggregator transactionAggregator;
+	private volatile MetricRecorder metricRecorder;
 
 	/**
 	 * Creates a new instance.
@@ -32,6 +60,8 @@ public class MonitoringActivator extends BaseBundleActivator {
 
 	@Override
 	protected void doStart(final BundleContext context) throws Exception {
+		sharedInstance = this;
+
 		// track metrics
 		metricSetTracker = new MetricSetTracker(context);
 		metricSetTracker.open();
@@ -39,14 +69,69 @@ public class MonitoringActivator extends BaseBundleActivator {
 		// track status
 		statusTracker = new StatusTrackerWithMetric(context);
 		statusTracker.open();
+
+		// aggregate sampled transactions
+		transactionAggregator = new TransactionAggregator(context, TransactionSampleBuffer.getInstance());
+		transactionAggregator.start();
+
+		// record metric history
+		if (MetricRecorder.INTERVAL > 0) {
+			final File historyDir = context.getDataFile("history");
+			if (null != historyDir) {
+				try {
+					metricRecorder = new MetricRecorder(metricSetTracker, historyDir);
+					metricRecorder.start();
+				} catch (final Exception e) {
+					LOG.warn("Unable to open metric history in {}. Metric history will not be recorded. {}", historyDir, ExceptionUtils.getRootCauseMessage(e));
+				}
+			}
+		}
 	}
 
 	@Override
 	protected void doStop(final BundleContext context) throws Exception {
+		sharedInstance = null;
+
+		if (null != metricRecorder) {
+			metricRecorder.stop();
+			metricRecorder = null;
+		}
+
+		transactionAggregator.stop();
+		transactionAggregator = null;
+
 		metricSetTracker.close();
 		metricSetTracker = null;
 
 		statusTracker.close();
 		statusTracker = null;
 	}
+
+	/**
+	 * Returns the recorder of the metric history.
+	 *
+	 * @return the metric recorder (maybe <code>null</code> if recording is
+	 *         disabled)
+	 * @throws IllegalStateException
+	 *             if the bundle is inactive
+	 */
+	public MetricRecorder getMetricRecorder() throws IllegalStateException {
+		if (null == metricSetTracker)
+			throw createBundleInactiveException();
+		return metricRecorder;
+	}
+
+	/**
+	 * Returns the tracker of all registered metric sets.
+	 *
+	 * @return the metric set tracker
+	 * @throws IllegalStateException
+	 *             if the bundle is inactive
+	 */
+	public MetricSetTracker getMetricSetTracker() throws IllegalStateException {
+		final MetricSetTracker tracker = metricSetTracker;
+		if (null == tracker)
+			throw createBundleInactiveException();
+		return tracker;
+	}
 }
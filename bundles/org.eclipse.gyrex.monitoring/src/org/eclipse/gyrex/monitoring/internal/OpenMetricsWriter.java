@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes metric sets in the OpenMetrics (or Prometheus) text exposition
+ * format.
+ * <p>
+ * All metrics are exposed as gauges. The metric family name is derived from
+ * the metric id and the attribute name (eg. <code>requests_active</code>).
+ * Samples are distinguished by the metric set id label and the labels of the
+ * metric set (see {@link ExposedMetricSet}). Because the same metric id may
+ * be used in many metric sets, all values are read first and then written
+ * grouped by family so that every metric family is written once and is
+ * contiguous.
+ * </p>
+ * <p>
+ * Instances are not thread safe and should be used for a single scrape only.
+ * </p>
+ */
+public final class OpenMetricsWriter {
+
+	/**
+	 * A metric family collected across all metric sets.
+	 */
+	private static final class Family {
+
+		final String description;
+		final List<String> labels = new ArrayList<String>();
+		final List<Object> values = new ArrayList<Object>();
+
+		Family(final String description) {
+			this.description = description;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(OpenMetricsWriter.class);
+
+	/** content type of the OpenMetrics text format */
+	public static final String CONTENT_TYPE_OPENMETRICS = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+	/** content type of the Prometheus text format */
+	public static final String CONTENT_TYPE_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final Comparator<ExposedMetricSet> BY_ID = new Comparator<ExposedMetricSet>() {
+		@Override
+		public int compare(final ExposedMetricSet o1, final ExposedMetricSet o2) {
+			return o1.getMetricSet().getId().compareTo(o2.getMetricSet().getId());
+		}
+	};
+
+	/**
+	 * Appends the escaped string.
+	 *
+	 * @param string
+	 *            the string to escape
+	 * @param labelValue
+	 *            <code>true</code> if the string is a label value (which
+	 *            requires escaping of double quotes as well)
+	 * @param out
+	 *            the buffer to append to
+	 */
+	static void escape(final String string, final boolean labelValue, final StringBuilder out) {
+		if (null == string)
+			return;
+		for (int i = 0; i < string.length(); i++) {
+			final char c = string.charAt(i);
+			if (c == '\\') {
+				out.append("\\\\");
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else if (labelValue && (c == '"')) {
+				out.append("\\\"");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+
+	private final Writer out;
+	private final boolean openMetrics;
+	private final Set<String> names;
+	private final String[] prefixes;
+
+	/** buffer for writing numbers */
+	private final char[] digits = new char[20];
+	/** buffer for writing help texts */
+	private final StringBuilder help = new StringBuilder(128);
+	/** value map re-used across metrics */
+	private final Map<String, Object> values = new HashMap<String, Object>();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param out
+	 *            the writer (should be buffered)
+	 * @param openMetrics
+	 *            <code>true</code> for the OpenMetrics format,
+	 *            <code>false</code> for the Prometheus text format
+	 * @param names
+	 *            metric family names to expose (may be <code>null</code> or
+	 *            empty to not filter by name)
+	 * @param prefixes
+	 *            metric family name prefixes to expose (may be
+	 *            <code>null</code> or empty to not filter by prefix)
+	 */
+	public OpenMetricsWriter(final Writer out, final boolean openMetrics, final Set<String> names, final Collection<String> prefixes) {
+		if (null == out)
+			throw new IllegalArgumentException("writer must not be null");
+		this.out = out;
+		this.openMetrics = openMetrics;
+		this.names = (null != names) && !names.isEmpty() ? names : null;
+		this.prefixes = (null != prefixes) && !prefixes.isEmpty() ? prefixes.toArray(new String[prefixes.size()]) : null;
+	}
+
+	private boolean accept(final String familyName) {
+		if ((null == names) && (null == prefixes))
+			return true;
+		if ((null != names) && names.contains(familyName))
+			return true;
+		if (null != prefixes) {
+			for (final String prefix : prefixes) {
+				if (familyName.startsWith(prefix))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean acceptAny(final String[] familyNames) {
+		for (final String familyName : familyNames) {
+			if (accept(familyName))
+				return true;
+		}
+		return false;
+	}
+
+	private void collect(final ExposedMetricSet set, final Map<String, Family> families) {
+		for (int m = 0; m < set.getMetricCount(); m++) {
+			final String[] familyNames = set.getFamilyNames(m);
+			if (!acceptAny(familyNames)) {
+				continue;
+			}
+
+			// read values (once per metric)
+			values.clear();
+			try {
+				set.getMetric(m).collectAttributeValues(values);
+			} catch (final RuntimeException e) {
+				// don't fail the whole scrape because of a single metric
+				LOG.debug("Error reading metric {}. {}", set.getMetric(m).getId(), ExceptionUtils.getRootCauseMessage(e));
+				continue;
+			}
+
+			final String[] attributeNames = set.getAttributeNames(m);
+			for (int a = 0; a < familyNames.length; a++) {
+				final Object value = values.get(attributeNames[a]);
+				if ((null == value) || !accept(familyNames[a])) {
+					continue;
+				}
+				Family family = families.get(familyNames[a]);
+				if (null == family) {
+					family = new Family(set.getDescriptions(m)[a]);
+					families.put(familyNames[a], family);
+				}
+				family.labels.add(set.getLabels());
+				family.values.add(value);
+			}
+		}
+	}
+
+	/**
+	 * Writes all specified metric sets.
+	 *
+	 * @param metricSets
+	 *            the metric sets to write
+	 * @throws IOException
+	 *             if an error occurred writing to the underlying writer
+	 */
+	public void write(final Collection<ExposedMetricSet> metricSets) throws IOException {
+		final List<ExposedMetricSet> sorted = new ArrayList<ExposedMetricSet>(metricSets);
+		Collections.sort(sorted, BY_ID);
+
+		// collect all samples grouped by family
+		final Map<String, Family> families = new TreeMap<String, Family>();
+		for (final ExposedMetricSet set : sorted) {
+			collect(set, families);
+		}
+
+		for (final Entry<String, Family> entry : families.entrySet()) {
+			final String familyName = entry.getKey();
+			final Family family = entry.getValue();
+			writeHeader(familyName, family.description);
+			for (int i = 0; i < family.values.size(); i++) {
+				writeSample(familyName, family.labels.get(i), family.values.get(i));
+			}
+		}
+
+		if (openMetrics) {
+			out.write("# EOF\n");
+		}
+		out.flush();
+	}
+
+	private void writeHeader(final String familyName, final String description) throws IOException {
+		if (null != description) {
+			help.setLength(0);
+			escape(description, false, help);
+			out.write("# HELP ");
+			out.write(familyName);
+			out.write(' ');
+			out.append(help);
+			out.write('\n');
+		}
+		out.write("# TYPE ");
+		out.write(familyName);
+		out.write(" gauge\n");
+	}
+
+	private void writeLong(final long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			out.write(Long.toString(value));
+			return;
+		}
+		long remaining = Math.abs(value);
+		int pos = digits.length;
+		do {
+			digits[--pos] = (char) ('0' + (remaining % 10));
+			remaining /= 10;
+		} while (remaining != 0);
+		if (value < 0) {
+			digits[--pos] = '-';
+		}
+		out.write(digits, pos, digits.length - pos);
+	}
+
+	private void writeSample(final String familyName, final String labels, final Object value) throws IOException {
+		out.write(familyName);
+		out.write(labels);
+		out.write(' ');
+		if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+			writeLong(((Number) value).longValue());
+		} else if (value instanceof Number) {
+			final double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d)) {
+				out.write("NaN");
+			} else if (Double.isInfinite(d)) {
+				out.write(d > 0 ? "+Inf" : "-Inf");
+			} else {
+				out.write(Double.toString(d));
+			}
+		} else if (value instanceof Boolean) {
+			out.write(((Boolean) value).booleanValue() ? '1' : '0');
+		} else {
+			out.write("NaN");
+		}
+		out.write('\n');
+	}
+}
@@ -0,0 +1,459 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only store of metric samples in a bounded ring of segment files.
+ * <p>
+ * A segment file starts with a magic header followed by records. Each record
+ * is framed by its length and a CRC32 checksum so that a torn write at the end
+ * of a segment (eg. after a crash) only loses the incomplete record. There are
+ * two kinds of records:
+ * <ul>
+ * <li>a series record which assigns a segment-local index to a metric
+ * attribute when it is written the first time into a segment</li>
+ * <li>a sample record which contains the values of all series sampled at the
+ * same time; the time stamp is encoded as delta to the previous sample
+ * record, each value as delta to the previous value of the same series, all
+ * as variable length integers</li>
+ * </ul>
+ * Segments are self-contained. When a segment reaches its max. size a new one
+ * is started and the oldest segments are deleted so that the store never
+ * exceeds its configured number of segments.
+ * </p>
+ * <p>
+ * Records are buffered in memory and only written on {@link #flush()} (or when
+ * the buffer becomes large). The store is thread-safe.
+ * </p>
+ */
+public final class MetricHistoryStore implements Closeable {
+
+	private static final byte[] MAGIC = { 'G', 'M', 'H', '1' };
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final byte RECORD_SERIES = 1;
+	private static final byte RECORD_SAMPLES = 2;
+
+	/** the number of buffered bytes which trigger a write */
+	private static final int WRITE_THRESHOLD = 64 * 1024;
+
+	/** the number of decimal digits kept for floating point values */
+	private static final int DECIMALS = 3;
+	private static final double[] SCALES = { 1, 10, 100, 1000 };
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static File[] listSegments(final File directory) {
+		final File[] files = directory.listFiles();
+		if (null == files)
+			return new File[0];
+		final List<File> segments = new ArrayList<File>(files.length);
+		for (final File file : files) {
+			if (file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX) && (parseSequence(file) >= 0)) {
+				segments.add(file);
+			}
+		}
+		final File[] result = segments.toArray(new File[segments.size()]);
+		// file names are fixed length hex numbers
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static long parseSequence(final File segment) {
+		final String name = segment.getName();
+		try {
+			return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String readString(final ByteBuffer in) throws EOFException {
+		final int length = (int) VarInts.readUnsigned(in);
+		if (in.remaining() < length)
+			throw new EOFException();
+		final byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static void writeString(final ByteArrayOutputStream out, final String string) {
+		final byte[] bytes = string.getBytes(UTF_8);
+		VarInts.writeUnsigned(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private final File directory;
+	private final long segmentSize;
+	private final int maxSegments;
+	private final boolean fsync;
+
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream(WRITE_THRESHOLD + 4096);
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(4096);
+	private final ByteArrayOutputStream block = new ByteArrayOutputStream(4096);
+	private final CRC32 crc = new CRC32();
+
+	/** the current segment */
+	private long sequence;
+	private FileChannel channel;
+	private long segmentBytes;
+	private final Map<String, Integer> seriesIndices = new HashMap<String, Integer>();
+	private long[] lastValues = new long[64];
+	private long lastTimestamp;
+
+	/** the current sample block */
+	private long blockTimestamp = -1;
+	private int blockCount;
+	private int blockLastIndex;
+
+	/**
+	 * Creates a new store.
+	 *
+	 * @param directory
+	 *            the directory for storing the segment files
+	 * @param segmentSize
+	 *            the max. size of a segment in bytes
+	 * @param maxSegments
+	 *            the max. number of segments to keep
+	 * @param fsync
+	 *            <code>true</code> if every flush should force the data to
+	 *            the disk
+	 * @throws IOException
+	 *             if the store cannot be opened
+	 */
+	public MetricHistoryStore(final File directory, final long segmentSize, final int maxSegments, final boolean fsync) throws IOException {
+		if (null == directory)
+			throw new IllegalArgumentException("directory must not be null");
+		if (segmentSize < 1024)
+			throw new IllegalArgumentException("segment size must be at least 1024 bytes");
+		if (maxSegments < 2)
+			throw new IllegalArgumentException("at least two segments are required");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create directory " + directory);
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.fsync = fsync;
+
+		// always continue with a fresh segment
+		final File[] segments = listSegments(directory);
+		sequence = segments.length > 0 ? parseSequence(segments[segments.length - 1]) : 0;
+		openSegment();
+	}
+
+	/**
+	 * Adds a value to the current sample.
+	 *
+	 * @param metricId
+	 *            the metric id
+	 * @param attribute
+	 *            the attribute name
+	 * @param labels
+	 *            the metric set labels
+	 * @param value
+	 *            the value (floating point values will be stored with three
+	 *            decimal digits)
+	 * @throws IllegalStateException
+	 *             if no sample has been started
+	 */
+	public synchronized void add(final String metricId, final String attribute, final String labels, final Number value) throws IllegalStateException {
+		if (blockTimestamp < 0)
+			throw new IllegalStateException("no sample started");
+
+		final int scale;
+		final long scaled;
+		if ((value instanceof Double) || (value instanceof Float)) {
+			final double d = value.doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				return;
+			scale = DECIMALS;
+			scaled = Math.round(d * SCALES[DECIMALS]);
+		} else {
+			scale = 0;
+			scaled = value.longValue();
+		}
+
+		final int index = getSeriesIndex(metricId, attribute, labels, scale);
+		VarInts.writeSigned(block, index - blockLastIndex);
+		VarInts.writeSigned(block, scaled - lastValues[index]);
+		lastValues[index] = scaled;
+		blockLastIndex = index;
+		blockCount++;
+	}
+
+	private void closeSegment() throws IOException {
+		flush();
+		if (null != channel) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closeSegment();
+	}
+
+	private void decodeSegment(final File segment, final String metricId, final String attribute, final long from, final long to, final Map<String, TimeSeries> result) throws IOException {
+		final ByteBuffer in;
+		try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+			final byte[] bytes = new byte[(int) Math.min(file.length(), Integer.MAX_VALUE)];
+			file.readFully(bytes);
+			in = ByteBuffer.wrap(bytes);
+		}
+
+		for (final byte b : MAGIC) {
+			if (!in.hasRemaining() || (in.get() != b))
+				return;
+		}
+
+		final List<TimeSeries> series = new ArrayList<TimeSeries>();
+		final List<Integer> scales = new ArrayList<Integer>();
+		long[] values = new long[64];
+		long timestamp = 0;
+		final CRC32 crc = new CRC32();
+		try {
+			while (in.hasRemaining()) {
+				final int length = (int) VarInts.readUnsigned(in);
+				if ((length <= 0) || (in.remaining() < (length + 4)))
+					return; // incomplete
+				crc.reset();
+				crc.update(in.array(), in.position(), length);
+				final ByteBuffer payload = ByteBuffer.wrap(in.array(), in.position(), length).slice();
+				in.position(in.position() + length);
+				if (in.getInt() != (int) crc.getValue())
+					return; // corrupt
+
+				final byte type = payload.get();
+				if (type == RECORD_SERIES) {
+					final int index = (int) VarInts.readUnsigned(payload);
+					final String seriesMetricId = readString(payload);
+					final String seriesAttribute = readString(payload);
+					final String seriesLabels = readString(payload);
+					final int scale = (int) VarInts.readUnsigned(payload);
+					if ((index != series.size()) || (scale >= SCALES.length))
+						return; // corrupt
+					if (((null == metricId) || metricId.equals(seriesMetricId)) && ((null == attribute) || attribute.equals(seriesAttribute))) {
+						final String key = seriesMetricId + '\u0000' + seriesAttribute + '\u0000' + seriesLabels;
+						TimeSeries timeSeries = result.get(key);
+						if (null == timeSeries) {
+							timeSeries = new TimeSeries(seriesMetricId, seriesAttribute, seriesLabels);
+							result.put(key, timeSeries);
+						}
+						series.add(timeSeries);
+					} else {
+						series.add(null);
+					}
+					scales.add(scale);
+					if (index >= values.length) {
+						values = Arrays.copyOf(values, values.length * 2);
+					}
+				} else if (type == RECORD_SAMPLES) {
+					timestamp += VarInts.readSigned(payload);
+					final int count = (int) VarInts.readUnsigned(payload);
+					final boolean inRange = (timestamp >= from) && (timestamp <= to);
+					int index = 0;
+					for (int i = 0; i < count; i++) {
+						index += (int) VarInts.readSigned(payload);
+						if ((index < 0) || (index >= series.size()))
+							return; // corrupt
+						values[index] += VarInts.readSigned(payload);
+						final TimeSeries timeSeries = series.get(index);
+						if (inRange && (null != timeSeries)) {
+							timeSeries.add(timestamp, values[index] / SCALES[scales.get(index)]);
+						}
+					}
+				} else
+					return; // unknown
+			}
+		} catch (final EOFException | IllegalStateException e) {
+			// truncated or malformed record
+		}
+	}
+
+	private void deleteOldSegments() {
+		final File[] segments = listSegments(directory);
+		for (int i = 0; i < (segments.length - maxSegments); i++) {
+			segments[i].delete();
+		}
+	}
+
+	/**
+	 * Finishes the current sample and appends it to the store.
+	 *
+	 * @throws IOException
+	 *             if writing to the store failed
+	 */
+	public synchronized void endSample() throws IOException {
+		if (blockTimestamp < 0)
+			throw new IllegalStateException("no sample started");
+
+		record.reset();
+		record.write(RECORD_SAMPLES);
+		VarInts.writeSigned(record, blockTimestamp - lastTimestamp);
+		VarInts.writeUnsigned(record, blockCount);
+		block.writeTo(record);
+		writeRecord();
+		lastTimestamp = blockTimestamp;
+		blockTimestamp = -1;
+
+		if (segmentBytes >= segmentSize) {
+			closeSegment();
+			openSegment();
+			deleteOldSegments();
+		} else if (pending.size() >= WRITE_THRESHOLD) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes all buffered samples to disk.
+	 *
+	 * @throws IOException
+	 *             if writing to the store failed
+	 */
+	public synchronized void flush() throws IOException {
+		if ((pending.size() == 0) || (null == channel))
+			return;
+		final ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		pending.reset();
+		if (fsync) {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Returns the directory of the store.
+	 *
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	private int getSeriesIndex(final String metricId, final String attribute, final String labels, final int scale) {
+		final String key = metricId + '\u0000' + attribute + '\u0000' + labels;
+		final Integer existing = seriesIndices.get(key);
+		if (null != existing)
+			return existing.intValue();
+
+		final int index = seriesIndices.size();
+		seriesIndices.put(key, index);
+		if (index >= lastValues.length) {
+			lastValues = Arrays.copyOf(lastValues, lastValues.length * 2);
+		}
+
+		record.reset();
+		record.write(RECORD_SERIES);
+		VarInts.writeUnsigned(record, index);
+		writeString(record, metricId);
+		writeString(record, attribute);
+		writeString(record, labels);
+		VarInts.writeUnsigned(record, scale);
+		writeRecord();
+		return index;
+	}
+
+	private void openSegment() throws IOException {
+		sequence++;
+		final File file = new File(directory, String.format("%016x%s", sequence, SEGMENT_SUFFIX));
+		channel = new FileOutputStream(file, true).getChannel();
+		seriesIndices.clear();
+		Arrays.fill(lastValues, 0);
+		lastTimestamp = 0;
+		pending.write(MAGIC, 0, MAGIC.length);
+		segmentBytes = MAGIC.length;
+	}
+
+	/**
+	 * Reads recorded values.
+	 *
+	 * @param metricId
+	 *            the metric id (<code>null</code> for all metrics)
+	 * @param attribute
+	 *            the attribute name (<code>null</code> for all attributes)
+	 * @param from
+	 *            the start of the time range (inclusive, in milliseconds since
+	 *            the epoch)
+	 * @param to
+	 *            the end of the time range (inclusive, in milliseconds since
+	 *            the epoch)
+	 * @return the recorded values per series (in the order they were found)
+	 * @throws IOException
+	 *             if reading the store failed
+	 */
+	public synchronized List<TimeSeries> query(final String metricId, final String attribute, final long from, final long to) throws IOException {
+		flush();
+		final Map<String, TimeSeries> result = new LinkedHashMap<String, TimeSeries>();
+		for (final File segment : listSegments(directory)) {
+			decodeSegment(segment, metricId, attribute, from, to, result);
+		}
+		return new ArrayList<TimeSeries>(result.values());
+	}
+
+	/**
+	 * Starts a new sample.
+	 * <p>
+	 * All values {@link #add(String, String, String, Number) added} until
+	 * {@link #endSample()} will be recorded with the specified time.
+	 * </p>
+	 *
+	 * @param timestamp
+	 *            the sample time (in milliseconds since the epoch)
+	 */
+	public synchronized void startSample(final long timestamp) {
+		if (timestamp < 0)
+			throw new IllegalArgumentException("timestamp must not be negative");
+		blockTimestamp = timestamp;
+		blockCount = 0;
+		blockLastIndex = 0;
+		block.reset();
+	}
+
+	private void writeRecord() {
+		final int length = record.size();
+		final int before = pending.size();
+		VarInts.writeUnsigned(pending, length);
+		crc.reset();
+		final byte[] bytes = record.toByteArray();
+		crc.update(bytes, 0, length);
+		pending.write(bytes, 0, length);
+		final int checksum = (int) crc.getValue();
+		pending.write(checksum >>> 24);
+		pending.write(checksum >>> 16);
+		pending.write(checksum >>> 8);
+		pending.write(checksum);
+		segmentBytes += pending.size() - before;
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.internal.ExposedMetricSet;
+import org.eclipse.gyrex.monitoring.internal.MetricSetTracker;
+import org.eclipse.gyrex.monitoring.metrics.BaseMetric;
+import org.eclipse.gyrex.monitoring.metrics.MetricSet;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically records the values of all tracked metric sets into a
+ * {@link MetricHistoryStore}.
+ * <p>
+ * Only numeric and boolean attributes are recorded. Samples are buffered by
+ * the store and written in batches, i.e. a crash may lose the samples of the
+ * last flush interval.
+ * </p>
+ */
+public final class MetricRecorder implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MetricRecorder.class);
+
+	/** the interval (in milliseconds) between two samples (0 disables recording) */
+	public static final long INTERVAL = Long.getLong("gyrex.monitoring.history.interval", 10000L);
+
+	/** the interval (in milliseconds) between two writes to disk */
+	private static final long FLUSH_INTERVAL = Long.getLong("gyrex.monitoring.history.flushInterval", 60000L);
+
+	/** the max. size of a segment file (in bytes) */
+	private static final long SEGMENT_SIZE = Long.getLong("gyrex.monitoring.history.segmentSize", 4L * 1024 * 1024);
+
+	/** the max. number of segment files */
+	private static final int MAX_SEGMENTS = Integer.getInteger("gyrex.monitoring.history.maxSegments", 8);
+
+	/** force writes to disk */
+	private static final boolean FSYNC = Boolean.getBoolean("gyrex.monitoring.history.fsync");
+
+	private static String getLabels(final MetricSet metricSet) {
+		final StringBuilder labels = new StringBuilder();
+		labels.append("metricSet=").append(metricSet.getId());
+		for (final Entry<String, String> property : new TreeMap<String, String>(metricSet.getProperties()).entrySet()) {
+			labels.append(',').append(property.getKey()).append('=').append(property.getValue());
+		}
+		return labels.toString();
+	}
+
+	private final MetricSetTracker metricSetTracker;
+	private final MetricHistoryStore store;
+	private final Object lock = new Object();
+
+	/** only accessed by the recorder thread */
+	private final Map<String, Object> values = new HashMap<String, Object>();
+	private long lastFlush;
+
+	private volatile Thread thread;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param metricSetTracker
+	 *            the tracker providing the metric sets to record
+	 * @param directory
+	 *            the directory for storing the history
+	 * @throws IOException
+	 *             if the history store cannot be opened
+	 */
+	public MetricRecorder(final MetricSetTracker metricSetTracker, final File directory) throws IOException {
+		this.metricSetTracker = metricSetTracker;
+		store = new MetricHistoryStore(directory, SEGMENT_SIZE, MAX_SEGMENTS, FSYNC);
+	}
+
+	/**
+	 * Reads recorded values.
+	 *
+	 * @see MetricHistoryStore#query(String, String, long, long)
+	 */
+	public List<TimeSeries> query(final String metricId, final String attribute, final long from, final long to) throws IOException {
+		return store.query(metricId, attribute, from, to);
+	}
+
+	void record(final long now) throws IOException {
+		store.startSample(now);
+		for (final ExposedMetricSet exposedMetricSet : metricSetTracker.getExposedMetricSets()) {
+			final MetricSet metricSet = exposedMetricSet.getMetricSet();
+			final String labels = getLabels(metricSet);
+			for (final BaseMetric metric : metricSet.getMetrics()) {
+				values.clear();
+				metric.collectAttributeValues(values);
+				for (final Entry<String, Object> value : values.entrySet()) {
+					if (value.getValue() instanceof Number) {
+						store.add(metric.getId(), value.getKey(), labels, (Number) value.getValue());
+					} else if (value.getValue() instanceof Boolean) {
+						store.add(metric.getId(), value.getKey(), labels, ((Boolean) value.getValue()).booleanValue() ? 1 : 0);
+					}
+				}
+			}
+		}
+		store.endSample();
+
+		if ((now - lastFlush) >= FLUSH_INTERVAL) {
+			store.flush();
+			lastFlush = now;
+		}
+	}
+
+	@Override
+	public void run() {
+		lastFlush = System.currentTimeMillis();
+		try {
+			while (thread == Thread.currentThread()) {
+				// don't use interrupts, they would close the file channel
+				synchronized (lock) {
+					lock.wait(INTERVAL);
+				}
+				if (thread != Thread.currentThread())
+					return;
+				try {
+					record(System.currentTimeMillis());
+				} catch (final IOException | RuntimeException e) {
+					LOG.warn("Error recording metric history to {}. {}", store.getDirectory(), ExceptionUtils.getRootCauseMessage(e));
+				}
+			}
+		} catch (final InterruptedException e) {
+			// stop
+		}
+	}
+
+	/**
+	 * Starts the recorder thread.
+	 */
+	public void start() {
+		final Thread thread = new Thread(this, "Gyrex Metric Recorder");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		this.thread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stops the recorder thread and writes all pending samples to disk.
+	 */
+	public void stop() {
+		final Thread thread = this.thread;
+		this.thread = null;
+		if (null != thread) {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		try {
+			store.close();
+		} catch (final IOException e) {
+			LOG.warn("Error closing metric history {}. {}", store.getDirectory(), ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal.history;
+
+import java.util.Arrays;
+
+/**
+ * The recorded values of a single metric attribute.
+ */
+public final class TimeSeries {
+
+	private final String metricId;
+	private final String attribute;
+	private final String labels;
+
+	private long[] timestamps = new long[64];
+	private double[] values = new double[64];
+	private int size;
+
+	TimeSeries(final String metricId, final String attribute, final String labels) {
+		this.metricId = metricId;
+		this.attribute = attribute;
+		this.labels = labels;
+	}
+
+	void add(final long timestamp, final double value) {
+		if (size == timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		timestamps[size] = timestamp;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Returns the attribute name.
+	 *
+	 * @return the attribute name
+	 */
+	public String getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * Returns the labels of the metric set (in the form
+	 * <code>key=value,...</code>).
+	 *
+	 * @return the labels (maybe empty)
+	 */
+	public String getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Returns the metric id.
+	 *
+	 * @return the metric id
+	 */
+	public String getMetricId() {
+		return metricId;
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return the number of values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the time (in milliseconds since the epoch) of a recorded value.
+	 *
+	 * @param index
+	 *            the index
+	 * @return the time
+	 */
+	public long getTimestamp(final int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		return timestamps[index];
+	}
+
+	/**
+	 * Returns a recorded value.
+	 *
+	 * @param index
+	 *            the index
+	 * @return the value
+	 */
+	public double getValue(final int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		return values[index];
+	}
+
+	@Override
+	public String toString() {
+		return metricId + "." + attribute + (labels.isEmpty() ? "" : "{" + labels + "}") + " (" + size + " values)";
+	}
+}
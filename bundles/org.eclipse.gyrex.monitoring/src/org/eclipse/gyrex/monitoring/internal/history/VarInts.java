@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of longs.
+ * <p>
+ * Values are written in groups of seven bits, least significant group first.
+ * Signed values are zig-zag encoded first so that small negative deltas are
+ * small as well.
+ * </p>
+ */
+final class VarInts {
+
+	static long readSigned(final ByteBuffer in) throws EOFException {
+		final long zigZag = readUnsigned(in);
+		return (zigZag >>> 1) ^ -(zigZag & 1);
+	}
+
+	static long readUnsigned(final ByteBuffer in) throws EOFException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (!in.hasRemaining())
+				throw new EOFException();
+			final byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalStateException("malformed varint");
+	}
+
+	static void writeSigned(final ByteArrayOutputStream out, final long value) {
+		writeUnsigned(out, (value << 1) ^ (value >> 63));
+	}
+
+	static void writeUnsigned(final ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private VarInts() {
+		// empty
+	}
+}
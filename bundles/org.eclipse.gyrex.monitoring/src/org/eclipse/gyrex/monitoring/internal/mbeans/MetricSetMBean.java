@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2012 AGETO Service GmbH and others.
+ * Copyright (c) 2010, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -28,6 +28,7 @@ import javax.management.MBeanInfo;
 import javax.management.MBeanNotificationInfo;
 import javax.management.MBeanOperationInfo;
 import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.CompositeType;
 import javax.management.openmbean.OpenDataException;
@@ -48,12 +49,99 @@ import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * {@link MetricSetJmxMBean} implementation.
+ * <p>
+ * The composite type, item names and value conversions of each metric are
+ * computed once at registration time. Reading an attribute reads the metric
+ * values once and directly builds the composite data.
+ * </p>
+ * <p>
+ * Optionally, attribute values can be cached for a short time in order to
+ * protect expensive metrics from monitoring tools polling aggressively. The
+ * time to live (in milliseconds) can be set node wide using system property
+ * <code>gyrex.monitoring.mbean.snapshotTtl</code> or per metric set using a
+ * service property of the same name. It defaults to <code>0</code> (i.e. no
+ * caching).
+ * </p>
  */
 public class MetricSetMBean implements DynamicMBean {
 
+	/**
+	 * Reads the values of a metric into composite data.
+	 */
+	private static final class MetricReader {
+
+		private final BaseMetric metric;
+		private final CompositeType type;
+		private final String[] itemNames;
+		private final boolean[] convertToString;
+
+		/** the last snapshot (only used when caching is enabled) */
+		private volatile Snapshot snapshot;
+
+		MetricReader(final BaseMetric metric, final CompositeType type, final String[] itemNames, final boolean[] convertToString) {
+			this.metric = metric;
+			this.type = type;
+			this.itemNames = itemNames;
+			this.convertToString = convertToString;
+		}
+
+		CompositeData read(final long snapshotTtl) throws OpenDataException {
+			if (snapshotTtl <= 0)
+				return readValues();
+
+			final long now = System.currentTimeMillis();
+			final Snapshot current = snapshot;
+			if ((null != current) && (current.expires > now))
+				return current.data;
+
+			// note, concurrent readers may read at the same time; last one wins
+			final CompositeData data = readValues();
+			snapshot = new Snapshot(data, now + snapshotTtl);
+			return data;
+		}
+
+		private CompositeData readValues() throws OpenDataException {
+			final Map<String, Object> rawValues = new HashMap<String, Object>(itemNames.length * 2);
+			metric.collectAttributeValues(rawValues);
+			final Object[] metricValues = new Object[itemNames.length];
+			for (int i = 0; i < metricValues.length; i++) {
+				final Object rawValue = rawValues.get(itemNames[i]);
+				// convert if necessary
+				if ((null != rawValue) && convertToString[i] && !(rawValue instanceof String)) {
+					metricValues[i] = String.valueOf(rawValue);
+				} else {
+					metricValues[i] = rawValue;
+				}
+			}
+			return new CompositeDataSupport(type, itemNames, metricValues);
+		}
+	}
+
+	/**
+	 * An immutable snapshot of a metric.
+	 */
+	private static final class Snapshot {
+		final CompositeData data;
+		final long expires;
+
+		Snapshot(final CompositeData data, final long expires) {
+			this.data = data;
+			this.expires = expires;
+		}
+	}
+
+	/** system/service property for configuring the snapshot time to live */
+	public static final String PROP_SNAPSHOT_TTL = "gyrex.monitoring.mbean.snapshotTtl";
+
+	private static final Logger LOG = LoggerFactory.getLogger(MetricSetMBean.class);
+
 	private static final String RESET_STATS = "resetStats";
 	private static final String PROPERTIES = "properties";
 	private static final String DESCRIPTION = "description";
@@ -66,8 +154,8 @@ public class MetricSetMBean implements DynamicMBean {
 	private TabularDataSupport properties;
 	private CompositeType propertyType;
 	private TabularType propertyTableType;
-	private Map<String, CompositeType> metricTypesByAttributeName;
-	private Map<String, BaseMetric> metricByAttributeName;
+	private Map<String, MetricReader> metricReaderByAttributeName;
+	private long snapshotTtl;
 
 	/**
 	 * Creates a new instance.
@@ -112,6 +200,15 @@ public class MetricSetMBean implements DynamicMBean {
 		return null;
 	}
 
+	private MetricReader createReader(final BaseMetric metric, final CompositeType type) {
+		final String[] itemNames = type.keySet().toArray(new String[0]);
+		final boolean[] convertToString = new boolean[itemNames.length];
+		for (int i = 0; i < itemNames.length; i++) {
+			convertToString[i] = SimpleType.STRING == type.getType(itemNames[i]);
+		}
+		return new MetricReader(metric, type, itemNames, convertToString);
+	}
+
 	@Override
 	public Object getAttribute(final String attributeName) throws AttributeNotFoundException, MBeanException, ReflectionException {
 		if (ID.equals(attributeName)) {
@@ -120,26 +217,11 @@ public class MetricSetMBean implements DynamicMBean {
 			return metricSet.getDescription();
 		} else if (PROPERTIES.equals(attributeName)) {
 			return properties;
-		} else if (metricTypesByAttributeName.containsKey(attributeName)) {
-			final CompositeType type = metricTypesByAttributeName.get(attributeName);
-			final BaseMetric metric = metricByAttributeName.get(attributeName);
-			if ((type != null) && (metric != null)) {
-				final Map<String, ?> rawValues = metric.getAttributeValues();
-				final String[] metricAttributeNames = type.keySet().toArray(new String[0]);
-				final Object[] metricValues = new Object[metricAttributeNames.length];
-				for (int i = 0; i < metricValues.length; i++) {
-					Object rawValue = rawValues.get(metricAttributeNames[i]);
-					// convert if necessary
-					if (null != rawValue) {
-						final OpenType detectedTyp = detectType(rawValue.getClass());
-						if ((SimpleType.STRING == detectedTyp) && !(rawValue instanceof String)) {
-							rawValue = String.valueOf(rawValue);
-						}
-					}
-					metricValues[i] = rawValue;
-				}
+		} else {
+			final MetricReader reader = metricReaderByAttributeName.get(attributeName);
+			if (reader != null) {
 				try {
-					return new CompositeDataSupport(type, metricAttributeNames, metricValues);
+					return reader.read(snapshotTtl);
 				} catch (final OpenDataException e) {
 					throw new MBeanException(e);
 				}
@@ -158,11 +240,9 @@ public class MetricSetMBean implements DynamicMBean {
 			} catch (final AttributeNotFoundException e) {
 				// ignore
 			} catch (final MBeanException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				LOG.debug("Error reading attribute {} of metric set {}. {}", new Object[] { attributeName, metricSet.getId(), ExceptionUtils.getRootCauseMessage(e) });
 			} catch (final ReflectionException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				LOG.debug("Error reading attribute {} of metric set {}. {}", new Object[] { attributeName, metricSet.getId(), ExceptionUtils.getRootCauseMessage(e) });
 			}
 		}
 		return attributeList;
@@ -233,17 +313,19 @@ public class MetricSetMBean implements DynamicMBean {
 			attributes.add(new OpenMBeanAttributeInfoSupport("propertiesError", "Exception occured while determining properties. " + e.toString(), SimpleType.STRING, true, false, false));
 		}
 
+		// snapshot caching
+		final Object ttl = reference.getProperty(PROP_SNAPSHOT_TTL);
+		snapshotTtl = NumberUtils.toLong(null != ttl ? String.valueOf(ttl) : System.getProperty(PROP_SNAPSHOT_TTL), 0L);
+
 		// metrics
 		final List<BaseMetric> metrics = metricSet.getMetrics();
-		metricTypesByAttributeName = new HashMap<String, CompositeType>(metrics.size());
-		metricByAttributeName = new HashMap<String, BaseMetric>(metrics.size());
+		metricReaderByAttributeName = new HashMap<String, MetricReader>(metrics.size());
 		for (final BaseMetric metric : metrics) {
 			final String attributeName = StringUtils.removeStart(metric.getId(), metricSet.getId() + ".");
 			try {
 				final CompositeType type = getType(metric);
 				if (type != null) {
-					metricTypesByAttributeName.put(attributeName, type);
-					metricByAttributeName.put(attributeName, metric);
+					metricReaderByAttributeName.put(attributeName, createReader(metric, type));
 					attributes.add(new OpenMBeanAttributeInfoSupport(attributeName, metric.getId(), type, true, false, false));
 				}
 			} catch (final OpenDataException e) {
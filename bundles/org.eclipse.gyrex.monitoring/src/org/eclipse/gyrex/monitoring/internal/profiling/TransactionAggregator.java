@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal.profiling;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.internal.profiling.TransactionSampleBuffer.SampleHandler;
+import org.eclipse.gyrex.monitoring.metrics.MetricSet;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregates sampled transactions into {@link TransactionMetrics} off the
+ * request threads.
+ * <p>
+ * A background thread periodically drains the {@link TransactionSampleBuffer}
+ * and records the samples into a metric set per transaction id. Metric sets
+ * are registered as OSGi services when a transaction id is seen for the first
+ * time. The number of metric sets is limited in order to protect the system
+ * from an unbounded number of transaction ids.
+ * </p>
+ */
+public final class TransactionAggregator implements SampleHandler, Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TransactionAggregator.class);
+
+	/** the max. number of transaction ids to aggregate */
+	static final int MAX_TRANSACTIONS = Integer.getInteger("gyrex.monitoring.profiling.maxTransactions", 200);
+
+	/** the interval (in milliseconds) between two drains of the sample buffer */
+	private static final long DRAIN_INTERVAL = 250L;
+
+	private final BundleContext context;
+	private final TransactionSampleBuffer buffer;
+
+	/** only accessed by the aggregator thread (and after it terminated) */
+	private final Map<String, TransactionMetrics> metricsById = new HashMap<String, TransactionMetrics>();
+	private final Map<String, ServiceRegistration<MetricSet>> registrations = new HashMap<String, ServiceRegistration<MetricSet>>();
+	private long ignored;
+
+	private volatile Thread thread;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param context
+	 *            the bundle context for registering metric sets
+	 * @param buffer
+	 *            the buffer to drain
+	 */
+	public TransactionAggregator(final BundleContext context, final TransactionSampleBuffer buffer) {
+		this.context = context;
+		this.buffer = buffer;
+	}
+
+	private void register(final String id, final TransactionMetrics metrics) {
+		final Hashtable<String, Object> properties = new Hashtable<String, Object>(3);
+		properties.put(Constants.SERVICE_VENDOR, "Eclipse Gyrex");
+		properties.put(Constants.SERVICE_DESCRIPTION, metrics.getDescription());
+		properties.put(Constants.SERVICE_PID, metrics.getId());
+		try {
+			registrations.put(id, context.registerService(MetricSet.class, metrics, properties));
+		} catch (final IllegalStateException e) {
+			// bundle stopped concurrently
+			LOG.debug("Unable to register profiling metrics for transaction {}. {}", id, ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (thread == Thread.currentThread()) {
+				buffer.drain(this);
+
+				final long dropped = buffer.getAndResetDropped();
+				if (dropped > 0) {
+					LOG.debug("Dropped {} transaction samples because the sample buffer was full.", dropped);
+				}
+
+				Thread.sleep(DRAIN_INTERVAL);
+			}
+		} catch (final InterruptedException e) {
+			// stop
+		}
+	}
+
+	@Override
+	public void sample(final String id, final long durationNanos, final long cpuTimeNanos) {
+		TransactionMetrics metrics = metricsById.get(id);
+		if (null == metrics) {
+			if (metricsById.size() >= MAX_TRANSACTIONS) {
+				if ((ignored++ % 10000) == 0) {
+					LOG.warn("Too many different transactions sampled (limit {}). Transaction {} will not be aggregated.", MAX_TRANSACTIONS, id);
+				}
+				return;
+			}
+			metrics = new TransactionMetrics(id);
+			metricsById.put(id, metrics);
+			register(id, metrics);
+		}
+		metrics.record(durationNanos, cpuTimeNanos);
+	}
+
+	/**
+	 * Starts the aggregator thread.
+	 */
+	public void start() {
+		final Thread thread = new Thread(this, "Gyrex Profiling Aggregator");
+		thread.setDaemon(true);
+		this.thread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stops the aggregator thread and unregisters all metric sets.
+	 */
+	public void stop() {
+		final Thread thread = this.thread;
+		this.thread = null;
+		if (null != thread) {
+			thread.interrupt();
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		for (final ServiceRegistration<MetricSet> registration : registrations.values()) {
+			try {
+				registration.unregister();
+			} catch (final IllegalStateException e) {
+				// ignore
+			}
+		}
+		registrations.clear();
+		metricsById.clear();
+	}
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal.profiling;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.MetricSet;
+import org.eclipse.gyrex.monitoring.metrics.TimerMetric;
+
+/**
+ * Aggregated statistics of all sampled transactions with the same id.
+ */
+public class TransactionMetrics extends MetricSet {
+
+	/** the metric property for the transaction id */
+	public static final String PROPERTY_TRANSACTION = "transaction";
+
+	private final TimerMetric duration;
+	private final TimerMetric cpuTime;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param transactionId
+	 *            the transaction id
+	 */
+	public TransactionMetrics(final String transactionId) {
+		super(transactionId + ".profile", String.format("Sampled transactions %s", transactionId), Collections.singletonMap(PROPERTY_TRANSACTION, transactionId), new TimerMetric(transactionId + ".duration", TimeUnit.MICROSECONDS), new TimerMetric(transactionId + ".cpu", TimeUnit.MICROSECONDS));
+		duration = getMetric(0, TimerMetric.class);
+		cpuTime = getMetric(1, TimerMetric.class);
+	}
+
+	/**
+	 * Records a sampled transaction.
+	 *
+	 * @param durationNanos
+	 *            the transaction duration in nanoseconds
+	 * @param cpuTimeNanos
+	 *            the consumed thread CPU time in nanoseconds (<code>0</code>
+	 *            if not collected)
+	 */
+	public void record(final long durationNanos, final long cpuTimeNanos) {
+		duration.processFinished(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+		if (cpuTimeNanos > 0) {
+			cpuTime.processFinished(TimeUnit.NANOSECONDS.toMicros(cpuTimeNanos));
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.internal.profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free ring buffer for handing over completed transaction
+ * samples from request threads to the {@link TransactionAggregator}.
+ * <p>
+ * Any number of threads may {@link #offer(String, long, long) offer} samples
+ * concurrently but only a single thread may {@link #drain(SampleHandler)
+ * drain} the buffer. Samples are stored in pre-allocated arrays, i.e. offering
+ * a sample does not allocate. If the buffer is full, samples are dropped and
+ * counted.
+ * </p>
+ */
+public final class TransactionSampleBuffer {
+
+	/**
+	 * Receives samples drained from the buffer.
+	 */
+	public static interface SampleHandler {
+		void sample(String id, long durationNanos, long cpuTimeNanos);
+	}
+
+	/** the default capacity */
+	static final int DEFAULT_CAPACITY = 4096;
+
+	private static final TransactionSampleBuffer sharedInstance = new TransactionSampleBuffer(DEFAULT_CAPACITY);
+
+	/**
+	 * Returns the buffer shared by the profiler and the aggregator.
+	 *
+	 * @return the shared buffer
+	 */
+	public static TransactionSampleBuffer getInstance() {
+		return sharedInstance;
+	}
+
+	private final int mask;
+	private final String[] ids;
+	private final long[] durations;
+	private final long[] cpuTimes;
+
+	/**
+	 * per slot sequence, a slot can be written when its sequence equals the
+	 * tail position and read when it equals the head position plus one
+	 */
+	private final AtomicLongArray sequences;
+
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/** only accessed by the draining thread */
+	private long head;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param capacity
+	 *            the capacity (will be rounded up to the next power of two)
+	 */
+	public TransactionSampleBuffer(final int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		ids = new String[size];
+		durations = new long[size];
+		cpuTimes = new long[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Drains all available samples into the specified handler.
+	 * <p>
+	 * Must only be called by a single thread at a time.
+	 * </p>
+	 *
+	 * @param handler
+	 *            the handler
+	 * @return the number of drained samples
+	 */
+	public int drain(final SampleHandler handler) {
+		int drained = 0;
+		while (true) {
+			final int index = (int) (head & mask);
+			if (sequences.get(index) != (head + 1))
+				return drained;
+			final String id = ids[index];
+			final long duration = durations[index];
+			final long cpuTime = cpuTimes[index];
+			ids[index] = null;
+			// release the slot for the next round
+			sequences.lazySet(index, head + mask + 1);
+			head++;
+			drained++;
+			handler.sample(id, duration, cpuTime);
+		}
+	}
+
+	/**
+	 * Returns and resets the number of samples dropped because the buffer was
+	 * full.
+	 *
+	 * @return the number of dropped samples
+	 */
+	public long getAndResetDropped() {
+		return dropped.getAndSet(0);
+	}
+
+	/**
+	 * Offers a sample.
+	 *
+	 * @param id
+	 *            the transaction id
+	 * @param durationNanos
+	 *            the transaction duration in nanoseconds
+	 * @param cpuTimeNanos
+	 *            the consumed thread CPU time in nanoseconds (<code>0</code>
+	 *            if not collected)
+	 * @return <code>true</code> if the sample was accepted,
+	 *         <code>false</code> if the buffer is full
+	 */
+	public boolean offer(final String id, final long durationNanos, final long cpuTimeNanos) {
+		long position = tail.get();
+		while (true) {
+			final int index = (int) (position & mask);
+			final long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					ids[index] = id;
+					durations[index] = durationNanos;
+					cpuTimes[index] = cpuTimeNanos;
+					// publish (the volatile write orders the array writes)
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (sequence < position) {
+				// full
+				dropped.incrementAndGet();
+				return false;
+			} else {
+				// another thread claimed the slot already
+				position = tail.get();
+			}
+		}
+	}
+}
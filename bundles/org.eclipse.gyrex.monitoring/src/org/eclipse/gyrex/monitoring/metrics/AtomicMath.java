@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free min/max accumulation for {@link AtomicLong}.
+ * <p>
+ * The fast path only reads the current value. A CAS loop is only entered if
+ * the value actually needs to change, which becomes rare quickly for high
+ * and low water marks.
+ * </p>
+ */
+final class AtomicMath {
+
+	/**
+	 * Updates the specified value to the maximum of its current value and the
+	 * specified value.
+	 */
+	static void max(final AtomicLong value, final long x) {
+		long current;
+		while (x > (current = value.get())) {
+			if (value.compareAndSet(current, x))
+				return;
+		}
+	}
+
+	/**
+	 * Updates the specified value to the minimum of its current value and the
+	 * specified value.
+	 */
+	static void min(final AtomicLong value, final long x) {
+		long current;
+		while (x < (current = value.get())) {
+			if (value.compareAndSet(current, x))
+				return;
+		}
+	}
+
+	private AtomicMath() {
+		// empty
+	}
+}
@@ -19,9 +19,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.CharSet;
 import org.apache.commons.lang.StringUtils;
@@ -33,8 +31,13 @@ import org.apache.commons.lang.StringUtils;
  * follow Java package naming for ids.
  * </p>
  * <p>
- * Typically, metrics are thread safe in terms of concurrent updates. However,
- * retrieving all metric values in one atomic operation is not supported.
+ * Typically, metrics are thread safe in terms of concurrent updates. Updates
+ * never block each other. Values which are recorded together are read as a
+ * consistent snapshot (eg. the count, total, average, high and low of a
+ * processing time, see {@link Counter#getSnapshot()}). Independent values of
+ * a metric (eg. active and processed requests) may reflect slightly different
+ * points in time. Reading values is guaranteed to not overlap with a
+ * {@link #resetStats() statistics reset}.
  * </p>
  * <p>
  * Note, although this class is marked <strong>abstract</strong> it is not
@@ -64,9 +67,21 @@ public abstract class BaseMetric {
 	/** helper constant */
 	static final String[] NO_METRICS = new String[0];
 
-	/** common date format */
+	/** common date format (not thread safe, use {@link #formatIso8601(long)}) */
 	static final DateFormat ISO_8601_UTC = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
 
+	/** max. number of optimistic read attempts */
+	private static final int MAX_READ_ATTEMPTS = 4;
+
+	/**
+	 * Formats the specified time stamp using {@link #ISO_8601_UTC}.
+	 */
+	static String formatIso8601(final long timestamp) {
+		synchronized (ISO_8601_UTC) {
+			return ISO_8601_UTC.format(new Date(timestamp));
+		}
+	}
+
 	/**
 	 * Indicates if the specified id is a valid metric id.
 	 * <p>
@@ -108,8 +123,11 @@ public abstract class BaseMetric {
 	/** the id */
 	private final String id;
 
-	/** a lock for protecting against concurrent set and reset */
-	private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+	/**
+	 * a sequence for detecting concurrent statistics resets (odd while a reset
+	 * is in progress)
+	 */
+	private final AtomicLong resetSequence = new AtomicLong();
 
 	/** the last reset timestamp */
 	private volatile long statsSince;
@@ -134,9 +152,9 @@ public abstract class BaseMetric {
 	/**
 	 * Hook for subclasses to overwrite when statistics need to be resetted.
 	 * <p>
-	 * At the time this method is invoked, the current thread has acquired the
-	 * {@link #getWriteLock() write lock} already. Subclasses must
-	 * <strong>not</strong> modify the write lock.
+	 * Resets are serialized, i.e. this method is never invoked concurrently.
+	 * However, updates may happen concurrently. Thus, subclasses must reset
+	 * their values using lock-free operations.
 	 * </p>
 	 * <p>
 	 * The default implementation does nothing. Subclasses my extend.
@@ -195,16 +213,46 @@ public abstract class BaseMetric {
 	 */
 	public final Map<String, ?> getAttributeValues() {
 		final Map<String, Object> attributeValues = new HashMap<String, Object>();
-		final Lock lock = getReadLock();
-		lock.lock();
-		try {
-			populateAttributeValues(attributeValues);
-		} finally {
-			lock.unlock();
-		}
+		collectAttributeValues(attributeValues);
 		return Collections.unmodifiableMap(attributeValues);
 	}
 
+	/**
+	 * Populates the specified map with the attribute values contained in the
+	 * metric.
+	 * <p>
+	 * This is a variant of {@link #getAttributeValues()} which allows the
+	 * framework to re-use a map when reading many metrics in a row.
+	 * </p>
+	 * <p>
+	 * Although public this method must not be called by clients. The framework
+	 * uses this method to obtain further information about a metric for
+	 * processing purposes.
+	 * </p>
+	 *
+	 * @param values
+	 *            the map to populate with the attribute values
+	 * @noreference This method is not intended to be referenced by clients.
+	 * @since 1.3
+	 */
+	public final void collectAttributeValues(final Map<String, Object> values) {
+		// optimistic read which is retried if a reset happened concurrently
+		for (int i = 0; i < MAX_READ_ATTEMPTS; i++) {
+			final long sequence = resetSequence.get();
+			if ((sequence & 1) != 0) {
+				// reset in progress
+				Thread.yield();
+				continue;
+			}
+			populateAttributeValues(values);
+			if (resetSequence.get() == sequence)
+				return;
+		}
+
+		// give up being consistent
+		populateAttributeValues(values);
+	}
+
 	/**
 	 * Returns the metric id.
 	 * <p>
@@ -219,16 +267,6 @@ public abstract class BaseMetric {
 		return id;
 	}
 
-	/**
-	 * Returns a lock which can be used in combination with the
-	 * {@link #getWriteLock() write lock} to protect against unsafe reads.
-	 * 
-	 * @return a lock for write operations
-	 */
-	final Lock getReadLock() {
-		return readWriteLock.readLock();
-	}
-
 	/**
 	 * Returns the time since the last {@link #resetStats() statistics reset}.
 	 * <p>
@@ -240,7 +278,7 @@ public abstract class BaseMetric {
 	 * @return the the time since the last statistics reset
 	 */
 	public final String getStatsSince() {
-		return ISO_8601_UTC.format(new Date(statsSince));
+		return formatIso8601(statsSince);
 	}
 
 	/**
@@ -257,16 +295,6 @@ public abstract class BaseMetric {
 		return statsSince;
 	}
 
-	/**
-	 * Returns a lock which should be used to protect against concurrent set and
-	 * reset operations.
-	 * 
-	 * @return a lock for write operations
-	 */
-	final Lock getWriteLock() {
-		return readWriteLock.writeLock();
-	}
-
 	/**
 	 * Populates the specified map with metric attribute information for use by
 	 * {@link #getAttributes()}.
@@ -297,9 +325,8 @@ public abstract class BaseMetric {
 	 * attributes defined in the super class.
 	 * </p>
 	 * <p>
-	 * At the time this method is invoked, the current thread has acquired the
-	 * {@link #getReadLock() read lock} already. Subclasses must
-	 * <strong>not</strong> modify the read lock.
+	 * Implementations must not block. Values may be updated concurrently. If a
+	 * statistics reset happens concurrently, this method may be invoked again.
 	 * </p>
 	 * <p>
 	 * Note, this method is called by {@link #getAttributeValues()} and should
@@ -318,13 +345,14 @@ public abstract class BaseMetric {
 	 * Resets the metric statistics but not the metric values.
 	 */
 	public final void resetStats() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			statsSince = System.currentTimeMillis();
-			doResetStats();
-		} finally {
-			writeLock.unlock();
+		synchronized (resetSequence) {
+			resetSequence.incrementAndGet();
+			try {
+				statsSince = System.currentTimeMillis();
+				doResetStats();
+			} finally {
+				resetSequence.incrementAndGet();
+			}
 		}
 	}
 
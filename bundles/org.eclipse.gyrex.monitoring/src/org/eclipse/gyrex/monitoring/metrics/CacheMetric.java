@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A metric for monitoring the effectiveness of a cache.
+ * <p>
+ * The metric tracks cache hits, misses and evictions. It is thread safe and
+ * lock-free.
+ * </p>
+ * <p>
+ * Note, although this class is not marked <strong>final</strong> it is not
+ * allowed to be subclassed outside the monitoring framework.
+ * </p>
+ *
+ * @since 1.3
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public class CacheMetric extends BaseMetric {
+
+	private final StripedLong hits = new StripedLong();
+	private final StripedLong misses = new StripedLong();
+	private final StripedLong evictions = new StripedLong();
+
+	/**
+	 * Creates a new cache metric instance.
+	 *
+	 * @param id
+	 *            the metric id
+	 */
+	public CacheMetric(final String id) {
+		super(id);
+	}
+
+	@Override
+	void doResetStats() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	@Override
+	Object[] dumpMetrics() {
+		return new Object[] { "hits|misses|evictions|hit ratio", getHits(), getMisses(), getEvictions(), getHitRatio() };
+	}
+
+	/**
+	 * Returns the number of entries evicted from the cache since the last
+	 * statistics reset.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the ratio of lookups served from the cache since the last
+	 * statistics reset.
+	 *
+	 * @return the hit ratio (between <code>0</code> and <code>1</code>)
+	 */
+	public float getHitRatio() {
+		final long hits = getHits();
+		final long lookups = hits + getMisses();
+		return lookups > 0 ? (float) hits / lookups : 0F;
+	}
+
+	/**
+	 * Returns the number of lookups served from the cache since the last
+	 * statistics reset.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups not served from the cache since the last
+	 * statistics reset.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Records a lookup served from the cache.
+	 */
+	public void hit() {
+		hits.increment();
+	}
+
+	/**
+	 * Records a lookup not served from the cache.
+	 */
+	public void miss() {
+		misses.increment();
+	}
+
+	/**
+	 * Records the eviction of an entry from the cache.
+	 */
+	public void evicted() {
+		evictions.increment();
+	}
+
+	@Override
+	void populateAttributes(final List<MetricAttribute> attributes) {
+		super.populateAttributes(attributes);
+		attributes.add(new MetricAttribute("hits", "the number of lookups served from the cache since the last statistics reset", Long.class));
+		attributes.add(new MetricAttribute("misses", "the number of lookups not served from the cache since the last statistics reset", Long.class));
+		attributes.add(new MetricAttribute("evictions", "the number of entries evicted from the cache since the last statistics reset", Long.class));
+		attributes.add(new MetricAttribute("hitRatio", "the ratio of lookups served from the cache since the last statistics reset", Float.class));
+	}
+
+	@Override
+	void populateAttributeValues(final Map<String, Object> values) {
+		super.populateAttributeValues(values);
+		values.put("hits", getHits());
+		values.put("misses", getMisses());
+		values.put("evictions", getEvictions());
+		values.put("hitRatio", getHitRatio());
+	}
+}
@@ -13,7 +13,7 @@ package org.eclipse.gyrex.monitoring.metrics;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A metric to monitor limited resources (channels, parallel connections,
@@ -32,25 +32,22 @@ import java.util.concurrent.locks.Lock;
 public class CapacityMetric extends BaseMetric {
 
 	/** the number of channels in use */
-	private volatile long channelsUsed;
+	private final AtomicLong channelsUsed = new AtomicLong();
 
 	/** the total number of channels available */
 	private volatile long channelsCapacity;
 
 	/** the high water mark since the last statistics reset */
-	private volatile long channelsStatsHigh;
+	private final AtomicLong channelsStatsHigh = new AtomicLong();
 
 	/** the total number of processed requests since the last statistics reset */
-	private volatile long channelsStatsRequests;
+	private final StripedLong channelsStatsRequests = new StripedLong();
 
 	/** the total number of requests denied since the last statistics reset */
-	private volatile long channelsStatsDenied;
+	private final StripedLong channelsStatsDenied = new StripedLong();
 
 	/** the total time in milliseconds requests had to wait for a channel */
-	private volatile long channelsStatsWaitTime;
-
-	/** the average time in milliseconds a request had to wait for a channel */
-	private volatile long channelsStatsWaitTimeAverage;
+	private final StripedLong channelsStatsWaitTime = new StripedLong();
 
 	/**
 	 * Creates a new capacity metric instance.
@@ -67,13 +64,7 @@ public class CapacityMetric extends BaseMetric {
 	 * Increments the number of channels denied.
 	 */
 	public void channelDenied() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			channelsStatsDenied++;
-		} finally {
-			writeLock.unlock();
-		}
+		channelsStatsDenied.increment();
 	}
 
 	/**
@@ -86,13 +77,7 @@ public class CapacityMetric extends BaseMetric {
 	 *            the time the request had to wait
 	 */
 	public void channelFinished() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			channelsUsed--;
-		} finally {
-			writeLock.unlock();
-		}
+		channelsUsed.decrementAndGet();
 	}
 
 	/**
@@ -107,18 +92,10 @@ public class CapacityMetric extends BaseMetric {
 	 *            tracked)
 	 */
 	public void channelStarted(final long waitTime) {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			channelsUsed++;
-			if (channelsUsed > channelsStatsHigh) {
-				channelsStatsHigh = channelsUsed;
-			}
-			channelsStatsRequests++;
-			channelsStatsWaitTime += waitTime;
-			channelsStatsWaitTimeAverage = channelsStatsWaitTime / channelsStatsRequests;
-		} finally {
-			writeLock.unlock();
+		AtomicMath.max(channelsStatsHigh, channelsUsed.incrementAndGet());
+		channelsStatsRequests.increment();
+		if (waitTime != 0) {
+			channelsStatsWaitTime.add(waitTime);
 		}
 	}
 
@@ -128,9 +105,8 @@ public class CapacityMetric extends BaseMetric {
 	 * Subclasses may extend but are required to call <code>super</code>.
 	 * </p>
 	 * <p>
-	 * At the time this method is invoked, the current thread has acquired the
-	 * {@link #getWriteLock() write lock} already. Subclasses must
-	 * <strong>not</strong> modify the write lock.
+	 * Resets are serialized but updates may happen concurrently. Subclasses
+	 * must reset their values using lock-free operations.
 	 * </p>
 	 * <p>
 	 * Note, this method is called by {@link #resetStats()} and should not be
@@ -141,11 +117,10 @@ public class CapacityMetric extends BaseMetric {
 	 */
 	@Override
 	void doResetStats() {
-		channelsStatsHigh = 0;
-		channelsStatsRequests = 0;
-		channelsStatsDenied = 0;
-		channelsStatsWaitTime = 0;
-		channelsStatsWaitTimeAverage = 0;
+		channelsStatsHigh.set(0);
+		channelsStatsRequests.reset();
+		channelsStatsDenied.reset();
+		channelsStatsWaitTime.reset();
 	}
 
 	@Override
@@ -170,7 +145,7 @@ public class CapacityMetric extends BaseMetric {
 	 *         reset
 	 */
 	public long getChannelsStatsDenied() {
-		return channelsStatsDenied;
+		return channelsStatsDenied.sum();
 	}
 
 	/**
@@ -179,7 +154,7 @@ public class CapacityMetric extends BaseMetric {
 	 * @return the high water mark since the last statistics reset
 	 */
 	public long getChannelsStatsHigh() {
-		return channelsStatsHigh;
+		return channelsStatsHigh.get();
 	}
 
 	/**
@@ -190,7 +165,7 @@ public class CapacityMetric extends BaseMetric {
 	 *         reset
 	 */
 	public long getChannelsStatsRequests() {
-		return channelsStatsRequests;
+		return channelsStatsRequests.sum();
 	}
 
 	/**
@@ -200,7 +175,7 @@ public class CapacityMetric extends BaseMetric {
 	 * @return the total time in milliseconds requests had to wait for a channel
 	 */
 	public long getChannelsStatsWaitTime() {
-		return channelsStatsWaitTime;
+		return channelsStatsWaitTime.sum();
 	}
 
 	/**
@@ -211,7 +186,8 @@ public class CapacityMetric extends BaseMetric {
 	 *         channel
 	 */
 	public long getChannelsStatsWaitTimeAverage() {
-		return channelsStatsWaitTimeAverage;
+		final long requests = channelsStatsRequests.sum();
+		return requests == 0 ? 0 : channelsStatsWaitTime.sum() / requests;
 	}
 
 	/**
@@ -220,7 +196,7 @@ public class CapacityMetric extends BaseMetric {
 	 * @return the number of channels in use
 	 */
 	public long getChannelsUsed() {
-		return channelsUsed;
+		return channelsUsed.get();
 	}
 
 	@Override
@@ -254,12 +230,6 @@ public class CapacityMetric extends BaseMetric {
 	 *            the total number of channels available
 	 */
 	public void setChannelsCapacity(final long channelsCapacity) {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			this.channelsCapacity = channelsCapacity;
-		} finally {
-			writeLock.unlock();
-		}
+		this.channelsCapacity = channelsCapacity;
 	}
 }
@@ -11,12 +11,20 @@
  *******************************************************************************/
 package org.eclipse.gyrex.monitoring.metrics;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * A counter that may be used to track events that increment a value (eg.,
  * durations, invocations).
  * <p>
- * This class is not thread safe. Concurrent access to any of the methods in
- * this class must be coordinated by the caller.
+ * This class is thread safe and updates never block each other. The
+ * statistics are striped across multiple cells in order to scale with the
+ * number of concurrently updating threads. Every cell holds all statistics of
+ * the amounts recorded into it and is guarded by a sequence (a seqlock).
+ * Updating threads claim a free cell, readers retry a cell when it has been
+ * updated concurrently. Thus, a {@link #getSnapshot() snapshot} is always
+ * consistent, i.e. the number of samples, the total value, the high/low
+ * values and the variance always reflect the same set of amounts.
  * </p>
  * <p>
  * Note, although this class is not marked <strong>final</strong> it is not
@@ -28,23 +36,246 @@ package org.eclipse.gyrex.monitoring.metrics;
  */
 public class Counter {
 
-	/** total value of all submitted amounts */
-	private volatile long value;
+	/**
+	 * A consistent snapshot of the counter statistics.
+	 * 
+	 * @noextend This class is not intended to be subclassed by clients.
+	 * @noinstantiate This class is not intended to be instantiated by clients.
+	 * @since 1.3
+	 */
+	public static final class Snapshot {
+
+		private long numberOfSamples;
+		private long value;
+		private long low;
+		private long high;
+		private double mean;
+		private double m2;
+
+		Snapshot() {
+			// empty
+		}
+
+		/**
+		 * Merges the statistics of a cell (parallel variance algorithm).
+		 */
+		void add(final long samples, final long value, final long low, final long high, final long shift, final long shiftedSum, final double shiftedSquares) {
+			if (samples == 0)
+				return;
+			final double cellMean = shift + ((double) shiftedSum / samples);
+			final double cellM2 = shiftedSquares - (((double) shiftedSum * shiftedSum) / samples);
+			if (numberOfSamples == 0) {
+				this.low = low;
+				this.high = high;
+				mean = cellMean;
+				m2 = cellM2;
+			} else {
+				this.low = Math.min(this.low, low);
+				this.high = Math.max(this.high, high);
+				final long total = numberOfSamples + samples;
+				final double delta = cellMean - mean;
+				mean += (delta * samples) / total;
+				m2 += cellM2 + ((delta * delta * numberOfSamples * samples) / total);
+			}
+			numberOfSamples += samples;
+			this.value += value;
+		}
+
+		/**
+		 * Returns the average of all submitted amounts.
+		 * 
+		 * @return the average
+		 */
+		public long getAverage() {
+			return numberOfSamples == 0 ? 0 : value / numberOfSamples;
+		}
+
+		/**
+		 * Returns the highest submitted amount.
+		 * 
+		 * @return the highest submitted amount
+		 */
+		public long getHigh() {
+			return high;
+		}
+
+		/**
+		 * Returns the lowest submitted amount.
+		 * 
+		 * @return the lowest submitted amount
+		 */
+		public long getLow() {
+			return low;
+		}
+
+		/**
+		 * Returns the number of submitted samples.
+		 * 
+		 * @return the number of submitted samples
+		 */
+		public long getNumberOfSamples() {
+			return numberOfSamples;
+		}
+
+		/**
+		 * Returns the standard deviation of all submitted amounts.
+		 * 
+		 * @return the standard deviation
+		 */
+		public double getStandardDeviation() {
+			return Math.sqrt(getVariance());
+		}
+
+		/**
+		 * Returns the total value of all submitted amounts.
+		 * 
+		 * @return the total value
+		 */
+		public long getValue() {
+			return value;
+		}
+
+		/**
+		 * Returns the variance of all submitted amounts.
+		 * 
+		 * @return the variance
+		 */
+		public double getVariance() {
+			if (numberOfSamples <= 1)
+				return 0.0D;
+			final double variance = m2 / (numberOfSamples - 1);
+			return variance > 0 ? variance : 0.0D;
+		}
+	}
+
+	/** cell slot of the sequence (odd while the cell is updated) */
+	private static final int SEQUENCE = 0;
+	/** cell slot of the number of samples */
+	private static final int SAMPLES = 1;
+	/** cell slot of the total value */
+	private static final int VALUE = 2;
+	/** cell slot of the lowest amount */
+	private static final int LOW = 3;
+	/** cell slot of the highest amount */
+	private static final int HIGH = 4;
+	/**
+	 * cell slot of the first amount of the cell; used to shift amounts for a
+	 * numerically stable variance calculation
+	 */
+	private static final int SHIFT = 5;
+	/** cell slot of the sum of the shifted amounts */
+	private static final int SHIFTED_SUM = 6;
+	/** cell slot of the sum of squares of the shifted amounts (double bits) */
+	private static final int SHIFTED_SQUARES = 7;
+
+	/**
+	 * the number of longs per cell (two cache lines to avoid false sharing
+	 * even with adjacent cache line prefetching)
+	 */
+	private static final int CELL_SIZE = 16;
+
+	/** max. number of optimistic read attempts per cell */
+	private static final int MAX_READ_ATTEMPTS = 8;
+
+	private static long lock(final AtomicLongArray cells, final int offset) {
+		long sequence;
+		while ((sequence = tryLock(cells, offset)) == -1) {
+			Thread.yield();
+		}
+		return sequence;
+	}
+
+	private static void read(final AtomicLongArray cells, final int offset, final Snapshot snapshot) {
+		// optimistic read which is retried if the cell was updated concurrently
+		for (int i = 0; i < MAX_READ_ATTEMPTS; i++) {
+			final long sequence = cells.get(offset + SEQUENCE);
+			if ((sequence & 1) != 0) {
+				continue;
+			}
+			final long samples = cells.get(offset + SAMPLES);
+			final long value = cells.get(offset + VALUE);
+			final long low = cells.get(offset + LOW);
+			final long high = cells.get(offset + HIGH);
+			final long shift = cells.get(offset + SHIFT);
+			final long shiftedSum = cells.get(offset + SHIFTED_SUM);
+			final double shiftedSquares = Double.longBitsToDouble(cells.get(offset + SHIFTED_SQUARES));
+			if (cells.get(offset + SEQUENCE) == sequence) {
+				snapshot.add(samples, value, low, high, shift, shiftedSum, shiftedSquares);
+				return;
+			}
+		}
 
-	/** number of submitted amounts */
-	private volatile long numberOfSamples;
+		// the cell is very busy; claim it like a writer
+		final long sequence = lock(cells, offset);
+		try {
+			snapshot.add(cells.get(offset + SAMPLES), cells.get(offset + VALUE), cells.get(offset + LOW), cells.get(offset + HIGH), cells.get(offset + SHIFT), cells.get(offset + SHIFTED_SUM), Double.longBitsToDouble(cells.get(offset + SHIFTED_SQUARES)));
+		} finally {
+			unlock(cells, offset, sequence);
+		}
+	}
 
-	/** smallest submitted amount */
-	private volatile long low;
+	private static void record(final AtomicLongArray cells, final int offset, final long amount) {
+		// the cell is owned by the current thread, thus ordered writes are sufficient
+		final long samples = cells.get(offset + SAMPLES);
+		final long shift;
+		if (samples == 0) {
+			shift = amount;
+			cells.lazySet(offset + SHIFT, amount);
+			cells.lazySet(offset + LOW, amount);
+			cells.lazySet(offset + HIGH, amount);
+		} else {
+			shift = cells.get(offset + SHIFT);
+			if (amount < cells.get(offset + LOW)) {
+				cells.lazySet(offset + LOW, amount);
+			}
+			if (amount > cells.get(offset + HIGH)) {
+				cells.lazySet(offset + HIGH, amount);
+			}
+		}
+		cells.lazySet(offset + SAMPLES, samples + 1);
+		cells.lazySet(offset + VALUE, cells.get(offset + VALUE) + amount);
+		final long shifted = amount - shift;
+		cells.lazySet(offset + SHIFTED_SUM, cells.get(offset + SHIFTED_SUM) + shifted);
+		cells.lazySet(offset + SHIFTED_SQUARES, Double.doubleToRawLongBits(Double.longBitsToDouble(cells.get(offset + SHIFTED_SQUARES)) + ((double) shifted * shifted)));
+	}
+
+	private static void reset(final AtomicLongArray cells, final int offset) {
+		final long sequence = lock(cells, offset);
+		try {
+			for (int i = SAMPLES; i <= SHIFTED_SQUARES; i++) {
+				cells.lazySet(offset + i, 0L);
+			}
+		} finally {
+			unlock(cells, offset, sequence);
+		}
+	}
+
+	/**
+	 * Claims the cell at the specified offset.
+	 * 
+	 * @return the new (odd) sequence or <code>-1</code> if the cell is busy
+	 */
+	private static long tryLock(final AtomicLongArray cells, final int offset) {
+		final long sequence = cells.get(offset + SEQUENCE);
+		if (((sequence & 1) == 0) && cells.compareAndSet(offset + SEQUENCE, sequence, sequence + 1))
+			return sequence + 1;
+		return -1;
+	}
+
+	private static void unlock(final AtomicLongArray cells, final int offset, final long sequence) {
+		// release; publishes all previous (ordered) writes
+		cells.lazySet(offset + SEQUENCE, sequence + 1);
+	}
 
-	/** highest submitted amount */
-	private volatile long high;
+	/** the cell used until contention is detected */
+	private final AtomicLongArray base = new AtomicLongArray(CELL_SIZE);
 
-	/** base value for calculating variance and standard deviation of amounts */
-	private volatile long variance100;
+	/** the striped cells (allocated on contention) */
+	private volatile AtomicLongArray cells;
 
 	private double calculatePercentile(final double z) {
-		return getAverage() + (z * getStandardDeviation());
+		final Snapshot snapshot = getSnapshot();
+		return snapshot.getAverage() + (z * snapshot.getStandardDeviation());
 	}
 
 	/**
@@ -53,7 +284,7 @@ public class Counter {
 	 * @return
 	 */
 	public long getAverage() {
-		return value / numberOfSamples;
+		return getSnapshot().getAverage();
 	}
 
 	/**
@@ -62,7 +293,7 @@ public class Counter {
 	 * @return the highest submitted amount
 	 */
 	public long getHigh() {
-		return high;
+		return getSnapshot().getHigh();
 	}
 
 	/**
@@ -71,7 +302,7 @@ public class Counter {
 	 * @return the lowest submitted amount
 	 */
 	public long getLow() {
-		return low;
+		return getSnapshot().getLow();
 	}
 
 	/**
@@ -81,7 +312,7 @@ public class Counter {
 	 * @return the number of submitted samples
 	 */
 	public long getNumberOfSamples() {
-		return numberOfSamples;
+		return getSnapshot().getNumberOfSamples();
 	}
 
 	public double getPercentile95() {
@@ -92,6 +323,28 @@ public class Counter {
 		return calculatePercentile(2.33D);
 	}
 
+	/**
+	 * Returns a consistent snapshot of all statistics since the last reset.
+	 * <p>
+	 * Callers which need more than one value should use a snapshot instead of
+	 * calling the individual getters.
+	 * </p>
+	 * 
+	 * @return the snapshot
+	 * @since 1.3
+	 */
+	public Snapshot getSnapshot() {
+		final Snapshot snapshot = new Snapshot();
+		read(base, 0, snapshot);
+		final AtomicLongArray cells = this.cells;
+		if (null != cells) {
+			for (int offset = 0; offset < cells.length(); offset += CELL_SIZE) {
+				read(cells, offset, snapshot);
+			}
+		}
+		return snapshot;
+	}
+
 	/**
 	 * Returns the standard deviation for the total value of all submitted
 	 * amounts.
@@ -100,7 +353,7 @@ public class Counter {
 	 *         amounts
 	 */
 	public double getStandardDeviation() {
-		return Math.sqrt(getVariance());
+		return getSnapshot().getStandardDeviation();
 	}
 
 	/**
@@ -109,7 +362,7 @@ public class Counter {
 	 * @return the total value of all submitted amounts
 	 */
 	public long getValue() {
-		return value;
+		return getSnapshot().getValue();
 	}
 
 	/**
@@ -118,9 +371,7 @@ public class Counter {
 	 * @return the variance for the total value of all submitted amounts
 	 */
 	public double getVariance() {
-		if (numberOfSamples > 1)
-			return (variance100) / 100.0 / (numberOfSamples - 1);
-		return 0.0D;
+		return getSnapshot().getVariance();
 	}
 
 	/**
@@ -134,41 +385,75 @@ public class Counter {
 	 *            the increment amount
 	 */
 	public void increment(final long amount) {
-		numberOfSamples++;
-		value += amount;
-		high = Math.max(amount, high);
-		low = Math.min(amount, low);
-		if (value > 1) {
-			high = Math.max(amount, high);
-			low = Math.min(amount, low);
-			final long delta10 = (amount * 10) - ((value * 10) / numberOfSamples);
-			variance100 += (delta10 * delta10);
-		} else {
-			high = amount;
-			low = amount;
-			variance100 = 0;
+		AtomicLongArray cells = this.cells;
+		if (null == cells) {
+			final long sequence = tryLock(base, 0);
+			if (sequence != -1) {
+				try {
+					record(base, 0, amount);
+				} finally {
+					unlock(base, 0, sequence);
+				}
+				return;
+			}
+			cells = inflate();
 		}
+
+		// claim the cell of the current thread or probe for a free one
+		final int mask = StripedLong.STRIPES - 1;
+		int stripe = StripedLong.stripe();
+		for (int i = 1;; i++) {
+			final int offset = stripe * CELL_SIZE;
+			final long sequence = tryLock(cells, offset);
+			if (sequence != -1) {
+				try {
+					record(cells, offset, amount);
+				} finally {
+					unlock(cells, offset, sequence);
+				}
+				return;
+			}
+			stripe = (stripe + 1) & mask;
+			if ((i & mask) == 0) {
+				// all cells busy (eg. a concurrent reset)
+				Thread.yield();
+			}
+		}
+	}
+
+	private synchronized AtomicLongArray inflate() {
+		if (null == cells) {
+			cells = new AtomicLongArray(StripedLong.STRIPES * CELL_SIZE);
+		}
+		return cells;
 	}
 
 	/**
 	 * Resets the counter
+	 * <p>
+	 * Every cell is reset atomically, i.e. amounts are either fully recorded
+	 * before the reset (and discarded) or after the reset.
+	 * </p>
 	 */
 	public void reset() {
-		value = 0;
-		numberOfSamples = 0;
-		low = 0;
-		high = 0;
-		variance100 = 0;
+		reset(base, 0);
+		final AtomicLongArray cells = this.cells;
+		if (null != cells) {
+			for (int offset = 0; offset < cells.length(); offset += CELL_SIZE) {
+				reset(cells, offset);
+			}
+		}
 	}
 
 	@Override
 	public String toString() {
+		final Snapshot snapshot = getSnapshot();
 		final StringBuilder builder = new StringBuilder();
-		builder.append(value);
+		builder.append(snapshot.getValue());
 		builder.append(" (");
-		builder.append(low);
+		builder.append(snapshot.getLow());
 		builder.append("/");
-		builder.append(high);
+		builder.append(snapshot.getHigh());
 		builder.append(")");
 		return builder.toString();
 	}
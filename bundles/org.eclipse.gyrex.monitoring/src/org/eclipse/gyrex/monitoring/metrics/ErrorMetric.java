@@ -11,12 +11,14 @@
  *******************************************************************************/
 package org.eclipse.gyrex.monitoring.metrics;
 
-import java.util.ConcurrentModificationException;
-import java.util.Date;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A metric for monitoring errors.
@@ -26,6 +28,15 @@ import java.util.concurrent.locks.Lock;
  * to understand the metric better.
  * </p>
  * <p>
+ * Error statistics are tracked for the most frequent errors only using the
+ * <em>Space-Saving</em> algorithm. The statistics table is bounded by its
+ * capacity. When it is full, a new error replaces the least frequent one and
+ * inherits its count. Thus, counts of frequent errors are accurate while
+ * counts of rare errors may be overestimated (by at most
+ * {@link ErrorStats#getMaxOverestimation()}). Errors are recorded without
+ * locking so that error storms do not serialize the failing threads.
+ * </p>
+ * <p>
  * Note, although this class is not marked <strong>final</strong> it is not
  * allowed to be subclassed outside the monitoring framework.
  * </p>
@@ -41,7 +52,8 @@ public class ErrorMetric extends BaseMetric {
 
 		private final String error;
 		private final String errorDetails;
-		private volatile long errorOccuredCount;
+		private final long maxOverestimation;
+		private final StripedLong errorOccuredCount = new StripedLong();
 
 		/**
 		 * Creates a new instance.
@@ -50,21 +62,21 @@ public class ErrorMetric extends BaseMetric {
 		 *            the error
 		 * @param errorDetails
 		 *            the error details
+		 * @param inheritedCount
+		 *            the count inherited from an evicted error
 		 */
-		/*package*/ErrorStats(final String error, final String errorDetails) {
+		/*package*/ErrorStats(final String error, final String errorDetails, final long inheritedCount) {
 			this.error = error;
 			this.errorDetails = errorDetails;
+			maxOverestimation = inheritedCount;
+			errorOccuredCount.add(inheritedCount);
 		}
 
 		/**
 		 * Increments the error counter.
-		 * <p>
-		 * Note, this is not thread-safe. It is expected that this method
-		 * participates in the protection of {@link ErrorMetric}.
-		 * </p>
 		 */
 		/*package*/void errorOccured() {
-			errorOccuredCount++;
+			errorOccuredCount.increment();
 		}
 
 		/**
@@ -87,39 +99,178 @@ public class ErrorMetric extends BaseMetric {
 
 		/**
 		 * Returns how often this error occurred.
+		 * <p>
+		 * The count may be overestimated by at most
+		 * {@link #getMaxOverestimation()}.
+		 * </p>
 		 * 
 		 * @return how often this error occurred.
 		 */
 		public long getErrorOccuredCount() {
-			return errorOccuredCount;
+			return errorOccuredCount.sum();
+		}
+
+		/**
+		 * Returns the maximum number by which
+		 * {@link #getErrorOccuredCount()} overestimates the real number of
+		 * occurrences.
+		 * <p>
+		 * This is the count inherited from the least frequent error that was
+		 * evicted from the statistics table in favor of this error.
+		 * </p>
+		 * 
+		 * @return the maximum overestimation (<code>zero</code> if the count
+		 *         is accurate)
+		 * @since 1.3
+		 */
+		public long getMaxOverestimation() {
+			return maxOverestimation;
 		}
 
 		@Override
 		public String toString() {
 			final StringBuilder builder = new StringBuilder();
-			builder.append("Error [").append(error).append("] with details [").append(errorDetails).append("] occured ").append(errorOccuredCount).append(" time(s).");
+			builder.append("Error [").append(error).append("] with details [").append(errorDetails).append("] occured ").append(getErrorOccuredCount()).append(" time(s).");
 			return builder.toString();
 		}
 	}
 
+	/**
+	 * A bounded table of error statistics maintained using the Space-Saving
+	 * algorithm.
+	 * <p>
+	 * Updates of known errors are lock-free. Adding a new error to a full table
+	 * scans the table for the least frequent error and replaces it. Increments
+	 * racing with the eviction of the same error may get lost, which is
+	 * acceptable for approximate statistics.
+	 * </p>
+	 */
+	private static final class ErrorStatsTable {
+
+		/** the max. number of attempts to add a new error under contention */
+		private static final int MAX_ATTEMPTS = 4;
+
+		private final int capacity;
+		private final ConcurrentMap<String, ErrorStats> stats;
+		private final AtomicInteger size = new AtomicInteger();
+
+		ErrorStatsTable(final int capacity) {
+			this.capacity = capacity;
+			stats = new ConcurrentHashMap<String, ErrorStats>(Math.min(capacity, 16) * 2);
+		}
+
+		private ErrorStats add(final String key, final String error, final String errorDetails) {
+			for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+				// claim a free slot if available
+				if (size.get() < capacity) {
+					if (size.incrementAndGet() <= capacity) {
+						final ErrorStats newStats = new ErrorStats(error, errorDetails, 0);
+						final ErrorStats existing = stats.putIfAbsent(key, newStats);
+						if (null == existing)
+							return newStats;
+						size.decrementAndGet();
+						return existing;
+					}
+					size.decrementAndGet();
+				}
+
+				// table is full, replace the least frequent error
+				String minKey = null;
+				ErrorStats minStats = null;
+				long minCount = Long.MAX_VALUE;
+				for (final Map.Entry<String, ErrorStats> entry : stats.entrySet()) {
+					final long count = entry.getValue().getErrorOccuredCount();
+					if (count < minCount) {
+						minKey = entry.getKey();
+						minStats = entry.getValue();
+						minCount = count;
+					}
+				}
+				if ((null != minKey) && stats.remove(minKey, minStats)) {
+					final ErrorStats newStats = new ErrorStats(error, errorDetails, minCount);
+					final ErrorStats existing = stats.putIfAbsent(key, newStats);
+					if (null == existing)
+						return newStats;
+					size.decrementAndGet();
+					return existing;
+				}
+
+				// lost a race, the error may have been added concurrently
+				final ErrorStats existing = stats.get(key);
+				if (null != existing)
+					return existing;
+			}
+
+			// give up (the error is still counted in the totals)
+			return null;
+		}
+
+		void errorOccured(final String error, final String errorDetails) {
+			final String key = error.concat(errorDetails);
+			ErrorStats errorStats = stats.get(key);
+			if (null == errorStats) {
+				errorStats = add(key, error, errorDetails);
+			}
+			if (null != errorStats) {
+				errorStats.errorOccured();
+			}
+		}
+
+		ErrorStats[] getTop(final int k) {
+			// sort a snapshot of the counts (they change concurrently)
+			final List<ErrorStats> values = new ArrayList<ErrorStats>(stats.values());
+			final long[][] countsAndIndices = new long[values.size()][];
+			for (int i = 0; i < countsAndIndices.length; i++) {
+				countsAndIndices[i] = new long[] { values.get(i).getErrorOccuredCount(), i };
+			}
+			Arrays.sort(countsAndIndices, new Comparator<long[]>() {
+				@Override
+				public int compare(final long[] o1, final long[] o2) {
+					return o1[0] > o2[0] ? -1 : (o1[0] < o2[0] ? 1 : 0);
+				}
+			});
+			final ErrorStats[] top = new ErrorStats[Math.min(k, countsAndIndices.length)];
+			for (int i = 0; i < top.length; i++) {
+				top[i] = values.get((int) countsAndIndices[i][1]);
+			}
+			return top;
+		}
+	}
+
+	/**
+	 * Immutable holder of the last error so that error, details and time are
+	 * always read consistently.
+	 */
+	private static final class LastError {
+		final String error;
+		final String errorDetails;
+		final long changeTime;
+
+		LastError(final String error, final String errorDetails, final long changeTime) {
+			this.error = error;
+			this.errorDetails = errorDetails;
+			this.changeTime = changeTime;
+		}
+	}
+
 	private static final ErrorStats[] NO_STATS = new ErrorStats[0];
 
 	private static final String EMPTY = "";
 
-	/** the last error */
-	private volatile String lastError;
+	/** the last error, details (eg. stack trace) and time */
+	private volatile LastError lastError;
 
-	/** the last error details (eg. stack trace) */
-	private volatile String lastErrorDetails;
+	/** a total number of errors since the last reset */
+	private final StripedLong totalNumberOfErrors = new StripedLong();
 
-	/** the last error time */
-	private volatile long lastErrorChangeTime;
+	/** the recent error rate */
+	private final RateMeter errorRate = new RateMeter();
 
-	/** a total number of errors since the last reset */
-	private volatile long totalNumberOfErrors;
+	/** the capacity of the error statistics table */
+	private final int errorStatsCapacity;
 
-	/** a map recording error stats */
-	private final LinkedHashMap<String, ErrorStats> errorStats;
+	/** the most frequent errors (replaced on reset) */
+	private volatile ErrorStatsTable errorStats;
 
 	/**
 	 * Creates a new error metric instance.
@@ -135,23 +286,11 @@ public class ErrorMetric extends BaseMetric {
 
 		// note, we do not invoke setStatus here because calling non-private
 		// methods during object initialization is problematic at best
-		lastError = EMPTY;
-		lastErrorDetails = EMPTY;
+		lastError = new LastError(EMPTY, EMPTY, 0);
 
 		// initialize error stats
-		if (errorStatsCapacity > 0) {
-			errorStats = new LinkedHashMap<String, ErrorStats>(4, 0.75f, true) {
-				/** serialVersionUID */
-				private static final long serialVersionUID = 5450217680895615135L;
-
-				@Override
-				protected boolean removeEldestEntry(final Map.Entry<String, ErrorStats> eldest) {
-					return size() > errorStatsCapacity;
-				}
-			};
-		} else {
-			errorStats = null;
-		}
+		this.errorStatsCapacity = errorStatsCapacity;
+		errorStats = errorStatsCapacity > 0 ? new ErrorStatsTable(errorStatsCapacity) : null;
 	}
 
 	/**
@@ -160,9 +299,8 @@ public class ErrorMetric extends BaseMetric {
 	 * Subclasses may extend but are required to call <code>super</code>.
 	 * </p>
 	 * <p>
-	 * At the time this method is invoked, the current thread has acquired the
-	 * {@link #getWriteLock() write lock} already. Subclasses must
-	 * <strong>not</strong> modify the write lock.
+	 * Resets are serialized but updates may happen concurrently. Subclasses
+	 * must reset their values using lock-free operations.
 	 * </p>
 	 * <p>
 	 * Note, this method is called by {@link #resetStats()} and should not be
@@ -173,9 +311,10 @@ public class ErrorMetric extends BaseMetric {
 	 */
 	@Override
 	void doResetStats() {
-		totalNumberOfErrors = 0;
+		totalNumberOfErrors.reset();
+		errorRate.reset();
 		if (null != errorStats) {
-			errorStats.clear();
+			errorStats = new ErrorStatsTable(errorStatsCapacity);
 		}
 	}
 
@@ -184,6 +323,20 @@ public class ErrorMetric extends BaseMetric {
 		return new Object[] { "error|detail|since|total errors", getLastError(), getLastErrorDetails(), getLastErrorChangeTime(), getTotalNumberOfErrors() };
 	}
 
+	/**
+	 * Returns the recent error rate.
+	 * <p>
+	 * The rate is the average number of errors per second within the last
+	 * ten seconds.
+	 * </p>
+	 * 
+	 * @return the recent number of errors per second
+	 * @since 1.3
+	 */
+	public float getErrorRatePerSecond() {
+		return errorRate.getRatePerSecond(System.currentTimeMillis());
+	}
+
 	/**
 	 * Returns the collected error statistics.
 	 * <p>
@@ -192,21 +345,18 @@ public class ErrorMetric extends BaseMetric {
 	 * objects are live objects which will continue to be updated when that
 	 * particular error occurred again.
 	 * </p>
+	 * <p>
+	 * The array is sorted by the number of occurrences (most frequent error
+	 * first).
+	 * </p>
 	 * 
 	 * @return the error statistics
 	 */
 	public ErrorStats[] getErrorStats() {
-		if (null != errorStats) {
-			int tries = 0;
-			do {
-				try {
-					return errorStats.values().toArray(NO_STATS);
-				} catch (final ConcurrentModificationException e) {
-					tries++;
-				}
-			} while (tries < 3);
-		}
-		return NO_STATS;
+		final ErrorStatsTable errorStats = this.errorStats;
+		if (null == errorStats)
+			return NO_STATS;
+		return errorStats.getTop(Integer.MAX_VALUE);
 	}
 
 	/**
@@ -215,7 +365,7 @@ public class ErrorMetric extends BaseMetric {
 	 * @return the last error
 	 */
 	public String getLastError() {
-		return lastError;
+		return lastError.error;
 	}
 
 	/**
@@ -229,7 +379,7 @@ public class ErrorMetric extends BaseMetric {
 	 * @return the time of the last error change
 	 */
 	public String getLastErrorChangeTime() {
-		return ISO_8601_UTC.format(new Date(lastErrorChangeTime));
+		return formatIso8601(lastError.changeTime);
 	}
 
 	/**
@@ -238,7 +388,27 @@ public class ErrorMetric extends BaseMetric {
 	 * @return the details for the last error
 	 */
 	public String getLastErrorDetails() {
-		return lastErrorDetails;
+		return lastError.errorDetails;
+	}
+
+	/**
+	 * Returns the most frequent errors.
+	 * <p>
+	 * The array is sorted by the number of occurrences (most frequent error
+	 * first) and contains at most <code>k</code> elements.
+	 * </p>
+	 * 
+	 * @param k
+	 *            the max. number of errors to return
+	 * @return the most frequent errors
+	 * @see #getErrorStats()
+	 * @since 1.3
+	 */
+	public ErrorStats[] getTopErrors(final int k) {
+		final ErrorStatsTable errorStats = this.errorStats;
+		if ((null == errorStats) || (k <= 0))
+			return NO_STATS;
+		return errorStats.getTop(k);
 	}
 
 	/**
@@ -251,7 +421,7 @@ public class ErrorMetric extends BaseMetric {
 	 * @return the total number of errors since the last statistics reset
 	 */
 	public long getTotalNumberOfErrors() {
-		return totalNumberOfErrors;
+		return totalNumberOfErrors.sum();
 	}
 
 	@Override
@@ -261,15 +431,23 @@ public class ErrorMetric extends BaseMetric {
 		attributes.add(new MetricAttribute("lastErrorDetails", "the last error details (eg. stack trace)", String.class));
 		attributes.add(new MetricAttribute("lastErrorChangeTime", "the last error time", String.class));
 		attributes.add(new MetricAttribute("totalNumberOfErrors", "a total number of errors since the last reset", Long.class));
+		attributes.add(new MetricAttribute("errorRatePerSecond", "the average number of errors per second within the last ten seconds", Float.class));
+		attributes.add(new MetricAttribute("topError", "the most frequent error since the last reset", String.class));
+		attributes.add(new MetricAttribute("topErrorCount", "the (approximate) number of occurrences of the most frequent error since the last reset", Long.class));
 	}
 
 	@Override
 	void populateAttributeValues(final Map<String, Object> values) {
 		super.populateAttributeValues(values);
-		values.put("lastError", getLastError());
-		values.put("lastErrorDetails", getLastErrorDetails());
-		values.put("lastErrorChangeTime", getLastErrorChangeTime());
+		final LastError lastError = this.lastError;
+		values.put("lastError", lastError.error);
+		values.put("lastErrorDetails", lastError.errorDetails);
+		values.put("lastErrorChangeTime", formatIso8601(lastError.changeTime));
 		values.put("totalNumberOfErrors", getTotalNumberOfErrors());
+		values.put("errorRatePerSecond", getErrorRatePerSecond());
+		final ErrorStats[] topErrors = getTopErrors(1);
+		values.put("topError", topErrors.length > 0 ? topErrors[0].getError() : EMPTY);
+		values.put("topErrorCount", topErrors.length > 0 ? topErrors[0].getErrorOccuredCount() : 0L);
 	}
 
 	/**
@@ -292,25 +470,16 @@ public class ErrorMetric extends BaseMetric {
 			throw new IllegalArgumentException("error details may not be null");
 		}
 
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			// set error
-			lastError = error;
-			lastErrorDetails = errorDetails;
-			lastErrorChangeTime = System.currentTimeMillis();
-			totalNumberOfErrors++;
+		// set error
+		final long now = System.currentTimeMillis();
+		lastError = new LastError(error, errorDetails, now);
+		totalNumberOfErrors.increment();
+		errorRate.mark(now);
 
-			// update stats
-			if (null != errorStats) {
-				final String key = error.concat(errorDetails);
-				if (!errorStats.containsKey(key)) {
-					errorStats.put(key, new ErrorStats(error, errorDetails));
-				}
-				errorStats.get(key).errorOccured();
-			}
-		} finally {
-			writeLock.unlock();
+		// update stats
+		final ErrorStatsTable errorStats = this.errorStats;
+		if (null != errorStats) {
+			errorStats.errorOccured(error, errorDetails);
 		}
 	}
 }
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded memory histogram with logarithmic buckets.
+ * <p>
+ * Values are recorded into buckets which grow exponentially in size. Every
+ * power of two is split into <code>2^precision</code> buckets. Thus, the
+ * relative error of any value reported by this histogram (eg. percentiles) is
+ * at most <code>2^-precision</code> (i.e. ~3% with the default precision of
+ * 5). Values above the highest trackable value are recorded into the highest
+ * bucket.
+ * </p>
+ * <p>
+ * The buckets of a power of two are allocated lazily when the first value
+ * within that power of two is recorded. Thus, a histogram covering a wide
+ * range (eg. one hour in nanoseconds) only occupies memory for the ranges
+ * which are actually used (typically a few powers of two).
+ * </p>
+ * <p>
+ * Recording is lock-free and may be performed concurrently by many threads.
+ * Reading is not atomic, i.e. values recorded concurrently to a read may or
+ * may not be reflected. Histograms with the same configuration can be merged.
+ * </p>
+ * <p>
+ * Note, although this class is not marked <strong>final</strong> it is not
+ * allowed to be subclassed outside the monitoring framework.
+ * </p>
+ *
+ * @since 1.3
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public class Histogram {
+
+	/** the default precision */
+	public static final int DEFAULT_PRECISION = 5;
+
+	private final int precision;
+	private final long highestTrackableValue;
+	private final int subBucketCount;
+	private final int bucketCount;
+	private final AtomicReferenceArray<AtomicLongArray> counts;
+
+	/**
+	 * Creates a new histogram.
+	 *
+	 * @param precision
+	 *            the number of significant bits to keep per value (between 1
+	 *            and 10)
+	 * @param highestTrackableValue
+	 *            the highest value which should be tracked precisely (must be
+	 *            positive)
+	 */
+	public Histogram(final int precision, final long highestTrackableValue) {
+		if ((precision < 1) || (precision > 10))
+			throw new IllegalArgumentException("precision must be between 1 and 10");
+		if (highestTrackableValue < 1)
+			throw new IllegalArgumentException("highest trackable value must be positive");
+		this.precision = precision;
+		subBucketCount = 1 << precision;
+		this.highestTrackableValue = Math.max(highestTrackableValue, subBucketCount);
+		bucketCount = getBucketIndex(this.highestTrackableValue) + 1;
+		counts = new AtomicReferenceArray<AtomicLongArray>(((bucketCount - 1) >>> precision) + 1);
+	}
+
+	/**
+	 * Adds all values recorded in the specified histogram to this histogram.
+	 *
+	 * @param other
+	 *            the histogram to add (must use the same configuration)
+	 */
+	public void add(final Histogram other) {
+		if ((other.precision != precision) || (other.bucketCount != bucketCount))
+			throw new IllegalArgumentException("histogram configuration does not match");
+		for (int i = 0; i < counts.length(); i++) {
+			final AtomicLongArray otherBuckets = other.counts.get(i);
+			if (otherBuckets == null) {
+				continue;
+			}
+			AtomicLongArray buckets = null;
+			for (int j = 0; j < subBucketCount; j++) {
+				final long count = otherBuckets.get(j);
+				if (count != 0) {
+					if (buckets == null) {
+						buckets = getBuckets(i);
+					}
+					buckets.addAndGet(j, count);
+				}
+			}
+		}
+	}
+
+	private int getBucketIndex(final long value) {
+		if (value < subBucketCount)
+			return (int) Math.max(0, value);
+		// each power of two (above the sub bucket count) has subBucketCount buckets
+		final int shift = (63 - Long.numberOfLeadingZeros(value)) - precision;
+		return ((shift + 1) << precision) + (int) ((value >>> shift) - subBucketCount);
+	}
+
+	/**
+	 * Returns the buckets of the specified power of two (allocating them if
+	 * necessary).
+	 */
+	private AtomicLongArray getBuckets(final int index) {
+		final AtomicLongArray buckets = counts.get(index);
+		if (buckets != null)
+			return buckets;
+		counts.compareAndSet(index, null, new AtomicLongArray(subBucketCount));
+		return counts.get(index);
+	}
+
+	/**
+	 * Returns the highest value represented by the specified bucket.
+	 */
+	private long getBucketValue(final int index) {
+		if (index < subBucketCount)
+			return index;
+		final int shift = (index >>> precision) - 1;
+		final long subBucket = subBucketCount + (index & (subBucketCount - 1));
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Returns the total number of recorded values.
+	 *
+	 * @return the total number of recorded values
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			final AtomicLongArray buckets = counts.get(i);
+			if (buckets != null) {
+				for (int j = 0; j < subBucketCount; j++) {
+					count += buckets.get(j);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the highest value tracked precisely by this histogram.
+	 *
+	 * @return the highest trackable value
+	 */
+	public long getHighestTrackableValue() {
+		return highestTrackableValue;
+	}
+
+	/**
+	 * Returns the number of significant bits kept per value.
+	 *
+	 * @return the precision
+	 */
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * Returns the value at the specified percentile.
+	 * <p>
+	 * The returned value is the highest value of the bucket containing the
+	 * percentile, i.e. the actual value is less or equal to the returned value.
+	 * </p>
+	 *
+	 * @param percentile
+	 *            the percentile (between 0 and 100, eg. <code>99.9</code>)
+	 * @return the value at the percentile (or <code>0</code> if nothing has
+	 *         been recorded)
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		return getValuesAtPercentiles(new double[] { percentile })[0];
+	}
+
+	/**
+	 * Returns the values at the specified percentiles.
+	 * <p>
+	 * This is more efficient than calling
+	 * {@link #getValueAtPercentile(double)} multiple times. The returned
+	 * values are consistent with each other.
+	 * </p>
+	 *
+	 * @param percentiles
+	 *            the percentiles (each between 0 and 100, eg.
+	 *            <code>99.9</code>)
+	 * @return the values at the percentiles (in the same order as the
+	 *         specified percentiles)
+	 * @see #getValueAtPercentile(double)
+	 */
+	public long[] getValuesAtPercentiles(final double[] percentiles) {
+		final long[] snapshot = new long[bucketCount];
+		long total = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			final AtomicLongArray buckets = counts.get(i);
+			if (buckets != null) {
+				final int offset = i << precision;
+				for (int j = 0; (j < subBucketCount) && ((offset + j) < bucketCount); j++) {
+					snapshot[offset + j] = buckets.get(j);
+					total += snapshot[offset + j];
+				}
+			}
+		}
+
+		final long[] values = new long[percentiles.length];
+		if (total == 0)
+			return values;
+
+		for (int p = 0; p < percentiles.length; p++) {
+			final long rank = Math.max(1, (long) Math.ceil((Math.min(100.0, Math.max(0.0, percentiles[p])) / 100.0) * total));
+			long seen = 0;
+			int i = 0;
+			while ((i < (snapshot.length - 1)) && ((seen + snapshot[i]) < rank)) {
+				seen += snapshot[i];
+				i++;
+			}
+			values[p] = getBucketValue(i);
+		}
+		return values;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value
+	 *            the value to record (negative values are recorded as
+	 *            <code>0</code>)
+	 */
+	public void record(final long value) {
+		final int index = getBucketIndex(Math.min(value, highestTrackableValue));
+		getBuckets(index >>> precision).incrementAndGet(index & (subBucketCount - 1));
+	}
+
+	/**
+	 * Resets the histogram.
+	 * <p>
+	 * Note, values recorded concurrently may get lost. Allocated buckets are
+	 * kept for re-use.
+	 * </p>
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			final AtomicLongArray buckets = counts.get(i);
+			if (buckets != null) {
+				for (int j = 0; j < subBucketCount; j++) {
+					buckets.set(j, 0);
+				}
+			}
+		}
+	}
+}
@@ -131,9 +131,8 @@ public abstract class MetricSet extends BaseMetric {
 	/**
 	 * Resets all metrics in this set.
 	 * <p>
-	 * At the time this method is invoked, the current thread has acquired the
-	 * {@link #getWriteLock() write lock} already. Subclasses must
-	 * <strong>not</strong> modify the write lock.
+	 * Resets are serialized but updates may happen concurrently. Subclasses
+	 * must reset their values using lock-free operations.
 	 * </p>
 	 * <p>
 	 * Subclasses my extend and may call <code>super</code> where appropriate.
@@ -147,7 +146,7 @@ public abstract class MetricSet extends BaseMetric {
 	protected void doResetStats() {
 		// reset all metric
 		for (final BaseMetric metric : metrics) {
-			// we call reset stats to properly lock the metric
+			// we call reset stats to properly serialize with other resets of the metric
 			metric.resetStats();
 		}
 	}
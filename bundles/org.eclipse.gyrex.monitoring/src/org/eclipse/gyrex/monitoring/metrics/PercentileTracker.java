@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks percentiles of recorded durations since the last statistics reset as
+ * well as within time-decaying windows (last minute and last five minutes).
+ * <p>
+ * A window is implemented as a ring of histograms, each covering a fraction of
+ * the window. Thus, the values reported for a window cover between 3/4 of the
+ * window and the full window. Recording is lock-free.
+ * </p>
+ */
+final class PercentileTracker {
+
+	/**
+	 * A histogram which only covers the values recorded within a sliding
+	 * window.
+	 */
+	static final class Window {
+
+		private static final int SLOTS = 4;
+
+		private final String name;
+		private final long slotDuration;
+		private final Histogram[] histograms;
+		private final AtomicLongArray epochs;
+
+		/** re-used for merging the window slots (guarded by <code>this</code>) */
+		private final Histogram merged;
+
+		Window(final String name, final long duration, final int precision, final long highestTrackableValue) {
+			this.name = name;
+			slotDuration = Math.max(1, duration / SLOTS);
+			histograms = new Histogram[SLOTS + 1];
+			for (int i = 0; i < histograms.length; i++) {
+				histograms[i] = new Histogram(precision, highestTrackableValue);
+			}
+			epochs = new AtomicLongArray(histograms.length);
+			merged = new Histogram(precision, highestTrackableValue);
+		}
+
+		/**
+		 * Returns the values at the specified percentiles of all values within
+		 * the window.
+		 */
+		synchronized long[] getValuesAtPercentiles(final long now, final double[] percentiles) {
+			final long currentEpoch = now / slotDuration;
+			merged.reset();
+			for (int i = 0; i < histograms.length; i++) {
+				final long epoch = epochs.get(i);
+				if ((epoch > (currentEpoch - SLOTS)) && (epoch <= currentEpoch)) {
+					merged.add(histograms[i]);
+				}
+			}
+			return merged.getValuesAtPercentiles(percentiles);
+		}
+
+		void record(final long value, final long now) {
+			final long epoch = now / slotDuration;
+			final int slot = (int) (epoch % histograms.length);
+			final long slotEpoch = epochs.get(slot);
+			if ((slotEpoch < epoch) && epochs.compareAndSet(slot, slotEpoch, epoch)) {
+				// slot is re-used for a new epoch
+				// (values recorded concurrently to the reset may get lost)
+				histograms[slot].reset();
+			}
+			histograms[slot].record(value);
+		}
+	}
+
+	/** the percentiles reported */
+	private static final double[] PERCENTILES = { 50.0, 95.0, 99.0, 99.9 };
+
+	/** the attribute name suffixes for the reported percentiles */
+	private static final String[] PERCENTILE_NAMES = { "Percentile50", "Percentile95", "Percentile99", "Percentile999" };
+
+	private static final String[] PERCENTILE_DESCRIPTIONS = { "the median", "the 95th percentile", "the 99th percentile", "the 99.9th percentile" };
+
+	private final Histogram total;
+	private final Window[] windows;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param timeUnit
+	 *            the time unit of recorded values (used to calculate the
+	 *            trackable range, which is one hour)
+	 * @param precision
+	 *            the histogram precision (see {@link Histogram})
+	 */
+	PercentileTracker(final TimeUnit timeUnit, final int precision) {
+		final long highestTrackableValue = Math.max(1, timeUnit.convert(1, TimeUnit.HOURS));
+		total = new Histogram(precision, highestTrackableValue);
+		windows = new Window[] { new Window("Last1m", TimeUnit.MINUTES.toMillis(1), precision, highestTrackableValue), new Window("Last5m", TimeUnit.MINUTES.toMillis(5), precision, highestTrackableValue) };
+	}
+
+	/**
+	 * Returns the histogram of all values recorded since the last reset.
+	 */
+	Histogram getHistogram() {
+		return total;
+	}
+
+	void populateAttributes(final String prefix, final String description, final List<MetricAttribute> attributes) {
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			attributes.add(new MetricAttribute(prefix + PERCENTILE_NAMES[i], PERCENTILE_DESCRIPTIONS[i] + " of " + description + " since the last statistics reset", Long.class));
+		}
+		for (final Window window : windows) {
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				attributes.add(new MetricAttribute(prefix + window.name + PERCENTILE_NAMES[i], PERCENTILE_DESCRIPTIONS[i] + " of " + description + " within the last " + (window.slotDuration * Window.SLOTS / 60000) + " minute(s)", Long.class));
+			}
+		}
+	}
+
+	void populateAttributeValues(final String prefix, final Map<String, Object> values) {
+		final long[] totalValues = total.getValuesAtPercentiles(PERCENTILES);
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			values.put(prefix + PERCENTILE_NAMES[i], totalValues[i]);
+		}
+		final long now = System.currentTimeMillis();
+		for (final Window window : windows) {
+			final long[] windowValues = window.getValuesAtPercentiles(now, PERCENTILES);
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				values.put(prefix + window.name + PERCENTILE_NAMES[i], windowValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Records a value.
+	 */
+	void record(final long value) {
+		total.record(value);
+		final long now = System.currentTimeMillis();
+		for (final Window window : windows) {
+			window.record(value, now);
+		}
+	}
+
+	/**
+	 * Resets the histogram of all values since the last reset.
+	 * <p>
+	 * Note, windows are not affected by statistics resets because they decay
+	 * over time anyway.
+	 * </p>
+	 */
+	void reset() {
+		total.reset();
+	}
+}
@@ -13,7 +13,6 @@ package org.eclipse.gyrex.monitoring.metrics;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
 
 /**
  * An special capacity metric for monitoring pools.
@@ -32,22 +31,22 @@ import java.util.concurrent.locks.Lock;
 public class PoolMetric extends CapacityMetric {
 
 	/** the number of idle channels */
-	private volatile long channelsIdle;
+	private final StripedLong channelsIdle = new StripedLong();
 
 	/** the minimum number of channels available */
 	private volatile long channelsMinimum;
 
 	/** the total number of resources released since the last statistics reset */
-	private volatile long resourcesStatsReleased;
+	private final StripedLong resourcesStatsReleased = new StripedLong();
 
 	/**
 	 * the total number of resources destroyed due to failures since the last
 	 * statistics reset
 	 */
-	private volatile long resourcesStatsDestroyed;
+	private final StripedLong resourcesStatsDestroyed = new StripedLong();
 
 	/** the total number of resources created since the last statistics reset */
-	private volatile long resourcesStatsCreated;
+	private final StripedLong resourcesStatsCreated = new StripedLong();
 
 	/**
 	 * Creates a new pool metric instance.
@@ -71,13 +70,7 @@ public class PoolMetric extends CapacityMetric {
 	 * </p>
 	 */
 	public void channelBusy() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			channelsIdle--;
-		} finally {
-			writeLock.unlock();
-		}
+		channelsIdle.decrement();
 	}
 
 	/**
@@ -87,13 +80,7 @@ public class PoolMetric extends CapacityMetric {
 	 * </p>
 	 */
 	public void channelIdle() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			channelsIdle++;
-		} finally {
-			writeLock.unlock();
-		}
+		channelsIdle.increment();
 	}
 
 	/**
@@ -102,9 +89,8 @@ public class PoolMetric extends CapacityMetric {
 	 * Subclasses may extend but are required to call <code>super</code>.
 	 * </p>
 	 * <p>
-	 * At the time this method is invoked, the current thread has acquired the
-	 * {@link #getWriteLock() write lock} already. Subclasses must
-	 * <strong>not</strong> modify the write lock.
+	 * Resets are serialized but updates may happen concurrently. Subclasses
+	 * must reset their values using lock-free operations.
 	 * </p>
 	 * <p>
 	 * Note, this method is called by {@link #resetStats()} and should not be
@@ -116,9 +102,9 @@ public class PoolMetric extends CapacityMetric {
 	 */
 	@Override
 	void doResetStats() {
-		resourcesStatsCreated = 0;
-		resourcesStatsReleased = 0;
-		resourcesStatsDestroyed = 0;
+		resourcesStatsCreated.reset();
+		resourcesStatsReleased.reset();
+		resourcesStatsDestroyed.reset();
 		// call super
 		super.doResetStats();
 	}
@@ -134,7 +120,7 @@ public class PoolMetric extends CapacityMetric {
 	 * @return the number of idle channels
 	 */
 	public long getChannelsIdle() {
-		return channelsIdle;
+		return channelsIdle.sum();
 	}
 
 	/**
@@ -154,7 +140,7 @@ public class PoolMetric extends CapacityMetric {
 	 *         reset
 	 */
 	public long getResourcesStatsCreated() {
-		return resourcesStatsCreated;
+		return resourcesStatsCreated.sum();
 	}
 
 	/**
@@ -165,7 +151,7 @@ public class PoolMetric extends CapacityMetric {
 	 *         last statistics reset
 	 */
 	public long getResourcesStatsDestroyed() {
-		return resourcesStatsDestroyed;
+		return resourcesStatsDestroyed.sum();
 	}
 
 	/**
@@ -176,7 +162,7 @@ public class PoolMetric extends CapacityMetric {
 	 *         statistics reset
 	 */
 	public long getResourcesStatsReleased() {
-		return resourcesStatsReleased;
+		return resourcesStatsReleased.sum();
 	}
 
 	@Override
@@ -207,13 +193,7 @@ public class PoolMetric extends CapacityMetric {
 	 * </p>
 	 */
 	public void resourceCreated() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			resourcesStatsCreated++;
-		} finally {
-			writeLock.unlock();
-		}
+		resourcesStatsCreated.increment();
 	}
 
 	/**
@@ -224,13 +204,7 @@ public class PoolMetric extends CapacityMetric {
 	 * </p>
 	 */
 	public void resourceDestroyed() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			resourcesStatsDestroyed++;
-		} finally {
-			writeLock.unlock();
-		}
+		resourcesStatsDestroyed.increment();
 	}
 
 	/**
@@ -240,12 +214,17 @@ public class PoolMetric extends CapacityMetric {
 	 * </p>
 	 */
 	public void resourceReleased() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			resourcesStatsReleased++;
-		} finally {
-			writeLock.unlock();
-		}
+		resourcesStatsReleased.increment();
+	}
+
+	/**
+	 * Sets the minimum number of channels available.
+	 * 
+	 * @param channelsMinimum
+	 *            the minimum number of channels available
+	 * @since 1.3
+	 */
+	public void setChannelsMinimum(final long channelsMinimum) {
+		this.channelsMinimum = channelsMinimum;
 	}
 }
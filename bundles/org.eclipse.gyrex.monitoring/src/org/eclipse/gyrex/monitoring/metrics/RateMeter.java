@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free meter for the recent rate of events per second.
+ * <p>
+ * Events are counted in one-second buckets of a small ring. Each bucket packs
+ * the second it belongs to and its count into a single long so that rolling
+ * over to a new second and counting is a single CAS. The rate is the average
+ * of the last {@link #WINDOW} completed seconds.
+ * </p>
+ */
+final class RateMeter {
+
+	/** the number of completed seconds the rate is averaged over */
+	static final int WINDOW = 10;
+
+	/** the number of buckets (a power of two larger than the window) */
+	private static final int BUCKETS = 16;
+
+	/** the number of bits used for the count in a bucket */
+	private static final int COUNT_BITS = 24;
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Returns the average number of events per second within the last
+	 * {@link #WINDOW} seconds.
+	 */
+	float getRatePerSecond(final long nowMillis) {
+		final long now = nowMillis / 1000;
+		long events = 0;
+		for (long second = now - WINDOW; second < now; second++) {
+			final long bucket = buckets.get((int) (second & (BUCKETS - 1)));
+			if ((bucket >>> COUNT_BITS) == second) {
+				events += bucket & COUNT_MASK;
+			}
+		}
+		return events / (float) WINDOW;
+	}
+
+	/**
+	 * Records an event.
+	 */
+	void mark(final long nowMillis) {
+		mark(nowMillis, 1);
+	}
+
+	/**
+	 * Records a number of events (or an amount of something).
+	 */
+	void mark(final long nowMillis, final long events) {
+		if (events <= 0)
+			return;
+		final long second = nowMillis / 1000;
+		final int index = (int) (second & (BUCKETS - 1));
+		while (true) {
+			final long bucket = buckets.get(index);
+			final long count = (bucket >>> COUNT_BITS) != second ? 0 : bucket & COUNT_MASK;
+			if (count == COUNT_MASK)
+				return; // saturated
+			final long next = (second << COUNT_BITS) | Math.min(COUNT_MASK, count + Math.min(events, COUNT_MASK));
+			if (buckets.compareAndSet(index, bucket, next))
+				return;
+		}
+	}
+
+	/**
+	 * Forgets all recorded events.
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.metrics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A metric for monitoring the resources (CPU time and allocated memory)
+ * consumed by requests.
+ * <p>
+ * Measuring the resource usage of a request has a small cost. Therefore
+ * callers typically only measure a sample of the requests. The metric is
+ * created with the sample interval (eg. <code>16</code> if every 16th request
+ * is measured on average) and extrapolates totals and rates accordingly.
+ * </p>
+ * <p>
+ * In addition to the totals, the slowest requests are tracked by name (eg.
+ * the URL). The list is bounded by its capacity and only keeps the slowest
+ * occurrence of a name.
+ * </p>
+ * <p>
+ * Note, although this class is not marked <strong>final</strong> it is not
+ * allowed to be subclassed outside the monitoring framework.
+ * </p>
+ *
+ * @since 1.3
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public class ResourceUsageMetric extends BaseMetric {
+
+	/**
+	 * The slowest requests (guarded by itself).
+	 */
+	private static final class SlowestRequests {
+
+		final String[] names;
+		final long[] durations;
+		final long[] cpuTimes;
+		int size;
+
+		/** the shortest duration in a full list (fast path for recording) */
+		volatile long threshold;
+
+		SlowestRequests(final int capacity) {
+			names = new String[capacity];
+			durations = new long[capacity];
+			cpuTimes = new long[capacity];
+		}
+
+		synchronized void record(final String name, final long durationNanos, final long cpuTimeNanos) {
+			// update existing entry
+			int slot = -1;
+			for (int i = 0; i < size; i++) {
+				if (names[i].equals(name)) {
+					if (durations[i] >= durationNanos)
+						return;
+					slot = i;
+					break;
+				}
+			}
+
+			// replace the fastest entry if full
+			if (slot == -1) {
+				if (size < names.length) {
+					slot = size++;
+				} else {
+					slot = 0;
+					for (int i = 1; i < size; i++) {
+						if (durations[i] < durations[slot]) {
+							slot = i;
+						}
+					}
+					if (durations[slot] >= durationNanos)
+						return;
+				}
+			}
+			names[slot] = name;
+			durations[slot] = durationNanos;
+			cpuTimes[slot] = cpuTimeNanos;
+
+			// update threshold
+			if (size == names.length) {
+				long min = Long.MAX_VALUE;
+				for (int i = 0; i < size; i++) {
+					min = Math.min(min, durations[i]);
+				}
+				threshold = min;
+			}
+		}
+
+		synchronized String[] toStrings() {
+			// sort by duration (descending)
+			final Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer a, final Integer b) {
+					return Long.compare(durations[b], durations[a]);
+				}
+			});
+			final String[] result = new String[size];
+			for (int i = 0; i < size; i++) {
+				final int index = order[i];
+				result[i] = String.format("%s (%d ms, %d ms cpu)", names[index], TimeUnit.NANOSECONDS.toMillis(durations[index]), TimeUnit.NANOSECONDS.toMillis(cpuTimes[index]));
+			}
+			return result;
+		}
+	}
+
+	private static final String EMPTY = "";
+
+	private final int sampleInterval;
+	private final int slowestRequestsCapacity;
+	private final StripedLong sampledRequests = new StripedLong();
+	private final StripedLong cpuTime = new StripedLong();
+	private final StripedLong allocatedBytes = new StripedLong();
+	private final RateMeter allocatedKilobytesRate = new RateMeter();
+	private volatile SlowestRequests slowestRequests;
+
+	/**
+	 * Creates a new resource usage metric instance.
+	 *
+	 * @param id
+	 *            the metric id
+	 * @param sampleInterval
+	 *            the average number of requests per measured request (must be
+	 *            at least 1)
+	 * @param slowestRequestsCapacity
+	 *            the number of slowest requests to track (may be
+	 *            <code>0</code> to disable tracking)
+	 */
+	public ResourceUsageMetric(final String id, final int sampleInterval, final int slowestRequestsCapacity) {
+		super(id);
+		if (sampleInterval < 1)
+			throw new IllegalArgumentException("sample interval must be at least 1");
+		if (slowestRequestsCapacity < 0)
+			throw new IllegalArgumentException("slowest requests capacity must not be negative");
+		this.sampleInterval = sampleInterval;
+		this.slowestRequestsCapacity = slowestRequestsCapacity;
+		slowestRequests = slowestRequestsCapacity > 0 ? new SlowestRequests(slowestRequestsCapacity) : null;
+	}
+
+	@Override
+	void doResetStats() {
+		sampledRequests.reset();
+		cpuTime.reset();
+		allocatedBytes.reset();
+		allocatedKilobytesRate.reset();
+		slowestRequests = slowestRequestsCapacity > 0 ? new SlowestRequests(slowestRequestsCapacity) : null;
+	}
+
+	@Override
+	Object[] dumpMetrics() {
+		return new Object[] { "sampled|cpu time (ms)|allocated bytes|allocation rate (MB/s)", getSampledRequests(), getCpuTime(), getAllocatedBytes(), getAllocationRate() };
+	}
+
+	/**
+	 * Returns the (extrapolated) number of bytes allocated by requests since
+	 * the last statistics reset.
+	 *
+	 * @return the allocated bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.sum() * sampleInterval;
+	}
+
+	/**
+	 * Returns the recent (extrapolated) allocation rate.
+	 * <p>
+	 * The rate is the average number of megabytes allocated by requests per
+	 * second within the last ten seconds.
+	 * </p>
+	 *
+	 * @return the recent allocation rate in megabytes per second
+	 */
+	public float getAllocationRate() {
+		return (allocatedKilobytesRate.getRatePerSecond(System.currentTimeMillis()) * sampleInterval) / 1024F;
+	}
+
+	/**
+	 * Returns the (extrapolated) CPU time consumed by requests since the last
+	 * statistics reset.
+	 *
+	 * @return the CPU time in milliseconds
+	 */
+	public long getCpuTime() {
+		return TimeUnit.NANOSECONDS.toMillis(cpuTime.sum() * sampleInterval);
+	}
+
+	/**
+	 * Returns the number of measured requests since the last statistics reset.
+	 *
+	 * @return the number of measured requests
+	 */
+	public long getSampledRequests() {
+		return sampledRequests.sum();
+	}
+
+	/**
+	 * Returns the sample interval, i.e. the average number of requests per
+	 * measured request.
+	 *
+	 * @return the sample interval
+	 */
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	/**
+	 * Returns the slowest measured requests since the last statistics reset.
+	 *
+	 * @return a list of the slowest requests (formatted as
+	 *         <code>name (duration, cpu time)</code>, slowest first)
+	 */
+	public String[] getSlowestRequests() {
+		final SlowestRequests slowestRequests = this.slowestRequests;
+		if (null == slowestRequests)
+			return new String[0];
+		return slowestRequests.toStrings();
+	}
+
+	@Override
+	void populateAttributes(final List<MetricAttribute> attributes) {
+		super.populateAttributes(attributes);
+		attributes.add(new MetricAttribute("sampledRequests", "the number of measured requests since the last statistics reset", Long.class));
+		attributes.add(new MetricAttribute("sampleInterval", "the average number of requests per measured request", Integer.class));
+		attributes.add(new MetricAttribute("cpuTime", "the (extrapolated) CPU time in milliseconds consumed by requests since the last statistics reset", Long.class));
+		attributes.add(new MetricAttribute("allocatedBytes", "the (extrapolated) number of bytes allocated by requests since the last statistics reset", Long.class));
+		attributes.add(new MetricAttribute("allocationRate", "the (extrapolated) megabytes per second allocated by requests within the last ten seconds", Float.class));
+		attributes.add(new MetricAttribute("slowestRequests", "the slowest measured requests since the last statistics reset", String.class));
+	}
+
+	@Override
+	void populateAttributeValues(final Map<String, Object> values) {
+		super.populateAttributeValues(values);
+		values.put("sampledRequests", getSampledRequests());
+		values.put("sampleInterval", getSampleInterval());
+		values.put("cpuTime", getCpuTime());
+		values.put("allocatedBytes", getAllocatedBytes());
+		values.put("allocationRate", getAllocationRate());
+		final String[] slowest = getSlowestRequests();
+		values.put("slowestRequests", slowest.length > 0 ? StringUtils.join(slowest, ", ") : EMPTY);
+	}
+
+	/**
+	 * Records the resources consumed by a measured request.
+	 *
+	 * @param name
+	 *            the request name (eg. the URL, may be <code>null</code> if
+	 *            the request should not be tracked as slow request)
+	 * @param durationNanos
+	 *            the request duration in nanoseconds
+	 * @param cpuTimeNanos
+	 *            the CPU time consumed by the request in nanoseconds (or
+	 *            <code>-1</code> if not available)
+	 * @param allocatedBytes
+	 *            the bytes allocated by the request (or <code>-1</code> if not
+	 *            available)
+	 */
+	public void requestMeasured(final String name, final long durationNanos, final long cpuTimeNanos, final long allocatedBytes) {
+		sampledRequests.increment();
+		if (cpuTimeNanos > 0) {
+			cpuTime.add(cpuTimeNanos);
+		}
+		if (allocatedBytes > 0) {
+			this.allocatedBytes.add(allocatedBytes);
+			allocatedKilobytesRate.mark(System.currentTimeMillis(), (allocatedBytes + 512) >> 10);
+		}
+
+		final SlowestRequests slowestRequests = this.slowestRequests;
+		if ((null != name) && (null != slowestRequests) && (durationNanos > slowestRequests.threshold)) {
+			slowestRequests.record(name, durationNanos, Math.max(0, cpuTimeNanos));
+		}
+	}
+}
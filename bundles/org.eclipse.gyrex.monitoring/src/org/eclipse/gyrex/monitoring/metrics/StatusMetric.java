@@ -11,10 +11,9 @@
  *******************************************************************************/
 package org.eclipse.gyrex.monitoring.metrics;
 
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A metric for monitoring a status (eg. "up" or "down").
@@ -32,17 +31,27 @@ import java.util.concurrent.locks.Lock;
  */
 public class StatusMetric extends BaseMetric {
 
-	/** the status */
-	private volatile String status;
+	/**
+	 * Immutable holder of a status so that status, reason and time are always
+	 * read consistently.
+	 */
+	private static final class Status {
+		final String status;
+		final String changeReason;
+		final long changeTime;
 
-	/** the reason for a status change */
-	private volatile String statusChangeReason;
+		Status(final String status, final String changeReason, final long changeTime) {
+			this.status = status;
+			this.changeReason = changeReason;
+			this.changeTime = changeTime;
+		}
+	}
 
-	/** the last status change time */
-	private volatile long statusChangeTime;
+	/** the status, the reason for a status change and the change time */
+	private volatile Status status;
 
 	/** a counter for status changes since the last reset */
-	private volatile long statusStatsChangeCount;
+	private final AtomicLong statusStatsChangeCount = new AtomicLong();
 
 	/**
 	 * Creates a new status metric instance.
@@ -66,8 +75,7 @@ public class StatusMetric extends BaseMetric {
 
 		// note, we do not invoke setStatus here because calling non-private
 		// methods during object initialization is problematic at best
-		status = initialStatus;
-		statusChangeReason = initialStatusReason;
+		status = new Status(initialStatus, initialStatusReason, 0);
 	}
 
 	/**
@@ -76,9 +84,8 @@ public class StatusMetric extends BaseMetric {
 	 * Subclasses may extend but are required to call <code>super</code>.
 	 * </p>
 	 * <p>
-	 * At the time this method is invoked, the current thread has acquired the
-	 * {@link #getWriteLock() write lock} already. Subclasses must
-	 * <strong>not</strong> modify the write lock.
+	 * Resets are serialized but updates may happen concurrently. Subclasses
+	 * must reset their values using lock-free operations.
 	 * </p>
 	 * <p>
 	 * Note, this method is called by {@link #resetStats()} and should not be
@@ -89,7 +96,7 @@ public class StatusMetric extends BaseMetric {
 	 */
 	@Override
 	void doResetStats() {
-		statusStatsChangeCount = 0;
+		statusStatsChangeCount.set(0);
 	}
 
 	@Override
@@ -103,7 +110,7 @@ public class StatusMetric extends BaseMetric {
 	 * @return the status
 	 */
 	public String getStatus() {
-		return status;
+		return status.status;
 	}
 
 	/**
@@ -112,7 +119,7 @@ public class StatusMetric extends BaseMetric {
 	 * @return the reason for a status change
 	 */
 	public String getStatusChangeReason() {
-		return statusChangeReason;
+		return status.changeReason;
 	}
 
 	/**
@@ -126,7 +133,7 @@ public class StatusMetric extends BaseMetric {
 	 * @return the time of the last status change
 	 */
 	public String getStatusChangeTime() {
-		return ISO_8601_UTC.format(new Date(statusChangeTime));
+		return formatIso8601(status.changeTime);
 	}
 
 	/**
@@ -139,7 +146,7 @@ public class StatusMetric extends BaseMetric {
 	 * @return the the number of status changes since the last statistics reset
 	 */
 	public long getStatusStatsChangeCount() {
-		return statusStatsChangeCount;
+		return statusStatsChangeCount.get();
 	}
 
 	@Override
@@ -154,9 +161,10 @@ public class StatusMetric extends BaseMetric {
 	@Override
 	void populateAttributeValues(final Map<String, Object> values) {
 		super.populateAttributeValues(values);
-		values.put("status", getStatus());
-		values.put("statusChangeReason", getStatusChangeReason());
-		values.put("statusChangeTime", getStatusChangeTime());
+		final Status status = this.status;
+		values.put("status", status.status);
+		values.put("statusChangeReason", status.changeReason);
+		values.put("statusChangeTime", formatIso8601(status.changeTime));
 		values.put("statusStatsChangeCount", getStatusStatsChangeCount());
 	}
 
@@ -180,15 +188,7 @@ public class StatusMetric extends BaseMetric {
 			throw new IllegalArgumentException("status change reason may not be null");
 		}
 
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			this.status = status;
-			this.statusChangeReason = statusChangeReason;
-			statusChangeTime = System.currentTimeMillis();
-			statusStatsChangeCount++;
-		} finally {
-			writeLock.unlock();
-		}
+		this.status = new Status(status, statusChangeReason, System.currentTimeMillis());
+		statusStatsChangeCount.incrementAndGet();
 	}
 }
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free sum which is striped across multiple cells in order to reduce
+ * contention between concurrently updating threads.
+ * <p>
+ * This is a simplified variant of Java 8's <code>LongAdder</code>. Updates go
+ * to a single base value until contention is detected for the first time.
+ * From then on, every thread updates the cell selected by its thread id. Cells
+ * are padded to avoid false sharing. {@link #sum()} is not an atomic snapshot
+ * when updates happen concurrently.
+ * </p>
+ */
+final class StripedLong {
+
+	/** the number of longs between two cells (64 bytes) */
+	static final int PADDING = 8;
+
+	/** the number of cells (a power of two) */
+	static final int STRIPES;
+	static {
+		int stripes = 1;
+		while ((stripes < (Runtime.getRuntime().availableProcessors() * 2)) && (stripes < 64)) {
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	/**
+	 * Returns the index of the cell to use by the current thread.
+	 */
+	static int cellIndex() {
+		return stripe() * PADDING;
+	}
+
+	/**
+	 * Returns the stripe (between <code>0</code> and {@link #STRIPES}) to use
+	 * by the current thread.
+	 */
+	static int stripe() {
+		// spread sequential thread ids
+		final long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return (int) (id >>> 32) & (STRIPES - 1);
+	}
+
+	private final AtomicLong base = new AtomicLong();
+	private volatile AtomicLongArray cells;
+
+	/**
+	 * Adds the specified value.
+	 */
+	void add(final long x) {
+		AtomicLongArray cells = this.cells;
+		if (null == cells) {
+			final long b = base.get();
+			if (base.compareAndSet(b, b + x))
+				return;
+			cells = inflate();
+		}
+		cells.getAndAdd(cellIndex(), x);
+	}
+
+	void decrement() {
+		add(-1L);
+	}
+
+	void increment() {
+		add(1L);
+	}
+
+	private synchronized AtomicLongArray inflate() {
+		if (null == cells) {
+			cells = new AtomicLongArray(STRIPES * PADDING);
+		}
+		return cells;
+	}
+
+	/**
+	 * Resets the sum to zero.
+	 * <p>
+	 * Updates happening concurrently may or may not be reflected afterwards.
+	 * </p>
+	 */
+	void reset() {
+		base.set(0);
+		final AtomicLongArray cells = this.cells;
+		if (null != cells) {
+			for (int i = 0; i < cells.length(); i += PADDING) {
+				cells.set(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * Returns the current sum.
+	 */
+	long sum() {
+		long sum = base.get();
+		final AtomicLongArray cells = this.cells;
+		if (null != cells) {
+			for (int i = 0; i < cells.length(); i += PADDING) {
+				sum += cells.get(i);
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(sum());
+	}
+}
@@ -14,7 +14,7 @@ package org.eclipse.gyrex.monitoring.metrics;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A metric for monitoring throughput (eg. requests, invocations).
@@ -33,55 +33,25 @@ import java.util.concurrent.locks.Lock;
 public class ThroughputMetric extends BaseMetric {
 
 	/** the number of active requests */
-	private volatile long requestsActive;
+	private final AtomicLong requestsActive = new AtomicLong();
 
 	/** the high water mark since the last statistics reset */
-	private volatile long requestsStatsHigh;
+	private final AtomicLong requestsStatsHigh = new AtomicLong();
 
 	/**
 	 * the total number of requests processed (excluding failed requests) since
 	 * the last statistics reset
 	 */
-	private volatile long requestsStatsProcessed;
-
-	/**
-	 * the request hit rate per hour (including failed requests) since the last
-	 * statistics reset
-	 */
-	private volatile long requestsStatsHitRatePerHour;
-
-	/**
-	 * the request hit rate per minute (including failed requests) since the
-	 * last statistics reset
-	 */
-	private volatile long requestsStatsHitRatePerMinute;
-
-	/**
-	 * the request hit rate per second (including failed requests) since the
-	 * last statistics reset
-	 */
-	private volatile long requestsStatsHitRatePerSecond;
+	private final StripedLong requestsStatsProcessed = new StripedLong();
 
 	/** the total number of failed requests since the last statistics reset */
-	private volatile long requestsStatsFailed;
-
-	/**
-	 * the request failure rate since the last statistics reset (percentage of
-	 * failed requests vs. processed + failed requests)
-	 */
-	private volatile float requestsStatsFailureRate;
+	private final StripedLong requestsStatsFailed = new StripedLong();
 
 	/**
 	 * the total number of size units processed by requests (excluding failed
 	 * requests) since the last statistics reset
 	 */
-	private volatile long requestsStatsSize;
-
-	/**
-	 * the average number of size units processed by a request (excluding failed
-	 * requests) since the last statistics reset
-	 */
-	private volatile long requestsStatsSizeAverage;
+	private final StripedLong requestsStatsSize = new StripedLong();
 
 	/**
 	 * the total number of time consumed processing requests (excluding failed
@@ -89,6 +59,9 @@ public class ThroughputMetric extends BaseMetric {
 	 */
 	private final Counter requestsStatsProcessingTime = new Counter();
 
+	/** percentiles of the time consumed processing requests */
+	private final PercentileTracker requestsStatsProcessingTimePercentiles;
+
 	private final TimeUnit timeUnit;
 
 	/**
@@ -111,10 +84,32 @@ public class ThroughputMetric extends BaseMetric {
 	 *            the time unit used in the metric
 	 */
 	public ThroughputMetric(final String id, final TimeUnit timeUnit) {
+		this(id, timeUnit, Histogram.DEFAULT_PRECISION);
+	}
+
+	/**
+	 * Creates a new throughput metric instance.
+	 * <p>
+	 * Processing times are recorded into a {@link Histogram} for calculating
+	 * percentiles. The histogram precision allows to trade memory for
+	 * accuracy.
+	 * </p>
+	 * 
+	 * @param id
+	 *            the metric id
+	 * @param timeUnit
+	 *            the time unit used in the metric
+	 * @param histogramPrecision
+	 *            the precision of the histogram used for calculating
+	 *            percentiles (see {@link Histogram})
+	 * @since 1.3
+	 */
+	public ThroughputMetric(final String id, final TimeUnit timeUnit, final int histogramPrecision) {
 		super(id);
 		if (timeUnit == null)
 			throw new IllegalArgumentException("no time unit specified");
 		this.timeUnit = timeUnit;
+		requestsStatsProcessingTimePercentiles = new PercentileTracker(timeUnit, histogramPrecision);
 	}
 
 	/**
@@ -123,9 +118,8 @@ public class ThroughputMetric extends BaseMetric {
 	 * Subclasses may extend but are required to call <code>super</code>.
 	 * </p>
 	 * <p>
-	 * At the time this method is invoked, the current thread has acquired the
-	 * {@link #getWriteLock() write lock} already. Subclasses must
-	 * <strong>not</strong> modify the write lock.
+	 * Resets are serialized but updates may happen concurrently. Subclasses
+	 * must reset their values using lock-free operations.
 	 * </p>
 	 * <p>
 	 * Note, this method is called by {@link #resetStats()} and should not be
@@ -136,14 +130,12 @@ public class ThroughputMetric extends BaseMetric {
 	 */
 	@Override
 	void doResetStats() {
-		requestsStatsHigh = 0;
-		requestsStatsProcessed = 0;
-		requestsStatsHitRatePerMinute = 0;
-		requestsStatsFailed = 0;
-		requestsStatsHigh = 0;
-		requestsStatsSize = 0;
-		requestsStatsSizeAverage = 0;
+		requestsStatsHigh.set(0);
+		requestsStatsProcessed.reset();
+		requestsStatsFailed.reset();
+		requestsStatsSize.reset();
 		requestsStatsProcessingTime.reset();
+		requestsStatsProcessingTimePercentiles.reset();
 	}
 
 	@Override
@@ -157,7 +149,7 @@ public class ThroughputMetric extends BaseMetric {
 	 * @return the number of active requests
 	 */
 	public long getRequestsActive() {
-		return requestsActive;
+		return requestsActive.get();
 	}
 
 	/**
@@ -167,7 +159,7 @@ public class ThroughputMetric extends BaseMetric {
 	 * @return the total number of failed requests
 	 */
 	public long getRequestsStatsFailed() {
-		return requestsStatsFailed;
+		return requestsStatsFailed.sum();
 	}
 
 	/**
@@ -177,7 +169,10 @@ public class ThroughputMetric extends BaseMetric {
 	 * @return the request failure rate
 	 */
 	public float getRequestsStatsFailureRate() {
-		return requestsStatsFailureRate;
+		// the failure rate is percentage of failed vs. total requests
+		final long failed = requestsStatsFailed.sum();
+		final long total = failed + requestsStatsProcessed.sum();
+		return total == 0 ? 0 : ((failed * 100F) / total);
 	}
 
 	/**
@@ -186,79 +181,34 @@ public class ThroughputMetric extends BaseMetric {
 	 * @return the high water mark since the last statistics reset
 	 */
 	public long getRequestsStatsHigh() {
-		return requestsStatsHigh;
+		return requestsStatsHigh.get();
 	}
 
 	/**
 	 * Returns the request hit rate per hour since the last statistics reset.
-	 * <p>
-	 * Note, this operation makes an attempt to update the hit rate before it is
-	 * returned.
-	 * </p>
 	 * 
 	 * @return the request hit rate per hour since the last statistics reset
 	 */
 	public long getRequestsStatsHitRatePerHour() {
-		// try to update the hit rate
-		final Lock writeLock = getWriteLock();
-		if (writeLock.tryLock()) {
-			try {
-				updateHitRate();
-			} finally {
-				writeLock.unlock();
-			}
-		}
-
-		// return what we have
-		return requestsStatsHitRatePerHour;
+		return getHitRate(3600000);
 	}
 
 	/**
 	 * Returns the request hit rate per minute since the last statistics reset.
-	 * <p>
-	 * Note, this operation makes an attempt to update the hit rate before it is
-	 * returned.
-	 * </p>
 	 * 
 	 * @return the request hit rate per minute since the last statistics reset
 	 */
 	public long getRequestsStatsHitRatePerMinute() {
-		// try to update the hit rate
-		final Lock writeLock = getWriteLock();
-		if (writeLock.tryLock()) {
-			try {
-				updateHitRate();
-			} finally {
-				writeLock.unlock();
-			}
-		}
-
-		// return what we have
-		return requestsStatsHitRatePerMinute;
+		return getHitRate(60000);
 	}
 
 	/**
 	 * Returns the request hit rate per second since the last statistics reset.
-	 * <p>
-	 * Note, this operation makes an attempt to update the hit rate before it is
-	 * returned.
-	 * </p>
 	 * 
 	 * @return the request hit rate per second since the last statistics reset
 	 */
 	public long getRequestsStatsHitRatePerSecond() {
-		// try to update the hit rate
-		final Lock writeLock = getWriteLock();
-		if (writeLock.tryLock()) {
-			try {
-				updateHitRate();
-			} finally {
-				writeLock.unlock();
-			}
-		}
-
-		// return what we have
-		return requestsStatsHitRatePerSecond;
+		return getHitRate(1000);
 	}
 
 	/**
@@ -269,7 +219,7 @@ public class ThroughputMetric extends BaseMetric {
 	 *         reset
 	 */
 	public long getRequestsStatsProcessed() {
-		return requestsStatsProcessed;
+		return requestsStatsProcessed.sum();
 	}
 
 	/**
@@ -316,6 +266,24 @@ public class ThroughputMetric extends BaseMetric {
 		return requestsStatsProcessingTime.getLow();
 	}
 
+	/**
+	 * Returns the time consumed processing a request at the specified
+	 * percentile since the last statistics reset.
+	 * <p>
+	 * The value is calculated from a histogram. Its relative error depends on
+	 * the histogram precision.
+	 * </p>
+	 * 
+	 * @param percentile
+	 *            the percentile (between 0 and 100, eg. <code>99.9</code>)
+	 * @return the time consumed processing a request at the specified
+	 *         percentile
+	 * @since 1.3
+	 */
+	public long getRequestsStatsProcessingTimePercentile(final double percentile) {
+		return requestsStatsProcessingTimePercentiles.getHistogram().getValueAtPercentile(percentile);
+	}
+
 	/**
 	 * Returns the standard deviation for the total number of time consumed
 	 * processing requests since the last statistics reset.
@@ -335,13 +303,7 @@ public class ThroughputMetric extends BaseMetric {
 	 *         requests since the last statistics reset
 	 */
 	public double getRequestsStatsProcessingTimeVariance() {
-		final Lock lock = getReadLock();
-		lock.lock();
-		try {
-			return requestsStatsProcessingTime.getVariance();
-		} finally {
-			lock.unlock();
-		}
+		return requestsStatsProcessingTime.getVariance();
 	}
 
 	/**
@@ -352,7 +314,7 @@ public class ThroughputMetric extends BaseMetric {
 	 *         last statistics reset
 	 */
 	public long getRequestsStatsSize() {
-		return requestsStatsSize;
+		return requestsStatsSize.sum();
 	}
 
 	/**
@@ -363,7 +325,8 @@ public class ThroughputMetric extends BaseMetric {
 	 *         last statistics reset
 	 */
 	public long getRequestsStatsSizeAverage() {
-		return requestsStatsSizeAverage;
+		final long processed = requestsStatsProcessed.sum();
+		return processed == 0 ? 0 : requestsStatsSize.sum() / processed;
 	}
 
 	/**
@@ -393,6 +356,7 @@ public class ThroughputMetric extends BaseMetric {
 		attributes.add(new MetricAttribute("requestsStatsProcessingTimeHigh", "the highest number of time consumed processing a request (excluding failed requests) since the last statistics reset", Long.class));
 		attributes.add(new MetricAttribute("requestsStatsProcessingTimeLow", "the lowest number of time consumed processing a request (excluding failed requests) since the last statistics reset", Long.class));
 		attributes.add(new MetricAttribute("requestsStatsProcessingTimeStandardDeviation", "the standard deviation for the total number of time consumed processing requests (excluding failed requests) since the last statistics reset", Double.class));
+		requestsStatsProcessingTimePercentiles.populateAttributes("requestsStatsProcessingTime", "the time consumed processing a request (excluding failed requests)", attributes);
 		attributes.add(new MetricAttribute("timeUnit", "the time unit used in the metric", String.class));
 	}
 
@@ -409,11 +373,13 @@ public class ThroughputMetric extends BaseMetric {
 		values.put("requestsStatsFailureRate", getRequestsStatsFailureRate());
 		values.put("requestsStatsSize", getRequestsStatsSize());
 		values.put("requestsStatsSizeAverage", getRequestsStatsSizeAverage());
-		values.put("requestsStatsProcessingTime", getRequestsStatsProcessingTime());
-		values.put("requestsStatsProcessingTimeAverage", getRequestsStatsProcessingTimeAverage());
-		values.put("requestsStatsProcessingTimeHigh", getRequestsStatsProcessingTimeHigh());
-		values.put("requestsStatsProcessingTimeLow", getRequestsStatsProcessingTimeLow());
-		values.put("requestsStatsProcessingTimeStandardDeviation", getRequestsStatsProcessingTimeStandardDeviation());
+		final Counter.Snapshot processingTime = requestsStatsProcessingTime.getSnapshot();
+		values.put("requestsStatsProcessingTime", processingTime.getValue());
+		values.put("requestsStatsProcessingTimeAverage", processingTime.getAverage());
+		values.put("requestsStatsProcessingTimeHigh", processingTime.getHigh());
+		values.put("requestsStatsProcessingTimeLow", processingTime.getLow());
+		values.put("requestsStatsProcessingTimeStandardDeviation", processingTime.getStandardDeviation());
+		requestsStatsProcessingTimePercentiles.populateAttributeValues("requestsStatsProcessingTime", values);
 		values.put("timeUnit", getTimeUnit().toString());
 	}
 
@@ -426,15 +392,8 @@ public class ThroughputMetric extends BaseMetric {
 	 * </p>
 	 */
 	public void requestFailed() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			requestsActive--;
-			requestsStatsFailed++;
-			updateHitRate();
-		} finally {
-			writeLock.unlock();
-		}
+		requestsActive.decrementAndGet();
+		requestsStatsFailed.increment();
 	}
 
 	/**
@@ -453,19 +412,13 @@ public class ThroughputMetric extends BaseMetric {
 	 *            not tracked)
 	 */
 	public void requestFinished(final long sizeUnits, final long processingTime) {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			requestsActive--;
-			requestsStatsProcessed++;
-			requestsStatsSize += sizeUnits;
-			requestsStatsSizeAverage = requestsStatsSize / requestsStatsProcessed;
-			requestsStatsProcessingTime.increment(processingTime);
-			updateHitRate();
-			updateFailureRate();
-		} finally {
-			writeLock.unlock();
+		requestsActive.decrementAndGet();
+		requestsStatsProcessed.increment();
+		if (sizeUnits != 0) {
+			requestsStatsSize.add(sizeUnits);
 		}
+		requestsStatsProcessingTime.increment(processingTime);
+		requestsStatsProcessingTimePercentiles.record(processingTime);
 	}
 
 	/**
@@ -482,18 +435,7 @@ public class ThroughputMetric extends BaseMetric {
 	 *         {@link System#currentTimeMillis()})
 	 */
 	public long requestStarted() {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			requestsActive++;
-			if (requestsActive > requestsStatsHigh) {
-				requestsStatsHigh = requestsActive;
-			}
-			updateHitRate();
-			updateFailureRate();
-		} finally {
-			writeLock.unlock();
-		}
+		AtomicMath.max(requestsStatsHigh, requestsActive.incrementAndGet());
 
 		switch (timeUnit) {
 			case NANOSECONDS:
@@ -507,20 +449,9 @@ public class ThroughputMetric extends BaseMetric {
 		}
 	}
 
-	private void updateFailureRate() {
-		// the failure rate is percentage of failed vs. total requests
-		final long total = requestsStatsFailed + requestsStatsProcessed;
-		requestsStatsFailureRate = total == 0 ? 0 : ((requestsStatsFailed / total) * 100);
-	}
-
-	private void updateHitRate() {
-		final long totalRequestProcessed = requestsStatsProcessed + requestsStatsFailed;
-		final long duration = System.currentTimeMillis() - getStatsSinceTS();
-		final long durationSeconds = duration / 1000;
-		final long durationMinutes = duration / 60000;
-		final long durationHours = duration / 3600000;
-		requestsStatsHitRatePerSecond = ((durationSeconds == 0) || (totalRequestProcessed == 0)) ? 0 : (totalRequestProcessed / durationSeconds);
-		requestsStatsHitRatePerMinute = ((durationMinutes == 0) || (totalRequestProcessed == 0)) ? 0 : (totalRequestProcessed / durationMinutes);
-		requestsStatsHitRatePerHour = ((durationHours == 0) || (totalRequestProcessed == 0)) ? 0 : (totalRequestProcessed / durationHours);
+	private long getHitRate(final long period) {
+		final long totalRequestProcessed = requestsStatsProcessed.sum() + requestsStatsFailed.sum();
+		final long periods = (System.currentTimeMillis() - getStatsSinceTS()) / period;
+		return ((periods <= 0) || (totalRequestProcessed == 0)) ? 0 : (totalRequestProcessed / periods);
 	}
 }
@@ -14,7 +14,6 @@ package org.eclipse.gyrex.monitoring.metrics;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 
 import org.eclipse.gyrex.monitoring.metrics.StopWatch.StopCallback;
 
@@ -73,6 +72,7 @@ public class TimerMetric extends BaseMetric {
 
 	private final TimeUnit timeUnit;
 	private final Counter duration = new Counter();
+	private final PercentileTracker percentiles;
 	private final StopCallback stopCallback = new StopCallback() {
 
 		@Override
@@ -101,15 +101,38 @@ public class TimerMetric extends BaseMetric {
 	 *            the time unit used in the metric
 	 */
 	public TimerMetric(final String id, final TimeUnit timeUnit) {
+		this(id, timeUnit, Histogram.DEFAULT_PRECISION);
+	}
+
+	/**
+	 * Creates a new timer metric instance.
+	 * <p>
+	 * Durations are recorded into a {@link Histogram} for calculating
+	 * percentiles. The histogram precision allows to trade memory for
+	 * accuracy.
+	 * </p>
+	 * 
+	 * @param id
+	 *            the metric id
+	 * @param timeUnit
+	 *            the time unit used in the metric
+	 * @param histogramPrecision
+	 *            the precision of the histogram used for calculating
+	 *            percentiles (see {@link Histogram})
+	 * @since 1.3
+	 */
+	public TimerMetric(final String id, final TimeUnit timeUnit, final int histogramPrecision) {
 		super(id);
 		if (timeUnit == null)
 			throw new IllegalArgumentException("no time unit specified");
 		this.timeUnit = timeUnit;
+		percentiles = new PercentileTracker(timeUnit, histogramPrecision);
 	}
 
 	@Override
 	void doResetStats() {
 		duration.reset();
+		percentiles.reset();
 	}
 
 	@Override
@@ -171,6 +194,24 @@ public class TimerMetric extends BaseMetric {
 		return duration.getLow();
 	}
 
+	/**
+	 * Returns the time consumed processing a request at the specified
+	 * percentile since the last statistics reset.
+	 * <p>
+	 * The value is calculated from a histogram. Its relative error depends on
+	 * the histogram precision.
+	 * </p>
+	 * 
+	 * @param percentile
+	 *            the percentile (between 0 and 100, eg. <code>99.9</code>)
+	 * @return the time consumed processing a request at the specified
+	 *         percentile
+	 * @since 1.3
+	 */
+	public long getProcessingTimePercentile(final double percentile) {
+		return percentiles.getHistogram().getValueAtPercentile(percentile);
+	}
+
 	/**
 	 * Returns the standard deviation for the total number of time consumed
 	 * processing requests since the last statistics reset.
@@ -190,13 +231,7 @@ public class TimerMetric extends BaseMetric {
 	 *         requests since the last statistics reset
 	 */
 	public double getProcessingTimeVariance() {
-		final Lock lock = getReadLock();
-		lock.lock();
-		try {
-			return duration.getVariance();
-		} finally {
-			lock.unlock();
-		}
+		return duration.getVariance();
 	}
 
 	/**
@@ -213,23 +248,25 @@ public class TimerMetric extends BaseMetric {
 		super.populateAttributes(attributes);
 		attributes.add(new MetricAttribute("processingCount", "the number of finished processed since the last statistics reset", Long.class));
 		attributes.add(new MetricAttribute("processingTime", "the total number of time consumed processing requests (excluding failed requests) since the last statistics reset", Long.class));
-		attributes.add(new MetricAttribute("processingTime", "the total number of time consumed processing requests (excluding failed requests) since the last statistics reset", Long.class));
 		attributes.add(new MetricAttribute("processingTimeAverage", "the average number of time consumed processing a request (excluding failed requests) since the last statistics reset", Long.class));
 		attributes.add(new MetricAttribute("processingTimeHigh", "the highest number of time consumed processing a request (excluding failed requests) since the last statistics reset", Long.class));
 		attributes.add(new MetricAttribute("processingTimeLow", "the lowest number of time consumed processing a request (excluding failed requests) since the last statistics reset", Long.class));
 		attributes.add(new MetricAttribute("processingTimeStandardDeviation", "the standard deviation for the total number of time consumed processing requests (excluding failed requests) since the last statistics reset", Double.class));
+		percentiles.populateAttributes("processingTime", "the time consumed processing a request", attributes);
 		attributes.add(new MetricAttribute("timeUnit", "the time unit used in the metric", String.class));
 	}
 
 	@Override
 	void populateAttributeValues(final Map<String, Object> values) {
 		super.populateAttributeValues(values);
-		values.put("processingCount", getProcessingCount());
-		values.put("processingTime", getProcessingTime());
-		values.put("processingTimeAverage", getProcessingTimeAverage());
-		values.put("processingTimeHigh", getProcessingTimeHigh());
-		values.put("processingTimeLow", getProcessingTimeLow());
-		values.put("processingTimeStandardDeviation", getProcessingTimeStandardDeviation());
+		final Counter.Snapshot snapshot = duration.getSnapshot();
+		values.put("processingCount", snapshot.getNumberOfSamples());
+		values.put("processingTime", snapshot.getValue());
+		values.put("processingTimeAverage", snapshot.getAverage());
+		values.put("processingTimeHigh", snapshot.getHigh());
+		values.put("processingTimeLow", snapshot.getLow());
+		values.put("processingTimeStandardDeviation", snapshot.getStandardDeviation());
+		percentiles.populateAttributeValues("processingTime", values);
 		values.put("timeUnit", getTimeUnit().toString());
 	}
 
@@ -244,13 +281,8 @@ public class TimerMetric extends BaseMetric {
 	 *            the time it took to process the request
 	 */
 	public void processFinished(final long processingTime) {
-		final Lock writeLock = getWriteLock();
-		writeLock.lock();
-		try {
-			duration.increment(processingTime);
-		} finally {
-			writeLock.unlock();
-		}
+		duration.increment(processingTime);
+		percentiles.record(processingTime);
 	}
 
 	/**
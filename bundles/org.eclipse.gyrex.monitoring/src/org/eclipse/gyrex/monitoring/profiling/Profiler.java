@@ -11,9 +11,32 @@
  *******************************************************************************/
 package org.eclipse.gyrex.monitoring.profiling;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.gyrex.monitoring.internal.profiling.TransactionSampleBuffer;
+
 /**
  * A manager for accessing {@link Transaction transactions}.
  * <p>
+ * The profiler supports a sampling mode which is cheap enough to be always on
+ * in production. When {@link #setSampleInterval(int) enabled}, only every
+ * n-th transaction started using
+ * {@link #startTransaction(String, int, TimeUnit)} is profiled. The number of
+ * profiled transactions per second may be {@link #setMaxSamplesPerSecond(int)
+ * limited} in addition. Sampled transactions are pooled per thread and
+ * aggregated per transaction id in the background when
+ * {@link #finishTransaction() finished}. The aggregates are available as
+ * metrics.
+ * </p>
+ * <p>
+ * The sampling mode is disabled by default. The system properties
+ * <code>gyrex.monitoring.profiling.sampleInterval</code> and
+ * <code>gyrex.monitoring.profiling.maxSamplesPerSecond</code> may be used to
+ * configure it at startup.
+ * </p>
+ * <p>
  * Warning: This is part of a new API that has not been finalized yet. Please
  * get in touch with the Gyrex developments if you intend to use it and this
  * warning is still present.
@@ -21,7 +44,96 @@ package org.eclipse.gyrex.monitoring.profiling;
  */
 public final class Profiler {
 
-	private static final ThreadLocal<Transaction> currentThreadTransaction = new ThreadLocal<Transaction>();
+	/**
+	 * Per thread profiler state.
+	 */
+	private static final class ThreadState {
+		/** the current transaction */
+		Transaction current;
+		/** <code>true</code> if the current transaction is pooled */
+		boolean pooled;
+		/** the pooled transaction (if not in use) */
+		Transaction spare;
+		/** the number of transactions to skip until the next sample */
+		int countdown;
+	}
+
+	private static final ThreadLocal<ThreadState> currentThreadState = new ThreadLocal<ThreadState>() {
+		@Override
+		protected ThreadState initialValue() {
+			return new ThreadState();
+		}
+	};
+
+	private static volatile int sampleInterval = Integer.getInteger("gyrex.monitoring.profiling.sampleInterval", 0);
+	private static volatile int maxSamplesPerSecond = Integer.getInteger("gyrex.monitoring.profiling.maxSamplesPerSecond", 0);
+
+	private static final AtomicLong rateLimitSecond = new AtomicLong();
+	private static final AtomicInteger rateLimitSamples = new AtomicInteger();
+
+	private static boolean acquireSample() {
+		final int max = maxSamplesPerSecond;
+		if (max <= 0)
+			return true;
+		final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		final long current = rateLimitSecond.get();
+		if ((current != second) && rateLimitSecond.compareAndSet(current, second)) {
+			rateLimitSamples.set(0);
+		}
+		return rateLimitSamples.incrementAndGet() <= max;
+	}
+
+	/**
+	 * Finishes the transaction associated with the current thread.
+	 * <p>
+	 * The transaction will be {@link Transaction#finished() marked finished},
+	 * handed over for aggregation and removed from the current thread. Pooled
+	 * transactions (i.e. those returned by
+	 * {@link #startTransaction(String, int, TimeUnit)}) will be re-used and
+	 * must not be referenced afterwards.
+	 * </p>
+	 * <p>
+	 * This method does nothing if no transaction is associated with the
+	 * current thread.
+	 * </p>
+	 */
+	public static void finishTransaction() {
+		final ThreadState state = currentThreadState.get();
+		final Transaction transaction = state.current;
+		if (null == transaction)
+			return;
+
+		state.current = null;
+		transaction.finished();
+		TransactionSampleBuffer.getInstance().offer(transaction.getId(), transaction.getDurationNanos(), transaction.getThreadCpuTimeNanos());
+
+		if (state.pooled) {
+			state.pooled = false;
+			transaction.recycle();
+			state.spare = transaction;
+		}
+	}
+
+	/**
+	 * Returns the maximum number of transactions sampled per second.
+	 *
+	 * @return the maximum number of sampled transactions per second (zero or
+	 *         less means unlimited)
+	 * @since 1.1
+	 */
+	public static int getMaxSamplesPerSecond() {
+		return maxSamplesPerSecond;
+	}
+
+	/**
+	 * Returns the sample interval.
+	 *
+	 * @return the sample interval (zero or less means sampling is disabled)
+	 * @since 1.1
+	 */
+	public static int getSampleInterval() {
+		return sampleInterval;
+	}
 
 	/**
 	 * Returns the transaction associated with the current thread.
@@ -30,7 +142,35 @@ public final class Profiler {
 	 *         if none is available).
 	 */
 	public static Transaction getTransaction() {
-		return currentThreadTransaction.get();
+		return currentThreadState.get().current;
+	}
+
+	/**
+	 * Sets the maximum number of transactions sampled per second.
+	 *
+	 * @param maxSamplesPerSecond
+	 *            the maximum number of sampled transactions per second (zero
+	 *            or less for unlimited)
+	 * @since 1.1
+	 */
+	public static void setMaxSamplesPerSecond(final int maxSamplesPerSecond) {
+		Profiler.maxSamplesPerSecond = maxSamplesPerSecond;
+	}
+
+	/**
+	 * Sets the sample interval.
+	 * <p>
+	 * An interval of <code>n</code> means that every n-th transaction started
+	 * in a thread will be profiled. An interval of <code>1</code> profiles all
+	 * transactions.
+	 * </p>
+	 *
+	 * @param sampleInterval
+	 *            the sample interval (zero or less to disable sampling)
+	 * @since 1.1
+	 */
+	public static void setSampleInterval(final int sampleInterval) {
+		Profiler.sampleInterval = sampleInterval;
 	}
 
 	/**
@@ -40,7 +180,56 @@ public final class Profiler {
 	 *            the transaction to set
 	 */
 	public static void setTransaction(final Transaction transaction) {
-		currentThreadTransaction.set(transaction);
+		final ThreadState state = currentThreadState.get();
+		state.current = transaction;
+		state.pooled = false;
+	}
+
+	/**
+	 * Starts a sampled transaction for the current thread.
+	 * <p>
+	 * If the transaction is sampled, a pooled transaction is initialized,
+	 * associated with the current thread and returned. Callers must invoke
+	 * {@link #finishTransaction()} when the transaction is done. If the
+	 * transaction is not sampled (or the current thread is already associated
+	 * with a transaction), <code>null</code> is returned and nothing needs to
+	 * be done.
+	 * </p>
+	 * <p>
+	 * This method is designed to be called on every request. It's very cheap
+	 * if the transaction is not sampled.
+	 * </p>
+	 *
+	 * @param id
+	 *            the transaction id (must be valid according to
+	 *            {@link org.eclipse.gyrex.monitoring.metrics.BaseMetric#isValidId(String)}
+	 *            )
+	 * @param hints
+	 *            configuration hints (see {@link Transaction})
+	 * @param timeUnit
+	 *            the transaction time unit
+	 * @return the started transaction (maybe <code>null</code> if the
+	 *         transaction is not sampled)
+	 * @since 1.1
+	 */
+	public static Transaction startTransaction(final String id, final int hints, final TimeUnit timeUnit) {
+		final int interval = sampleInterval;
+		if (interval <= 0)
+			return null;
+
+		final ThreadState state = currentThreadState.get();
+		if ((--state.countdown > 0) || (null != state.current))
+			return null;
+		state.countdown = interval;
+		if (!acquireSample())
+			return null;
+
+		final Transaction transaction = null != state.spare ? state.spare : new Transaction();
+		transaction.init(id, hints, timeUnit);
+		state.spare = null;
+		state.current = transaction;
+		state.pooled = true;
+		return transaction;
 	}
 
 	private Profiler() {
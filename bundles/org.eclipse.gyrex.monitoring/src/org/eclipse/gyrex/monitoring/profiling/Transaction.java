@@ -38,6 +38,12 @@ import org.eclipse.gyrex.monitoring.metrics.BaseMetric.MetricFactory;
  * thread can be obtained from {@link Profiler}.
  * </p>
  * <p>
+ * Transactions started by {@link Profiler#startTransaction(String, int, TimeUnit)}
+ * are pooled and re-used once they are
+ * {@link Profiler#finishTransaction() finished}. Such transactions must not be
+ * referenced after they have been finished.
+ * </p>
+ * <p>
  * Note, although this class is not marked <strong>final</strong> it is not
  * allowed to be subclassed outside the monitoring framework.
  * </p>
@@ -57,18 +63,32 @@ public class Transaction {
 	 */
 	public static final int COLLECT_THREAD_CPU_TIME = 1 << 1;
 
-	/** common date format */
+	/** common date format (not thread safe) */
 	static final DateFormat ISO_8601_UTC = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
 
-	private final String id;
-	private final long created;
-	private final long threadCpuTimeStart;
-	private final TimeUnit timeUnit;
-	private final Map<String, BaseMetric> metricsById;
+	private String id;
+	private long created;
+	private long createdNanos;
+	private long threadCpuTimeStart;
+	private TimeUnit timeUnit;
+
+	/** lazily created (and re-used by pooled transactions) */
+	private Map<String, BaseMetric> metricsById;
 
 	private volatile long duration;
 	private volatile long consumedThreadCpuTime;
 
+	/**
+	 * Creates a new uninitialized transaction for pooling.
+	 * <p>
+	 * The transaction must be {@link #init(String, int, TimeUnit) initialized}
+	 * before it can be used.
+	 * </p>
+	 */
+	Transaction() {
+		// empty
+	}
+
 	/**
 	 * Creates a new transaction.
 	 * <p>
@@ -86,22 +106,7 @@ public class Transaction {
 	 *            enabled or disable collection of additional data
 	 */
 	public Transaction(final String id, final int hints, final TimeUnit timeUnit) {
-		if (!BaseMetric.isValidId(id))
-			throw new IllegalArgumentException("id is invalid (see BaseMetric#isValidId): " + id);
-		this.id = id;
-		if (timeUnit == null)
-			throw new IllegalArgumentException("no time unit specified");
-		this.timeUnit = timeUnit;
-		metricsById = new HashMap<String, BaseMetric>(5);
-
-		if (((hints & COLLECT_THREAD_CPU_TIME) != 0) && ManagementFactory.getThreadMXBean().isCurrentThreadCpuTimeSupported()) {
-			threadCpuTimeStart = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
-		} else {
-			threadCpuTimeStart = 0L;
-		}
-
-		// mark creation time
-		created = System.currentTimeMillis();
+		init(id, hints, timeUnit);
 	}
 
 	/**
@@ -113,14 +118,14 @@ public class Transaction {
 	 *         <code>false</code> otherwise
 	 */
 	public boolean containsMetric(final String id) {
-		return metricsById.containsKey(id);
+		return (null != metricsById) && metricsById.containsKey(id);
 	}
 
 	/**
 	 * Marks a transaction finished.
 	 */
 	public void finished() {
-		duration = System.currentTimeMillis() - created;
+		duration = System.nanoTime() - createdNanos;
 		if (threadCpuTimeStart > 0L) {
 			consumedThreadCpuTime = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - threadCpuTimeStart;
 		}
@@ -137,7 +142,9 @@ public class Transaction {
 	 * @return the the time when this transaction was created
 	 */
 	public final String getCreationTime() {
-		return ISO_8601_UTC.format(new Date(created));
+		synchronized (ISO_8601_UTC) {
+			return ISO_8601_UTC.format(new Date(created));
+		}
 	}
 
 	/**
@@ -160,7 +167,14 @@ public class Transaction {
 	 *         been called yet)
 	 */
 	public long getDurationTime() {
-		return timeUnit.convert(duration, TimeUnit.MILLISECONDS);
+		return timeUnit.convert(duration, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the measured duration in nanoseconds.
+	 */
+	final long getDurationNanos() {
+		return duration;
 	}
 
 	/**
@@ -193,6 +207,8 @@ public class Transaction {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends BaseMetric> T getMetric(final String id) {
+		if (null == metricsById)
+			return null;
 		return (T) metricsById.get(id);
 	}
 
@@ -211,13 +227,20 @@ public class Transaction {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends BaseMetric> T getOrCreateMetric(final String id, final MetricFactory<T> factory) {
-		BaseMetric metric = metricsById.get(id);
+		BaseMetric metric = null != metricsById ? metricsById.get(id) : null;
 		if (metric == null) {
-			metricsById.put(id, metric = factory.create(id));
+			getMetricsById().put(id, metric = factory.create(id));
 		}
 		return (T) metric;
 	}
 
+	private Map<String, BaseMetric> getMetricsById() {
+		if (null == metricsById) {
+			metricsById = new HashMap<String, BaseMetric>(5);
+		}
+		return metricsById;
+	}
+
 	/**
 	 * Returns the total CPU time consumed by the transaction thread.
 	 * <p>
@@ -235,6 +258,16 @@ public class Transaction {
 		return timeUnit.convert(consumedThreadCpuTime, TimeUnit.NANOSECONDS);
 	}
 
+	/**
+	 * Returns the consumed thread CPU time in nanoseconds (or 0L if not
+	 * collected).
+	 */
+	final long getThreadCpuTimeNanos() {
+		if (threadCpuTimeStart <= 0L)
+			return 0L;
+		return consumedThreadCpuTime;
+	}
+
 	/**
 	 * Computes and returns the average CPU utilization of the transaction
 	 * thread.
@@ -247,7 +280,7 @@ public class Transaction {
 	public double getThreadCpuUtilizationAverage() {
 		if ((threadCpuTimeStart <= 0L) || (duration <= 0L))
 			return 0;
-		return (double) TimeUnit.NANOSECONDS.toMillis(consumedThreadCpuTime) / (double) duration;
+		return (double) consumedThreadCpuTime / (double) duration;
 	}
 
 	/**
@@ -259,6 +292,34 @@ public class Transaction {
 		return timeUnit;
 	}
 
+	/**
+	 * Initializes the transaction.
+	 * <p>
+	 * Any time sensitive metrics (such as thread CPU time, etc.) will be
+	 * initialized using the current time.
+	 * </p>
+	 */
+	final void init(final String id, final int hints, final TimeUnit timeUnit) {
+		if (!BaseMetric.isValidId(id))
+			throw new IllegalArgumentException("id is invalid (see BaseMetric#isValidId): " + id);
+		this.id = id;
+		if (timeUnit == null)
+			throw new IllegalArgumentException("no time unit specified");
+		this.timeUnit = timeUnit;
+
+		if (((hints & COLLECT_THREAD_CPU_TIME) != 0) && ManagementFactory.getThreadMXBean().isCurrentThreadCpuTimeSupported()) {
+			threadCpuTimeStart = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+		} else {
+			threadCpuTimeStart = 0L;
+		}
+		duration = 0L;
+		consumedThreadCpuTime = 0L;
+
+		// mark creation time
+		created = System.currentTimeMillis();
+		createdNanos = System.nanoTime();
+	}
+
 	/**
 	 * Adds the specified metric to the transaction.
 	 * <p>
@@ -272,7 +333,7 @@ public class Transaction {
 	 *            the metric to add (must not be <code>null</code>)
 	 */
 	public <T extends BaseMetric> void putMetric(final T metric) {
-		metricsById.put(metric.getId(), metric);
+		getMetricsById().put(metric.getId(), metric);
 	}
 
 	/**
@@ -292,9 +353,21 @@ public class Transaction {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends BaseMetric> T removeMetric(final String id) {
+		if (null == metricsById)
+			return null;
 		return (T) metricsById.remove(id);
 	}
 
+	/**
+	 * Releases all state so that the transaction can be re-used.
+	 */
+	final void recycle() {
+		id = null;
+		if (null != metricsById) {
+			metricsById.clear();
+		}
+	}
+
 	/**
 	 * Returns a string containing a concise, human-readable description of the
 	 * transaction.
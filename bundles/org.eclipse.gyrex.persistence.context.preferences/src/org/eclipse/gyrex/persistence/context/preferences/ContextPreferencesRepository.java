@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2011 AGETO Service GmbH and others.
+ * Copyright (c) 2010, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -11,6 +11,8 @@
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.context.preferences;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 
 import org.eclipse.gyrex.common.identifiers.IdHelper;
@@ -27,6 +29,22 @@ import org.osgi.service.prefs.BackingStoreException;
  * The repository may be used for small objects. It does not offer any
  * transaction or other rich persistence capabilities.
  * </p>
+ * <p>
+ * Larger data is split into chunks which are stored separately from the keys
+ * (see {@link IContextPreferencesRepositoryConstants#PREF_KEY_INLINE_THRESHOLD}
+ * ). Listing keys or reading small data does not load such chunks. Large data
+ * should be read and written using {@link #openStream(String)} and
+ * {@link #store(String, InputStream)}.
+ * </p>
+ * <p>
+ * Every modification is flushed to the preferences store individually. Many
+ * modifications should be done using a {@link #createBatch() batch}.
+ * Alternatively, the repository can be configured to coalesce modifications
+ * within a short delay into a single flush (see
+ * {@link IContextPreferencesRepositoryConstants#PREF_KEY_WRITE_BEHIND_DELAY}
+ * ). In this mode modifications are immediately visible on the local node but
+ * may be lost if the node fails before they are flushed.
+ * </p>
  * 
  * @noextend This class is not intended to be subclassed by clients.
  */
@@ -47,6 +65,27 @@ public abstract class ContextPreferencesRepository extends Repository implements
 		super(repositoryId, repositoryType, metrics);
 	}
 
+	/**
+	 * Creates a new batch for modifying the repository.
+	 *
+	 * @return a new batch
+	 * @since 1.3
+	 */
+	public abstract IContextPreferencesRepositoryBatch createBatch();
+
+	/**
+	 * Flushes all pending modifications to the preferences store.
+	 * <p>
+	 * This is only necessary if write-behind is enabled for the repository in
+	 * order to ensure modifications have been written.
+	 * </p>
+	 *
+	 * @throws BackingStoreException
+	 *             if an exception occurred saving the preferences store
+	 * @since 1.3
+	 */
+	public abstract void flush() throws BackingStoreException;
+
 	/**
 	 * Returns the stored data for the specified {@code key}.
 	 * 
@@ -70,6 +109,26 @@ public abstract class ContextPreferencesRepository extends Repository implements
 	 */
 	public abstract Collection<String> getKeys() throws BackingStoreException;
 
+	/**
+	 * Opens a stream for reading the stored data for the specified
+	 * {@code key}.
+	 * <p>
+	 * Chunks of large data are loaded lazily while reading the stream. If the
+	 * data is modified concurrently reading the stream may fail with an
+	 * {@link IOException}.
+	 * </p>
+	 *
+	 * @param key
+	 *            the lookup key of the data (must validate using
+	 *            {@link IdHelper#isValidId(String)})
+	 * @return a stream for reading the stored data (maybe <code>null</code> if
+	 *         no data is stored for the specified {@code key})
+	 * @throws IllegalArgumentException
+	 *             if any of the arguments is invalid
+	 * @since 1.3
+	 */
+	public abstract InputStream openStream(String key) throws IllegalArgumentException;
+
 	/**
 	 * Removes any stored data for the specified {@code key}.
 	 * 
@@ -100,4 +159,29 @@ public abstract class ContextPreferencesRepository extends Repository implements
 	 *             if an exception occurred saving the preferences store
 	 */
 	public abstract void store(String key, byte[] data) throws IllegalArgumentException, BackingStoreException;
+
+	/**
+	 * Stores the data read from the specified stream using the specified
+	 * {@code key}.
+	 * <p>
+	 * If the key already exists its data will be overwritten. The stream is
+	 * read until its end but not closed. Large data is stored in chunks
+	 * without reading the full stream into memory.
+	 * </p>
+	 *
+	 * @param key
+	 *            the lookup key of the data (must validate using
+	 *            {@link IdHelper#isValidId(String)})
+	 * @param data
+	 *            the stream to read the data from (may not be
+	 *            <code>null</code>)
+	 * @throws IllegalArgumentException
+	 *             if any of the arguments is invalid
+	 * @throws IOException
+	 *             if an exception occurred reading the stream
+	 * @throws BackingStoreException
+	 *             if an exception occurred saving the preferences store
+	 * @since 1.3
+	 */
+	public abstract void store(String key, InputStream data) throws IllegalArgumentException, IOException, BackingStoreException;
 }
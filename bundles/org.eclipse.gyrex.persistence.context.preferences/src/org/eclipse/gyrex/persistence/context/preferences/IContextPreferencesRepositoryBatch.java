@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.context.preferences;
+
+import org.eclipse.gyrex.common.identifiers.IdHelper;
+
+import org.osgi.service.prefs.BackingStoreException;
+
+/**
+ * A batch of modifications to a {@link ContextPreferencesRepository}.
+ * <p>
+ * Modifications are collected in the batch and applied to the repository
+ * when the batch is {@link #commit() committed}. All modifications of a batch
+ * are written to the preferences store at once. Modifications are not visible
+ * before the batch is committed. A batch which is not committed is simply
+ * discarded.
+ * </p>
+ * <p>
+ * A batch is not thread safe and can only be committed once.
+ * </p>
+ *
+ * @noimplement This interface is not intended to be implemented by clients.
+ * @since 1.3
+ */
+public interface IContextPreferencesRepositoryBatch {
+
+	/**
+	 * Applies all modifications of the batch to the repository and flushes
+	 * them to the preferences store.
+	 *
+	 * @throws IllegalStateException
+	 *             if the batch has been committed already
+	 * @throws BackingStoreException
+	 *             if an exception occurred saving the preferences store
+	 */
+	void commit() throws IllegalStateException, BackingStoreException;
+
+	/**
+	 * Removes any stored data for the specified {@code key} when the batch is
+	 * committed.
+	 *
+	 * @param key
+	 *            the lookup key of the data (must validate using
+	 *            {@link IdHelper#isValidId(String)})
+	 * @throws IllegalArgumentException
+	 *             if any of the arguments is invalid
+	 * @throws IllegalStateException
+	 *             if the batch has been committed already
+	 */
+	void remove(String key) throws IllegalArgumentException, IllegalStateException;
+
+	/**
+	 * Stores the specified {@code data} using the specified {@code key} when
+	 * the batch is committed.
+	 *
+	 * @param key
+	 *            the lookup key of the data (must validate using
+	 *            {@link IdHelper#isValidId(String)})
+	 * @param data
+	 *            the data to store (may not be <code>null</code>)
+	 * @throws IllegalArgumentException
+	 *             if any of the arguments is invalid
+	 * @throws IllegalStateException
+	 *             if the batch has been committed already
+	 */
+	void store(String key, byte[] data) throws IllegalArgumentException, IllegalStateException;
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010 AGETO Service GmbH and others.
+ * Copyright (c) 2010, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -27,4 +27,44 @@ public interface IContextPreferencesRepositoryConstants {
 	 * <code>contextPath</code>)
 	 */
 	String PREF_KEY_CONTEXT_PATH = "contextPath";
-}
\ No newline at end of file
+
+	/**
+	 * repository preference key of the write-behind delay setting in
+	 * milliseconds (value <code>writeBehindDelay</code>)
+	 * <p>
+	 * If greater than zero, {@link ContextPreferencesRepository#store(String, byte[])
+	 * stored} and {@link ContextPreferencesRepository#remove(String) removed}
+	 * data is not flushed immediately. Instead, all modifications within the
+	 * delay are coalesced into a single flush. Defaults to <code>0</code>
+	 * (flush every modification).
+	 * </p>
+	 *
+	 * @since 1.3
+	 */
+	String PREF_KEY_WRITE_BEHIND_DELAY = "writeBehindDelay";
+
+	/**
+	 * repository preference key of the max. number of pending write-behind
+	 * modifications (value <code>writeBehindMaxPending</code>)
+	 * <p>
+	 * When reached, the modification which reached the limit flushes all
+	 * pending modifications before returning. Defaults to <code>1000</code>.
+	 * </p>
+	 *
+	 * @since 1.3
+	 */
+	String PREF_KEY_WRITE_BEHIND_MAX_PENDING = "writeBehindMaxPending";
+
+	/**
+	 * repository preference key of the inline threshold in bytes (value
+	 * <code>inlineThreshold</code>)
+	 * <p>
+	 * Data up to this size is stored directly with its key. Larger data is
+	 * split into chunks which are stored separately and only loaded when the
+	 * data is read. Defaults to <code>4096</code>.
+	 * </p>
+	 *
+	 * @since 1.3
+	 */
+	String PREF_KEY_INLINE_THRESHOLD = "inlineThreshold";
+}
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.context.preferences.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.gyrex.context.IRuntimeContext;
+import org.eclipse.gyrex.context.preferences.IRuntimeContextPreferences;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Stores values in context preferences, splitting large values into chunks.
+ * <p>
+ * Values up to the inline threshold are stored directly in the repository
+ * preference node (as before). Larger values are split into chunks and only
+ * a small index entry is stored in the repository node. The index entry
+ * lists the value size and the SHA-1 hashes of its chunks. Every chunk is
+ * stored in its own child node (<code>chunks/&lt;key&gt;/&lt;n&gt;</code>) with
+ * the hash as the property name. Thus, chunks are only loaded when the value
+ * is read, reading the repository node does not load large values, and
+ * unchanged chunks are not rewritten when a value is updated.
+ * </p>
+ * <p>
+ * Chunks are written before the index entry and obsolete chunks are removed
+ * afterwards. A reader using an outdated index entry either reads the old
+ * value or does not find a chunk (in which case the value is treated as
+ * missing).
+ * </p>
+ */
+final class ChunkedValues {
+
+	/**
+	 * Lazily loads the chunks of a value.
+	 */
+	private final class ChunkInputStream extends InputStream {
+
+		private final String key;
+		private final String[] hashes;
+		private int nextChunk;
+		private byte[] chunk;
+		private int position;
+
+		ChunkInputStream(final String key, final String[] hashes) {
+			this.key = key;
+			this.hashes = hashes;
+		}
+
+		private boolean ensureChunk() throws IOException {
+			if ((null != chunk) && (position < chunk.length))
+				return true;
+			if (nextChunk >= hashes.length)
+				return false;
+			chunk = getChunk(key, nextChunk, hashes[nextChunk]);
+			if (null == chunk)
+				throw new IOException("chunk " + nextChunk + " of " + key + " not found (value modified concurrently?)");
+			nextChunk++;
+			position = 0;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!ensureChunk())
+				return -1;
+			return chunk[position++] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!ensureChunk())
+				return -1;
+			final int n = Math.min(len, chunk.length - position);
+			System.arraycopy(chunk, position, b, off, n);
+			position += n;
+			return n;
+		}
+	}
+
+	/** the max. chunk size (well below the 1MB ZooKeeper limit after Base64 encoding) */
+	static final int CHUNK_SIZE = 256 * 1024;
+
+	private static final String INDEX_PREFIX = "chunked:";
+	private static final String CHUNKS = "chunks";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static String[] getHashes(final String index) {
+		final int separator = index.indexOf(':', INDEX_PREFIX.length());
+		return StringUtils.split(index.substring(separator + 1), ',');
+	}
+
+	private static String sha1(final byte[] data, final int length) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Gyrex requires a platform which supports SHA-1.", e);
+		}
+		digest.update(data, 0, length);
+		final byte[] hash = digest.digest();
+		final char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+			hex[(i * 2) + 1] = HEX[hash[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	private final IRuntimeContext context;
+	private final String qualifier;
+	private volatile int inlineThreshold;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param context
+	 *            the context
+	 * @param qualifier
+	 *            the qualifier of the repository node
+	 * @param inlineThreshold
+	 *            the max. size of values stored directly in the repository
+	 *            node
+	 */
+	ChunkedValues(final IRuntimeContext context, final String qualifier, final int inlineThreshold) {
+		this.context = context;
+		this.qualifier = qualifier;
+		setInlineThreshold(inlineThreshold);
+	}
+
+	/**
+	 * Returns a value.
+	 *
+	 * @return the value (or <code>null</code> if not found)
+	 */
+	byte[] get(final String key) {
+		final IRuntimeContextPreferences preferences = context.getPreferences();
+		final String index = preferences.get(qualifier, key, null);
+		if (null == index)
+			return null;
+		if (!isChunked(index))
+			return preferences.getByteArray(qualifier, key, null);
+
+		final int length = getLength(index);
+		final String[] hashes = getHashes(index);
+		final byte[] value = new byte[length];
+		int position = 0;
+		for (int i = 0; i < hashes.length; i++) {
+			final byte[] chunk = getChunk(key, i, hashes[i]);
+			if ((null == chunk) || ((position + chunk.length) > length))
+				return null; // modified concurrently
+			System.arraycopy(chunk, 0, value, position, chunk.length);
+			position += chunk.length;
+		}
+		return position == length ? value : null;
+	}
+
+	byte[] getChunk(final String key, final int n, final String hash) {
+		return context.getPreferences().getByteArray(qualifier, getChunkKey(key, n, hash), null);
+	}
+
+	private String getChunkKey(final String key, final int n, final String hash) {
+		return CHUNKS + '/' + key + '/' + n + '/' + hash;
+	}
+
+	private int getLength(final String index) {
+		final int separator = index.indexOf(':', INDEX_PREFIX.length());
+		return Integer.parseInt(index.substring(INDEX_PREFIX.length(), separator));
+	}
+
+	private boolean isChunked(final String index) {
+		return index.startsWith(INDEX_PREFIX);
+	}
+
+	/**
+	 * Opens a stream for reading a value.
+	 * <p>
+	 * Chunks are loaded when the stream is read.
+	 * </p>
+	 *
+	 * @return the stream (or <code>null</code> if not found)
+	 */
+	InputStream openStream(final String key) {
+		final IRuntimeContextPreferences preferences = context.getPreferences();
+		final String index = preferences.get(qualifier, key, null);
+		if (null == index)
+			return null;
+		if (!isChunked(index)) {
+			final byte[] value = preferences.getByteArray(qualifier, key, null);
+			return null != value ? new ByteArrayInputStream(value) : null;
+		}
+		return new ChunkInputStream(key, getHashes(index));
+	}
+
+	/**
+	 * Stores a value.
+	 */
+	void put(final String key, final byte[] value) {
+		try {
+			put(key, new ByteArrayInputStream(value));
+		} catch (final IOException e) {
+			// not thrown by ByteArrayInputStream
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Stores a value read from a stream.
+	 * <p>
+	 * At most one chunk is kept in memory.
+	 * </p>
+	 */
+	synchronized void put(final String key, final InputStream in) throws IOException {
+		final IRuntimeContextPreferences preferences = context.getPreferences();
+		final String oldIndex = preferences.get(qualifier, key, null);
+		final String[] oldHashes = (null != oldIndex) && isChunked(oldIndex) ? getHashes(oldIndex) : new String[0];
+
+		// read the first chunk; small values are stored inline
+		final int threshold = inlineThreshold;
+		byte[] buffer = new byte[Math.max(threshold + 1, Math.min(CHUNK_SIZE, 8192))];
+		int filled = readFully(in, buffer, 0, threshold + 1);
+		if (filled <= threshold) {
+			preferences.putByteArray(qualifier, key, Arrays.copyOf(buffer, filled), false);
+			removeChunks(key, oldHashes, 0);
+			return;
+		}
+
+		// write chunks
+		if (buffer.length < CHUNK_SIZE) {
+			buffer = Arrays.copyOf(buffer, CHUNK_SIZE);
+		}
+		final List<String> hashes = new ArrayList<String>();
+		long length = 0;
+		while (true) {
+			filled = readFully(in, buffer, filled, CHUNK_SIZE - filled);
+			if (filled == 0) {
+				break;
+			}
+			final int n = hashes.size();
+			final String hash = sha1(buffer, filled);
+			if ((n >= oldHashes.length) || !oldHashes[n].equals(hash)) {
+				preferences.putByteArray(qualifier, getChunkKey(key, n, hash), Arrays.copyOf(buffer, filled), false);
+			}
+			hashes.add(hash);
+			length += filled;
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("value too large: " + key);
+			if (filled < CHUNK_SIZE) {
+				break;
+			}
+			filled = 0;
+		}
+
+		// write index and remove obsolete chunks
+		preferences.put(qualifier, key, INDEX_PREFIX + length + ':' + StringUtils.join(hashes, ','), false);
+		for (int i = 0; i < Math.min(oldHashes.length, hashes.size()); i++) {
+			if (!oldHashes[i].equals(hashes.get(i))) {
+				preferences.remove(qualifier, getChunkKey(key, i, oldHashes[i]));
+			}
+		}
+		removeChunks(key, oldHashes, hashes.size());
+	}
+
+	private int readFully(final InputStream in, final byte[] buffer, final int offset, final int length) throws IOException {
+		int filled = offset;
+		final int end = offset + length;
+		while (filled < end) {
+			final int read = in.read(buffer, filled, end - filled);
+			if (read < 0) {
+				break;
+			}
+			filled += read;
+		}
+		return filled;
+	}
+
+	/**
+	 * Removes a value.
+	 */
+	synchronized void remove(final String key) {
+		final IRuntimeContextPreferences preferences = context.getPreferences();
+		final String oldIndex = preferences.get(qualifier, key, null);
+		preferences.remove(qualifier, key);
+		if ((null != oldIndex) && isChunked(oldIndex)) {
+			removeChunks(key, getHashes(oldIndex), 0);
+		}
+	}
+
+	private void removeChunks(final String key, final String[] hashes, final int start) {
+		final IRuntimeContextPreferences preferences = context.getPreferences();
+		for (int i = start; i < hashes.length; i++) {
+			preferences.remove(qualifier, getChunkKey(key, i, hashes[i]));
+		}
+	}
+
+	/**
+	 * Sets the inline threshold.
+	 *
+	 * @param inlineThreshold
+	 *            the max. size of values stored directly in the repository
+	 *            node
+	 */
+	void setInlineThreshold(final int inlineThreshold) {
+		this.inlineThreshold = Math.max(0, Math.min(CHUNK_SIZE, inlineThreshold));
+	}
+}
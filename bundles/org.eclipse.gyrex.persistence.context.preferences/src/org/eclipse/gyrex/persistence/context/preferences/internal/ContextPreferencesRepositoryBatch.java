@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.context.preferences.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.gyrex.persistence.context.preferences.IContextPreferencesRepositoryBatch;
+
+import org.osgi.service.prefs.BackingStoreException;
+
+/**
+ * {@link IContextPreferencesRepositoryBatch} implementation.
+ */
+final class ContextPreferencesRepositoryBatch implements IContextPreferencesRepositoryBatch {
+
+	private final ContextPreferencesRepositoryImpl repository;
+
+	/** modifications in order (<code>null</code> values for removals) */
+	private final Map<String, byte[]> modifications = new LinkedHashMap<String, byte[]>();
+
+	private boolean committed;
+
+	ContextPreferencesRepositoryBatch(final ContextPreferencesRepositoryImpl repository) {
+		this.repository = repository;
+	}
+
+	private void checkCommitted() {
+		if (committed)
+			throw new IllegalStateException("batch already committed");
+	}
+
+	@Override
+	public void commit() throws IllegalStateException, BackingStoreException {
+		checkCommitted();
+		committed = true;
+		if (!modifications.isEmpty()) {
+			repository.apply(modifications);
+		}
+	}
+
+	@Override
+	public void remove(final String key) throws IllegalArgumentException, IllegalStateException {
+		checkCommitted();
+		modifications.put(repository.verifyKey(key), null);
+	}
+
+	@Override
+	public void store(final String key, final byte[] data) throws IllegalArgumentException, IllegalStateException {
+		checkCommitted();
+		repository.verifyData(key, data);
+		modifications.put(repository.verifyKey(key), data);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2011 AGETO Service GmbH and others.
+ * Copyright (c) 2010, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -11,32 +11,102 @@
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.context.preferences.internal;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.gyrex.common.identifiers.IdHelper;
 import org.eclipse.gyrex.context.IRuntimeContext;
-import org.eclipse.gyrex.context.preferences.IRuntimeContextPreferences;
 import org.eclipse.gyrex.persistence.context.preferences.ContextPreferencesRepository;
+import org.eclipse.gyrex.persistence.context.preferences.IContextPreferencesRepositoryBatch;
 
 import org.eclipse.osgi.util.NLS;
 
 import org.osgi.service.prefs.BackingStoreException;
 
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * {@link ContextPreferencesRepository} implementation.
+ * <p>
+ * If write-behind is enabled, modifications are applied to the (in-memory)
+ * preferences node immediately, which makes them visible to readers on the
+ * local node. Flushing is delayed and done in the background. A flush is
+ * forced on the calling thread when too many modifications are pending, which
+ * bounds the amount of modifications that may be lost.
+ * </p>
+ * <p>
+ * Values larger than the inline threshold are stored in chunks (see
+ * {@link ChunkedValues}).
+ * </p>
  */
 public class ContextPreferencesRepositoryImpl extends ContextPreferencesRepository {
 
+	private static final Logger LOG = LoggerFactory.getLogger(ContextPreferencesRepositoryImpl.class);
+
 	private static final String QUALIFIER_PREFIX = ".repository__";
 
+	/** shared executor for write-behind flushes (created on demand) */
+	private static ScheduledThreadPoolExecutor flushExecutor;
+
+	private static synchronized ScheduledThreadPoolExecutor getFlushExecutor() {
+		if (null == flushExecutor) {
+			flushExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "Gyrex Context Preferences Repository Flush");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			flushExecutor.setKeepAliveTime(1, TimeUnit.MINUTES);
+			flushExecutor.allowCoreThreadTimeOut(true);
+		}
+		return flushExecutor;
+	}
+
 	private final IRuntimeContext context;
 	private final String qualifier;
+	private final ChunkedValues values;
+	private final AtomicInteger pendingWrites = new AtomicInteger();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			if (pendingWrites.get() == 0)
+				return;
+			try {
+				flush();
+			} catch (final Exception e) {
+				LOG.warn("Error flushing pending modifications of repository {}. Will retry. {}", getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+				pendingWrites.incrementAndGet();
+				if (!isClosed()) {
+					scheduleFlush();
+				}
+			}
+		}
+	};
+
+	private volatile long writeBehindDelay;
+	private volatile int writeBehindMaxPending = 1000;
 
 	/**
 	 * Creates a new instance.
-	 * 
+	 *
 	 * @param repositoryId
 	 * @param repositoryType
 	 * @param context
@@ -47,11 +117,68 @@ public class ContextPreferencesRepositoryImpl extends ContextPreferencesReposito
 		super(repositoryId, repositoryType, new ContextPreferencesRepositoryMetrics(createMetricsId(repositoryType, repositoryId), repositoryId));
 		this.context = context;
 		qualifier = QUALIFIER_PREFIX.concat(repositoryId);
+		values = new ChunkedValues(context, qualifier, ContextPreferencesRepositoryType.DEFAULT_INLINE_THRESHOLD);
+	}
+
+	/**
+	 * Flushes after a modification (or schedules the flush if write-behind
+	 * is enabled).
+	 */
+	private void afterWrite() throws BackingStoreException {
+		if (writeBehindDelay <= 0) {
+			context.getPreferences().flush(qualifier);
+			return;
+		}
+		if (pendingWrites.incrementAndGet() >= writeBehindMaxPending) {
+			flush();
+		} else {
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * Applies the modifications of a batch and flushes them.
+	 *
+	 * @param modifications
+	 *            the modifications (<code>null</code> values for removals)
+	 */
+	void apply(final Map<String, byte[]> modifications) throws BackingStoreException {
+		for (final Entry<String, byte[]> modification : modifications.entrySet()) {
+			if (null != modification.getValue()) {
+				values.put(modification.getKey(), modification.getValue());
+			} else {
+				values.remove(modification.getKey());
+			}
+		}
+		flush();
+	}
+
+	@Override
+	public IContextPreferencesRepositoryBatch createBatch() {
+		return new ContextPreferencesRepositoryBatch(this);
+	}
+
+	@Override
+	protected void doClose() {
+		if (pendingWrites.get() == 0)
+			return;
+		try {
+			flush();
+		} catch (final Exception e) {
+			LOG.error("Error flushing pending modifications of repository {}. Modifications may be lost. {}", getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	@Override
+	public void flush() throws BackingStoreException {
+		// reset first; modifications happening during the flush schedule a new one
+		pendingWrites.set(0);
+		context.getPreferences().flush(qualifier);
 	}
 
 	@Override
 	public byte[] get(final String key) throws IllegalArgumentException {
-		return context.getPreferences().getByteArray(qualifier, verifyKey(key), null);
+		return values.get(verifyKey(key));
 	}
 
 	@Override
@@ -59,24 +186,78 @@ public class ContextPreferencesRepositoryImpl extends ContextPreferencesReposito
 		return Collections.unmodifiableCollection(Arrays.asList(context.getPreferences().getKeys(qualifier)));
 	}
 
+	@Override
+	public InputStream openStream(final String key) throws IllegalArgumentException {
+		return values.openStream(verifyKey(key));
+	}
+
 	@Override
 	public void remove(final String key) throws IllegalArgumentException, BackingStoreException {
-		final IRuntimeContextPreferences preferences = context.getPreferences();
-		preferences.remove(qualifier, verifyKey(key));
-		preferences.flush(qualifier);
+		values.remove(verifyKey(key));
+		afterWrite();
+	}
+
+	private void scheduleFlush() {
+		if (!flushScheduled.compareAndSet(false, true))
+			return;
+		try {
+			getFlushExecutor().schedule(flushTask, writeBehindDelay, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			flushScheduled.set(false);
+			LOG.warn("Unable to schedule flush of repository {}. {}", getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	/**
+	 * Sets the max. size of values stored directly with their key. Larger
+	 * values are stored in chunks.
+	 *
+	 * @param inlineThreshold
+	 *            the inline threshold (in bytes)
+	 */
+	public void setInlineThreshold(final int inlineThreshold) {
+		values.setInlineThreshold(inlineThreshold);
+	}
+
+	/**
+	 * Enables or disables write-behind.
+	 *
+	 * @param delay
+	 *            the max. time (in milliseconds) to delay flushing
+	 *            modifications (<code>0</code> to flush every modification
+	 *            immediately)
+	 * @param maxPending
+	 *            the max. number of modifications pending until a flush is
+	 *            forced
+	 */
+	public void setWriteBehind(final long delay, final int maxPending) {
+		writeBehindMaxPending = Math.max(1, maxPending);
+		writeBehindDelay = Math.max(0, delay);
 	}
 
 	@Override
 	public void store(final String key, final byte[] data) throws IllegalArgumentException, BackingStoreException {
+		verifyData(key, data);
+		values.put(verifyKey(key), data);
+		afterWrite();
+	}
+
+	@Override
+	public void store(final String key, final InputStream data) throws IllegalArgumentException, IOException, BackingStoreException {
+		if (data == null) {
+			throw new IllegalArgumentException(NLS.bind("data must not be null (key {0}, repository {1})", key, getRepositoryId()));
+		}
+		values.put(verifyKey(key), data);
+		afterWrite();
+	}
+
+	void verifyData(final String key, final byte[] data) {
 		if (data == null) {
 			throw new IllegalArgumentException(NLS.bind("data must not be null (key {0}, repository {1})", key, getRepositoryId()));
 		}
-		final IRuntimeContextPreferences preferences = context.getPreferences();
-		preferences.putByteArray(qualifier, verifyKey(key), data, false);
-		preferences.flush(qualifier);
 	}
 
-	private String verifyKey(final String key) {
+	String verifyKey(final String key) {
 		if (!IdHelper.isValidId(key)) {
 			throw new IllegalArgumentException(NLS.bind("invalid key: {0} (repository {1})", key, getRepositoryId()));
 		}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2011 AGETO Service GmbH and others.
+ * Copyright (c) 2010, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -28,6 +28,10 @@ import org.eclipse.osgi.util.NLS;
  */
 public class ContextPreferencesRepositoryType extends RepositoryProvider implements IContextPreferencesRepositoryConstants {
 
+	static final int DEFAULT_WRITE_BEHIND_DELAY = 0;
+	static final int DEFAULT_WRITE_BEHIND_MAX_PENDING = 1000;
+	static final int DEFAULT_INLINE_THRESHOLD = 4096;
+
 	private IRuntimeContextRegistry contextRegistry;
 
 	/**
@@ -52,7 +56,10 @@ public class ContextPreferencesRepositoryType extends RepositoryProvider impleme
 			throw new IllegalStateException(NLS.bind("No context accessible with context path {0} configured for repository {1}.", path.toString(), repositoryId));
 		}
 
-		return new ContextPreferencesRepositoryImpl(repositoryId, this, context);
+		final ContextPreferencesRepositoryImpl repository = new ContextPreferencesRepositoryImpl(repositoryId, this, context);
+		repository.setWriteBehind(repositoryPreferences.getInt(PREF_KEY_WRITE_BEHIND_DELAY, DEFAULT_WRITE_BEHIND_DELAY), repositoryPreferences.getInt(PREF_KEY_WRITE_BEHIND_MAX_PENDING, DEFAULT_WRITE_BEHIND_MAX_PENDING));
+		repository.setInlineThreshold(repositoryPreferences.getInt(PREF_KEY_INLINE_THRESHOLD, DEFAULT_INLINE_THRESHOLD));
+		return repository;
 	}
 
 	/**
@@ -0,0 +1,320 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.derby.tests;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.PooledConnection;
+
+import org.eclipse.gyrex.persistence.jdbc.internal.SimpledPooledJdbcRepositoryImpl;
+
+import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for the connection pool of {@link SimpledPooledJdbcRepositoryImpl}
+ * using an in-memory Derby database.
+ */
+public class SimpledPooledJdbcRepositoryTest {
+
+	/**
+	 * A data source which fails creating connections while
+	 * {@link #failure} is set.
+	 */
+	static class FailingDataSource implements ConnectionPoolDataSource {
+
+		final EmbeddedConnectionPoolDataSource delegate;
+		final AtomicInteger attempts = new AtomicInteger();
+		volatile SQLException failure;
+
+		FailingDataSource(final EmbeddedConnectionPoolDataSource delegate, final SQLException failure) {
+			this.delegate = delegate;
+			this.failure = failure;
+		}
+
+		@Override
+		public PrintWriter getLogWriter() throws SQLException {
+			return delegate.getLogWriter();
+		}
+
+		@Override
+		public int getLoginTimeout() throws SQLException {
+			return delegate.getLoginTimeout();
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+
+		@Override
+		public PooledConnection getPooledConnection() throws SQLException {
+			attempts.incrementAndGet();
+			final SQLException e = failure;
+			if (null != e)
+				throw e;
+			return delegate.getPooledConnection();
+		}
+
+		@Override
+		public PooledConnection getPooledConnection(final String user, final String password) throws SQLException {
+			attempts.incrementAndGet();
+			final SQLException e = failure;
+			if (null != e)
+				throw e;
+			return delegate.getPooledConnection(user, password);
+		}
+
+		@Override
+		public void setLoginTimeout(final int seconds) throws SQLException {
+			delegate.setLoginTimeout(seconds);
+		}
+
+		@Override
+		public void setLogWriter(final PrintWriter out) throws SQLException {
+			delegate.setLogWriter(out);
+		}
+	}
+
+	private static final int STRESS_THREADS = 64;
+	private static final int STRESS_ITERATIONS = 500;
+	private static final int STRESS_POOL_CAPACITY = 8;
+
+	private static final AtomicInteger databaseCounter = new AtomicInteger();
+
+	private static void closeQuietly(final Connection connection) {
+		try {
+			connection.close();
+		} catch (final SQLException e) {
+			fail("error while closing connection: " + e.getMessage());
+		}
+	}
+
+	private static EmbeddedConnectionPoolDataSource createDataSource() {
+		final EmbeddedConnectionPoolDataSource dataSource = new EmbeddedConnectionPoolDataSource();
+		dataSource.setDatabaseName("memory:poolTest" + databaseCounter.incrementAndGet());
+		dataSource.setCreateDatabase("create");
+		return dataSource;
+	}
+
+	private static int selectOne(final Connection connection) throws SQLException {
+		try (final Statement statement = connection.createStatement(); final ResultSet resultSet = statement.executeQuery("VALUES 1")) {
+			assertTrue("no result", resultSet.next());
+			return resultSet.getInt(1);
+		}
+	}
+
+	private final List<SimpledPooledJdbcRepositoryImpl> repositories = new ArrayList<SimpledPooledJdbcRepositoryImpl>();
+
+	private SimpledPooledJdbcRepositoryImpl createRepository(final ConnectionPoolDataSource dataSource, final int poolCapacity) {
+		final SimpledPooledJdbcRepositoryImpl repository = new SimpledPooledJdbcRepositoryImpl("poolTest" + databaseCounter.get(), new MockRepositoryType(), dataSource, poolCapacity);
+		repositories.add(repository);
+		return repository;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (final SimpledPooledJdbcRepositoryImpl repository : repositories) {
+			repository.close();
+		}
+		repositories.clear();
+	}
+
+	@Test
+	public void testBorrowAndRelease() throws Exception {
+		final SimpledPooledJdbcRepositoryImpl repository = createRepository(createDataSource(), 2);
+
+		final Connection connection = repository.getConnection();
+		assertEquals(1, selectOne(connection));
+		assertEquals(1, repository.getActiveConnectionsCount());
+		closeQuietly(connection);
+		assertEquals(0, repository.getActiveConnectionsCount());
+
+		// the released connection must be reused
+		final Connection again = repository.getConnection();
+		assertEquals(1, selectOne(again));
+		assertEquals(1, repository.getActiveConnectionsCount());
+		closeQuietly(again);
+		assertEquals(1, repository.getJdbcRepositoryMetrics().getPoolMetric().getResourcesStatsCreated());
+	}
+
+	@Test
+	public void testCreateFailureFailsFast() throws Exception {
+		final SQLException failure = new SQLException("Connection authentication failure", "08004");
+		final FailingDataSource dataSource = new FailingDataSource(createDataSource(), failure);
+		final SimpledPooledJdbcRepositoryImpl repository = createRepository(dataSource, 2);
+
+		final long start = System.nanoTime();
+		try {
+			repository.getConnection(10, TimeUnit.SECONDS);
+			fail("connection must not be available");
+		} catch (final SQLTransientConnectionException e) {
+			assertSame("the creation failure must be the cause", failure, e.getCause());
+		}
+		final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("must not wait for the full timeout: " + duration + "ms", duration < 5000);
+		assertEquals(0, repository.getActiveConnectionsCount());
+	}
+
+	@Test
+	public void testRecoveryAfterCreateFailure() throws Exception {
+		final FailingDataSource dataSource = new FailingDataSource(createDataSource(), new SQLException("Database locked", "XJ040"));
+		final SimpledPooledJdbcRepositoryImpl repository = createRepository(dataSource, 2);
+
+		try {
+			repository.getConnection(10, TimeUnit.SECONDS);
+			fail("connection must not be available");
+		} catch (final SQLTransientConnectionException e) {
+			// expected
+		}
+
+		// the pool must retry in the background
+		dataSource.failure = null;
+		final Connection connection = repository.getConnection(10, TimeUnit.SECONDS);
+		assertNotNull("pool did not recover", connection);
+		assertEquals(1, selectOne(connection));
+		closeQuietly(connection);
+		assertTrue("no retry attempts: " + dataSource.attempts.get(), dataSource.attempts.get() > 1);
+	}
+
+	@Test
+	public void testStatementCacheHandles() throws Exception {
+		final SimpledPooledJdbcRepositoryImpl repository = createRepository(createDataSource(), 1);
+		repository.setStatementCacheSize(4);
+
+		final Connection connection = repository.getConnection();
+		connection.setAutoCommit(false);
+		connection.setReadOnly(true);
+		final PreparedStatement statement = connection.prepareStatement("VALUES 1");
+		assertSame("statement must return the connection handle", connection, statement.getConnection());
+		try (final ResultSet resultSet = statement.executeQuery()) {
+			assertSame("result set must return the statement handle", statement, resultSet.getStatement());
+			assertSame("result set must return the same handle", resultSet, statement.getResultSet());
+		}
+		final Statement plain = connection.createStatement();
+		assertSame("statement must return the connection handle", connection, plain.getConnection());
+		closeQuietly(connection);
+		assertTrue("statements must be closed with the connection", statement.isClosed() && plain.isClosed());
+
+		// the next borrower must get a reset connection and the cached statement
+		final Connection again = repository.getConnection();
+		assertTrue("auto-commit not reset", again.getAutoCommit());
+		assertFalse("read-only not reset", again.isReadOnly());
+		try (final PreparedStatement cached = again.prepareStatement("VALUES 1")) {
+			assertFalse("cached statement closed", cached.isClosed());
+		}
+		closeQuietly(again);
+		assertEquals(1, repository.getJdbcRepositoryMetrics().getStatementCacheMetric().getHits());
+	}
+
+	@Test
+	public void testStress() throws Exception {
+		final SimpledPooledJdbcRepositoryImpl repository = createRepository(createDataSource(), STRESS_POOL_CAPACITY);
+		repository.setConnectionTimeout(TimeUnit.SECONDS.toMillis(30));
+
+		final AtomicInteger maxActive = new AtomicInteger();
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(STRESS_THREADS);
+		final List<Future<Integer>> results = new ArrayList<Future<Integer>>(STRESS_THREADS);
+		try {
+			for (int i = 0; i < STRESS_THREADS; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						startSignal.await();
+						int sum = 0;
+						for (int j = 0; j < STRESS_ITERATIONS; j++) {
+							final Connection connection = repository.getConnection();
+							try {
+								final int active = repository.getActiveConnectionsCount();
+								for (int max = maxActive.get(); (active > max) && !maxActive.compareAndSet(max, active); max = maxActive.get()) {
+									// retry
+								}
+								sum += selectOne(connection);
+							} finally {
+								connection.close();
+							}
+						}
+						return sum;
+					}
+				}));
+			}
+
+			startSignal.countDown();
+			for (final Future<Integer> result : results) {
+				assertEquals(Integer.valueOf(STRESS_ITERATIONS), result.get(2, TimeUnit.MINUTES));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals("active connections count is not correct", 0, repository.getActiveConnectionsCount());
+		assertTrue("pool capacity exceeded: " + maxActive.get(), maxActive.get() <= STRESS_POOL_CAPACITY);
+		assertTrue("too many connections created", repository.getJdbcRepositoryMetrics().getPoolMetric().getResourcesStatsCreated() <= STRESS_POOL_CAPACITY);
+	}
+
+	@Test
+	public void testTimeoutWhenExhausted() throws Exception {
+		final SimpledPooledJdbcRepositoryImpl repository = createRepository(createDataSource(), 1);
+
+		final Connection connection = repository.getConnection();
+		assertNull("pool capacity exceeded", repository.getConnection(200, TimeUnit.MILLISECONDS));
+
+		// a waiting thread must get the connection once it's returned
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Connection> waiting = executor.submit(new Callable<Connection>() {
+				@Override
+				public Connection call() throws Exception {
+					return repository.getConnection(10, TimeUnit.SECONDS);
+				}
+			});
+			Thread.sleep(100);
+			closeQuietly(connection);
+			final Connection handedOff = waiting.get(10, TimeUnit.SECONDS);
+			assertNotNull("connection not handed off", handedOff);
+			assertEquals(1, selectOne(handedOff));
+			closeQuietly(handedOff);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(0, repository.getActiveConnectionsCount());
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 Gunnar Wagenknecht and others.
+ * Copyright (c) 2008, 2013 Gunnar Wagenknecht and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -28,6 +28,16 @@ public class DerbyActivator extends BaseBundleActivator {
 	private static final String DERBY_SYSTEM_HOME = "derby.system.home";
 	private static final String DERBY_EMBEDDED_DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
 
+	/** size of the transaction log buffer in bytes (Derby's default is 32KB) */
+	private static final String DERBY_LOG_BUFFER_SIZE = "derby.storage.logBufferSize";
+	private static final String DEFAULT_LOG_BUFFER_SIZE = "131072";
+
+	private static void setDefault(final String key, final String value) {
+		if (null == System.getProperty(key)) {
+			System.setProperty(key, value);
+		}
+	}
+
 	/**
 	 * Creates a new instance.
 	 */
@@ -49,6 +59,10 @@ public class DerbyActivator extends BaseBundleActivator {
 					}
 					System.setProperty(DERBY_SYSTEM_HOME, systemBase.toOSString());
 				}
+
+				// tune storage defaults (Derby reads them when booting)
+				// (the page cache is configured per database, see DerbyRepositoryType)
+				setDefault(DERBY_LOG_BUFFER_SIZE, DEFAULT_LOG_BUFFER_SIZE);
 				return null;
 			}
 		});
@@ -1,34 +1,117 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Gunnar Wagenknecht and others.
+ * Copyright (c) 2008, 2013 Gunnar Wagenknecht and others.
  * All rights reserved.
- *  
- * This program and the accompanying materials are made available under the 
+ *
+ * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html.
- * 
+ *
  * Contributors:
  *     Gunnar Wagenknecht - initial API and implementation
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.derby.internal;
 
-import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.gyrex.persistence.jdbc.internal.SimpledPooledJdbcRepositoryImpl;
 import org.eclipse.gyrex.persistence.jdbc.storage.JdbcRepository;
 import org.eclipse.gyrex.persistence.storage.Repository;
 import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
 import org.eclipse.gyrex.persistence.storage.settings.IRepositoryPreferences;
 
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Embedded Derby Database.
+ * <p>
+ * The connection pool can be tuned using the repository preferences (see the
+ * <code>PREF_KEY_...</code> constants). The database is booted in the
+ * background when the repository is created.
+ * </p>
+ * <p>
+ * Storage settings are applied per database. Derby only supports the
+ * durability mode system wide. Therefore it's not changed by Gyrex and must be
+ * configured externally (eg. <code>-Dderby.system.durability=test</code>) if
+ * desired.
+ * </p>
  */
 public class DerbyRepositoryType extends RepositoryProvider {
 
 	/** the plug-in id */
 	public static final String TYPE_ID = "org.eclipse.gyrex.persistence.derby.type";
 
+	/** max. number of pooled connections (<code>0</code> for no limit) */
+	public static final String PREF_KEY_POOL_CAPACITY = "poolCapacity";
+
+	/** number of idle connections to keep open */
+	public static final String PREF_KEY_MINIMUM_IDLE = "minimumIdle";
+
+	/** max. time (in seconds) to wait for a connection */
+	public static final String PREF_KEY_CONNECTION_TIMEOUT = "connectionTimeout";
+
+	/** time (in seconds) after which idle connections are closed */
+	public static final String PREF_KEY_IDLE_TIMEOUT = "idleTimeout";
+
+	/** max. lifetime (in seconds) of a connection */
+	public static final String PREF_KEY_MAX_LIFETIME = "maxLifetime";
+
+	/**
+	 * max. number of prepared statements cached per connection (default 32,
+	 * <code>0</code> disables caching)
+	 */
+	public static final String PREF_KEY_STATEMENT_CACHE_SIZE = "statementCacheSize";
+
+	/**
+	 * number of pages cached for the database (applied on next boot; Derby's
+	 * default is 1000)
+	 */
+	public static final String PREF_KEY_PAGE_CACHE_SIZE = "pageCacheSize";
+
+	static final int DEFAULT_POOL_CAPACITY = 16;
+	static final int DEFAULT_MINIMUM_IDLE = 1;
+	static final int DEFAULT_CONNECTION_TIMEOUT = 30;
+	static final int DEFAULT_IDLE_TIMEOUT = 600;
+	static final int DEFAULT_MAX_LIFETIME = 1800;
+	static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+	private static final Logger LOG = LoggerFactory.getLogger(DerbyRepositoryType.class);
+
+	/** max. number of databases booted concurrently */
+	private static final int WARM_UP_THREADS = 2;
+
+	/** shared by all repositories (guarded by DerbyRepositoryType.class) */
+	private static ThreadPoolExecutor warmUpExecutor;
+
+	private static synchronized ThreadPoolExecutor getWarmUpExecutor() {
+		if (null == warmUpExecutor) {
+			warmUpExecutor = new ThreadPoolExecutor(WARM_UP_THREADS, WARM_UP_THREADS, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "Gyrex Derby Warm-Up");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			warmUpExecutor.allowCoreThreadTimeOut(true);
+		}
+		return warmUpExecutor;
+	}
+
 	/**
 	 * Creates a new instance.
-	 * 
+	 *
 	 * @param repositoryTypeId
 	 */
 	public DerbyRepositoryType() {
@@ -42,8 +125,13 @@ public class DerbyRepositoryType extends RepositoryProvider {
 		return embeddedConnectionPoolDataSource;
 	}
 
-	private Repository createJdbcRepository(final String repositoryId, final EmbeddedConnectionPoolDataSource embeddedConnectionPoolDataSource) {
-		return new SimpledPooledJdbcRepositoryImpl(repositoryId, this, embeddedConnectionPoolDataSource, 0);
+	private SimpledPooledJdbcRepositoryImpl createJdbcRepository(final String repositoryId, final EmbeddedConnectionPoolDataSource embeddedConnectionPoolDataSource, final IRepositoryPreferences repositoryPreferences) {
+		final SimpledPooledJdbcRepositoryImpl repository = new SimpledPooledJdbcRepositoryImpl(repositoryId, this, embeddedConnectionPoolDataSource, repositoryPreferences.getInt(PREF_KEY_POOL_CAPACITY, DEFAULT_POOL_CAPACITY));
+		repository.setConnectionTimeout(TimeUnit.SECONDS.toMillis(repositoryPreferences.getInt(PREF_KEY_CONNECTION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT)));
+		repository.setIdleTimeout(TimeUnit.SECONDS.toMillis(repositoryPreferences.getInt(PREF_KEY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT)));
+		repository.setMaxLifetime(TimeUnit.SECONDS.toMillis(repositoryPreferences.getInt(PREF_KEY_MAX_LIFETIME, DEFAULT_MAX_LIFETIME)));
+		repository.setStatementCacheSize(repositoryPreferences.getInt(PREF_KEY_STATEMENT_CACHE_SIZE, DEFAULT_STATEMENT_CACHE_SIZE));
+		return repository;
 	}
 
 	/* (non-Javadoc)
@@ -52,6 +140,48 @@ public class DerbyRepositoryType extends RepositoryProvider {
 	@Override
 	public Repository createRepositoryInstance(final String repositoryId, final IRepositoryPreferences repositoryPreferences) {
 		final EmbeddedConnectionPoolDataSource embeddedConnectionPoolDataSource = createDataSource(repositoryId);
-		return createJdbcRepository(repositoryId, embeddedConnectionPoolDataSource);
+		final SimpledPooledJdbcRepositoryImpl repository = createJdbcRepository(repositoryId, embeddedConnectionPoolDataSource, repositoryPreferences);
+		repository.setMinimumIdle(repositoryPreferences.getInt(PREF_KEY_MINIMUM_IDLE, DEFAULT_MINIMUM_IDLE));
+		warmUp(repository, repositoryPreferences.get(PREF_KEY_PAGE_CACHE_SIZE, null));
+		return repository;
+	}
+
+	/**
+	 * Boots (and creates if necessary) the database in the background so that
+	 * neither the caller nor the first request has to wait for it, and applies
+	 * database properties.
+	 */
+	private void warmUp(final SimpledPooledJdbcRepositoryImpl repository, final String pageCacheSize) {
+		try {
+			getWarmUpExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					warmUpNow(repository, pageCacheSize);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			LOG.warn("Unable to schedule warm-up of repository {}. {}", repository.getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	private void warmUpNow(final SimpledPooledJdbcRepositoryImpl repository, final String pageCacheSize) {
+		// the warm-up may have been queued until after the repository was closed
+		if (repository.isClosed())
+			return;
+		try (final Connection connection = repository.getConnection()) {
+			if (null != pageCacheSize) {
+				try (final CallableStatement statement = connection.prepareCall("CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY('derby.storage.pageCacheSize', ?)")) {
+					statement.setString(1, pageCacheSize);
+					statement.execute();
+				}
+			}
+			try (final Statement statement = connection.createStatement()) {
+				statement.execute("VALUES 1");
+			}
+		} catch (final SQLException | IllegalStateException e) {
+			// don't fail; the repository reports connection errors when used
+			// (or it has been closed already)
+			LOG.warn("Unable to open database for repository {}. {}", repository.getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+		}
 	}
 }
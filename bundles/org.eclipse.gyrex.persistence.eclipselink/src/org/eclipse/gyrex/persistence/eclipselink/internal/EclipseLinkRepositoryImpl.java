@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2011 AGETO Service GmbH and others.
+ * Copyright (c) 2011, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -13,34 +13,85 @@ package org.eclipse.gyrex.persistence.eclipselink.internal;
 
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManagerFactory;
+import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
 
 import org.eclipse.gyrex.common.internal.services.IServiceProxyChangeListener;
 import org.eclipse.gyrex.common.internal.services.ServiceProxy;
 import org.eclipse.gyrex.common.services.IServiceProxy;
+import org.eclipse.gyrex.common.identifiers.IdHelper;
 import org.eclipse.gyrex.common.services.ServiceNotAvailableException;
+import org.eclipse.gyrex.monitoring.metrics.StopWatch;
 import org.eclipse.gyrex.persistence.eclipselink.EclipseLinkRepository;
+import org.eclipse.gyrex.persistence.jdbc.internal.SimpledPooledJdbcRepositoryImpl;
 import org.eclipse.gyrex.persistence.storage.content.RepositoryContentType;
+import org.eclipse.gyrex.persistence.storage.lookup.DefaultRepositoryLookupStrategy;
 import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
 import org.eclipse.gyrex.persistence.storage.settings.IRepositoryPreferences;
 
 import org.eclipse.persistence.config.LoggerType;
 import org.eclipse.persistence.config.PersistenceUnitProperties;
-
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.queries.ReadQuery;
+import org.eclipse.persistence.sessions.server.ServerSession;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.jdbc.DataSourceFactory;
 import org.osgi.service.jpa.EntityManagerFactoryBuilder;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * {@link EclipseLinkRepository} implementation
+ * <p>
+ * EntityManagerFactories are expensive to create (persistence unit metadata
+ * is processed, the unit is deployed and a DataSource is opened). Therefore
+ * they are cached per content type using strong references. Concurrent
+ * callers requesting the same content type wait for a single factory to be
+ * created. Factories are closed when they have not been used for the
+ * configured idle timeout. If the configured max. number of factories is
+ * exceeded, the least recently used factories are closed as well but only if
+ * they have not been used for at least {@link #EMF_MIN_IDLE_BEFORE_EVICTION}.
+ * Factories are handed out without a release callback, so a factory which was
+ * just returned to a caller must not be closed. Thus, the max. number of
+ * factories is exceeded when more factories are in use.
+ * </p>
+ * <p>
+ * Optionally, factories for all content types assigned to the repository are
+ * created in the background when the repository is opened so that the first
+ * request does not have to wait for it.
+ * </p>
+ * <p>
+ * By default, connections are borrowed from a Gyrex managed pool (built on the
+ * driver's {@link ConnectionPoolDataSource}) and EclipseLink logs to SLF4J.
+ * </p>
  */
 @SuppressWarnings("restriction")
 public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
@@ -66,17 +117,16 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 
 		@Override
 		public boolean serviceChanged(final IServiceProxy<?> proxy) {
-			// remove from cache
-			emfCacheByContentType.remove(contentType);
-
-			// just close the EMF
 			final EntityManagerFactory factory = entityManagerFactory.get();
-			if ((null != factory) && factory.isOpen()) {
-				try {
-					factory.close();
-				} catch (final IllegalStateException ignored) {
-					// ignored
+			if (null != factory) {
+				// remove from cache
+				final EMFHolder holder = emfCacheByContentType.get(contentType);
+				if ((null != holder) && (holder.getIfDone() == factory)) {
+					emfCacheByContentType.remove(contentType, holder);
 				}
+
+				// close the EMF
+				closeQuietly(factory);
 			}
 
 			// done
@@ -85,6 +135,114 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 
 	}
 
+	/**
+	 * Cache entry for an EMF.
+	 * <p>
+	 * The EMF is created by the first thread requesting it. Other threads wait
+	 * for the result.
+	 * </p>
+	 */
+	private final class EMFHolder {
+
+		private final FutureTask<EntityManagerFactory> future;
+		private volatile long lastAccess;
+		private boolean evicted; // guarded by this
+
+		EMFHolder(final RepositoryContentType contentType) {
+			future = new FutureTask<EntityManagerFactory>(new Callable<EntityManagerFactory>() {
+				@Override
+				public EntityManagerFactory call() throws Exception {
+					final StopWatch stopWatch = getEclipseLinkRepositoryMetrics().getEntityManagerFactoryBuildMetric().processStarted();
+					final EntityManagerFactory factory = createEntityManagerFactory(contentType);
+					stopWatch.stop();
+					return factory;
+				}
+			});
+			lastAccess = System.nanoTime();
+		}
+
+		/**
+		 * Records an access.
+		 * 
+		 * @return <code>false</code> if the EMF has been evicted and must not
+		 *         be used
+		 */
+		synchronized boolean access() {
+			if (evicted)
+				return false;
+			lastAccess = System.nanoTime();
+			return true;
+		}
+
+		/**
+		 * Marks the EMF evicted if it was not accessed for the specified time.
+		 * 
+		 * @return <code>true</code> if evicted (the caller must close the
+		 *         EMF), <code>false</code> otherwise
+		 */
+		synchronized boolean evictIfIdle(final long minIdleNanos, final long now) {
+			if (evicted || ((now - lastAccess) < minIdleNanos))
+				return false;
+			evicted = true;
+			return true;
+		}
+
+		EntityManagerFactory get() throws ExecutionException {
+			future.run(); // no-op if already running or done
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						return future.get();
+					} catch (final InterruptedException e) {
+						// must not give up; another thread may be waiting for the same factory
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		EntityManagerFactory getIfDone() {
+			if (!future.isDone())
+				return null;
+			try {
+				return future.get();
+			} catch (final Exception e) {
+				return null;
+			}
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(EclipseLinkRepositoryImpl.class);
+
+	/** min. time an EMF must not have been used before it is closed because there are too many EMFs */
+	static final long EMF_MIN_IDLE_BEFORE_EVICTION = TimeUnit.MINUTES.toNanos(1);
+
+	/** shared executor for EMF eviction and pre-initialization (created on demand) */
+	private static ScheduledThreadPoolExecutor emfExecutor;
+
+	/**
+	 * Closes an EMF and the DataSource it was created with.
+	 */
+	static void closeQuietly(final EntityManagerFactory factory) {
+		if (!factory.isOpen())
+			return;
+		Object dataSource = null;
+		try {
+			dataSource = factory.getProperties().get(PersistenceUnitProperties.NON_JTA_DATASOURCE);
+			factory.close();
+		} catch (final IllegalStateException ignored) {
+			// ignored
+		}
+		if (dataSource instanceof DataSource) {
+			closeQuietly((DataSource) dataSource);
+		}
+	}
+
 	/**
 	 * Attempts to close a DataSource by searching for a "close" method.
 	 */
@@ -98,7 +256,26 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 	}
 
 	private final IRepositoryPreferences repositoryPreferences;
-	private final ConcurrentMap<RepositoryContentType, WeakReference<EntityManagerFactory>> emfCacheByContentType = new ConcurrentHashMap<RepositoryContentType, WeakReference<EntityManagerFactory>>();
+	private static synchronized ScheduledThreadPoolExecutor getEmfExecutor() {
+		if (null == emfExecutor) {
+			emfExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "Gyrex EclipseLink Repository EntityManagerFactory Manager");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			emfExecutor.setKeepAliveTime(1, TimeUnit.MINUTES);
+			emfExecutor.allowCoreThreadTimeOut(true);
+		}
+		return emfExecutor;
+	}
+
+	private final ConcurrentMap<RepositoryContentType, EMFHolder> emfCacheByContentType = new ConcurrentHashMap<RepositoryContentType, EMFHolder>();
+	private volatile long emfIdleTimeout = TimeUnit.SECONDS.toNanos(EclipseLinkRepositoryProvider.DEFAULT_EMF_IDLE_TIMEOUT);
+	private volatile int emfMaxCount = EclipseLinkRepositoryProvider.DEFAULT_EMF_MAX_COUNT;
+	private ScheduledFuture<?> evictionTask;
 
 	/**
 	 * Creates a new instance.
@@ -112,7 +289,64 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 		this.repositoryPreferences = repositoryPreferences;
 	}
 
-	private DataSource createDataSource(final DataSourceFactory dataSourceFactory) throws Exception {
+	private void configureEclipseLink(final Map<String, Object> props) {
+		final String batchWriting = repositoryPreferences.get(EclipseLinkRepositoryProvider.PREF_KEY_BATCH_WRITING, null);
+		if (null != batchWriting) {
+			props.put(PersistenceUnitProperties.BATCH_WRITING, batchWriting);
+		}
+		final String batchWritingSize = repositoryPreferences.get(EclipseLinkRepositoryProvider.PREF_KEY_BATCH_WRITING_SIZE, null);
+		if (null != batchWritingSize) {
+			props.put(PersistenceUnitProperties.BATCH_WRITING_SIZE, batchWritingSize);
+		}
+		final String sharedCacheMode = repositoryPreferences.get(EclipseLinkRepositoryProvider.PREF_KEY_SHARED_CACHE_MODE, null);
+		if (null != sharedCacheMode) {
+			props.put(PersistenceUnitProperties.SHARED_CACHE_MODE, sharedCacheMode);
+		}
+		final String cacheSize = repositoryPreferences.get(EclipseLinkRepositoryProvider.PREF_KEY_CACHE_SIZE, null);
+		if (null != cacheSize) {
+			props.put(PersistenceUnitProperties.CACHE_SIZE_DEFAULT, cacheSize);
+		}
+	}
+
+	/**
+	 * Configures the deployed session.
+	 * <p>
+	 * The query results cache cannot be configured using persistence unit
+	 * properties. The SLF4J session log is set here if the persistence unit
+	 * was not able to load it (see {@link #isSlf4jSessionLogLoadable(String)}).
+	 * </p>
+	 */
+	private void configureSession(final EntityManagerFactory entityManagerFactory, final String unitName) {
+		final boolean slf4j = isSlf4jLogger();
+		final boolean queryResultsCache = repositoryPreferences.getBoolean(EclipseLinkRepositoryProvider.PREF_KEY_QUERY_RESULTS_CACHE, false);
+		if (!slf4j && !queryResultsCache)
+			return;
+
+		final ServerSession session;
+		try {
+			session = JpaHelper.getServerSession(entityManagerFactory);
+		} catch (final IllegalArgumentException e) {
+			LOG.debug("Unable to configure session of persistence unit {} in repository {}. {}", new Object[] { unitName, getRepositoryId(), ExceptionUtils.getRootCauseMessage(e) });
+			return;
+		}
+
+		// the persistence unit may not have been able to load the SLF4J session log
+		if (slf4j && !(session.getSessionLog() instanceof Slf4jSessionLog)) {
+			session.setSessionLog(new Slf4jSessionLog());
+		}
+
+		if (queryResultsCache) {
+			for (final List<DatabaseQuery> queries : session.getQueries().values()) {
+				for (final DatabaseQuery query : queries) {
+					if (query instanceof ReadQuery) {
+						((ReadQuery) query).cacheQueryResults();
+					}
+				}
+			}
+		}
+	}
+
+	private DataSource createDataSource(final DataSourceFactory dataSourceFactory, final String unitName) throws Exception {
 		final Properties dataSourceProperties = new Properties();
 
 		// set default DataSource properties
@@ -124,7 +358,19 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 			dataSourceProperties.put(key, repositoryPreferences.get(String.format("dataSourceProperties//%s", key), null));
 		}
 
-		return dataSourceFactory.createDataSource(dataSourceProperties);
+		final String connectionPool = repositoryPreferences.get(EclipseLinkRepositoryProvider.PREF_KEY_CONNECTION_POOL, EclipseLinkRepositoryProvider.CONNECTION_POOL_GYREX);
+		if (EclipseLinkRepositoryProvider.CONNECTION_POOL_NONE.equals(connectionPool))
+			return dataSourceFactory.createDataSource(dataSourceProperties);
+		if (!EclipseLinkRepositoryProvider.CONNECTION_POOL_GYREX.equals(connectionPool))
+			throw new IllegalStateException(String.format("Invalid connection pool (%s) configured for repository '%s'.", connectionPool, getRepositoryId()));
+
+		// every EMF gets its own pool (which also registers its own metrics)
+		final ConnectionPoolDataSource connectionPoolDataSource = dataSourceFactory.createConnectionPoolDataSource(dataSourceProperties);
+		final String poolId = String.format("%s.%s", getRepositoryId(), IdHelper.isValidId(unitName) ? unitName : Integer.toHexString(unitName.hashCode()));
+		final SimpledPooledJdbcRepositoryImpl pool = new SimpledPooledJdbcRepositoryImpl(poolId, getRepositoryProvider(), connectionPoolDataSource, repositoryPreferences.getInt(EclipseLinkRepositoryProvider.PREF_KEY_POOL_CAPACITY, EclipseLinkRepositoryProvider.DEFAULT_POOL_CAPACITY));
+		pool.setMinimumIdle(repositoryPreferences.getInt(EclipseLinkRepositoryProvider.PREF_KEY_MINIMUM_IDLE, EclipseLinkRepositoryProvider.DEFAULT_MINIMUM_IDLE));
+		pool.setStatementCacheSize(repositoryPreferences.getInt(EclipseLinkRepositoryProvider.PREF_KEY_STATEMENT_CACHE_SIZE, EclipseLinkRepositoryProvider.DEFAULT_STATEMENT_CACHE_SIZE));
+		return new JdbcRepositoryDataSource(pool);
 	}
 
 	/**
@@ -150,10 +396,11 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 		}
 
 		// find the proper EntityManagerFactoryBuilder service
+		final String builderFilter = String.format("(&(objectClass=%s)(%s=%s))", EntityManagerFactoryBuilder.class.getName(), EntityManagerFactoryBuilder.JPA_UNIT_NAME, unitName);
 		final IServiceProxy<EntityManagerFactoryBuilder> builderServiceProxy;
 		final EntityManagerFactoryBuilder builder;
 		try {
-			builderServiceProxy = EclipseLinkActivator.getInstance().getServiceHelper().trackService(EntityManagerFactoryBuilder.class, String.format("(&(objectClass=%s)(%s=%s))", EntityManagerFactoryBuilder.class.getName(), EntityManagerFactoryBuilder.JPA_UNIT_NAME, unitName));
+			builderServiceProxy = EclipseLinkActivator.getInstance().getServiceHelper().trackService(EntityManagerFactoryBuilder.class, builderFilter);
 			builder = builderServiceProxy.getService();
 		} catch (final IllegalArgumentException e) {
 			throw new IllegalArgumentException(String.format("Invalid content type specified. The persistence unit name (%s) is invalid. %s", unitName, e.getMessage()), e);
@@ -182,7 +429,7 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 		DataSource dataSource = null;
 		try {
 			// create data source
-			dataSource = createDataSource(dataSourceFactory);
+			dataSource = createDataSource(dataSourceFactory, unitName);
 
 			// use external connection pool
 			props.put(PersistenceUnitProperties.TRANSACTION_TYPE, "RESOURCE_LOCAL");
@@ -191,13 +438,25 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 			// EclipseLink multi-tenancy support
 			props.put(PersistenceUnitProperties.SESSION_NAME, getRepositoryId());
 
-			// enable logging using JUL
-			// TODO: may write/contribute a SLF4J logger
-			props.put(PersistenceUnitProperties.LOGGING_LOGGER, LoggerType.JavaLogger);
+			// log to SLF4J (including deployment messages if possible) or to JUL
+			if (!isSlf4jLogger()) {
+				props.put(PersistenceUnitProperties.LOGGING_LOGGER, LoggerType.JavaLogger);
+			} else if (isSlf4jSessionLogLoadable(builderFilter)) {
+				props.put(PersistenceUnitProperties.LOGGING_LOGGER, Slf4jSessionLog.class.getName());
+			}
+
+			// performance settings
+			configureEclipseLink(props);
+
+			// deploy when creating the EMF (instead of when creating the first EntityManager)
+			props.put(PersistenceUnitProperties.DEPLOY_ON_STARTUP, "true");
 
 			// create EMF
 			final EntityManagerFactory entityManagerFactory = builder.createEntityManagerFactory(props);
 
+			// configure what can't be configured using properties
+			configureSession(entityManagerFactory, unitName);
+
 			// hook with tracked services to close EMF if a service goes away
 			final EMFDisposer emfDisposer = new EMFDisposer(entityManagerFactory, contentType);
 			((ServiceProxy<EntityManagerFactoryBuilder>) builderServiceProxy).addChangeListener(emfDisposer, builder);
@@ -212,11 +471,116 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 
 	}
 
+	/**
+	 * Creates the EMFs for all content types assigned to the repository in the
+	 * background.
+	 */
+	void deployOnStartup() {
+		try {
+			getEmfExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					final String repositoryTypeName = EclipseLinkRepository.class.getName();
+					try {
+						for (final RepositoryContentType contentType : DefaultRepositoryLookupStrategy.getDefault().getContentTypeAssignments(getRepositoryId()).getContentTypes(false)) {
+							if (isClosed())
+								return;
+							if (!StringUtils.equals(repositoryTypeName, contentType.getRepositoryTypeName())) {
+								continue;
+							}
+							try {
+								getEntityManagerFactory(contentType);
+							} catch (final Exception e) {
+								LOG.warn("Unable to create EntityManagerFactory for content type {} in repository {}. {}", new Object[] { contentType, getRepositoryId(), ExceptionUtils.getRootCauseMessage(e) });
+							}
+						}
+					} catch (final Exception e) {
+						LOG.warn("Unable to read content types assigned to repository {}. {}", getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			LOG.warn("Unable to deploy persistence units of repository {}. {}", getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
 	@Override
 	protected void doClose() {
+		synchronized (this) {
+			if (null != evictionTask) {
+				evictionTask.cancel(false);
+				evictionTask = null;
+			}
+		}
+		for (final RepositoryContentType contentType : emfCacheByContentType.keySet()) {
+			final EMFHolder holder = emfCacheByContentType.remove(contentType);
+			final EntityManagerFactory factory = null != holder ? holder.getIfDone() : null;
+			if (null != factory) {
+				closeQuietly(factory);
+			}
+		}
+		getEclipseLinkRepositoryMetrics().setClosed("closed");
 		super.doClose();
 	}
 
+	/**
+	 * Closes idle EMFs and (if there are too many) the least recently used
+	 * EMFs which have not been used for
+	 * {@link #EMF_MIN_IDLE_BEFORE_EVICTION}.
+	 */
+	void evictEntityManagerFactories() {
+		final long now = System.nanoTime();
+		final long idleTimeout = emfIdleTimeout;
+		final List<Map.Entry<RepositoryContentType, EMFHolder>> open = new ArrayList<Map.Entry<RepositoryContentType, EMFHolder>>();
+		for (final Map.Entry<RepositoryContentType, EMFHolder> entry : emfCacheByContentType.entrySet()) {
+			if (null == entry.getValue().getIfDone()) {
+				continue; // still being created (or failed)
+			}
+			if ((idleTimeout > 0) && evict(entry.getKey(), entry.getValue(), idleTimeout, now)) {
+				continue;
+			}
+			open.add(entry);
+		}
+
+		final int maxCount = emfMaxCount;
+		if (open.size() <= maxCount)
+			return;
+
+		// least recently used first
+		Collections.sort(open, new Comparator<Map.Entry<RepositoryContentType, EMFHolder>>() {
+			@Override
+			public int compare(final Map.Entry<RepositoryContentType, EMFHolder> e1, final Map.Entry<RepositoryContentType, EMFHolder> e2) {
+				final long diff = e1.getValue().lastAccess - e2.getValue().lastAccess;
+				return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+			}
+		});
+		int count = open.size();
+		for (final Map.Entry<RepositoryContentType, EMFHolder> entry : open) {
+			if (count <= maxCount) {
+				break;
+			}
+			if (evict(entry.getKey(), entry.getValue(), EMF_MIN_IDLE_BEFORE_EVICTION, now)) {
+				count--;
+			}
+		}
+		if (count > maxCount) {
+			LOG.debug("{} EntityManagerFactories in use in repository {} (max. {}).", new Object[] { count, getRepositoryId(), maxCount });
+		}
+	}
+
+	private boolean evict(final RepositoryContentType contentType, final EMFHolder holder, final long minIdleNanos, final long now) {
+		if (!holder.evictIfIdle(minIdleNanos, now))
+			return false;
+		emfCacheByContentType.remove(contentType, holder);
+		getEclipseLinkRepositoryMetrics().getEntityManagerFactoryCacheMetric().evicted();
+		closeQuietly(holder.getIfDone());
+		return true;
+	}
+
+	private EclipseLinkRepositoryMetrics getEclipseLinkRepositoryMetrics() {
+		return (EclipseLinkRepositoryMetrics) getMetrics();
+	}
+
 	/**
 	 * Returns an EntityManagerFactory for the specified content type.
 	 * <p>
@@ -233,18 +597,132 @@ public class EclipseLinkRepositoryImpl extends EclipseLinkRepository {
 	 */
 	@Override
 	public EntityManagerFactory getEntityManagerFactory(final RepositoryContentType contentType) {
-		WeakReference<EntityManagerFactory> factoryRef = emfCacheByContentType.get(contentType);
-		EntityManagerFactory factory = factoryRef != null ? factoryRef.get() : null;
-		if ((null == factory) || !factory.isOpen()) {
-			synchronized (emfCacheByContentType) {
-				factoryRef = emfCacheByContentType.get(contentType);
-				factory = factoryRef != null ? factoryRef.get() : null;
-				if ((null == factory) || !factory.isOpen()) {
-					factory = createEntityManagerFactory(contentType);
-					emfCacheByContentType.put(contentType, new WeakReference<EntityManagerFactory>(factory));
+		if (isClosed())
+			throw new IllegalStateException(String.format("Repository '%s' is closed.", getRepositoryId()));
+
+		while (true) {
+			EMFHolder holder = emfCacheByContentType.get(contentType);
+			if (null == holder) {
+				final EMFHolder newHolder = new EMFHolder(contentType);
+				holder = emfCacheByContentType.putIfAbsent(contentType, newHolder);
+				if (null == holder) {
+					holder = newHolder;
+					getEclipseLinkRepositoryMetrics().getEntityManagerFactoryCacheMetric().miss();
+					if (emfCacheByContentType.size() > emfMaxCount) {
+						scheduleEviction();
+					}
+				} else {
+					getEclipseLinkRepositoryMetrics().getEntityManagerFactoryCacheMetric().hit();
 				}
+			} else {
+				getEclipseLinkRepositoryMetrics().getEntityManagerFactoryCacheMetric().hit();
+			}
+
+			final EntityManagerFactory factory;
+			try {
+				factory = holder.get();
+			} catch (final ExecutionException e) {
+				// don't cache failures; the next caller will try again
+				emfCacheByContentType.remove(contentType, holder);
+				final Throwable cause = e.getCause();
+				getEclipseLinkRepositoryMetrics().getErrorMetric().setLastError(String.format("Unable to create EntityManagerFactory for content type %s.", contentType), ExceptionUtils.getRootCauseMessage(cause));
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new IllegalStateException(String.format("Unable to create EntityManagerFactory for content type (%s). %s", contentType, ExceptionUtils.getRootCauseMessage(cause)), cause);
+			}
+
+			if (isClosed()) {
+				// closed while the EMF was created
+				emfCacheByContentType.remove(contentType, holder);
+				closeQuietly(factory);
+				throw new IllegalStateException(String.format("Repository '%s' is closed.", getRepositoryId()));
+			}
+
+			if (factory.isOpen() && holder.access())
+				return factory;
+
+			// evicted or closed externally; remove and create a new one
+			emfCacheByContentType.remove(contentType, holder);
+		}
+	}
+
+	private boolean isSlf4jLogger() {
+		return EclipseLinkRepositoryProvider.LOGGER_SLF4J.equals(repositoryPreferences.get(EclipseLinkRepositoryProvider.PREF_KEY_LOGGER, EclipseLinkRepositoryProvider.LOGGER_SLF4J));
+	}
+
+	/**
+	 * Indicates if the persistence unit is able to load the
+	 * {@link Slf4jSessionLog}.
+	 * <p>
+	 * EclipseLink loads the logger configured using persistence unit
+	 * properties with the class loader of the persistence unit. The
+	 * {@link EntityManagerFactoryBuilder} service is registered using the
+	 * context of the persistence bundle. Thus, the persistence bundle must be
+	 * able to load the session log (eg. using
+	 * <code>DynamicImport-Package: org.eclipse.gyrex.persistence.eclipselink.internal</code>).
+	 * Otherwise, deployment messages are logged using the EclipseLink default
+	 * log and the session log is only set after deployment.
+	 * </p>
+	 */
+	private boolean isSlf4jSessionLogLoadable(final String builderFilter) {
+		final BundleContext context = EclipseLinkActivator.getInstance().getBundle().getBundleContext();
+		if (null == context)
+			return false;
+		try {
+			final ServiceReference[] references = context.getServiceReferences(EntityManagerFactoryBuilder.class.getName(), builderFilter);
+			if ((null == references) || (references.length == 0))
+				return false;
+			final Bundle persistenceBundle = references[0].getBundle();
+			return (null != persistenceBundle) && (persistenceBundle.loadClass(Slf4jSessionLog.class.getName()) == Slf4jSessionLog.class);
+		} catch (final InvalidSyntaxException | ClassNotFoundException | IllegalStateException e) {
+			LOG.debug("Persistence unit {} is not able to load the SLF4J session log. {}", builderFilter, ExceptionUtils.getRootCauseMessage(e));
+			return false;
+		}
+	}
+
+	private void scheduleEviction() {
+		try {
+			getEmfExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					evictEntityManagerFactories();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			LOG.warn("Unable to schedule EntityManagerFactory eviction for repository {}. {}", getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	/**
+	 * Configures EMF eviction.
+	 * 
+	 * @param idleTimeout
+	 *            the time (in milliseconds) after which an unused EMF is closed
+	 *            (<code>0</code> to never close idle EMFs)
+	 * @param maxCount
+	 *            the max. number of EMFs to keep open
+	 */
+	public synchronized void setEntityManagerFactoryEviction(final long idleTimeout, final int maxCount) {
+		emfIdleTimeout = TimeUnit.MILLISECONDS.toNanos(Math.max(0, idleTimeout));
+		emfMaxCount = Math.max(1, maxCount);
+
+		if (null != evictionTask) {
+			evictionTask.cancel(false);
+			evictionTask = null;
+		}
+		if ((idleTimeout > 0) && !isClosed()) {
+			// check a few times within the idle timeout but not too often
+			final long interval = Math.max(TimeUnit.SECONDS.toMillis(1), Math.min(TimeUnit.MINUTES.toMillis(1), idleTimeout / 4));
+			try {
+				evictionTask = getEmfExecutor().scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						evictEntityManagerFactories();
+					}
+				}, interval, interval, TimeUnit.MILLISECONDS);
+			} catch (final RejectedExecutionException e) {
+				LOG.warn("Unable to schedule EntityManagerFactory eviction for repository {}. {}", getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
 			}
 		}
-		return factory;
 	}
 }
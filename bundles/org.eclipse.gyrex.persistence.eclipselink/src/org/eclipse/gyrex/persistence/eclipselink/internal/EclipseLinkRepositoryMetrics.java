@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2011 AGETO Service GmbH and others.
+ * Copyright (c) 2011, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -15,15 +15,23 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.gyrex.monitoring.metrics.BaseMetric;
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
 import org.eclipse.gyrex.monitoring.metrics.ErrorMetric;
 import org.eclipse.gyrex.monitoring.metrics.MetricSet;
 import org.eclipse.gyrex.monitoring.metrics.StatusMetric;
+import org.eclipse.gyrex.monitoring.metrics.TimerMetric;
 import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
 
 /**
- *
+ * Metrics for {@link EclipseLinkRepositoryImpl}.
+ * <p>
+ * Besides status and errors, the time it takes to build an
+ * EntityManagerFactory (including deployment of the persistence unit) as well
+ * as the effectiveness of the EntityManagerFactory cache are captured.
+ * </p>
  */
 public class EclipseLinkRepositoryMetrics extends MetricSet {
 
@@ -31,6 +39,8 @@ public class EclipseLinkRepositoryMetrics extends MetricSet {
 		final List<BaseMetric> metrics = new ArrayList<BaseMetric>(6);
 		metrics.add(new StatusMetric("status", initialStatus, initialStatusReason));
 		metrics.add(new ErrorMetric("error", 5)); /* IDX_ERROR */
+		metrics.add(new TimerMetric("entityManagerFactoryBuild", TimeUnit.MILLISECONDS)); /* IDX_EMF_BUILD */
+		metrics.add(new CacheMetric("entityManagerFactoryCache")); /* IDX_EMF_CACHE */
 		return metrics.toArray(new BaseMetric[metrics.size()]);
 	}
 
@@ -43,11 +53,35 @@ public class EclipseLinkRepositoryMetrics extends MetricSet {
 
 	private final StatusMetric statusMetric;
 	private final ErrorMetric errorMetric;
+	private final TimerMetric entityManagerFactoryBuildMetric;
+	private final CacheMetric entityManagerFactoryCacheMetric;
 
 	EclipseLinkRepositoryMetrics(final String id, final String repositoryId, final RepositoryProvider repositoryProvider, final String initialStatus, final String initialStatusReason) {
 		super(id, String.format("Repository metrics for EclipseLink repository '%s'", repositoryId), createProperties(repositoryId, repositoryProvider), createMetrics(initialStatus, initialStatusReason));
 		statusMetric = getMetric(0, StatusMetric.class);
 		errorMetric = getMetric(1, ErrorMetric.class);
+		entityManagerFactoryBuildMetric = getMetric(2, TimerMetric.class);
+		entityManagerFactoryCacheMetric = getMetric(3, CacheMetric.class);
+	}
+
+	/**
+	 * Returns the metric capturing the time it takes to build an
+	 * EntityManagerFactory.
+	 * 
+	 * @return the entityManagerFactoryBuildMetric
+	 */
+	public TimerMetric getEntityManagerFactoryBuildMetric() {
+		return entityManagerFactoryBuildMetric;
+	}
+
+	/**
+	 * Returns the metric capturing hits, misses and evictions of the
+	 * EntityManagerFactory cache.
+	 * 
+	 * @return the entityManagerFactoryCacheMetric
+	 */
+	public CacheMetric getEntityManagerFactoryCacheMetric() {
+		return entityManagerFactoryCacheMetric;
 	}
 
 	/**
@@ -1,5 +1,5 @@
 /**
- * Copyright (c) 2011 AGETO Service GmbH and others.
+ * Copyright (c) 2011, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the terms of the
@@ -11,6 +11,8 @@
  */
 package org.eclipse.gyrex.persistence.eclipselink.internal;
 
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.gyrex.persistence.eclipselink.EclipseLinkRepository;
 import org.eclipse.gyrex.persistence.storage.Repository;
 import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
@@ -18,6 +20,11 @@ import org.eclipse.gyrex.persistence.storage.settings.IRepositoryPreferences;
 
 /**
  * Repository provider for {@link EclipseLinkRepository}.
+ * <p>
+ * The EntityManagerFactory cache, the connection pool and performance
+ * relevant EclipseLink settings of a repository can be tuned using repository
+ * preferences (see <code>PREF_KEY_...</code> constants).
+ * </p>
  * 
  * @noinstantiate This class is not intended to be instantiated by clients.
  */
@@ -26,6 +33,63 @@ public final class EclipseLinkRepositoryProvider extends RepositoryProvider {
 	/** provider id */
 	public static final String ID = "org.eclipse.gyrex.persistence.eclipselink";
 
+	/** time (in seconds) after which an unused EntityManagerFactory is closed (0 to never close) */
+	public static final String PREF_KEY_EMF_IDLE_TIMEOUT = "entityManagerFactoryIdleTimeout";
+
+	/** max. number of EntityManagerFactories kept open (exceeded if more factories are in use) */
+	public static final String PREF_KEY_EMF_MAX_COUNT = "entityManagerFactoryMaxCount";
+
+	/** create EntityManagerFactories for all assigned content types in the background when the repository is opened */
+	public static final String PREF_KEY_DEPLOY_ON_STARTUP = "deployOnStartup";
+
+	/** connection pool to use (<code>gyrex</code> for a Gyrex managed pool, <code>none</code> for the plain DataSource of the driver) */
+	public static final String PREF_KEY_CONNECTION_POOL = "connectionPool";
+
+	/** max. number of pooled connections (<code>0</code> for no limit) */
+	public static final String PREF_KEY_POOL_CAPACITY = "poolCapacity";
+
+	/** number of idle connections to keep open */
+	public static final String PREF_KEY_MINIMUM_IDLE = "minimumIdle";
+
+	/**
+	 * max. number of prepared statements cached per pooled connection (default
+	 * 32, <code>0</code> disables caching)
+	 */
+	public static final String PREF_KEY_STATEMENT_CACHE_SIZE = "statementCacheSize";
+
+	/** EclipseLink batch writing (<code>JDBC</code>, <code>Buffered</code>, <code>Oracle-JDBC</code> or <code>None</code>; default is the persistence unit setting) */
+	public static final String PREF_KEY_BATCH_WRITING = "batchWriting";
+
+	/** max. number of statements per batch */
+	public static final String PREF_KEY_BATCH_WRITING_SIZE = "batchWritingSize";
+
+	/** JPA shared cache mode (<code>ALL</code>, <code>NONE</code>, <code>ENABLE_SELECTIVE</code> or <code>DISABLE_SELECTIVE</code>) */
+	public static final String PREF_KEY_SHARED_CACHE_MODE = "sharedCacheMode";
+
+	/** default number of objects held in the shared cache per entity */
+	public static final String PREF_KEY_CACHE_SIZE = "cacheSize";
+
+	/**
+	 * enables the query results cache for all named read queries
+	 * (<code>true</code> or <code>false</code>, default <code>false</code>;
+	 * EclipseLink 2.4 does not invalidate cached results when objects are
+	 * modified, so this is only suitable for read-only data)
+	 */
+	public static final String PREF_KEY_QUERY_RESULTS_CACHE = "queryResultsCache";
+
+	/** EclipseLink session log (<code>slf4j</code> or <code>jul</code>) */
+	public static final String PREF_KEY_LOGGER = "logger";
+
+	static final int DEFAULT_EMF_IDLE_TIMEOUT = 3600;
+	static final int DEFAULT_EMF_MAX_COUNT = 16;
+	static final boolean DEFAULT_DEPLOY_ON_STARTUP = true;
+	static final String CONNECTION_POOL_GYREX = "gyrex";
+	static final String CONNECTION_POOL_NONE = "none";
+	static final int DEFAULT_POOL_CAPACITY = 16;
+	static final int DEFAULT_MINIMUM_IDLE = 1;
+	static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+	static final String LOGGER_SLF4J = "slf4j";
+
 	/**
 	 * Creates a new instance.
 	 * 
@@ -38,6 +102,11 @@ public final class EclipseLinkRepositoryProvider extends RepositoryProvider {
 
 	@Override
 	public Repository createRepositoryInstance(final String repositoryId, final IRepositoryPreferences repositoryPreferences) {
-		return new EclipseLinkRepositoryImpl(repositoryId, this, repositoryPreferences);
+		final EclipseLinkRepositoryImpl repository = new EclipseLinkRepositoryImpl(repositoryId, this, repositoryPreferences);
+		repository.setEntityManagerFactoryEviction(TimeUnit.SECONDS.toMillis(repositoryPreferences.getInt(PREF_KEY_EMF_IDLE_TIMEOUT, DEFAULT_EMF_IDLE_TIMEOUT)), repositoryPreferences.getInt(PREF_KEY_EMF_MAX_COUNT, DEFAULT_EMF_MAX_COUNT));
+		if (repositoryPreferences.getBoolean(PREF_KEY_DEPLOY_ON_STARTUP, DEFAULT_DEPLOY_ON_STARTUP)) {
+			repository.deployOnStartup();
+		}
+		return repository;
 	}
 }
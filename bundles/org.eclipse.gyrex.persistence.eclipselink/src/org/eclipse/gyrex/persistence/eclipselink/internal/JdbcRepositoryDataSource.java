@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.eclipselink.internal;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.eclipse.gyrex.persistence.jdbc.storage.JdbcRepository;
+
+/**
+ * A {@link DataSource} which borrows connections from the pool of a
+ * {@link JdbcRepository}.
+ * <p>
+ * EclipseLink acquires a connection for every transaction (and for reads
+ * outside of transactions) from the non-JTA DataSource and closes it
+ * afterwards. With this DataSource closing returns the connection to the pool
+ * instead of closing a physical connection.
+ * </p>
+ */
+public class JdbcRepositoryDataSource implements DataSource {
+
+	private final JdbcRepository repository;
+	private volatile PrintWriter logWriter;
+	private volatile int loginTimeout;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param repository
+	 *            the repository providing pooled connections
+	 */
+	public JdbcRepositoryDataSource(final JdbcRepository repository) {
+		if (null == repository)
+			throw new IllegalArgumentException("repository must not be null");
+		this.repository = repository;
+	}
+
+	/**
+	 * Closes the underlying repository (including all pooled connections).
+	 * <p>
+	 * Called reflectively by {@link EclipseLinkRepositoryImpl#closeQuietly(DataSource)}.
+	 * </p>
+	 */
+	public void close() {
+		repository.close();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (repository.isClosed())
+			throw new SQLException(String.format("Connection pool of repository '%s' is closed.", repository.getRepositoryId()));
+		return repository.getConnection();
+	}
+
+	@Override
+	public Connection getConnection(final String username, final String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Pooled connections are configured using the repository data source properties.");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return logWriter;
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return loginTimeout;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/**
+	 * Returns the repository providing the pooled connections.
+	 *
+	 * @return the repository
+	 */
+	public JdbcRepository getRepository() {
+		return repository;
+	}
+
+	@Override
+	public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	@Override
+	public void setLogWriter(final PrintWriter out) throws SQLException {
+		logWriter = out;
+	}
+
+	@Override
+	public void setLoginTimeout(final int seconds) throws SQLException {
+		loginTimeout = seconds;
+	}
+
+	@Override
+	public <T> T unwrap(final Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		throw new SQLException(String.format("Not a wrapper for %s.", iface.getName()));
+	}
+}
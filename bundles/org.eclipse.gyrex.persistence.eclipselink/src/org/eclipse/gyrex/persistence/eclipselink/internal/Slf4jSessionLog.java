@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.eclipselink.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.persistence.logging.AbstractSessionLog;
+import org.eclipse.persistence.logging.SessionLog;
+import org.eclipse.persistence.logging.SessionLogEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An EclipseLink {@link SessionLog} which logs to SLF4J.
+ * <p>
+ * The EclipseLink log level is ignored. Instead, whether a message is logged
+ * is decided by the SLF4J logger of the message category (eg.
+ * <code>org.eclipse.persistence.sql</code>). EclipseLink checks
+ * {@link #shouldLog(int, String)} before it builds (and formats) a message.
+ * Thus, disabled messages are cheap.
+ * </p>
+ */
+public class Slf4jSessionLog extends AbstractSessionLog {
+
+	private static final String LOGGER_PREFIX = "org.eclipse.persistence";
+
+	private final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<String, Logger>();
+
+	private Logger getLogger(final String category) {
+		final String name = null != category ? LOGGER_PREFIX.concat(".").concat(category) : LOGGER_PREFIX;
+		Logger logger = loggers.get(name);
+		if (null == logger) {
+			logger = LoggerFactory.getLogger(name);
+			final Logger existing = loggers.putIfAbsent(name, logger);
+			if (null != existing)
+				return existing;
+		}
+		return logger;
+	}
+
+	@Override
+	public void log(final SessionLogEntry entry) {
+		final int level = entry.getLevel();
+		final Logger logger = getLogger(entry.getNameSpace());
+		if (!isEnabled(logger, level))
+			return;
+
+		final String message = formatMessage(entry);
+		final Throwable exception = entry.getException();
+		switch (level) {
+			case SEVERE:
+				logger.error(message, exception);
+				break;
+			case WARNING:
+				logger.warn(message, exception);
+				break;
+			case INFO:
+			case CONFIG:
+				logger.info(message, exception);
+				break;
+			case FINE:
+				logger.debug(message, exception);
+				break;
+			default:
+				logger.trace(message, exception);
+				break;
+		}
+	}
+
+	private boolean isEnabled(final Logger logger, final int level) {
+		switch (level) {
+			case OFF:
+				return false;
+			case SEVERE:
+				return logger.isErrorEnabled();
+			case WARNING:
+				return logger.isWarnEnabled();
+			case INFO:
+			case CONFIG:
+				return logger.isInfoEnabled();
+			case FINE:
+				return logger.isDebugEnabled();
+			default:
+				return logger.isTraceEnabled();
+		}
+	}
+
+	@Override
+	public boolean shouldLog(final int level) {
+		return shouldLog(level, null);
+	}
+
+	@Override
+	public boolean shouldLog(final int level, final String category) {
+		return isEnabled(getLogger(category), level);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 Gunnar Wagenknecht and others.
+ * Copyright (c) 2008, 2013 Gunnar Wagenknecht and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -17,6 +17,7 @@ import java.sql.SQLException;
 import java.text.MessageFormat;
 
 import org.eclipse.gyrex.monitoring.metrics.BaseMetric;
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
 import org.eclipse.gyrex.monitoring.metrics.ErrorMetric;
 import org.eclipse.gyrex.monitoring.metrics.MetricSet;
 import org.eclipse.gyrex.monitoring.metrics.PoolMetric;
@@ -52,11 +53,14 @@ public class SimplePooledJdbcRepositoryMetrics extends MetricSet {
 
 	private final ErrorMetric errorMetric;
 
+	private final CacheMetric statementCacheMetric;
+
 	protected SimplePooledJdbcRepositoryMetrics(final String id, final String repositoryId, final String initialStatus, final String initialStatusReason, final long initialChannelsCapacity, final long initialChannelsMinimum) {
-		super(id, String.format("Metrics for repository %s", repositoryId), new BaseMetric[] { new StatusMetric(id + ".status", initialStatus, initialStatusReason), new PoolMetric(id + ".pool", initialChannelsCapacity, initialChannelsMinimum), new ErrorMetric(id + ".errors", 5) });
+		super(id, String.format("Metrics for repository %s", repositoryId), new BaseMetric[] { new StatusMetric(id + ".status", initialStatus, initialStatusReason), new PoolMetric(id + ".pool", initialChannelsCapacity, initialChannelsMinimum), new ErrorMetric(id + ".errors", 5), new CacheMetric(id + ".statements") });
 		poolStatusMetric = getMetric(0, StatusMetric.class);
 		poolMetric = getMetric(1, PoolMetric.class);
 		errorMetric = getMetric(2, ErrorMetric.class);
+		statementCacheMetric = getMetric(3, CacheMetric.class);
 	}
 
 	/**
@@ -86,6 +90,15 @@ public class SimplePooledJdbcRepositoryMetrics extends MetricSet {
 		return poolStatusMetric;
 	}
 
+	/**
+	 * Returns the prepared statement cache metric.
+	 * 
+	 * @return the prepared statement cache metric
+	 */
+	public CacheMetric getStatementCacheMetric() {
+		return statementCacheMetric;
+	}
+
 	public void setClosed(final String reason) {
 		getPoolStatusMetric().setStatus("closed", reason);
 	}
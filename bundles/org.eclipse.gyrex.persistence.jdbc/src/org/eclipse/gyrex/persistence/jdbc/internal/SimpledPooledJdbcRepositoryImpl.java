@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 Gunnar Wagenknecht and others.
+ * Copyright (c) 2008, 2013 Gunnar Wagenknecht and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -11,14 +11,19 @@
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.jdbc.internal;
 
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.ArrayDeque;
-import java.util.HashSet;
-import java.util.Queue;
-import java.util.Set;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.ConnectionEvent;
 import javax.sql.ConnectionEventListener;
@@ -28,41 +33,154 @@ import javax.sql.PooledConnection;
 import org.eclipse.gyrex.persistence.jdbc.storage.JdbcRepository;
 import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
 
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * A generic JDBC based repository.
  * <p>
- * This repository provides some basic pooling capabilities.
+ * This repository provides connection pooling on top of a
+ * {@link ConnectionPoolDataSource}. Borrowing a connection does not lock. A
+ * thread first tries the connection it used last, then any idle connection.
+ * If none is idle it waits (fair, first come first served) for a connection
+ * being returned or created. Waiting fails early with the cause of the last
+ * failure when the pool is empty and a connection cannot be created (eg.
+ * wrong credentials or the database is locked). Physical connections are
+ * created asynchronously
+ * on a background thread which also keeps a minimum number of idle
+ * connections warm and retires connections which exceeded their idle timeout
+ * or max. lifetime.
+ * </p>
+ * <p>
+ * Connections are validated when they are borrowed after not being used for a
+ * while as well as periodically when idle.
  * </p>
  */
 public class SimpledPooledJdbcRepositoryImpl extends JdbcRepository {
 
+	/**
+	 * A pooled connection and its state.
+	 */
+	private static final class PoolEntry {
+
+		static final int STATE_IDLE = 0;
+		static final int STATE_IN_USE = 1;
+		static final int STATE_RESERVED = 2;
+		static final int STATE_REMOVED = -1;
+
+		final PooledConnection pooledConnection;
+		final long createdAt;
+		final AtomicInteger state = new AtomicInteger(STATE_IDLE);
+		volatile long lastAccessed;
+
+		/** the statement cache (<code>null</code> if disabled) */
+		final StatementCache statementCache;
+
+		/** the long-lived logical connection used with a statement cache */
+		Connection connection;
+
+		PoolEntry(final PooledConnection pooledConnection, final long now, final StatementCache statementCache) {
+			this.pooledConnection = pooledConnection;
+			this.statementCache = statementCache;
+			createdAt = now;
+			lastAccessed = now;
+		}
+
+		/**
+		 * Returns a logical connection for internal use.
+		 * <p>
+		 * Must only be called by the thread owning the entry.
+		 * </p>
+		 */
+		Connection getConnection() throws SQLException {
+			if (null == statementCache)
+				return pooledConnection.getConnection();
+			if ((null == connection) || connection.isClosed()) {
+				connection = pooledConnection.getConnection();
+			}
+			return connection;
+		}
+
+		boolean compareAndSetState(final int expect, final int update) {
+			return state.compareAndSet(expect, update);
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(SimpledPooledJdbcRepositoryImpl.class);
+
+	/** idle connections used more recently are not validated when borrowed */
+	private static final long VALIDATION_BYPASS_MILLIS = 500;
+
+	/** the interval for retiring and validating idle connections */
+	private static final long HOUSEKEEPING_INTERVAL_MILLIS = 30000;
+
+	/** the delay before retrying to create connections after a failure */
+	private static final long CREATE_RETRY_DELAY_MILLIS = 1000;
+
+	/** the interval waiting threads check for failures creating connections */
+	private static final long WAIT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/** the max. time a returned connection is offered to a waiting thread */
+	private static final long HANDOFF_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
 	private final ConnectionPoolDataSource connectionPoolDataSource;
 
-	private final ReentrantLock poolLock = new ReentrantLock();
+	/** all connections in the pool */
+	private final CopyOnWriteArrayList<PoolEntry> entries = new CopyOnWriteArrayList<PoolEntry>();
+	private final ConcurrentHashMap<PooledConnection, PoolEntry> entriesByConnection = new ConcurrentHashMap<PooledConnection, PoolEntry>();
+	private final ThreadLocal<WeakReference<PoolEntry>> lastUsedEntry = new ThreadLocal<WeakReference<PoolEntry>>();
+	private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<PoolEntry>(true);
+	private final AtomicInteger waiters = new AtomicInteger();
+
+	/** number of connections in the pool including the ones being created */
+	private final AtomicInteger totalConnections = new AtomicInteger();
+	private final AtomicInteger activeConnections = new AtomicInteger();
+
+	private final ScheduledThreadPoolExecutor executor;
+	private final AtomicBoolean fillScheduled = new AtomicBoolean();
+	private final Runnable fillTask = new Runnable() {
+		@Override
+		public void run() {
+			fillPool();
+		}
+	};
 
 	private volatile int maxPoolCapacity;
-	private volatile int activeConnectionsCount;
+	private volatile int minimumIdle;
+	private volatile long connectionTimeoutMillis = 30000;
+	private volatile long idleTimeoutMillis = 600000;
+	private volatile long maxLifetimeMillis = 1800000;
+	private volatile int validationTimeoutSeconds = 5;
+	private volatile int statementCacheSize;
 
-	private final Set<PooledConnection> pooledConnections = new HashSet<PooledConnection>();
-	private final Set<PooledConnection> activeConnections = new HashSet<PooledConnection>();
-	private final Queue<PooledConnection> availableConnections = new ArrayDeque<PooledConnection>();
+	/** the last failure creating a connection (<code>null</code> after success) */
+	private volatile Exception lastCreateFailure;
+	private volatile long lastCreateFailureNanos;
 
 	private final ConnectionEventListener connectionEventListener = new ConnectionEventListener() {
 		@Override
 		public void connectionClosed(final ConnectionEvent event) {
-			pooledConnectionClosed((PooledConnection) event.getSource(), false);
+			final PoolEntry entry = entriesByConnection.get(event.getSource());
+			if (null != entry) {
+				release(entry);
+			}
 		}
 
 		@Override
 		public void connectionErrorOccurred(final ConnectionEvent event) {
-			pooledConnectionClosed((PooledConnection) event.getSource(), true);
+			final PoolEntry entry = entriesByConnection.get(event.getSource());
+			if (null != entry) {
+				destroy(entry, true);
+			}
 			getJdbcRepositoryMetrics().setSQLError("unknown", event.getSQLException());
 		}
 	};
 
 	/**
 	 * Creates a new instance.
-	 * 
+	 *
 	 * @param repositoryId
 	 *            the repository id
 	 * @param repositoryType
@@ -70,11 +188,94 @@ public class SimpledPooledJdbcRepositoryImpl extends JdbcRepository {
 	 * @param connectionPoolDataSource
 	 *            the configured data source for creating
 	 *            {@link PooledConnection pooled connections}
+	 * @param poolCapacity
+	 *            the max. number of connections (<code>0</code> for no limit)
 	 */
 	public SimpledPooledJdbcRepositoryImpl(final String repositoryId, final RepositoryProvider repositoryType, final ConnectionPoolDataSource connectionPoolDataSource, final int poolCapacity) {
 		super(repositoryId, repositoryType, new SimplePooledJdbcRepositoryMetrics(createMetricsId(repositoryType, repositoryId), repositoryId, "open", "repository instance created", poolCapacity, 0));
 		this.connectionPoolDataSource = connectionPoolDataSource;
-		maxPoolCapacity = poolCapacity;
+		maxPoolCapacity = Math.max(0, poolCapacity);
+
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "Gyrex JDBC Pool " + repositoryId);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				houseKeeping();
+			}
+		}, HOUSEKEEPING_INTERVAL_MILLIS, HOUSEKEEPING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows an idle pool entry.
+	 *
+	 * @return the entry (in state {@link PoolEntry#STATE_IN_USE}) or
+	 *         <code>null</code> if none became available in time
+	 * @throws SQLException
+	 *             if the pool is empty and creating a connection failed while
+	 *             waiting
+	 */
+	private PoolEntry borrow(final long timeoutNanos) throws InterruptedException, SQLException {
+		// try the connection used last by this thread
+		final WeakReference<PoolEntry> lastUsed = lastUsedEntry.get();
+		if (null != lastUsed) {
+			final PoolEntry entry = lastUsed.get();
+			if ((null != entry) && entry.compareAndSetState(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE))
+				return entry;
+		}
+
+		final long start = System.nanoTime();
+		final int waiting = waiters.incrementAndGet();
+		try {
+			// try any idle connection
+			PoolEntry entry = borrowIdle();
+			if (null != entry) {
+				if (waiting > 1) {
+					// others are waiting, prepare a connection for them
+					scheduleFill();
+				}
+				return entry;
+			}
+
+			// wait for a connection being returned or created
+			scheduleFill();
+			long remaining = timeoutNanos;
+			while (remaining > 10000L) {
+				entry = handoffQueue.poll(Math.min(remaining, WAIT_INTERVAL_NANOS), TimeUnit.NANOSECONDS);
+				if ((null != entry) && entry.compareAndSetState(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE))
+					return entry;
+
+				// a connection may have been returned without being handed off
+				entry = borrowIdle();
+				if (null != entry)
+					return entry;
+
+				// fail early if no connection can be created
+				final Exception failure = lastCreateFailure;
+				if ((null != failure) && entries.isEmpty() && ((lastCreateFailureNanos - start) >= 0))
+					throw new SQLTransientConnectionException("unable to create a connection for repository '" + getRepositoryId() + "': " + ExceptionUtils.getRootCauseMessage(failure), failure);
+
+				remaining = timeoutNanos - (System.nanoTime() - start);
+			}
+			return null;
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+
+	private PoolEntry borrowIdle() {
+		for (final PoolEntry entry : entries) {
+			if (entry.compareAndSetState(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE))
+				return entry;
+		}
+		return null;
 	}
 
 	private void checkClosed() {
@@ -84,20 +285,12 @@ public class SimpledPooledJdbcRepositoryImpl extends JdbcRepository {
 	}
 
 	/**
-	 * Closes the pooled connection.
-	 * <p>
-	 * Note, must be called when holding {@link #poolLock}.
-	 * </p>
-	 * 
-	 * @param pooledConnection
+	 * Closes a physical connection.
 	 */
 	private void close(final PooledConnection pooledConnection) {
 		// no longer track events
 		pooledConnection.removeConnectionEventListener(connectionEventListener);
 
-		// remove from the pool
-		pooledConnections.remove(pooledConnection);
-
 		// close the underlying connection
 		try {
 			pooledConnection.close();
@@ -110,25 +303,68 @@ public class SimpledPooledJdbcRepositoryImpl extends JdbcRepository {
 	 * Creates a new connection from the underlying data source and adds it to
 	 * the pool.
 	 * <p>
-	 * Note, must be called when holding {@link #poolLock}.
+	 * Note, the caller must have reserved a slot in {@link #totalConnections}.
 	 * </p>
-	 * 
-	 * @return the created connection.
+	 *
 	 * @throws SQLException
 	 *             if an error occured in the underlying pool data source while
 	 *             creating the connection.
 	 */
-	private PooledConnection create() throws SQLException {
-		// create connection
+	private void create() throws SQLException {
 		final PooledConnection pooledConnection = connectionPoolDataSource.getPooledConnection();
+		final int statementCacheSize = this.statementCacheSize;
+		final PoolEntry entry = new PoolEntry(pooledConnection, System.currentTimeMillis(), statementCacheSize > 0 ? new StatementCache(statementCacheSize, getJdbcRepositoryMetrics().getStatementCacheMetric()) : null);
+		pooledConnection.addConnectionEventListener(connectionEventListener);
+		entriesByConnection.put(pooledConnection, entry);
+		entries.add(entry);
+		getJdbcRepositoryMetrics().getPoolMetric().resourceCreated();
+		getJdbcRepositoryMetrics().getPoolMetric().channelIdle();
 
-		// add to the pool
-		pooledConnections.add(pooledConnection);
+		if (isClosed()) {
+			destroy(entry, false);
+			return;
+		}
+		handOff(entry);
+	}
 
-		// track the connection
-		pooledConnection.addConnectionEventListener(connectionEventListener);
+	/**
+	 * Removes a connection from the pool and closes it.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @param failure
+	 *            <code>true</code> if the connection is removed because of a
+	 *            failure, <code>false</code> if it's retired
+	 */
+	private void destroy(final PoolEntry entry, final boolean failure) {
+		final int state = entry.state.getAndSet(PoolEntry.STATE_REMOVED);
+		if (state == PoolEntry.STATE_REMOVED)
+			return;
+
+		if (state == PoolEntry.STATE_IN_USE) {
+			activeConnections.decrementAndGet();
+			getJdbcRepositoryMetrics().getPoolMetric().channelFinished();
+		} else {
+			getJdbcRepositoryMetrics().getPoolMetric().channelBusy();
+		}
+		if (failure) {
+			getJdbcRepositoryMetrics().getPoolMetric().resourceDestroyed();
+		} else {
+			getJdbcRepositoryMetrics().getPoolMetric().resourceReleased();
+		}
+
+		entries.remove(entry);
+		entriesByConnection.remove(entry.pooledConnection);
+		totalConnections.decrementAndGet();
+		if (null != entry.statementCache) {
+			entry.statementCache.close();
+		}
+		close(entry.pooledConnection);
 
-		return pooledConnection;
+		// replace if necessary
+		if (!isClosed()) {
+			scheduleFill();
+		}
 	}
 
 	/* (non-Javadoc)
@@ -136,35 +372,71 @@ public class SimpledPooledJdbcRepositoryImpl extends JdbcRepository {
 	 */
 	@Override
 	protected void doClose() {
+		executor.shutdownNow();
+
 		// close all connections
-		final ReentrantLock lock = poolLock;
-		lock.lock();
-		try {
-			// close all connections
-			final PooledConnection[] connections = pooledConnections.toArray(new PooledConnection[0]);
-			for (final PooledConnection pooledConnection : connections) {
-				// passivate
-				markInactive(pooledConnection);
-
-				// close and remove from pool
-				close(pooledConnection);
-			}
-		} finally {
-			// release lock
-			lock.unlock();
+		for (final PoolEntry entry : entries) {
+			destroy(entry, false);
 		}
 
 		// update metrics
 		getJdbcRepositoryMetrics().getPoolStatusMetric().setStatus("closed", "repository closed through API call");
 	}
 
+	/**
+	 * Fills the pool so that waiting threads get a connection and the minimum
+	 * number of idle connections is available.
+	 * <p>
+	 * Note, must only be called from the pool thread.
+	 * </p>
+	 */
+	void fillPool() {
+		fillScheduled.set(false);
+		while (!isClosed()) {
+			final int total = totalConnections.get();
+			final int max = maxPoolCapacity;
+			if ((max > 0) && (total >= max))
+				return;
+			final int idle = getIdleConnectionsCount();
+			if ((idle >= minimumIdle) && ((idle > 0) || (waiters.get() == 0)))
+				return;
+			if (!totalConnections.compareAndSet(total, total + 1)) {
+				continue;
+			}
+			try {
+				create();
+				lastCreateFailure = null;
+				getJdbcRepositoryMetrics().getPoolStatusMetric().setStatus("open", "connections available");
+			} catch (final SQLException | RuntimeException e) {
+				totalConnections.decrementAndGet();
+				lastCreateFailureNanos = System.nanoTime();
+				lastCreateFailure = e;
+				if (e instanceof SQLException) {
+					getJdbcRepositoryMetrics().setSQLError("getPooledConnection", (SQLException) e);
+				}
+				getJdbcRepositoryMetrics().getPoolStatusMetric().setStatus("error", "unable to create connection: " + ExceptionUtils.getRootCauseMessage(e));
+				LOG.warn("Unable to create connection for repository {}. {}", getRepositoryId(), ExceptionUtils.getRootCauseMessage(e));
+
+				// retry later
+				if (fillScheduled.compareAndSet(false, true)) {
+					try {
+						executor.schedule(fillTask, CREATE_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+					} catch (final RejectedExecutionException ignored) {
+						// closed
+					}
+				}
+				return;
+			}
+		}
+	}
+
 	/**
 	 * Returns the active connections count.
-	 * 
+	 *
 	 * @return the activeConnectionsCount
 	 */
 	public int getActiveConnectionsCount() {
-		return activeConnectionsCount;
+		return activeConnections.get();
 	}
 
 	/* (non-Javadoc)
@@ -172,94 +444,63 @@ public class SimpledPooledJdbcRepositoryImpl extends JdbcRepository {
 	 */
 	@Override
 	public Connection getConnection() throws SQLException {
-		checkClosed();
-		final long start = System.currentTimeMillis();
-		final ReentrantLock lock = poolLock;
-		lock.lock();
+		final long timeout = connectionTimeoutMillis;
+		final Connection connection;
 		try {
-			// get connection from pool
-			final Connection connection = getPooledConnection();
-
-			// update metrics
-			if (null != connection) {
-				getJdbcRepositoryMetrics().getPoolMetric().channelStarted(System.currentTimeMillis() - start);
-			} else {
-				getJdbcRepositoryMetrics().getPoolMetric().channelDenied();
-			}
-
-			// return connections
-			return connection;
-		} finally {
-			lock.unlock();
+			connection = getConnection(timeout, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLTransientConnectionException("interrupted while waiting for a connection from repository '" + getRepositoryId() + "'", e);
 		}
+		if (null == connection)
+			throw new SQLTransientConnectionException("no connection available from repository '" + getRepositoryId() + "' within " + timeout + "ms", lastCreateFailure);
+		return connection;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.gyrex.persistence.jdbc.storage.JdbcRepository#getConnection(long, java.util.concurrent.TimeUnit)
 	 */
 	@Override
-	public Connection getConnection(final long timeout, final TimeUnit timeUnit) throws SQLException {
+	public Connection getConnection(final long timeout, final TimeUnit timeUnit) throws SQLException, InterruptedException {
 		checkClosed();
-		final long start = System.currentTimeMillis();
-		final ReentrantLock lock = poolLock;
+		final long start = System.nanoTime();
+		final long deadline = start + timeUnit.toNanos(timeout);
 		try {
-			if (!lock.tryLock(timeout, timeUnit)) {
-
-				// could not get lock -> abort
-
-				// update metrics
-				getJdbcRepositoryMetrics().getPoolMetric().channelDenied();
-
-				// no connection
-				return null;
+			while (true) {
+				final PoolEntry entry = borrow(deadline - System.nanoTime());
+				if (null == entry) {
+					getJdbcRepositoryMetrics().getPoolMetric().channelDenied();
+					return null;
+				}
+				activeConnections.incrementAndGet();
+				getJdbcRepositoryMetrics().getPoolMetric().channelBusy();
+				getJdbcRepositoryMetrics().getPoolMetric().channelStarted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+				final Connection connection = getValidConnection(entry);
+				if (null != connection) {
+					lastUsedEntry.set(new WeakReference<PoolEntry>(entry));
+					return connection;
+				}
 			}
-		} catch (final InterruptedException e) {
-			// Restore the interrupted status
-			Thread.currentThread().interrupt();
-
-			// we have been interrupted while waiting on the lock,
-			// we don't have the lock -> abort
-
-			// update metrics
+		} catch (final InterruptedException | SQLException e) {
 			getJdbcRepositoryMetrics().getPoolMetric().channelDenied();
-
-			// no connection
-			return null;
-		}
-		try {
-			// get connection from pool
-			final Connection connection = getPooledConnection();
-
-			// update metrics
-			if (null != connection) {
-				getJdbcRepositoryMetrics().getPoolMetric().channelStarted(System.currentTimeMillis() - start);
-			} else {
-				getJdbcRepositoryMetrics().getPoolMetric().channelDenied();
-			}
-
-			// return connections
-			return connection;
-		} finally {
-			lock.unlock();
+			throw e;
 		}
 	}
 
-	/**
-	 * Creates and returns a Connection object that is a handle for the physical
-	 * connection that the specified PooledConnection object represents.
-	 * 
-	 * @param pooledConnection
-	 * @return the connection handle
-	 * @throws SQLException
-	 *             if a database access error occurs
-	 */
-	private Connection getConnection(final PooledConnection pooledConnection) throws SQLException {
-		return pooledConnection.getConnection();
+	private int getIdleConnectionsCount() {
+		int idle = 0;
+		for (final PoolEntry entry : entries) {
+			if (entry.state.get() == PoolEntry.STATE_IDLE) {
+				idle++;
+			}
+		}
+		return idle;
 	}
 
 	/**
 	 * Returns the metrics as {@link SimplePooledJdbcRepositoryMetrics}.
-	 * 
+	 *
 	 * @return the metrics as {@link SimplePooledJdbcRepositoryMetrics}
 	 */
 	public SimplePooledJdbcRepositoryMetrics getJdbcRepositoryMetrics() {
@@ -267,116 +508,244 @@ public class SimpledPooledJdbcRepositoryImpl extends JdbcRepository {
 	}
 
 	/**
-	 * Returns a pooled connection.
-	 * <p>
-	 * The pool will dynamically grow if no connection is available in the pool.
-	 * </p>
-	 * <p>
-	 * Note, must be called when holding {@link #poolLock}.
-	 * </p>
-	 * 
-	 * @return a database connection
-	 * @throws SQLException
+	 * Returns a connection handle for a borrowed entry after validating it.
+	 *
+	 * @return the connection handle or <code>null</code> if the entry was
+	 *         invalid and has been removed from the pool
 	 */
-	private Connection getPooledConnection() throws SQLException {
-		PooledConnection pooledConnection = null;
-
-		// re-use existing if possible
-		if (activeConnectionsCount < maxPoolCapacity) {
-			pooledConnection = availableConnections.poll();
-			getJdbcRepositoryMetrics().getPoolMetric().channelBusy();
+	private Connection getValidConnection(final PoolEntry entry) {
+		final long now = System.currentTimeMillis();
+		final long maxLifetime = maxLifetimeMillis;
+		if ((maxLifetime > 0) && ((now - entry.createdAt) > maxLifetime)) {
+			destroy(entry, false);
+			return null;
 		}
 
-		// create new if necessary
-		if (null == pooledConnection) {
-			pooledConnection = create();
+		try {
+			final Connection connection = entry.getConnection();
+			if (((now - entry.lastAccessed) > VALIDATION_BYPASS_MILLIS) && !connection.isValid(validationTimeoutSeconds)) {
+				destroy(entry, true);
+				return null;
+			}
+			entry.lastAccessed = now;
+			if (null == entry.statementCache)
+				return connection;
+
+			// the application closes a handle which resets the connection
+			return new StatementCachingConnectionHandler(connection, entry.statementCache) {
+				@Override
+				protected void release(final boolean broken) {
+					if (broken) {
+						destroy(entry, true);
+					} else {
+						SimpledPooledJdbcRepositoryImpl.this.release(entry);
+					}
+				}
+			}.getConnection();
+		} catch (final SQLException e) {
+			getJdbcRepositoryMetrics().setSQLError("getConnection", e);
+			destroy(entry, true);
+			return null;
 		}
-
-		// mark activate
-		markActive(pooledConnection);
-
-		// get real connection
-		final Connection connection = getConnection(pooledConnection);
-
-		// return the connection
-		return connection;
 	}
 
 	/**
-	 * Adds a connection to the list of active connections.
+	 * Hands an idle entry to a waiting thread (if any).
 	 * <p>
-	 * Note, must be called when holding {@link #poolLock}.
+	 * The entry is offered only briefly. If no thread takes it, it stays idle
+	 * and is picked up by the waiting threads when they re-check the idle
+	 * connections.
 	 * </p>
-	 * 
-	 * @param pooledConnection
 	 */
-	private void markActive(final PooledConnection pooledConnection) {
+	private void handOff(final PoolEntry entry) {
+		if ((waiters.get() == 0) || (entry.state.get() != PoolEntry.STATE_IDLE))
+			return;
 		try {
-			activeConnections.add(pooledConnection);
-		} finally {
-			activeConnectionsCount = activeConnections.size();
+			handoffQueue.offer(entry, HANDOFF_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+		} catch (final InterruptedException e) {
+			// Restore the interrupted status
+			Thread.currentThread().interrupt();
 		}
 	}
 
 	/**
-	 * Removes a connection from the list of active connections.
+	 * Retires idle connections exceeding their idle timeout or max. lifetime
+	 * and validates the remaining idle connections.
 	 * <p>
-	 * Note, must be called when holding {@link #poolLock}.
+	 * Note, must only be called from the pool thread.
 	 * </p>
-	 * 
-	 * @param pooledConnection
 	 */
-	private void markInactive(final PooledConnection pooledConnection) {
-		try {
-			activeConnections.remove(pooledConnection);
-		} finally {
-			activeConnectionsCount = activeConnections.size();
+	void houseKeeping() {
+		final long now = System.currentTimeMillis();
+		final long idleTimeout = idleTimeoutMillis;
+		final long maxLifetime = maxLifetimeMillis;
+		int idle = getIdleConnectionsCount();
+		for (final PoolEntry entry : entries) {
+			if (!entry.compareAndSetState(PoolEntry.STATE_IDLE, PoolEntry.STATE_RESERVED)) {
+				continue;
+			}
+
+			final boolean expired = (maxLifetime > 0) && ((now - entry.createdAt) > maxLifetime);
+			final boolean idleTooLong = (idleTimeout > 0) && ((now - entry.lastAccessed) > idleTimeout) && (idle > minimumIdle);
+			if (expired || idleTooLong) {
+				idle--;
+				destroy(entry, false);
+				continue;
+			}
+
+			if ((now - entry.lastAccessed) > HOUSEKEEPING_INTERVAL_MILLIS) {
+				boolean valid;
+				try {
+					final Connection connection = entry.getConnection();
+					valid = connection.isValid(validationTimeoutSeconds);
+					if (null == entry.statementCache) {
+						connection.close();
+					}
+				} catch (final SQLException e) {
+					valid = false;
+				}
+				if (!valid) {
+					idle--;
+					destroy(entry, true);
+					continue;
+				}
+			}
+
+			if (entry.compareAndSetState(PoolEntry.STATE_RESERVED, PoolEntry.STATE_IDLE)) {
+				handOff(entry);
+			}
 		}
+
+		// keep minimum warm
+		fillPool();
 	}
 
 	/**
-	 * Notifies the pool that a connection was "closed" by the application and
-	 * releases it back to the pool if desired.
-	 * 
-	 * @param pooledConnection
-	 * @param forceRemoveFromPool
+	 * Returns a connection to the pool after the application closed its
+	 * handle.
 	 */
-	void pooledConnectionClosed(final PooledConnection pooledConnection, final boolean forceRemoveFromPool) {
-		final ReentrantLock lock = poolLock;
-		lock.lock();
-		try {
-			// remove from list of active connections
-			markInactive(pooledConnection);
-
-			if (forceRemoveFromPool || (activeConnectionsCount >= maxPoolCapacity)) {
-				// remove it from the pool
-				close(pooledConnection);
-			} else {
-				// keep for re-use
-				availableConnections.add(pooledConnection);
-				getJdbcRepositoryMetrics().getPoolMetric().channelIdle();
+	private void release(final PoolEntry entry) {
+		if (!entry.compareAndSetState(PoolEntry.STATE_IN_USE, PoolEntry.STATE_RESERVED))
+			return; // not borrowed (eg. closed during validation)
+
+		activeConnections.decrementAndGet();
+		getJdbcRepositoryMetrics().getPoolMetric().channelFinished();
+		getJdbcRepositoryMetrics().getPoolMetric().channelIdle();
+
+		// retire if too old or no longer needed
+		final long now = System.currentTimeMillis();
+		final long maxLifetime = maxLifetimeMillis;
+		final int max = maxPoolCapacity;
+		if (isClosed() || ((maxLifetime > 0) && ((now - entry.createdAt) > maxLifetime)) || ((max > 0) && (totalConnections.get() > max))) {
+			destroy(entry, false);
+			return;
+		}
+
+		entry.lastAccessed = now;
+		entry.state.set(PoolEntry.STATE_IDLE);
+		handOff(entry);
+	}
+
+	private void scheduleFill() {
+		if (fillScheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(fillTask);
+			} catch (final RejectedExecutionException e) {
+				// closed
+				fillScheduled.set(false);
 			}
-		} finally {
-			lock.unlock();
 		}
+	}
 
-		// update metric
-		getJdbcRepositoryMetrics().getPoolMetric().channelFinished();
+	/**
+	 * Sets the max. time to wait in {@link #getConnection()} for a connection
+	 * to become available.
+	 *
+	 * @param connectionTimeout
+	 *            the timeout in milliseconds
+	 */
+	public void setConnectionTimeout(final long connectionTimeout) {
+		connectionTimeoutMillis = Math.max(0, connectionTimeout);
+	}
+
+	/**
+	 * Sets the time after which an idle connection is closed (as long as more
+	 * than the minimum number of connections is idle).
+	 *
+	 * @param idleTimeout
+	 *            the idle timeout in milliseconds (<code>0</code> to never
+	 *            close idle connections)
+	 */
+	public void setIdleTimeout(final long idleTimeout) {
+		idleTimeoutMillis = Math.max(0, idleTimeout);
+	}
+
+	/**
+	 * Sets the max. lifetime of a connection.
+	 * <p>
+	 * Connections in use are closed when they are returned to the pool.
+	 * </p>
+	 *
+	 * @param maxLifetime
+	 *            the max. lifetime in milliseconds (<code>0</code> for no
+	 *            limit)
+	 */
+	public void setMaxLifetime(final long maxLifetime) {
+		maxLifetimeMillis = Math.max(0, maxLifetime);
+	}
+
+	/**
+	 * Sets the minimum number of idle connections to keep warm.
+	 *
+	 * @param minimumIdle
+	 *            the minimum number of idle connections
+	 */
+	public void setMinimumIdle(final int minimumIdle) {
+		this.minimumIdle = Math.max(0, minimumIdle);
+		getJdbcRepositoryMetrics().getPoolMetric().setChannelsMinimum(this.minimumIdle);
+		scheduleFill();
 	}
 
 	/**
 	 * Sets the maximum pool size.
 	 * <p>
-	 * Note there is currently no hard limit. Whenever the pool limit is reach a
-	 * new connection is created. However, only the number of connections set
-	 * here will be kept open in the pool.
+	 * When all connections are in use, threads requesting a connection wait
+	 * until a connection is returned to the pool.
 	 * </p>
-	 * 
+	 *
 	 * @param maximumPoolSize
+	 *            the max. number of connections (<code>0</code> for no limit)
 	 */
 	public void setPoolCapacity(final int maximumPoolSize) {
-		maxPoolCapacity = maximumPoolSize;
-		getJdbcRepositoryMetrics().getPoolMetric().setChannelsCapacity(maximumPoolSize);
+		maxPoolCapacity = Math.max(0, maximumPoolSize);
+		getJdbcRepositoryMetrics().getPoolMetric().setChannelsCapacity(maxPoolCapacity);
 	}
 
+	/**
+	 * Sets the max. number of prepared statements cached per connection.
+	 * <p>
+	 * When enabled, {@link Connection#prepareStatement(String)} calls on
+	 * connections obtained from the pool are served from a LRU cache of the
+	 * underlying physical connection. The setting applies to connections
+	 * created afterwards. Caching is disabled by default; repository
+	 * providers enable it through their preferences.
+	 * </p>
+	 *
+	 * @param statementCacheSize
+	 *            the max. number of cached statements per connection
+	 *            (<code>0</code> to disable caching)
+	 */
+	public void setStatementCacheSize(final int statementCacheSize) {
+		this.statementCacheSize = Math.max(0, statementCacheSize);
+	}
+
+	/**
+	 * Sets the max. time to wait for validating a connection.
+	 *
+	 * @param validationTimeout
+	 *            the validation timeout in seconds
+	 */
+	public void setValidationTimeout(final int validationTimeout) {
+		validationTimeoutSeconds = Math.max(1, validationTimeout);
+	}
 }
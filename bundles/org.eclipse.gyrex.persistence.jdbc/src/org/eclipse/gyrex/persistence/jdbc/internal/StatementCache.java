@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.jdbc.internal;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+
+/**
+ * A LRU cache of prepared statements of a single physical connection.
+ * <p>
+ * A statement is removed from the cache while it's in use and put back when
+ * the application closes it. Thus, a statement is never shared. Statements
+ * evicted from the cache are closed.
+ * </p>
+ */
+final class StatementCache {
+
+	private static void close(final PreparedStatement statement) {
+		try {
+			statement.close();
+		} catch (final SQLException e) {
+			// ignore
+		}
+	}
+
+	private final int capacity;
+	private final CacheMetric metric;
+
+	/** cached statements in access order (guarded by this) */
+	private final LinkedHashMap<String, PreparedStatement> statements;
+	private boolean closed;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param capacity
+	 *            the max. number of cached statements
+	 * @param metric
+	 *            the metric to report hits and misses to
+	 */
+	StatementCache(final int capacity, final CacheMetric metric) {
+		this.capacity = capacity;
+		this.metric = metric;
+		statements = new LinkedHashMap<String, PreparedStatement>(capacity + 1, 0.75F, true);
+	}
+
+	/**
+	 * Closes all cached statements.
+	 * <p>
+	 * Statements returned afterwards are closed immediately.
+	 * </p>
+	 */
+	void close() {
+		final List<PreparedStatement> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<PreparedStatement>(statements.values());
+			statements.clear();
+		}
+		for (final PreparedStatement statement : toClose) {
+			close(statement);
+		}
+	}
+
+	/**
+	 * Puts a statement (back) into the cache.
+	 *
+	 * @param key
+	 *            the statement key
+	 * @param statement
+	 *            the statement
+	 */
+	void put(final String key, final PreparedStatement statement) {
+		PreparedStatement toClose = null;
+		synchronized (this) {
+			if (closed || statements.containsKey(key)) {
+				// duplicate (the same SQL was prepared twice concurrently)
+				toClose = statement;
+			} else {
+				statements.put(key, statement);
+				if (statements.size() > capacity) {
+					final Iterator<Entry<String, PreparedStatement>> eldest = statements.entrySet().iterator();
+					toClose = eldest.next().getValue();
+					eldest.remove();
+				}
+			}
+		}
+		if (null != toClose) {
+			if (toClose != statement) {
+				metric.evicted();
+			}
+			close(toClose);
+		}
+	}
+
+	/**
+	 * Takes a statement out of the cache.
+	 *
+	 * @param key
+	 *            the statement key
+	 * @return the statement (maybe <code>null</code> if not cached)
+	 */
+	PreparedStatement take(final String key) {
+		final PreparedStatement statement;
+		synchronized (this) {
+			statement = statements.remove(key);
+		}
+		if (null != statement) {
+			metric.hit();
+		} else {
+			metric.miss();
+		}
+		return statement;
+	}
+}
@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.jdbc.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * A connection handle which serves prepared statements from a
+ * {@link StatementCache}.
+ * <p>
+ * The handle wraps a logical connection which is kept open for the lifetime
+ * of the physical connection (closing it would close the cached statements
+ * with some drivers). Therefore, closing the handle resets the connection
+ * state (transaction, auto-commit, isolation, read-only, catalog, schema,
+ * holdability, type map, client info and network timeout) similar to what a
+ * driver does when handing out a new logical connection.
+ * </p>
+ * <p>
+ * All statements and result sets handed out are wrapped so that
+ * <code>getConnection()</code> and <code>getStatement()</code> never expose
+ * the underlying logical connection or a cached statement.
+ * </p>
+ * <p>
+ * A handle must only be used by one thread at a time.
+ * </p>
+ */
+abstract class StatementCachingConnectionHandler implements InvocationHandler {
+
+	/**
+	 * Handles a result set so that it returns the statement handle.
+	 */
+	private static final class ResultSetHandler implements InvocationHandler {
+
+		private final ResultSet resultSet;
+		private final Statement statementProxy;
+		private final ResultSet proxy;
+
+		ResultSetHandler(final ResultSet resultSet, final Statement statementProxy) {
+			this.resultSet = resultSet;
+			this.statementProxy = statementProxy;
+			proxy = (ResultSet) Proxy.newProxyInstance(StatementCachingConnectionHandler.class.getClassLoader(), new Class<?>[] { ResultSet.class }, this);
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Pooled" + resultSet.toString();
+				case "getStatement":
+					return statementProxy;
+			}
+			return invokeDelegate(resultSet, method, args);
+		}
+	}
+
+	/**
+	 * Handles a statement. Prepared statements with a cache key are returned
+	 * to the cache when closed.
+	 */
+	private final class StatementHandler implements InvocationHandler {
+
+		private final String key;
+		private final Statement statement;
+		private final Statement proxy;
+		private boolean reusable;
+		private boolean closed;
+
+		/** the last result set handed out (to return the same handle) */
+		private ResultSet resultSet;
+		private ResultSet resultSetProxy;
+
+		StatementHandler(final String key, final Statement statement, final Class<?> type) {
+			this.key = key;
+			this.statement = statement;
+			reusable = null != key;
+			proxy = (Statement) Proxy.newProxyInstance(StatementCachingConnectionHandler.class.getClassLoader(), new Class<?>[] { type }, this);
+		}
+
+		private void close() {
+			if (closed)
+				return;
+			closed = true;
+			openStatements.remove(proxy);
+			resultSet = null;
+			resultSetProxy = null;
+
+			if (reusable) {
+				try {
+					final ResultSet resultSet = statement.getResultSet();
+					if (null != resultSet) {
+						resultSet.close();
+					}
+					final PreparedStatement preparedStatement = (PreparedStatement) statement;
+					preparedStatement.clearParameters();
+					preparedStatement.clearBatch();
+					preparedStatement.clearWarnings();
+					cache.put(key, preparedStatement);
+					return;
+				} catch (final SQLException e) {
+					// fall through
+				}
+			}
+			try {
+				statement.close();
+			} catch (final SQLException e) {
+				// ignore
+			}
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			switch (name) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return (reusable ? "Cached" : "Pooled") + statement.toString();
+				case "close":
+					close();
+					return null;
+				case "isClosed":
+					return closed || statement.isClosed();
+			}
+
+			if (closed)
+				throw new SQLException("statement is closed");
+
+			if ("getConnection".equals(name))
+				return connectionProxy;
+
+			if ((method.getDeclaringClass() == Statement.class) && (name.startsWith("set") || "closeOnCompletion".equals(name))) {
+				// statement settings are not reset, don't reuse
+				reusable = false;
+			}
+			final Object result = invokeDelegate(statement, method, args);
+			if (result instanceof ResultSet)
+				return wrap((ResultSet) result);
+			return result;
+		}
+
+		private ResultSet wrap(final ResultSet result) {
+			if (result != resultSet) {
+				resultSet = result;
+				resultSetProxy = new ResultSetHandler(result, proxy).proxy;
+			}
+			return resultSetProxy;
+		}
+	}
+
+	/** runs network timeout changes in the calling thread */
+	private static final Executor DIRECT_EXECUTOR = new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			command.run();
+		}
+	};
+
+	/**
+	 * Returns the cache key of a <code>prepareStatement</code> invocation.
+	 *
+	 * @return the key (<code>null</code> if the statement should not be
+	 *         cached)
+	 */
+	private static String getCacheKey(final Method method, final Object[] args) {
+		final Class<?>[] types = method.getParameterTypes();
+		if ((types.length == 0) || (types[0] != String.class))
+			return null;
+		final StringBuilder key = new StringBuilder();
+		for (int i = 1; i < types.length; i++) {
+			if (types[i] != int.class)
+				return null; // column indexes or names
+			key.append(args[i]).append(',');
+		}
+		return key.append(':').append(args[0]).toString();
+	}
+
+	private static Object invokeDelegate(final Object delegate, final Method method, final Object[] args) throws Throwable {
+		try {
+			return method.invoke(delegate, args);
+		} catch (final InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private final Connection connection;
+	private final StatementCache cache;
+	private final Connection connectionProxy;
+
+	/** statements not closed by the application yet */
+	private final List<Statement> openStatements = new ArrayList<Statement>();
+
+	/** the connection state before the application modified it */
+	private Boolean autoCommit;
+	private Integer transactionIsolation;
+	private Boolean readOnly;
+	private boolean catalogModified;
+	private String catalog;
+	private boolean schemaModified;
+	private String schema;
+	private Integer holdability;
+	private Map<String, Class<?>> typeMap;
+	private Properties clientInfo;
+	private Integer networkTimeout;
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param connection
+	 *            the logical connection to wrap
+	 * @param cache
+	 *            the statement cache of the physical connection
+	 */
+	StatementCachingConnectionHandler(final Connection connection, final StatementCache cache) {
+		this.connection = connection;
+		this.cache = cache;
+		connectionProxy = (Connection) Proxy.newProxyInstance(StatementCachingConnectionHandler.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+	}
+
+	private void close() {
+		if (closed)
+			return;
+		closed = true;
+
+		boolean broken = false;
+		try {
+			for (final Statement statement : new ArrayList<Statement>(openStatements)) {
+				try {
+					statement.close();
+				} catch (final SQLException e) {
+					// ignore
+				}
+			}
+			openStatements.clear();
+
+			// reset state
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+			}
+			if (null != autoCommit) {
+				connection.setAutoCommit(autoCommit);
+			}
+			if (null != transactionIsolation) {
+				connection.setTransactionIsolation(transactionIsolation);
+			}
+			if (null != readOnly) {
+				connection.setReadOnly(readOnly);
+			}
+			if (catalogModified) {
+				connection.setCatalog(catalog);
+			}
+			if (schemaModified) {
+				connection.setSchema(schema);
+			}
+			if (null != holdability) {
+				connection.setHoldability(holdability);
+			}
+			if (null != typeMap) {
+				connection.setTypeMap(typeMap);
+			}
+			if (null != clientInfo) {
+				connection.setClientInfo(clientInfo);
+			}
+			if (null != networkTimeout) {
+				connection.setNetworkTimeout(DIRECT_EXECUTOR, networkTimeout);
+			}
+			connection.clearWarnings();
+		} catch (final SQLException e) {
+			broken = true;
+		}
+		release(broken);
+	}
+
+	/**
+	 * Returns the connection handle to give to the application.
+	 *
+	 * @return the connection handle
+	 */
+	Connection getConnection() {
+		return connectionProxy;
+	}
+
+	@Override
+	public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+		final String name = method.getName();
+		switch (name) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled" + connection.toString();
+			case "close":
+				close();
+				return null;
+			case "isClosed":
+				return closed;
+		}
+
+		if (closed) {
+			if ("isValid".equals(name))
+				return false;
+			throw new SQLException("connection is closed", "08003");
+		}
+
+		switch (name) {
+			case "prepareStatement":
+				final String key = getCacheKey(method, args);
+				if (null != key)
+					return prepareStatement(key, method, args);
+				break;
+			case "setAutoCommit":
+				if (null == autoCommit) {
+					autoCommit = connection.getAutoCommit();
+				}
+				break;
+			case "setTransactionIsolation":
+				if (null == transactionIsolation) {
+					transactionIsolation = connection.getTransactionIsolation();
+				}
+				break;
+			case "setReadOnly":
+				if (null == readOnly) {
+					readOnly = connection.isReadOnly();
+				}
+				break;
+			case "setCatalog":
+				if (!catalogModified) {
+					catalog = connection.getCatalog();
+					catalogModified = true;
+				}
+				break;
+			case "setSchema":
+				if (!schemaModified) {
+					schema = connection.getSchema();
+					schemaModified = true;
+				}
+				break;
+			case "setHoldability":
+				if (null == holdability) {
+					holdability = connection.getHoldability();
+				}
+				break;
+			case "setTypeMap":
+				if (null == typeMap) {
+					typeMap = connection.getTypeMap();
+				}
+				break;
+			case "setClientInfo":
+				if (null == clientInfo) {
+					clientInfo = connection.getClientInfo();
+				}
+				break;
+			case "setNetworkTimeout":
+				if (null == networkTimeout) {
+					networkTimeout = connection.getNetworkTimeout();
+				}
+				break;
+		}
+
+		final Object result = invokeDelegate(connection, method, args);
+		if (result instanceof Statement)
+			return wrap(null, (Statement) result, method.getReturnType());
+		return result;
+	}
+
+	private PreparedStatement prepareStatement(final String key, final Method method, final Object[] args) throws Throwable {
+		PreparedStatement statement = cache.take(key);
+		if (null == statement) {
+			statement = (PreparedStatement) invokeDelegate(connection, method, args);
+		}
+		return (PreparedStatement) wrap(key, statement, PreparedStatement.class);
+	}
+
+	/**
+	 * Called when the application closed the connection handle.
+	 *
+	 * @param broken
+	 *            <code>true</code> if resetting the connection failed and it
+	 *            must not be reused
+	 */
+	protected abstract void release(boolean broken);
+
+	private Statement wrap(final String key, final Statement statement, final Class<?> type) {
+		final Statement proxy = new StatementHandler(key, statement, type).proxy;
+		openStatements.add(proxy);
+		return proxy;
+	}
+}
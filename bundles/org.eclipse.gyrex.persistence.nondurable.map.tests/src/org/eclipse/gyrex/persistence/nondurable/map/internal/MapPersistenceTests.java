@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.persistence.nondurable.map.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapPersistence.FsyncPolicy;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.EvictionPolicy;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.PutIfAbsentResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for recovering a {@link MapStore} using {@link MapPersistence}.
+ */
+public class MapPersistenceTests {
+
+	private static final int PAGE_SIZE = 1024;
+
+	/** snapshots are only taken explicitly */
+	private static final long SNAPSHOT_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (null != children) {
+			for (final File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static List<String> getFiles(final File directory) {
+		final String[] names = directory.list();
+		Arrays.sort(names);
+		return Arrays.asList(names);
+	}
+
+	private static byte[] put(final String key, final String value) {
+		return MapLog.encode(MapLog.OP_PUT, key, 0, value.getBytes());
+	}
+
+	private static byte[] remove(final String key) {
+		return MapLog.encode(MapLog.OP_REMOVE, key, 0, null);
+	}
+
+	private static void write(final File file, final byte[]... records) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			MapLog.writeHeader(out);
+			for (final byte[] record : records) {
+				out.write(record);
+			}
+		}
+	}
+
+	private File directory;
+	private final List<MapPersistence> opened = new ArrayList<MapPersistence>();
+
+	private void assertValue(final String expected, final MapStore store, final String key) {
+		final byte[] value = store.get(key);
+		assertArrayEquals("value of " + key, null != expected ? expected.getBytes() : null, value);
+	}
+
+	/**
+	 * Copies all files like they were at the time of a crash.
+	 */
+	private File crash(final File directory) throws IOException {
+		final File copy = new File(this.directory, directory.getName() + "-crashed");
+		copy.mkdirs();
+		for (final File file : directory.listFiles()) {
+			Files.copy(file.toPath(), new File(copy, file.getName()).toPath());
+		}
+		return copy;
+	}
+
+	private MapStore newStore() {
+		return new MapStore(4 * PAGE_SIZE, PAGE_SIZE, false, 0, EvictionPolicy.LRU, new CacheMetric("test"));
+	}
+
+	private MapPersistence open(final File directory, final MapStore store) throws IOException {
+		final MapPersistence persistence = new MapPersistence(directory, store, FsyncPolicy.ALWAYS, SNAPSHOT_INTERVAL, Long.MAX_VALUE, "test");
+		opened.add(persistence);
+		persistence.open();
+		return persistence;
+	}
+
+	private MapStore recover(final File directory) throws IOException {
+		final MapStore store = newStore();
+		open(directory, store);
+		return store;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("map", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (final MapPersistence persistence : opened) {
+			persistence.close();
+		}
+		opened.clear();
+		delete(directory);
+	}
+
+	@Test
+	public void testClearInLog() throws Exception {
+		write(MapLog.getLogFile(directory, 1), put("a", "1"), put("b", "2"), MapLog.encode(MapLog.OP_CLEAR, null, 0, null), put("c", "3"));
+
+		final MapStore store = recover(directory);
+		assertEquals(1, store.size());
+		assertValue(null, store, "a");
+		assertValue(null, store, "b");
+		assertValue("3", store, "c");
+	}
+
+	@Test
+	public void testCorruptChecksum() throws Exception {
+		final File log = MapLog.getLogFile(directory, 1);
+		write(log, put("a", "1"), put("b", "2"));
+
+		// flip a byte of the last value
+		try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+			file.seek(file.length() - 1);
+			final int b = file.read();
+			file.seek(file.length() - 1);
+			file.write(b ^ 0xff);
+		}
+
+		final MapStore store = recover(directory);
+		assertEquals(1, store.size());
+		assertValue("1", store, "a");
+	}
+
+	@Test
+	public void testDeleteObsoleteGenerations() throws Exception {
+		final File dir = new File(directory, "store");
+		final MapPersistence persistence = open(dir, newStore());
+		assertEquals(Arrays.asList("log-1.dat"), getFiles(dir));
+
+		persistence.put("a", "1".getBytes(), 0);
+		persistence.snapshot();
+		final List<String> files = getFiles(dir);
+		assertFalse("log of previous generation not deleted", files.contains("log-1.dat"));
+		assertTrue(files.contains("log-2.dat"));
+		assertTrue(files.contains("snapshot-2.done"));
+
+		persistence.put("b", "2".getBytes(), 0);
+		persistence.snapshot();
+		for (final String file : getFiles(dir)) {
+			assertTrue("obsolete file not deleted: " + file, file.startsWith("log-3.") || file.startsWith("snapshot-3-") || file.startsWith("snapshot-3."));
+		}
+
+		// no snapshot without modifications
+		persistence.snapshot();
+		assertTrue(getFiles(dir).contains("snapshot-3.done"));
+
+		final MapStore store = recover(crash(dir));
+		assertValue("1", store, "a");
+		assertValue("2", store, "b");
+	}
+
+	@Test
+	public void testFailedPutNotLogged() throws Exception {
+		final File dir = new File(directory, "store");
+		final MapStore store = newStore();
+		final MapPersistence persistence = open(dir, store);
+		assertTrue(persistence.put("a", "1".getBytes(), 0));
+
+		// puts fail after closing the store
+		store.close();
+		assertFalse(persistence.put("a", "2".getBytes(), 0));
+		persistence.flush();
+
+		final MapStore recovered = recover(crash(dir));
+		assertValue("1", recovered, "a");
+	}
+
+	@Test
+	public void testFailedPutIfAbsentNotLogged() throws Exception {
+		final File dir = new File(directory, "store");
+		final MapStore store = new MapStore(PAGE_SIZE, PAGE_SIZE, false, 0, EvictionPolicy.LRU, new CacheMetric("test"));
+		final MapPersistence persistence = open(dir, store);
+		assertTrue(persistence.put("big", new byte[PAGE_SIZE], 0));
+
+		// the only page can't be reclaimed while a reader copies the value
+		final MapEntry big = store.getEntry("big");
+		assertTrue(big.pin());
+		try {
+			final PutIfAbsentResult result = persistence.putIfAbsent("a", "1".getBytes(), 0);
+			assertFalse("memory limit not reached", result.isStored());
+			assertNull(result.getExistingValue());
+		} finally {
+			big.unpin();
+		}
+		persistence.flush();
+
+		final MapStore recovered = recover(crash(dir));
+		assertValue(null, recovered, "a");
+	}
+
+	@Test
+	public void testIncompleteSnapshotIgnored() throws Exception {
+		write(MapLog.getLogFile(directory, 1), put("a", "1"));
+
+		// crashed while writing the snapshot (no marker)
+		write(new File(directory, "snapshot-2-0.dat"), put("a", "2"), put("b", "2"));
+		write(MapLog.getLogFile(directory, 2), put("c", "3"));
+
+		final MapStore store = recover(directory);
+		assertValue("1", store, "a");
+		assertValue(null, store, "b");
+		assertValue("3", store, "c");
+	}
+
+	@Test
+	public void testRecoverAfterClose() throws Exception {
+		final File dir = new File(directory, "store");
+		final MapPersistence persistence = open(dir, newStore());
+		persistence.put("a", "1".getBytes(), 0);
+		persistence.put("b", "2".getBytes(), 0);
+		persistence.remove("b");
+		persistence.close();
+		opened.remove(persistence);
+
+		final MapStore store = recover(dir);
+		assertEquals(1, store.size());
+		assertValue("1", store, "a");
+	}
+
+	@Test
+	public void testReplayOrderAfterSnapshot() throws Exception {
+		// the log of an older generation must not be replayed on top of the snapshot
+		write(MapLog.getLogFile(directory, 1), put("a", "old"), put("b", "old"), put("stale", "1"));
+		write(new File(directory, "snapshot-2-0.dat"), put("a", "snapshot"), put("b", "snapshot"), put("c", "snapshot"));
+		write(new File(directory, "snapshot-2-1.dat"), put("d", "snapshot"));
+		write(new File(directory, "snapshot-2.done"));
+
+		// logs are replayed in generation order
+		write(MapLog.getLogFile(directory, 2), put("a", "2"), remove("c"), put("e", "2"));
+		write(MapLog.getLogFile(directory, 3), put("a", "3"), put("c", "3"), remove("d"));
+
+		final MapStore store = recover(directory);
+		assertValue("3", store, "a");
+		assertValue("snapshot", store, "b");
+		assertValue("3", store, "c");
+		assertValue(null, store, "d");
+		assertValue("2", store, "e");
+		assertValue(null, store, "stale");
+		assertEquals(4, store.size());
+	}
+
+	@Test
+	public void testTornTail() throws Exception {
+		final File log = MapLog.getLogFile(directory, 1);
+		write(log, put("a", "1"), put("b", "2"), put("c", "3"));
+
+		// crashed in the middle of writing the last record
+		try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+			file.setLength(file.length() - 3);
+		}
+
+		final MapStore store = recover(directory);
+		assertEquals(2, store.size());
+		assertValue("1", store, "a");
+		assertValue("2", store, "b");
+		assertValue(null, store, "c");
+
+		// the recovered store continues logging in a new generation
+		assertTrue(MapLog.getLogFile(directory, 2).isFile());
+	}
+
+	@Test
+	public void testTruncatedHeaderOfRecord() throws Exception {
+		final File log = MapLog.getLogFile(directory, 1);
+		write(log, put("a", "1"));
+
+		// only part of the length prefix of the next record was written
+		try (FileOutputStream out = new FileOutputStream(log, true)) {
+			out.write(new byte[] { 0, 0 });
+		}
+
+		final MapStore store = recover(directory);
+		assertEquals(1, store.size());
+		assertValue("1", store, "a");
+		assertNull(store.get("b"));
+	}
+}
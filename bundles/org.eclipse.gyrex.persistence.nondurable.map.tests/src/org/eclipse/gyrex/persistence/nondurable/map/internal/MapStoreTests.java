@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.persistence.nondurable.map.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.EvictionPolicy;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.PutIfAbsentResult;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link MapStore}.
+ */
+public class MapStoreTests {
+
+	private static final int PAGE_SIZE = 1024;
+
+	private static MapStore newStore(final int pages, final int maxEntries) {
+		return new MapStore(pages * PAGE_SIZE, PAGE_SIZE, false, maxEntries, EvictionPolicy.LRU, new CacheMetric("test"));
+	}
+
+	/**
+	 * Creates a value whose content can be verified using
+	 * {@link #verify(String, byte[])}.
+	 */
+	private static byte[] value(final String key, final int length) {
+		final byte[] value = new byte[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = (byte) (key.hashCode() + i);
+		}
+		return value;
+	}
+
+	private static boolean verify(final String key, final byte[] value) {
+		for (int i = 0; i < value.length; i++) {
+			if (value[i] != (byte) (key.hashCode() + i))
+				return false;
+		}
+		return true;
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		final MapStore store = newStore(2, 0);
+		assertTrue(store.put("a", value("a", 10), 0));
+		assertTrue(store.put("b", value("b", PAGE_SIZE), 0));
+		assertEquals(2 * PAGE_SIZE, store.getMemoryUsed());
+
+		store.close();
+		assertEquals(0, store.size());
+		assertEquals("memory must be released", 0, store.getMemoryUsed());
+		assertFalse("must not store after close", store.put("c", value("c", 10), 0));
+	}
+
+	@Test
+	public void testConcurrentMixedSizes() throws Exception {
+		final MapStore store = newStore(8, 0);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < 8; t++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						final ThreadLocalRandom random = ThreadLocalRandom.current();
+						int stored = 0;
+						for (int i = 0; i < 20000; i++) {
+							final String key = "key" + random.nextInt(500);
+							if (random.nextBoolean()) {
+								// sizes of all slab classes
+								if (store.put(key, value(key, 1 + random.nextInt(PAGE_SIZE)), 0)) {
+									stored++;
+								}
+							} else {
+								final byte[] value = store.get(key);
+								if ((null != value) && !verify(key, value))
+									throw new AssertionError("corrupted value for " + key);
+							}
+						}
+						return stored;
+					}
+				}));
+			}
+			for (final Future<Integer> result : results) {
+				assertTrue("values must be stored", result.get(1, TimeUnit.MINUTES) > 0);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue("memory limit exceeded", store.getMemoryUsed() <= (8 * PAGE_SIZE));
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		final MapStore store = newStore(1, 0);
+		assertTrue(store.put("a", value("a", 10), 1));
+		Thread.sleep(10);
+		assertNull(store.get("a"));
+		assertTrue(store.putIfAbsent("a", value("a", 20), 0).isStored());
+		assertEquals(20, store.get("a").length);
+	}
+
+	@Test
+	public void testMaxEntries() throws Exception {
+		final MapStore store = newStore(4, 10);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(store.put("key" + i, value("key" + i, 10), 0));
+		}
+		assertTrue("too many entries: " + store.size(), store.size() <= 10);
+	}
+
+	@Test
+	public void testPageMovedToClassWithoutMemory() throws Exception {
+		final MapStore store = newStore(2, 0);
+
+		// use all memory for small values
+		for (int i = 0; i < 100; i++) {
+			assertTrue(store.put("small" + i, value("small" + i, 10), 0));
+		}
+		assertEquals(2 * PAGE_SIZE, store.getMemoryUsed());
+
+		// a class without pages must get memory by evicting small values
+		assertTrue("large value not stored", store.put("large", value("large", PAGE_SIZE), 0));
+		assertArrayEquals(value("large", PAGE_SIZE), store.get("large"));
+		assertEquals("memory must not grow", 2 * PAGE_SIZE, store.getMemoryUsed());
+	}
+
+	@Test
+	public void testPageMovedToSmallClass() throws Exception {
+		final MapStore store = newStore(2, 0);
+		assertTrue(store.put("large1", value("large1", PAGE_SIZE), 0));
+		assertTrue(store.put("large2", value("large2", PAGE_SIZE), 0));
+
+		assertTrue("small value not stored", store.put("small", value("small", 10), 0));
+		assertArrayEquals(value("small", 10), store.get("small"));
+		assertEquals("one large value must be evicted", 2, store.size());
+	}
+
+	@Test
+	public void testPutGetRemove() throws Exception {
+		final MapStore store = newStore(1, 0);
+		assertNull(store.get("a"));
+		assertTrue(store.put("a", value("a", 10), 0));
+		assertArrayEquals(value("a", 10), store.get("a"));
+
+		// replace with a value of a different slab class
+		assertTrue(store.put("a", value("a", 100), 0));
+		assertArrayEquals(value("a", 100), store.get("a"));
+		assertEquals(1, store.size());
+
+		final PutIfAbsentResult result = store.putIfAbsent("a", value("a", 5), 0);
+		assertFalse(result.isStored());
+		assertArrayEquals(value("a", 100), result.getExistingValue());
+		assertTrue(store.remove("a"));
+		assertFalse(store.remove("a"));
+		assertNull(store.get("a"));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void testScan() throws Exception {
+		final MapStore store = newStore(1, 0);
+		store.put("a/1", value("a/1", 1), 0);
+		store.put("a/2", value("a/2", 2), 0);
+		store.put("b/1", value("b/1", 3), 0);
+
+		final SortedMap<String, byte[]> result = store.scan("a/", 10);
+		assertEquals(2, result.size());
+		assertEquals("a/1", result.firstKey());
+		assertEquals(1, store.scan("a/", 1).size());
+		assertEquals(3, store.scan("", 10).size());
+	}
+}
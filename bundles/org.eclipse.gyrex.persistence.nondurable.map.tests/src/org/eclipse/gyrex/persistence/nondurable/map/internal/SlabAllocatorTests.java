@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License v1.0 which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ */
+package org.eclipse.gyrex.persistence.nondurable.map.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SlabAllocator}.
+ */
+public class SlabAllocatorTests {
+
+	private static final int PAGE_SIZE = 1024;
+
+	/** number of chunks of the smallest class per page */
+	private static final int SMALL_CHUNKS = PAGE_SIZE / SlabAllocator.MIN_CHUNK_SIZE;
+
+	private static MapEntry owner(final SlabAllocator allocator, final int length) {
+		return new MapEntry("key", allocator.getSlabClass(length), length, 0, System.currentTimeMillis());
+	}
+
+	private static List<Integer> fill(final SlabAllocator allocator, final int slabClass) {
+		final List<Integer> chunks = new ArrayList<Integer>();
+		int chunk;
+		while ((chunk = allocator.allocate(slabClass, owner(allocator, 1))) >= 0) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	@Test
+	public void testAllocateUntilFull() throws Exception {
+		final SlabAllocator allocator = new SlabAllocator(2 * PAGE_SIZE, PAGE_SIZE, false);
+		assertEquals(0, allocator.getMemoryUsed());
+
+		final List<Integer> chunks = fill(allocator, 0);
+		assertEquals(2 * SMALL_CHUNKS, chunks.size());
+		assertEquals(2 * PAGE_SIZE, allocator.getMemoryUsed());
+
+		// freed chunks are reused
+		allocator.free(0, chunks.get(3));
+		assertEquals(chunks.get(3).intValue(), allocator.allocate(0, owner(allocator, 1)));
+		assertEquals(-1, allocator.allocate(0, owner(allocator, 1)));
+	}
+
+	@Test
+	public void testCloseReleasesPages() throws Exception {
+		final SlabAllocator allocator = new SlabAllocator(2 * PAGE_SIZE, PAGE_SIZE, true);
+		final int chunk = allocator.allocate(0, owner(allocator, 1));
+		allocator.allocate(allocator.getSlabClass(PAGE_SIZE), owner(allocator, PAGE_SIZE));
+		allocator.free(allocator.getSlabClass(PAGE_SIZE), 0);
+		assertEquals(2 * PAGE_SIZE, allocator.getMemoryUsed());
+
+		allocator.close();
+		assertEquals("pages of classes without allocated chunks must be released", PAGE_SIZE, allocator.getMemoryUsed());
+		assertEquals("must not allocate after close", -1, allocator.allocate(0, owner(allocator, 1)));
+
+		allocator.free(0, chunk);
+		assertEquals("pages must be released when the last chunk is freed", 0, allocator.getMemoryUsed());
+	}
+
+	@Test
+	public void testReadWrite() throws Exception {
+		for (final boolean offHeap : new boolean[] { false, true }) {
+			final SlabAllocator allocator = new SlabAllocator(PAGE_SIZE, PAGE_SIZE, offHeap);
+			final byte[] first = new byte[] { 1, 2, 3 };
+			final byte[] second = new byte[] { 4, 5, 6, 7 };
+			final int chunk1 = allocator.allocate(allocator.getSlabClass(first.length), owner(allocator, first.length));
+			final int chunk2 = allocator.allocate(allocator.getSlabClass(second.length), owner(allocator, second.length));
+			allocator.write(allocator.getSlabClass(first.length), chunk1, first);
+			allocator.write(allocator.getSlabClass(second.length), chunk2, second);
+
+			final byte[] read = new byte[first.length];
+			allocator.read(allocator.getSlabClass(first.length), chunk1, read);
+			assertArrayEquals(first, read);
+			final byte[] read2 = new byte[second.length];
+			allocator.read(allocator.getSlabClass(second.length), chunk2, read2);
+			assertArrayEquals(second, read2);
+		}
+	}
+
+	@Test
+	public void testReassignPage() throws Exception {
+		final SlabAllocator allocator = new SlabAllocator(2 * PAGE_SIZE, PAGE_SIZE, false);
+		final List<Integer> chunks = fill(allocator, 0);
+		final int large = allocator.getSlabClass(PAGE_SIZE);
+		assertEquals("no memory left for the large class", -1, allocator.allocate(large, owner(allocator, PAGE_SIZE)));
+
+		// the owners of the last page must be evicted first
+		final List<MapEntry> owners = new ArrayList<MapEntry>();
+		assertFalse(allocator.reassignPage(large, owners));
+		assertEquals(SMALL_CHUNKS, owners.size());
+
+		// no more chunks are allocated from the page being moved
+		allocator.free(0, chunks.get(SMALL_CHUNKS));
+		assertEquals(-1, allocator.allocate(0, owner(allocator, 1)));
+
+		for (int i = SMALL_CHUNKS + 1; i < chunks.size(); i++) {
+			allocator.free(0, chunks.get(i));
+		}
+		owners.clear();
+		assertTrue(allocator.reassignPage(large, owners));
+		assertTrue(owners.isEmpty());
+		assertEquals(0, allocator.allocate(large, owner(allocator, PAGE_SIZE)));
+		assertEquals("memory must not grow", 2 * PAGE_SIZE, allocator.getMemoryUsed());
+
+		// the first page is still usable by the small class
+		allocator.free(0, chunks.get(0));
+		assertEquals(chunks.get(0).intValue(), allocator.allocate(0, owner(allocator, 1)));
+		assertEquals(-1, allocator.allocate(0, owner(allocator, 1)));
+	}
+
+	@Test
+	public void testReassignPageCanceled() throws Exception {
+		final SlabAllocator allocator = new SlabAllocator(2 * PAGE_SIZE, PAGE_SIZE, false);
+		final List<Integer> chunks = fill(allocator, 0);
+		final int large = allocator.getSlabClass(PAGE_SIZE);
+
+		final List<MapEntry> owners = new ArrayList<MapEntry>();
+		assertFalse(allocator.reassignPage(large, owners));
+		allocator.free(0, chunks.get(chunks.size() - 1));
+		assertEquals(-1, allocator.allocate(0, owner(allocator, 1)));
+
+		// the small class needs the page itself
+		assertTrue(allocator.reassignPage(0, new ArrayList<MapEntry>()));
+		assertEquals(chunks.get(chunks.size() - 1).intValue(), allocator.allocate(0, owner(allocator, 1)));
+	}
+
+	@Test
+	public void testSlabClass() throws Exception {
+		final SlabAllocator allocator = new SlabAllocator(PAGE_SIZE, PAGE_SIZE, false);
+		assertEquals(5, allocator.getSlabClassCount());
+		assertEquals(0, allocator.getSlabClass(0));
+		assertEquals(0, allocator.getSlabClass(SlabAllocator.MIN_CHUNK_SIZE));
+		assertEquals(1, allocator.getSlabClass(SlabAllocator.MIN_CHUNK_SIZE + 1));
+		assertEquals(4, allocator.getSlabClass(PAGE_SIZE));
+		assertEquals(-1, allocator.getSlabClass(PAGE_SIZE + 1));
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.nondurable.map;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key/value operations of a {@link MapRepository}.
+ * <p>
+ * Values are stored as bytes based on keys and may expire after a time to
+ * live. The repository may be limited in size, in which case values are
+ * evicted when the limit is reached. Map repositories provided by the platform
+ * implement this interface. Clients should check if a map repository
+ * implements it (using <code>instanceof</code>) before using the operations.
+ * </p>
+ * <p>
+ * All methods are safe to be called concurrently.
+ * </p>
+ * <p>
+ * This interface may be implemented by clients that contribute a custom map
+ * repository to the platform (see {@link MapRepository}).
+ * </p>
+ *
+ * @since 1.3
+ */
+public interface IMapRepository {
+
+	/**
+	 * Returns the value stored for a key.
+	 *
+	 * @param key
+	 *            the key (must not be <code>null</code>)
+	 * @return the value (maybe <code>null</code> if no value is stored, the
+	 *         value expired or has been evicted)
+	 * @throws IllegalStateException
+	 *             if the repository is closed
+	 */
+	byte[] get(String key) throws IllegalStateException;
+
+	/**
+	 * Stores a value which never expires.
+	 *
+	 * @param key
+	 *            the key (must not be <code>null</code>)
+	 * @param value
+	 *            the value (must not be <code>null</code>)
+	 * @return <code>true</code> if the value has been stored,
+	 *         <code>false</code> if the repository is full and no space could
+	 *         be reclaimed
+	 * @throws IllegalArgumentException
+	 *             if the key or value is invalid (eg. the value is too large)
+	 * @throws IllegalStateException
+	 *             if the repository is closed
+	 * @see #put(String, byte[], long, TimeUnit)
+	 */
+	boolean put(String key, byte[] value) throws IllegalArgumentException, IllegalStateException;
+
+	/**
+	 * Stores a value.
+	 * <p>
+	 * Any value previously stored for the key is replaced. If the value
+	 * cannot be stored, the previous value is kept.
+	 * </p>
+	 *
+	 * @param key
+	 *            the key (must not be <code>null</code>)
+	 * @param value
+	 *            the value (must not be <code>null</code>)
+	 * @param ttl
+	 *            the time to live (<code>0</code> if the value should never
+	 *            expire)
+	 * @param unit
+	 *            the unit of the time to live
+	 * @return <code>true</code> if the value has been stored,
+	 *         <code>false</code> if the repository is full and no space could
+	 *         be reclaimed
+	 * @throws IllegalArgumentException
+	 *             if the key or value is invalid (eg. the value is too large)
+	 * @throws IllegalStateException
+	 *             if the repository is closed
+	 */
+	boolean put(String key, byte[] value, long ttl, TimeUnit unit) throws IllegalArgumentException, IllegalStateException;
+
+	/**
+	 * Stores a value which never expires unless a value is stored for the key
+	 * already.
+	 *
+	 * @param key
+	 *            the key (must not be <code>null</code>)
+	 * @param value
+	 *            the value (must not be <code>null</code>)
+	 * @return the value already stored for the key (<code>null</code> if
+	 *         none; the value is not stored if the repository is full and no
+	 *         space could be reclaimed)
+	 * @throws IllegalArgumentException
+	 *             if the key or value is invalid (eg. the value is too large)
+	 * @throws IllegalStateException
+	 *             if the repository is closed
+	 * @see #putIfAbsent(String, byte[], long, TimeUnit)
+	 */
+	byte[] putIfAbsent(String key, byte[] value) throws IllegalArgumentException, IllegalStateException;
+
+	/**
+	 * Stores a value unless a value is stored for the key already.
+	 *
+	 * @param key
+	 *            the key (must not be <code>null</code>)
+	 * @param value
+	 *            the value (must not be <code>null</code>)
+	 * @param ttl
+	 *            the time to live (<code>0</code> if the value should never
+	 *            expire)
+	 * @param unit
+	 *            the unit of the time to live
+	 * @return the value already stored for the key (<code>null</code> if
+	 *         none; the value is not stored if the repository is full and no
+	 *         space could be reclaimed)
+	 * @throws IllegalArgumentException
+	 *             if the key or value is invalid (eg. the value is too large)
+	 * @throws IllegalStateException
+	 *             if the repository is closed
+	 */
+	byte[] putIfAbsent(String key, byte[] value, long ttl, TimeUnit unit) throws IllegalArgumentException, IllegalStateException;
+
+	/**
+	 * Removes the value stored for a key.
+	 *
+	 * @param key
+	 *            the key (must not be <code>null</code>)
+	 * @return <code>true</code> if a value has been removed,
+	 *         <code>false</code> otherwise
+	 * @throws IllegalStateException
+	 *             if the repository is closed
+	 */
+	boolean remove(String key) throws IllegalStateException;
+
+	/**
+	 * Returns the values of all keys starting with the specified prefix.
+	 * <p>
+	 * The result is not a consistent snapshot of the repository. Concurrent
+	 * modifications may or may not be reflected.
+	 * </p>
+	 *
+	 * @param prefix
+	 *            the key prefix (may be empty to scan all keys)
+	 * @param limit
+	 *            the max. number of values to return
+	 * @return a map of keys and values sorted by key
+	 * @throws IllegalStateException
+	 *             if the repository is closed
+	 */
+	SortedMap<String, byte[]> scan(String prefix, int limit) throws IllegalStateException;
+}
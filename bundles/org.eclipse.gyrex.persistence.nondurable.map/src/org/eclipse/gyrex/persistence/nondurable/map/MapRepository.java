@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 AGETO Service GmbH and others.
+ * Copyright (c) 2008, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -11,8 +11,6 @@
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.nondurable.map;
 
-import java.util.concurrent.ConcurrentNavigableMap;
-
 import org.eclipse.gyrex.monitoring.metrics.MetricSet;
 import org.eclipse.gyrex.persistence.storage.Repository;
 import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
@@ -20,20 +18,23 @@ import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
 /**
  * Base class for non durable repositories backed by an in-memory map.
  * <p>
- * The repository may be used for short living objects. It does not offer any
- * transaction or other rich persistence capabilities. It's backed by a
- * {@link ConcurrentNavigableMap} to simply store objects based on keys.
+ * The repository may be used for short living objects, eg. as a fast,
+ * node-local cache or scratch store. It does not offer any transaction or
+ * other rich persistence capabilities. The key/value operations are defined
+ * by {@link IMapRepository}, which is implemented by the map repositories
+ * provided by the platform.
  * </p>
  * <p>
  * This class may be subclassed by clients that want to contribute a custom map
- * repository to the platform.
+ * repository to the platform. Such subclasses should implement
+ * {@link IMapRepository}.
  * </p>
  */
 public abstract class MapRepository extends Repository {
 
 	/**
 	 * Creates a new map repository instance.
-	 * 
+	 *
 	 * @param repositoryId
 	 *            the repository id
 	 * @param repositoryType
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.nondurable.map.internal;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * An entry of a {@link MapStore} referencing a value stored in a slab chunk.
+ * <p>
+ * Readers pin the entry while copying the value. Once an entry is retired
+ * (i.e. removed from the store) it can no longer be pinned and its chunk is
+ * freed when the last reader unpins it.
+ * </p>
+ */
+final class MapEntry {
+
+	private static final AtomicIntegerFieldUpdater<MapEntry> pinsUpdater = AtomicIntegerFieldUpdater.newUpdater(MapEntry.class, "pins");
+
+	/** flag set in {@link #pins} when retired */
+	private static final int RETIRED = Integer.MIN_VALUE;
+
+	final String key;
+	final int slabClass;
+	final int length;
+
+	/** expiration time in milliseconds (<code>0</code> if never) */
+	final long expiresAt;
+
+	/** the chunk (set before the entry is published) */
+	int chunk = -1;
+
+	/** last access time in milliseconds (racy updates are fine) */
+	long lastAccess;
+
+	/** logarithmic access frequency counter (racy updates are fine) */
+	int frequency;
+
+	/** number of readers; {@link #RETIRED} flag when retired */
+	private volatile int pins;
+
+	MapEntry(final String key, final int slabClass, final int length, final long expiresAt, final long now) {
+		this.key = key;
+		this.slabClass = slabClass;
+		this.length = length;
+		this.expiresAt = expiresAt;
+		lastAccess = now;
+	}
+
+	/**
+	 * Indicates if the entry is expired.
+	 */
+	boolean isExpired(final long now) {
+		return (expiresAt != 0) && (now >= expiresAt);
+	}
+
+	/**
+	 * Indicates if the entry has been retired.
+	 */
+	boolean isRetired() {
+		return pins < 0;
+	}
+
+	/**
+	 * Pins the entry for reading.
+	 *
+	 * @return <code>true</code> if pinned, <code>false</code> if the entry is
+	 *         retired
+	 */
+	boolean pin() {
+		while (true) {
+			final int p = pins;
+			if (p < 0)
+				return false;
+			if (pinsUpdater.compareAndSet(this, p, p + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Retires the entry.
+	 *
+	 * @return <code>true</code> if the chunk can be freed by the caller,
+	 *         <code>false</code> otherwise (already retired or still pinned)
+	 */
+	boolean retire() {
+		while (true) {
+			final int p = pins;
+			if (p < 0)
+				return false;
+			if (pinsUpdater.compareAndSet(this, p, p | RETIRED))
+				return p == 0;
+		}
+	}
+
+	/**
+	 * Unpins the entry.
+	 *
+	 * @return <code>true</code> if the entry was retired while pinned and the
+	 *         chunk must be freed by the caller, <code>false</code> otherwise
+	 */
+	boolean unpin() {
+		return pinsUpdater.decrementAndGet(this) == RETIRED;
+	}
+}
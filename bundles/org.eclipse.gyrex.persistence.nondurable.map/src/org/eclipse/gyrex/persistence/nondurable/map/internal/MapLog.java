@@ -0,0 +1,456 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.nondurable.map.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapPersistence.FsyncPolicy;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of map modifications written by a single background
+ * thread.
+ * <p>
+ * Callers encode their records and enqueue them. The writer thread drains
+ * all queued records, writes them in one go and syncs the file once for the
+ * whole batch (group commit). Depending on the {@link FsyncPolicy} callers
+ * may wait for their record to be synced.
+ * </p>
+ * <p>
+ * The same record format is used for snapshot files. Every record is
+ * prefixed with its length and a CRC32 checksum so that a torn write at the
+ * end of a file is detected when reading it.
+ * </p>
+ */
+final class MapLog {
+
+	/**
+	 * A decoded record.
+	 */
+	static final class LogRecord {
+		final byte op;
+		final String key;
+		final long expiresAt;
+		final byte[] value;
+
+		LogRecord(final byte op, final String key, final long expiresAt, final byte[] value) {
+			this.op = op;
+			this.key = key;
+			this.expiresAt = expiresAt;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Reads records from a log or snapshot file.
+	 */
+	static final class Reader implements Closeable {
+
+		private final File file;
+		private final DataInputStream in;
+		private final CRC32 crc = new CRC32();
+
+		Reader(final File file) throws IOException {
+			this.file = file;
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+			try {
+				if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+					throw new IOException("unsupported file format: " + file);
+			} catch (final IOException e) {
+				in.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		/**
+		 * Reads the next record.
+		 *
+		 * @return the record (or <code>null</code> at the end of the file or
+		 *         if the remaining content is corrupt)
+		 * @throws IOException
+		 */
+		LogRecord next() throws IOException {
+			final byte[] payload;
+			final int checksum;
+			try {
+				final int length = in.readInt();
+				checksum = in.readInt();
+				if ((length < MIN_PAYLOAD_SIZE) || (length > MAX_PAYLOAD_SIZE)) {
+					LOG.warn("Ignoring corrupt record at end of {} (invalid length {}).", file, length);
+					return null;
+				}
+				payload = new byte[length];
+				in.readFully(payload);
+			} catch (final EOFException e) {
+				// end of file or incomplete record
+				return null;
+			}
+
+			crc.reset();
+			crc.update(payload, 0, payload.length);
+			if ((int) crc.getValue() != checksum) {
+				LOG.warn("Ignoring corrupt record at end of {} (checksum mismatch).", file);
+				return null;
+			}
+
+			final ByteBuffer buffer = ByteBuffer.wrap(payload);
+			final byte op = buffer.get();
+			final byte[] key = new byte[buffer.getInt()];
+			buffer.get(key);
+			final long expiresAt = buffer.getLong();
+			final byte[] value = new byte[buffer.getInt()];
+			buffer.get(value);
+			return new LogRecord(op, new String(key, UTF_8), expiresAt, value);
+		}
+	}
+
+	/**
+	 * A record queued for writing.
+	 */
+	static final class Record {
+		final byte[] data;
+		final long generation;
+		volatile boolean committed;
+
+		Record(final byte[] data, final long generation) {
+			this.data = data;
+			this.generation = generation;
+		}
+	}
+
+	static final byte OP_PUT = 1;
+	static final byte OP_REMOVE = 2;
+	static final byte OP_CLEAR = 3;
+
+	private static final Logger LOG = LoggerFactory.getLogger(MapLog.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x47584d4c;
+	private static final int VERSION = 1;
+	static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MIN_PAYLOAD_SIZE = 17;
+	private static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+	/** the max. number of queued records (writers block when reached) */
+	private static final int MAX_QUEUED_RECORDS = 64 * 1024;
+
+	/** the time between syncs for {@link FsyncPolicy#INTERVAL} */
+	private static final long FSYNC_INTERVAL_MILLIS = 1000L;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	/**
+	 * Encodes a record.
+	 *
+	 * @return the record bytes (including length and checksum)
+	 */
+	static byte[] encode(final byte op, final String key, final long expiresAt, final byte[] value) {
+		final byte[] keyBytes = null != key ? key.getBytes(UTF_8) : EMPTY;
+		final byte[] valueBytes = null != value ? value : EMPTY;
+		final int length = MIN_PAYLOAD_SIZE + keyBytes.length + valueBytes.length;
+		final ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+		buffer.putInt(length);
+		buffer.putInt(0); // checksum
+		buffer.put(op);
+		buffer.putInt(keyBytes.length);
+		buffer.put(keyBytes);
+		buffer.putLong(expiresAt);
+		buffer.putInt(valueBytes.length);
+		buffer.put(valueBytes);
+
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 8, length);
+		buffer.putInt(4, (int) crc.getValue());
+		return buffer.array();
+	}
+
+	/**
+	 * Returns the log file of a generation.
+	 */
+	static File getLogFile(final File directory, final long generation) {
+		return new File(directory, "log-" + generation + ".dat");
+	}
+
+	/**
+	 * Writes the file header.
+	 */
+	static void writeHeader(final OutputStream out) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(8);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		out.write(header.array());
+	}
+
+	private final File directory;
+	private final FsyncPolicy fsyncPolicy;
+	private final long maxLogSize;
+	private final Runnable maxLogSizeListener;
+	private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<Record>(MAX_QUEUED_RECORDS);
+	private final Object commitLock = new Object();
+	private final Thread writerThread;
+
+	private volatile boolean closed;
+	private volatile boolean failed;
+
+	// writer thread only
+	private FileOutputStream file;
+	private OutputStream out;
+	private long logSize;
+	private long lastSync;
+	private boolean unsynced;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param directory
+	 *            the directory to write log files to
+	 * @param generation
+	 *            the generation of the first log file
+	 * @param fsyncPolicy
+	 *            the fsync policy
+	 * @param maxLogSize
+	 *            the log size (in bytes) after which the listener is called
+	 * @param maxLogSizeListener
+	 *            the listener to call when the log grew larger than the max.
+	 *            log size (called by the writer thread)
+	 * @param name
+	 *            the name of the writer thread
+	 * @throws IOException
+	 *             if the log file could not be opened
+	 */
+	MapLog(final File directory, final long generation, final FsyncPolicy fsyncPolicy, final long maxLogSize, final Runnable maxLogSizeListener, final String name) throws IOException {
+		this.directory = directory;
+		this.fsyncPolicy = fsyncPolicy;
+		this.maxLogSize = maxLogSize;
+		this.maxLogSizeListener = maxLogSizeListener;
+		open(generation);
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, name);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Appends a record.
+	 * <p>
+	 * The record is written asynchronously. Use {@link #await(Record)} to
+	 * wait for it being committed.
+	 * </p>
+	 *
+	 * @param data
+	 *            the encoded record
+	 * @return the queued record (or <code>null</code> if the log failed)
+	 */
+	Record append(final byte[] data) {
+		return enqueue(new Record(data, 0));
+	}
+
+	/**
+	 * Waits until a record has been committed according to the fsync policy.
+	 *
+	 * @param record
+	 *            the record (may be <code>null</code>)
+	 */
+	void await(final Record record) {
+		if (null == record)
+			return;
+		synchronized (commitLock) {
+			while (!record.committed && !failed) {
+				try {
+					commitLock.wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void closeFile() throws IOException {
+		if (null == file)
+			return;
+		try {
+			out.flush();
+			if (fsyncPolicy != FsyncPolicy.NEVER) {
+				file.getChannel().force(false);
+			}
+		} finally {
+			file.close();
+			file = null;
+			out = null;
+		}
+	}
+
+	/**
+	 * Closes the log.
+	 * <p>
+	 * All queued records are written before the log file is closed.
+	 * </p>
+	 */
+	void close() {
+		closed = true;
+		// wake up the writer thread
+		queue.offer(new Record(EMPTY, 0));
+		try {
+			writerThread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Record enqueue(final Record record) {
+		if (failed || closed)
+			return null;
+		try {
+			queue.put(record);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		return record;
+	}
+
+	/**
+	 * Waits until all records appended so far have been written to the log
+	 * file.
+	 */
+	void flush() {
+		await(enqueue(new Record(EMPTY, 0)));
+	}
+
+	/**
+	 * Indicates if the log failed to write a record.
+	 * <p>
+	 * Once failed, no further records are written.
+	 * </p>
+	 */
+	boolean isFailed() {
+		return failed;
+	}
+
+	private void open(final long generation) throws IOException {
+		file = new FileOutputStream(getLogFile(directory, generation), true);
+		out = new BufferedOutputStream(file, BUFFER_SIZE);
+		logSize = file.getChannel().size();
+		if (logSize == 0) {
+			writeHeader(out);
+		}
+	}
+
+	/**
+	 * Continues logging in a new file of the specified generation.
+	 *
+	 * @param generation
+	 *            the generation
+	 * @return a record which is committed once the previous file has been
+	 *         closed (or <code>null</code> if the log failed)
+	 */
+	Record rotate(final long generation) {
+		return enqueue(new Record(null, generation));
+	}
+
+	private void writeBatch(final List<Record> batch) throws IOException {
+		for (final Record record : batch) {
+			if (null == record.data) {
+				closeFile();
+				open(record.generation);
+				continue;
+			}
+			out.write(record.data);
+			logSize += record.data.length;
+			unsynced = true;
+		}
+		out.flush();
+
+		final long now = System.currentTimeMillis();
+		if (unsynced && ((fsyncPolicy == FsyncPolicy.ALWAYS) || ((fsyncPolicy == FsyncPolicy.INTERVAL) && ((now - lastSync) >= FSYNC_INTERVAL_MILLIS)))) {
+			file.getChannel().force(false);
+			lastSync = now;
+			unsynced = false;
+		}
+	}
+
+	private void writeLoop() {
+		final List<Record> batch = new ArrayList<Record>();
+		boolean compactionRequested = false;
+		try {
+			while (!closed || !queue.isEmpty()) {
+				final Record first = queue.poll(FSYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				if (null != first) {
+					batch.add(first);
+					queue.drainTo(batch);
+				}
+				writeBatch(batch);
+
+				synchronized (commitLock) {
+					for (final Record record : batch) {
+						record.committed = true;
+					}
+					commitLock.notifyAll();
+				}
+				batch.clear();
+
+				// a new file starts small again after rotation
+				if (logSize < maxLogSize) {
+					compactionRequested = false;
+				} else if (!compactionRequested) {
+					compactionRequested = true;
+					maxLogSizeListener.run();
+				}
+			}
+			closeFile();
+		} catch (final Exception e) {
+			LOG.error("Error writing map repository log in {}. Changes will no longer be logged. {}", directory, ExceptionUtils.getRootCauseMessage(e));
+			failed = true;
+			queue.clear();
+			synchronized (commitLock) {
+				commitLock.notifyAll();
+			}
+			try {
+				if (null != file) {
+					file.close();
+				}
+			} catch (final IOException ignored) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,675 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.nondurable.map.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapLog.LogRecord;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapLog.Record;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.PutIfAbsentResult;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local persistence for a {@link MapStore} using periodic snapshots and an
+ * append-only log of all modifications in between.
+ * <p>
+ * All modifications must go through this class so that they are logged.
+ * Snapshots are taken in the background after the snapshot interval or once
+ * the log grew larger than the max. log size. Taking a snapshot first
+ * switches logging to a new log file and then writes all entries of the
+ * store. Thus, the store can be recovered by loading the latest complete
+ * snapshot and replaying all log files started with or after it.
+ * </p>
+ * <p>
+ * Snapshots are split into several partitions (by key hash) which are loaded
+ * in parallel. Log files are replayed in batches and each batch is applied in
+ * parallel per partition, which preserves the order of modifications of a
+ * key. Modifications of the same key are serialized using striped locks so
+ * that the log order matches the order of modifications in the store.
+ * </p>
+ * <p>
+ * Evictions are not logged. Evicted entries may be recovered and are evicted
+ * again when the store limits are reached.
+ * </p>
+ */
+public final class MapPersistence {
+
+	/**
+	 * Policy for syncing the log to disk.
+	 */
+	public static enum FsyncPolicy {
+		/** sync every batch of records before the modification returns */
+		ALWAYS,
+		/** sync once per second in the background */
+		INTERVAL,
+		/** never sync explicitly (leave it to the operating system) */
+		NEVER
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(MapPersistence.class);
+
+	/** the number of snapshot partitions */
+	private static final int SNAPSHOT_PARTITIONS = 8;
+
+	/** the number of log records replayed in parallel */
+	private static final int REPLAY_BATCH_SIZE = 16 * 1024;
+
+	private static final int LOCK_STRIPES = 64;
+
+	private static final Pattern SNAPSHOT_MARKER = Pattern.compile("snapshot-(\\d+)\\.done");
+	private static final Pattern LOG_FILE = Pattern.compile("log-(\\d+)\\.dat");
+	private static final Pattern DATA_FILE = Pattern.compile("(?:log|snapshot)-(\\d+)(?:-\\d+)?\\.(?:dat|done)");
+
+	private static long getExpiresAt(final long ttlMillis) {
+		return ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+	}
+
+	private static int getPartition(final String key) {
+		return (key.hashCode() & Integer.MAX_VALUE) % SNAPSHOT_PARTITIONS;
+	}
+
+	private static File getSnapshotFile(final File directory, final long generation, final int partition) {
+		return new File(directory, "snapshot-" + generation + "-" + partition + ".dat");
+	}
+
+	private static File getSnapshotMarker(final File directory, final long generation) {
+		return new File(directory, "snapshot-" + generation + ".done");
+	}
+
+	private final File directory;
+	private final MapStore store;
+	private final FsyncPolicy fsyncPolicy;
+	private final long snapshotInterval;
+	private final long maxLogSize;
+	private final String name;
+	private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+	private final AtomicLong modifications = new AtomicLong();
+	private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+	private final Object snapshotLock = new Object();
+
+	private volatile MapLog log;
+	private volatile ScheduledThreadPoolExecutor executor;
+
+	/** the current log generation (guarded by snapshotLock) */
+	private long generation;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param directory
+	 *            the directory for storing snapshot and log files
+	 * @param store
+	 *            the store to persist
+	 * @param fsyncPolicy
+	 *            the fsync policy
+	 * @param snapshotInterval
+	 *            the time (in milliseconds) between snapshots
+	 * @param maxLogSize
+	 *            the log size (in bytes) after which a snapshot is taken
+	 *            earlier
+	 * @param name
+	 *            a name used for background threads
+	 */
+	public MapPersistence(final File directory, final MapStore store, final FsyncPolicy fsyncPolicy, final long snapshotInterval, final long maxLogSize, final String name) {
+		if (null == directory)
+			throw new IllegalArgumentException("directory must not be null");
+		if (null == store)
+			throw new IllegalArgumentException("store must not be null");
+		if (null == fsyncPolicy)
+			throw new IllegalArgumentException("fsync policy must not be null");
+		if (snapshotInterval <= 0)
+			throw new IllegalArgumentException("snapshot interval must be greater than zero");
+		this.directory = directory;
+		this.store = store;
+		this.fsyncPolicy = fsyncPolicy;
+		this.snapshotInterval = snapshotInterval;
+		this.maxLogSize = maxLogSize;
+		this.name = name;
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Appends a record to the log.
+	 * <p>
+	 * Must be called while holding the lock of the key.
+	 * </p>
+	 */
+	private Record append(final MapLog log, final byte[] record) {
+		modifications.incrementAndGet();
+		return null != log ? log.append(record) : null;
+	}
+
+	/**
+	 * Waits for a record to be committed if required by the fsync policy.
+	 * <p>
+	 * Must be called after releasing the lock so that other modifications
+	 * can join the same commit.
+	 * </p>
+	 */
+	private void awaitCommit(final MapLog log, final Record record) {
+		if ((fsyncPolicy == FsyncPolicy.ALWAYS) && (null != log)) {
+			log.await(record);
+		}
+	}
+
+	private void apply(final List<LogRecord> batch, final ExecutorService executor, final long now) throws IOException {
+		if (batch.isEmpty())
+			return;
+
+		// partition by key in order to preserve the order per key
+		final List<List<LogRecord>> partitions = new ArrayList<List<LogRecord>>(SNAPSHOT_PARTITIONS);
+		for (int i = 0; i < SNAPSHOT_PARTITIONS; i++) {
+			partitions.add(new ArrayList<LogRecord>());
+		}
+		for (final LogRecord record : batch) {
+			partitions.get(getPartition(record.key)).add(record);
+		}
+		batch.clear();
+
+		final List<Future<Void>> futures = new ArrayList<Future<Void>>(SNAPSHOT_PARTITIONS);
+		for (final List<LogRecord> partition : partitions) {
+			if (partition.isEmpty()) {
+				continue;
+			}
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (final LogRecord record : partition) {
+						restore(record, now);
+					}
+					return null;
+				}
+			}));
+		}
+		waitFor(futures);
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		final MapLog log = this.log;
+		final Record record;
+		for (final ReentrantLock lock : locks) {
+			lock.lock();
+		}
+		try {
+			store.clear();
+			record = append(log, MapLog.encode(MapLog.OP_CLEAR, null, 0, null));
+		} finally {
+			for (final ReentrantLock lock : locks) {
+				lock.unlock();
+			}
+		}
+		awaitCommit(log, record);
+	}
+
+	/**
+	 * Closes the persistence.
+	 * <p>
+	 * A final snapshot is taken so that the next recovery does not need to
+	 * replay the log.
+	 * </p>
+	 */
+	public void close() {
+		final ScheduledThreadPoolExecutor executor = this.executor;
+		if (null != executor) {
+			this.executor = null;
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			snapshot();
+		} catch (final IOException e) {
+			LOG.warn("Error writing map repository snapshot in {}. {}", directory, ExceptionUtils.getRootCauseMessage(e));
+		}
+		final MapLog log = this.log;
+		if (null != log) {
+			this.log = null;
+			log.close();
+		}
+	}
+
+	private void deleteObsoleteFiles(final long snapshotGeneration) {
+		final String[] names = directory.list();
+		if (null == names)
+			return;
+		for (final String fileName : names) {
+			final Matcher matcher = DATA_FILE.matcher(fileName);
+			if (matcher.matches() && (Long.parseLong(matcher.group(1)) < snapshotGeneration)) {
+				final File file = new File(directory, fileName);
+				if (!file.delete()) {
+					LOG.debug("Unable to delete obsolete file {}.", file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until all modifications logged so far have been written to the
+	 * log file.
+	 * <p>
+	 * Whether the log is synced to disk depends on the fsync policy.
+	 * </p>
+	 */
+	public void flush() {
+		final MapLog log = this.log;
+		if (null != log) {
+			log.flush();
+		}
+	}
+
+	/**
+	 * Returns the directory.
+	 *
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	private ReentrantLock getLock(final String key) {
+		if (null == key)
+			throw new IllegalArgumentException("key must not be null");
+		return locks[key.hashCode() & (LOCK_STRIPES - 1)];
+	}
+
+	private void load(final File file, final long now) throws IOException {
+		try (MapLog.Reader reader = new MapLog.Reader(file)) {
+			LogRecord record;
+			while (null != (record = reader.next())) {
+				restore(record, now);
+			}
+		}
+	}
+
+	private ExecutorService newRecoveryExecutor() {
+		final int threads = Math.max(1, Math.min(SNAPSHOT_PARTITIONS, Runtime.getRuntime().availableProcessors()));
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, name + " Recovery");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Recovers the store and starts logging modifications.
+	 *
+	 * @return the number of recovered entries
+	 * @throws IOException
+	 *             if the store could not be recovered
+	 */
+	public int open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("unable to create directory " + directory);
+
+		synchronized (snapshotLock) {
+			final long start = System.nanoTime();
+			generation = recover() + 1;
+			LOG.info("Recovered {} entries of map repository in {} in {}ms.", new Object[] { store.size(), directory, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
+
+			log = new MapLog(directory, generation, fsyncPolicy, maxLogSize, new Runnable() {
+				@Override
+				public void run() {
+					scheduleSnapshot();
+				}
+			}, name + " Log Writer");
+		}
+
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, name + " Snapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				takeSnapshot();
+			}
+		}, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+		this.executor = executor;
+		return store.size();
+	}
+
+	/**
+	 * Stores a value and logs it.
+	 *
+	 * @see MapStore#put(String, byte[], long)
+	 */
+	public boolean put(final String key, final byte[] value, final long ttlMillis) {
+		final ReentrantLock lock = getLock(key);
+		final MapLog log = this.log;
+
+		// encode outside the lock (failing puts are rare)
+		final byte[] data = MapLog.encode(MapLog.OP_PUT, key, getExpiresAt(ttlMillis), value);
+		final boolean stored;
+		Record record = null;
+		lock.lock();
+		try {
+			stored = store.put(key, value, ttlMillis);
+			// a failed put keeps the previous value, i.e. nothing changed
+			if (stored) {
+				record = append(log, data);
+			}
+		} finally {
+			lock.unlock();
+		}
+		awaitCommit(log, record);
+		return stored;
+	}
+
+	/**
+	 * Stores a value if absent and logs it.
+	 *
+	 * @see MapStore#putIfAbsent(String, byte[], long)
+	 */
+	public PutIfAbsentResult putIfAbsent(final String key, final byte[] value, final long ttlMillis) {
+		final ReentrantLock lock = getLock(key);
+		final MapLog log = this.log;
+		final PutIfAbsentResult result;
+		Record record = null;
+		lock.lock();
+		try {
+			result = store.putIfAbsent(key, value, ttlMillis);
+			// nothing changed if the value could not be stored
+			if (result.isStored()) {
+				record = append(log, MapLog.encode(MapLog.OP_PUT, key, getExpiresAt(ttlMillis), value));
+			}
+		} finally {
+			lock.unlock();
+		}
+		awaitCommit(log, record);
+		return result;
+	}
+
+	private long recover() throws IOException {
+		long snapshotGeneration = 0;
+		long maxGeneration = 0;
+		final TreeMap<Long, File> logs = new TreeMap<Long, File>();
+		final String[] names = directory.list();
+		if (null == names)
+			throw new IOException("unable to list directory " + directory);
+		for (final String fileName : names) {
+			Matcher matcher = SNAPSHOT_MARKER.matcher(fileName);
+			if (matcher.matches()) {
+				snapshotGeneration = Math.max(snapshotGeneration, Long.parseLong(matcher.group(1)));
+			}
+			matcher = LOG_FILE.matcher(fileName);
+			if (matcher.matches()) {
+				logs.put(Long.parseLong(matcher.group(1)), new File(directory, fileName));
+			}
+			matcher = DATA_FILE.matcher(fileName);
+			if (matcher.matches()) {
+				maxGeneration = Math.max(maxGeneration, Long.parseLong(matcher.group(1)));
+			}
+		}
+
+		final long now = System.currentTimeMillis();
+		final ExecutorService executor = newRecoveryExecutor();
+		try {
+			// load snapshot partitions in parallel
+			if (snapshotGeneration > 0) {
+				final List<Future<Void>> futures = new ArrayList<Future<Void>>(SNAPSHOT_PARTITIONS);
+				for (int i = 0; i < SNAPSHOT_PARTITIONS; i++) {
+					final File file = getSnapshotFile(directory, snapshotGeneration, i);
+					if (!file.isFile()) {
+						continue;
+					}
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							load(file, now);
+							return null;
+						}
+					}));
+				}
+				waitFor(futures);
+			}
+
+			// replay logs in order
+			for (final File file : logs.tailMap(snapshotGeneration).values()) {
+				replay(file, executor, now);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return maxGeneration;
+	}
+
+	/**
+	 * Removes a value and logs it.
+	 *
+	 * @see MapStore#remove(String)
+	 */
+	public boolean remove(final String key) {
+		final ReentrantLock lock = getLock(key);
+		final MapLog log = this.log;
+		final boolean removed;
+		Record record = null;
+		lock.lock();
+		try {
+			removed = store.remove(key);
+			if (removed) {
+				record = append(log, MapLog.encode(MapLog.OP_REMOVE, key, 0, null));
+			}
+		} finally {
+			lock.unlock();
+		}
+		awaitCommit(log, record);
+		return removed;
+	}
+
+	private void replay(final File file, final ExecutorService executor, final long now) throws IOException {
+		if (file.length() == 0)
+			return; // crashed right after creating the file
+
+		final List<LogRecord> batch = new ArrayList<LogRecord>(REPLAY_BATCH_SIZE);
+		try (MapLog.Reader reader = new MapLog.Reader(file)) {
+			LogRecord record;
+			while (null != (record = reader.next())) {
+				if (record.op == MapLog.OP_CLEAR) {
+					apply(batch, executor, now);
+					store.clear();
+					continue;
+				}
+				batch.add(record);
+				if (batch.size() >= REPLAY_BATCH_SIZE) {
+					apply(batch, executor, now);
+				}
+			}
+		}
+		apply(batch, executor, now);
+	}
+
+	private void restore(final LogRecord record, final long now) {
+		switch (record.op) {
+			case MapLog.OP_PUT:
+				if (record.expiresAt == 0) {
+					store.put(record.key, record.value, 0);
+				} else if (record.expiresAt > now) {
+					store.put(record.key, record.value, record.expiresAt - now);
+				} else {
+					// the value replaced any previous value but expired already
+					store.remove(record.key);
+				}
+				break;
+
+			case MapLog.OP_REMOVE:
+				store.remove(record.key);
+				break;
+
+			default:
+				LOG.debug("Ignoring unknown log record {} in {}.", record.op, directory);
+				break;
+		}
+	}
+
+	/**
+	 * Schedules taking a snapshot as soon as possible.
+	 */
+	private void scheduleSnapshot() {
+		final ScheduledThreadPoolExecutor executor = this.executor;
+		if ((null == executor) || !snapshotScheduled.compareAndSet(false, true))
+			return;
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					snapshotScheduled.set(false);
+					takeSnapshot();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			// closed
+			snapshotScheduled.set(false);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the store.
+	 * <p>
+	 * Nothing is done if the store has not been modified since the last
+	 * snapshot.
+	 * </p>
+	 *
+	 * @throws IOException
+	 *             if the snapshot could not be written
+	 */
+	public void snapshot() throws IOException {
+		synchronized (snapshotLock) {
+			final MapLog log = this.log;
+			if ((null == log) || log.isFailed())
+				return;
+			final long pending = modifications.getAndSet(0);
+			if (pending == 0)
+				return;
+
+			final long start = System.nanoTime();
+			try {
+				// continue logging in a new file
+				generation++;
+				log.await(log.rotate(generation));
+
+				final int entries = writeSnapshot(generation);
+				deleteObsoleteFiles(generation);
+				LOG.debug("Wrote snapshot of map repository in {} with {} entries in {}ms.", new Object[] { directory, entries, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
+			} catch (final IOException | RuntimeException e) {
+				// try again next time
+				modifications.addAndGet(pending);
+				throw e;
+			}
+		}
+	}
+
+	private void takeSnapshot() {
+		try {
+			snapshot();
+		} catch (final Exception e) {
+			LOG.warn("Error writing map repository snapshot in {}. {}", directory, ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	private void waitFor(final List<Future<Void>> futures) throws IOException {
+		try {
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while recovering " + directory, e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("error recovering " + directory, e.getCause());
+		}
+	}
+
+	private int writeSnapshot(final long generation) throws IOException {
+		final FileOutputStream[] files = new FileOutputStream[SNAPSHOT_PARTITIONS];
+		final OutputStream[] outs = new OutputStream[SNAPSHOT_PARTITIONS];
+		final int[] entries = new int[1];
+		try {
+			for (int i = 0; i < SNAPSHOT_PARTITIONS; i++) {
+				files[i] = new FileOutputStream(getSnapshotFile(directory, generation, i));
+				outs[i] = new BufferedOutputStream(files[i], MapLog.BUFFER_SIZE);
+				MapLog.writeHeader(outs[i]);
+			}
+			store.visit(new MapStore.Visitor() {
+				@Override
+				public void visit(final String key, final long expiresAt, final byte[] value) throws IOException {
+					outs[getPartition(key)].write(MapLog.encode(MapLog.OP_PUT, key, expiresAt, value));
+					entries[0]++;
+				}
+			});
+			for (int i = 0; i < SNAPSHOT_PARTITIONS; i++) {
+				outs[i].flush();
+				if (fsyncPolicy != FsyncPolicy.NEVER) {
+					files[i].getChannel().force(false);
+				}
+			}
+		} finally {
+			for (final FileOutputStream file : files) {
+				if (null != file) {
+					file.close();
+				}
+			}
+		}
+
+		// mark complete
+		final FileOutputStream marker = new FileOutputStream(getSnapshotMarker(directory, generation));
+		try {
+			if (fsyncPolicy != FsyncPolicy.NEVER) {
+				marker.getChannel().force(true);
+			}
+		} finally {
+			marker.close();
+		}
+		return entries[0];
+	}
+}
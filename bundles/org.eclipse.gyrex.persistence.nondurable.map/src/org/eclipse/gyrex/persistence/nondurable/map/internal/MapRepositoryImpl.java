@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 AGETO Service GmbH and others.
+ * Copyright (c) 2008, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -11,25 +11,199 @@
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.nondurable.map.internal;
 
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.gyrex.monitoring.metrics.ThroughputMetric;
+import org.eclipse.gyrex.persistence.nondurable.map.IMapRepository;
 import org.eclipse.gyrex.persistence.nondurable.map.MapRepository;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapPersistence.FsyncPolicy;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.EvictionPolicy;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.PutIfAbsentResult;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * {@link MapRepository} implementation using a {@link ConcurrentSkipListMap}.
+ * {@link MapRepository} implementation using a {@link MapStore}.
+ * <p>
+ * The store can optionally be persisted locally (see
+ * {@link #enablePersistence(File, FsyncPolicy, long, long)}).
+ * </p>
  */
-public class MapRepositoryImpl extends MapRepository {
+public class MapRepositoryImpl extends MapRepository implements IMapRepository {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MapRepositoryImpl.class);
+
+	/** one out of this number of operations is recorded in the throughput metrics */
+	static final int SAMPLE_INTERVAL = 16;
+
+	private final MapStore store;
+	private volatile MapPersistence persistence;
 
 	/**
 	 * Creates a new instance.
-	 * 
+	 *
 	 * @param repositoryId
 	 * @param repositoryType
-	 * @param metrics
+	 * @param maxMemory
+	 *            the max. number of bytes to use for storing values
+	 * @param offHeap
+	 *            <code>true</code> for storing values outside of the Java heap
+	 * @param maxEntries
+	 *            the max. number of entries (<code>0</code> for no limit)
+	 * @param evictionPolicy
+	 *            the eviction policy
 	 * @throws IllegalArgumentException
 	 */
-	public MapRepositoryImpl(final String repositoryId, final MapRepositoryType repositoryType) throws IllegalArgumentException {
+	public MapRepositoryImpl(final String repositoryId, final MapRepositoryType repositoryType, final long maxMemory, final boolean offHeap, final int maxEntries, final EvictionPolicy evictionPolicy) throws IllegalArgumentException {
 		super(repositoryId, repositoryType, new MapRepositoryMetrics(createMetricsId(repositoryType, repositoryId), repositoryId));
+		store = new MapStore(maxMemory, MapRepositoryType.PAGE_SIZE, offHeap, maxEntries, evictionPolicy, getMapRepositoryMetrics().getCacheMetric());
+	}
+
+	private void checkClosed() {
+		if (isClosed())
+			throw new IllegalStateException("repository '" + getRepositoryId() + "' closed");
+	}
+
+	@Override
+	protected void doClose() {
+		final MapPersistence persistence = this.persistence;
+		if (null != persistence) {
+			this.persistence = null;
+			persistence.close();
+		}
+		store.close();
+	}
+
+	/**
+	 * Enables local persistence of the repository.
+	 * <p>
+	 * Recovers the repository content from the specified directory. If
+	 * recovery fails, the repository continues without persistence.
+	 * </p>
+	 *
+	 * @param directory
+	 *            the directory for storing snapshot and log files
+	 * @param fsyncPolicy
+	 *            the fsync policy
+	 * @param snapshotInterval
+	 *            the time (in milliseconds) between snapshots
+	 * @param maxLogSize
+	 *            the log size (in bytes) after which a snapshot is taken
+	 *            earlier
+	 */
+	public void enablePersistence(final File directory, final FsyncPolicy fsyncPolicy, final long snapshotInterval, final long maxLogSize) {
+		final MapPersistence persistence = new MapPersistence(directory, store, fsyncPolicy, snapshotInterval, maxLogSize, "Gyrex Map Repository " + getRepositoryId());
+		try {
+			persistence.open();
+			this.persistence = persistence;
+		} catch (final IOException e) {
+			LOG.error("Unable to recover map repository {} from {}. Continuing without persistence. {}", new Object[] { getRepositoryId(), directory, ExceptionUtils.getRootCauseMessage(e) });
+			store.clear();
+		}
+	}
+
+	private void finishSample(final ThroughputMetric metric, final long start, final long size) {
+		if (start >= 0) {
+			metric.requestFinished(size, TimeUnit.NANOSECONDS.toMicros(System.nanoTime()) - start);
+		}
+	}
+
+	@Override
+	public byte[] get(final String key) throws IllegalStateException {
+		checkClosed();
+		final ThroughputMetric metric = getMapRepositoryMetrics().getReadsMetric();
+		final long start = startSample(metric);
+		final byte[] value = store.get(key);
+		finishSample(metric, start, null != value ? value.length : 0);
+		return value;
+	}
+
+	/**
+	 * Returns the metrics as {@link MapRepositoryMetrics}.
+	 *
+	 * @return the metrics as {@link MapRepositoryMetrics}
+	 */
+	public MapRepositoryMetrics getMapRepositoryMetrics() {
+		return (MapRepositoryMetrics) getMetrics();
+	}
+
+	/**
+	 * Returns the underlying store.
+	 *
+	 * @return the store
+	 */
+	public MapStore getStore() {
+		return store;
+	}
+
+	@Override
+	public boolean put(final String key, final byte[] value) throws IllegalArgumentException, IllegalStateException {
+		return put(key, value, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public boolean put(final String key, final byte[] value, final long ttl, final TimeUnit unit) throws IllegalArgumentException, IllegalStateException {
+		checkClosed();
+		final ThroughputMetric metric = getMapRepositoryMetrics().getWritesMetric();
+		final long start = startSample(metric);
+		final MapPersistence persistence = this.persistence;
+		final boolean stored = null != persistence ? persistence.put(key, value, unit.toMillis(ttl)) : store.put(key, value, unit.toMillis(ttl));
+		finishSample(metric, start, value.length);
+		return stored;
+	}
+
+	@Override
+	public byte[] putIfAbsent(final String key, final byte[] value) throws IllegalArgumentException, IllegalStateException {
+		return putIfAbsent(key, value, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public byte[] putIfAbsent(final String key, final byte[] value, final long ttl, final TimeUnit unit) throws IllegalArgumentException, IllegalStateException {
+		checkClosed();
+		final ThroughputMetric metric = getMapRepositoryMetrics().getWritesMetric();
+		final long start = startSample(metric);
+		final MapPersistence persistence = this.persistence;
+		final PutIfAbsentResult result = null != persistence ? persistence.putIfAbsent(key, value, unit.toMillis(ttl)) : store.putIfAbsent(key, value, unit.toMillis(ttl));
+		finishSample(metric, start, result.isStored() ? value.length : 0);
+		return result.getExistingValue();
+	}
+
+	@Override
+	public boolean remove(final String key) throws IllegalStateException {
+		checkClosed();
+		final ThroughputMetric metric = getMapRepositoryMetrics().getWritesMetric();
+		final long start = startSample(metric);
+		final MapPersistence persistence = this.persistence;
+		final boolean removed = null != persistence ? persistence.remove(key) : store.remove(key);
+		finishSample(metric, start, 0);
+		return removed;
 	}
 
+	@Override
+	public SortedMap<String, byte[]> scan(final String prefix, final int limit) throws IllegalStateException {
+		checkClosed();
+		final ThroughputMetric metric = getMapRepositoryMetrics().getReadsMetric();
+		final long start = startSample(metric);
+		final SortedMap<String, byte[]> result = store.scan(prefix, limit);
+		finishSample(metric, start, result.size());
+		return result;
+	}
+
+	/**
+	 * Starts recording an operation if it's part of the sample.
+	 *
+	 * @return the start time (or <code>-1</code> if not recorded)
+	 */
+	private long startSample(final ThroughputMetric metric) {
+		if (ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) != 0)
+			return -1;
+		return metric.requestStarted();
+	}
 }
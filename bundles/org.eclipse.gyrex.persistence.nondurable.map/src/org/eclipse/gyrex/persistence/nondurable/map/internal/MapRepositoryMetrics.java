@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 AGETO Service GmbH and others.
+ * Copyright (c) 2008, 2013 AGETO Service GmbH and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -11,23 +11,57 @@
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.nondurable.map.internal;
 
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
 import org.eclipse.gyrex.monitoring.metrics.MetricSet;
 import org.eclipse.gyrex.monitoring.metrics.ThroughputMetric;
 
 /**
- *
+ * Metrics of a map repository.
+ * <p>
+ * The cache metric counts every lookup. In order to keep the overhead low the
+ * read and write throughput metrics only record a random sample of the
+ * operations (see {@link MapRepositoryImpl#SAMPLE_INTERVAL}).
+ * </p>
  */
 public class MapRepositoryMetrics extends MetricSet {
 
 	/**
 	 * Creates a new instance.
-	 * 
+	 *
 	 * @param id
 	 * @param repositoryId
 	 * @param metrics
 	 */
 	protected MapRepositoryMetrics(final String id, final String repositoryId) {
-		super(id, String.format("Metrics for repository %s", repositoryId), new ThroughputMetric(id.concat(".reads")), new ThroughputMetric(id.concat(".writes")));
+		super(id, String.format("Metrics for repository %s", repositoryId), new ThroughputMetric(id.concat(".reads"), TimeUnit.MICROSECONDS), new ThroughputMetric(id.concat(".writes"), TimeUnit.MICROSECONDS), new CacheMetric(id.concat(".cache")));
 	}
 
+	/**
+	 * Returns the cache metric.
+	 *
+	 * @return the cache metric
+	 */
+	public CacheMetric getCacheMetric() {
+		return getMetric(2, CacheMetric.class);
+	}
+
+	/**
+	 * Returns the (sampled) read throughput metric.
+	 *
+	 * @return the read throughput metric
+	 */
+	public ThroughputMetric getReadsMetric() {
+		return getMetric(0, ThroughputMetric.class);
+	}
+
+	/**
+	 * Returns the (sampled) write throughput metric.
+	 *
+	 * @return the write throughput metric
+	 */
+	public ThroughputMetric getWritesMetric() {
+		return getMetric(1, ThroughputMetric.class);
+	}
 }
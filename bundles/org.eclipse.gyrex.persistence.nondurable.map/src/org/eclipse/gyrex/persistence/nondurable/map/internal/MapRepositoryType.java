@@ -1,29 +1,101 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 AGETO Service GmbH and others.
+ * Copyright (c) 2008, 2013 AGETO Service GmbH and others.
  * All rights reserved.
- *  
- * This program and the accompanying materials are made available under the 
+ *
+ * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html.
- * 
+ *
  * Contributors:
  *     Gunnar Wagenknecht - initial API and implementation
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.nondurable.map.internal;
 
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.gyrex.persistence.nondurable.map.MapRepository;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapPersistence.FsyncPolicy;
+import org.eclipse.gyrex.persistence.nondurable.map.internal.MapStore.EvictionPolicy;
 import org.eclipse.gyrex.persistence.storage.Repository;
 import org.eclipse.gyrex.persistence.storage.provider.RepositoryProvider;
 import org.eclipse.gyrex.persistence.storage.settings.IRepositoryPreferences;
+import org.eclipse.gyrex.server.Platform;
+
+import org.eclipse.core.runtime.IPath;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A repository type which stores objects in a map in memory.
+ * <p>
+ * The limits of a repository can be configured using the repository
+ * preferences (see the <code>PREF_KEY_...</code> constants). Optionally, a
+ * repository can be persisted in the instance location so that its content
+ * survives restarts.
+ * </p>
  */
 public class MapRepositoryType extends RepositoryProvider {
 
+	private static final Logger LOG = LoggerFactory.getLogger(MapRepositoryType.class);
+
+	/** max. memory (in MB) used for storing values */
+	public static final String PREF_KEY_MAX_MEMORY = "maxMemory";
+
+	/** max. number of entries (<code>0</code> for no limit) */
+	public static final String PREF_KEY_MAX_ENTRIES = "maxEntries";
+
+	/** <code>true</code> for storing values outside of the Java heap */
+	public static final String PREF_KEY_OFF_HEAP = "offHeap";
+
+	/** the eviction policy (either <code>lru</code> or <code>lfu</code>) */
+	public static final String PREF_KEY_EVICTION_POLICY = "evictionPolicy";
+
+	/** <code>true</code> for persisting the repository content locally */
+	public static final String PREF_KEY_PERSISTENT = "persistent";
+
+	/** time (in seconds) between snapshots of a persistent repository */
+	public static final String PREF_KEY_SNAPSHOT_INTERVAL = "snapshotInterval";
+
+	/** when to sync the log to disk (<code>always</code>, <code>interval</code> or <code>never</code>) */
+	public static final String PREF_KEY_FSYNC_POLICY = "fsyncPolicy";
+
+	/** log size (in MB) after which a snapshot is taken earlier */
+	public static final String PREF_KEY_MAX_LOG_SIZE = "maxLogSize";
+
+	static final int DEFAULT_MAX_MEMORY = 64;
+	static final int DEFAULT_MAX_ENTRIES = 0;
+	static final boolean DEFAULT_OFF_HEAP = false;
+	static final String DEFAULT_EVICTION_POLICY = "lru";
+	static final boolean DEFAULT_PERSISTENT = false;
+	static final int DEFAULT_SNAPSHOT_INTERVAL = 300;
+	static final String DEFAULT_FSYNC_POLICY = "interval";
+	static final int DEFAULT_MAX_LOG_SIZE = 64;
+
+	/** size of a slab page (also the max. size of a value) */
+	static final int PAGE_SIZE = 1024 * 1024;
+
+	/**
+	 * Reads an enum preference.
+	 *
+	 * @return the enum constant (the default if the preference value is
+	 *         invalid)
+	 */
+	private static <E extends Enum<E>> E getEnum(final IRepositoryPreferences repositoryPreferences, final String key, final String defaultValue, final Class<E> type, final String repositoryId) {
+		final String value = repositoryPreferences.get(key, defaultValue);
+		try {
+			return Enum.valueOf(type, value.trim().toUpperCase(Locale.US));
+		} catch (final IllegalArgumentException e) {
+			LOG.warn("Invalid value '{}' of preference {} for repository {}. Using default '{}'.", new Object[] { value, key, repositoryId, defaultValue });
+			return Enum.valueOf(type, defaultValue.toUpperCase(Locale.US));
+		}
+	}
+
 	/**
 	 * Creates a new instance.
-	 * 
+	 *
 	 * @param id
 	 */
 	public MapRepositoryType() {
@@ -35,7 +107,23 @@ public class MapRepositoryType extends RepositoryProvider {
 	 */
 	@Override
 	public Repository createRepositoryInstance(final String repositoryId, final IRepositoryPreferences repositoryPreferences) {
-		return new MapRepositoryImpl(repositoryId, this);
+		final long maxMemory = Math.max(PAGE_SIZE, repositoryPreferences.getInt(PREF_KEY_MAX_MEMORY, DEFAULT_MAX_MEMORY) * 1024L * 1024L);
+		final int maxEntries = Math.max(0, repositoryPreferences.getInt(PREF_KEY_MAX_ENTRIES, DEFAULT_MAX_ENTRIES));
+		final boolean offHeap = repositoryPreferences.getBoolean(PREF_KEY_OFF_HEAP, DEFAULT_OFF_HEAP);
+		final EvictionPolicy evictionPolicy = getEnum(repositoryPreferences, PREF_KEY_EVICTION_POLICY, DEFAULT_EVICTION_POLICY, EvictionPolicy.class, repositoryId);
+		final MapRepositoryImpl repository = new MapRepositoryImpl(repositoryId, this, maxMemory, offHeap, maxEntries, evictionPolicy);
+
+		if (repositoryPreferences.getBoolean(PREF_KEY_PERSISTENT, DEFAULT_PERSISTENT)) {
+			final IPath instanceLocation = Platform.getInstanceLocation();
+			if (null == instanceLocation)
+				throw new IllegalStateException("The framework must have file system support to use persistent map repositories.");
+			final File directory = instanceLocation.append("map").append(repositoryId).toFile();
+			final FsyncPolicy fsyncPolicy = getEnum(repositoryPreferences, PREF_KEY_FSYNC_POLICY, DEFAULT_FSYNC_POLICY, FsyncPolicy.class, repositoryId);
+			final long snapshotInterval = TimeUnit.SECONDS.toMillis(Math.max(1, repositoryPreferences.getInt(PREF_KEY_SNAPSHOT_INTERVAL, DEFAULT_SNAPSHOT_INTERVAL)));
+			final long maxLogSize = Math.max(1, repositoryPreferences.getInt(PREF_KEY_MAX_LOG_SIZE, DEFAULT_MAX_LOG_SIZE)) * 1024L * 1024L;
+			repository.enablePersistence(directory, fsyncPolicy, snapshotInterval, maxLogSize);
+		}
+		return repository;
 	}
 
 }
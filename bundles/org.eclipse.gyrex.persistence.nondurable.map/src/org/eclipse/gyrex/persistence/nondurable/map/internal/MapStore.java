@@ -0,0 +1,589 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.nondurable.map.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+
+/**
+ * A concurrent, memory-capped key/value store.
+ * <p>
+ * Keys are kept in a {@link ConcurrentSkipListMap} (for prefix scans), values
+ * are stored as bytes in a {@link SlabAllocator}. When the memory or entry
+ * limit is reached, entries are evicted using an approximated LRU or LFU
+ * policy: a few random entries of the slab class needing space are sampled
+ * and the least recently (or least frequently) used one is evicted. If the
+ * slab class has nothing to evict (eg. it got no memory before the limit was
+ * reached), the entries of a page of another class are evicted and the page
+ * is moved to the class needing space. Expired entries are removed lazily
+ * when accessed or sampled.
+ * </p>
+ * <p>
+ * This class is thread safe. Reads don't lock. Writes only lock the slab
+ * class of the value briefly for allocating a chunk.
+ * </p>
+ */
+public final class MapStore {
+
+	/**
+	 * The eviction policy.
+	 */
+	public static enum EvictionPolicy {
+		/** evict least recently used entries */
+		LRU,
+		/** evict least frequently used entries */
+		LFU
+	}
+
+	/**
+	 * The result of {@link MapStore#putIfAbsent(String, byte[], long)}.
+	 */
+	public static final class PutIfAbsentResult {
+
+		static final PutIfAbsentResult STORED = new PutIfAbsentResult(true, null);
+		static final PutIfAbsentResult NOT_STORED = new PutIfAbsentResult(false, null);
+
+		private final boolean stored;
+		private final byte[] existingValue;
+
+		PutIfAbsentResult(final boolean stored, final byte[] existingValue) {
+			this.stored = stored;
+			this.existingValue = existingValue;
+		}
+
+		/**
+		 * Returns the value already stored for the key.
+		 *
+		 * @return the existing value (<code>null</code> if there was none)
+		 */
+		public byte[] getExistingValue() {
+			return existingValue;
+		}
+
+		/**
+		 * Indicates if the value has been stored.
+		 *
+		 * @return <code>true</code> if stored, <code>false</code> if a value
+		 *         existed already or the value could not be stored because of
+		 *         the memory limit
+		 */
+		public boolean isStored() {
+			return stored;
+		}
+	}
+
+	/**
+	 * Visitor of the entries of a store.
+	 */
+	public static interface Visitor {
+
+		/**
+		 * Visits an entry.
+		 *
+		 * @param key
+		 *            the key
+		 * @param expiresAt
+		 *            the expiration time in milliseconds (<code>0</code> if the
+		 *            entry never expires)
+		 * @param value
+		 *            the value
+		 * @throws IOException
+		 *             to abort visiting
+		 */
+		void visit(String key, long expiresAt, byte[] value) throws IOException;
+	}
+
+	/** the number of entries to sample for choosing an eviction victim */
+	private static final int EVICTION_SAMPLES = 8;
+
+	/** the max. number of evictions when allocating space for a value */
+	private static final int MAX_EVICTIONS = 16;
+
+	/** initial LFU counter value of new entries (protects them from immediate eviction) */
+	private static final int LFU_INITIAL = 5;
+
+	/** LFU counter growth factor (higher values require more accesses) */
+	private static final int LFU_LOG_FACTOR = 10;
+
+	/** the time after which an LFU counter is decremented */
+	private static final long LFU_DECAY_MILLIS = 60000L;
+
+	private final SlabAllocator allocator;
+	private final int maxEntries;
+	private final EvictionPolicy evictionPolicy;
+	private final CacheMetric cacheMetric;
+	private final ConcurrentSkipListMap<String, MapEntry> index = new ConcurrentSkipListMap<String, MapEntry>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param maxMemory
+	 *            the max. number of bytes to use for storing values
+	 * @param pageSize
+	 *            the size of memory pages (a power of two; this is also the
+	 *            max. value size)
+	 * @param offHeap
+	 *            <code>true</code> for storing values outside of the Java heap
+	 * @param maxEntries
+	 *            the max. number of entries (<code>0</code> for no limit)
+	 * @param evictionPolicy
+	 *            the eviction policy
+	 * @param cacheMetric
+	 *            the metric to report hits, misses and evictions to
+	 */
+	public MapStore(final long maxMemory, final int pageSize, final boolean offHeap, final int maxEntries, final EvictionPolicy evictionPolicy, final CacheMetric cacheMetric) {
+		if (null == evictionPolicy)
+			throw new IllegalArgumentException("eviction policy must not be null");
+		if (null == cacheMetric)
+			throw new IllegalArgumentException("cache metric must not be null");
+		allocator = new SlabAllocator(maxMemory, pageSize, offHeap);
+		this.maxEntries = Math.max(0, maxEntries);
+		this.evictionPolicy = evictionPolicy;
+		this.cacheMetric = cacheMetric;
+	}
+
+	/**
+	 * Allocates a chunk for an entry, evicting other entries if necessary.
+	 *
+	 * @return <code>true</code> if allocated, <code>false</code> if no space
+	 *         could be reclaimed
+	 */
+	private boolean allocate(final MapEntry entry) {
+		for (int i = 0; i <= MAX_EVICTIONS; i++) {
+			final int chunk = allocator.allocate(entry.slabClass, entry);
+			if (chunk >= 0) {
+				entry.chunk = chunk;
+				return true;
+			}
+			if (!evict(entry.slabClass) && !reassignPage(entry.slabClass)) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (final MapEntry entry : index.values()) {
+			remove(entry);
+		}
+	}
+
+	/**
+	 * Removes all entries and releases the memory.
+	 * <p>
+	 * The store must not be used afterwards. Memory still referenced by
+	 * concurrent readers is released when they finish.
+	 * </p>
+	 */
+	public void close() {
+		allocator.close();
+		clear();
+	}
+
+	/**
+	 * Evicts an entry of a slab class.
+	 *
+	 * @return <code>true</code> if an entry has been evicted,
+	 *         <code>false</code> if there was nothing to evict
+	 */
+	private boolean evict(final int slabClass) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final MapEntry[] samples = new MapEntry[EVICTION_SAMPLES];
+		final int found = allocator.sample(slabClass, EVICTION_SAMPLES, random, samples);
+		if (found == 0)
+			return false;
+
+		final long now = System.currentTimeMillis();
+		MapEntry victim = null;
+		long victimScore = Long.MAX_VALUE;
+		for (int i = 0; i < found; i++) {
+			final MapEntry candidate = samples[i];
+			if (candidate.isRetired()) {
+				continue;
+			}
+			if (candidate.isExpired(now)) {
+				victim = candidate;
+				break;
+			}
+			final long score = evictionPolicy == EvictionPolicy.LFU ? getFrequency(candidate, now) : candidate.lastAccess;
+			if (score < victimScore) {
+				victim = candidate;
+				victimScore = score;
+			}
+		}
+		if (null == victim)
+			return true; // sampled entries are being removed concurrently
+
+		if (remove(victim)) {
+			cacheMetric.evicted();
+		}
+		return true;
+	}
+
+	/**
+	 * Evicts an entry after the max. number of entries has been exceeded.
+	 */
+	private void evictForSize(final int slabClass) {
+		for (int i = 0; (i < MAX_EVICTIONS) && (size.get() > maxEntries); i++) {
+			if (evict(slabClass)) {
+				continue;
+			}
+			// try other classes
+			boolean evicted = false;
+			for (int c = 0; !evicted && (c < allocator.getSlabClassCount()); c++) {
+				evicted = (c != slabClass) && evict(c);
+			}
+			if (!evicted)
+				return;
+		}
+	}
+
+	/**
+	 * Returns the value stored for a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value (maybe <code>null</code> if not found or expired)
+	 */
+	public byte[] get(final String key) {
+		while (true) {
+			final MapEntry entry = index.get(key);
+			if (null == entry) {
+				cacheMetric.miss();
+				return null;
+			}
+			final long now = System.currentTimeMillis();
+			if (entry.isExpired(now)) {
+				remove(entry);
+				cacheMetric.miss();
+				return null;
+			}
+			final byte[] value = read(entry);
+			if (null != value) {
+				touch(entry, now);
+				cacheMetric.hit();
+				return value;
+			}
+			// replaced or removed concurrently
+		}
+	}
+
+	/**
+	 * Returns the entry of a key.
+	 * <p>
+	 * This method is only exposed for testing purposes (eg. for pinning an
+	 * entry like a concurrent reader). Please do not call it.
+	 * </p>
+	 *
+	 * @param key
+	 *            the key
+	 * @return the entry (maybe <code>null</code>)
+	 */
+	MapEntry getEntry(final String key) {
+		return index.get(key);
+	}
+
+	private long getFrequency(final MapEntry entry, final long now) {
+		final long decay = (now - entry.lastAccess) / LFU_DECAY_MILLIS;
+		return Math.max(0, entry.frequency - decay);
+	}
+
+	/**
+	 * Returns the number of bytes reserved for storing values.
+	 *
+	 * @return the memory used
+	 */
+	public long getMemoryUsed() {
+		return allocator.getMemoryUsed();
+	}
+
+	private MapEntry newEntry(final String key, final byte[] value, final long ttlMillis) {
+		if (null == key)
+			throw new IllegalArgumentException("key must not be null");
+		if (null == value)
+			throw new IllegalArgumentException("value must not be null");
+		final int slabClass = allocator.getSlabClass(value.length);
+		if (slabClass < 0)
+			throw new IllegalArgumentException("value too large (" + value.length + " bytes)");
+		final long now = System.currentTimeMillis();
+		final MapEntry entry = new MapEntry(key, slabClass, value.length, ttlMillis > 0 ? now + ttlMillis : 0, now);
+		if (evictionPolicy == EvictionPolicy.LFU) {
+			entry.frequency = LFU_INITIAL;
+		}
+		return entry;
+	}
+
+	/**
+	 * Stores a value.
+	 * <p>
+	 * If the memory limit has been reached and no space could be reclaimed by
+	 * evicting other entries, the value is not stored and any previous value
+	 * for the key is kept.
+	 * </p>
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @param ttlMillis
+	 *            the time to live in milliseconds (<code>0</code> for no
+	 *            expiration)
+	 * @return <code>true</code> if the value has been stored,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean put(final String key, final byte[] value, final long ttlMillis) {
+		final MapEntry entry = newEntry(key, value, ttlMillis);
+		if (!allocate(entry))
+			return false;
+		allocator.write(entry.slabClass, entry.chunk, value);
+
+		final MapEntry previous = index.put(key, entry);
+		if (null == previous) {
+			if ((size.incrementAndGet() > maxEntries) && (maxEntries > 0)) {
+				evictForSize(entry.slabClass);
+			}
+		} else {
+			retire(previous);
+		}
+		return true;
+	}
+
+	/**
+	 * Stores a value if no (unexpired) value is stored for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @param ttlMillis
+	 *            the time to live in milliseconds (<code>0</code> for no
+	 *            expiration)
+	 * @return the result indicating if the value has been stored (it's not
+	 *         stored if a value exists already or because of the memory limit)
+	 */
+	public PutIfAbsentResult putIfAbsent(final String key, final byte[] value, final long ttlMillis) {
+		final MapEntry entry = newEntry(key, value, ttlMillis);
+
+		// don't allocate if there is a value already
+		final MapEntry current = index.get(key);
+		if ((null != current) && !current.isExpired(entry.lastAccess)) {
+			final byte[] currentValue = read(current);
+			if (null != currentValue)
+				return new PutIfAbsentResult(false, currentValue);
+		}
+
+		if (!allocate(entry))
+			return PutIfAbsentResult.NOT_STORED;
+		allocator.write(entry.slabClass, entry.chunk, value);
+
+		while (true) {
+			final MapEntry existing = index.putIfAbsent(key, entry);
+			if (null == existing) {
+				if ((size.incrementAndGet() > maxEntries) && (maxEntries > 0)) {
+					evictForSize(entry.slabClass);
+				}
+				return PutIfAbsentResult.STORED;
+			}
+			if (existing.isExpired(System.currentTimeMillis())) {
+				if (index.replace(key, existing, entry)) {
+					retire(existing);
+					return PutIfAbsentResult.STORED;
+				}
+				continue;
+			}
+			final byte[] existingValue = read(existing);
+			if (null != existingValue) {
+				retire(entry);
+				return new PutIfAbsentResult(false, existingValue);
+			}
+			// removed concurrently; try again
+		}
+	}
+
+	/**
+	 * Reads the value of an entry.
+	 *
+	 * @return the value (or <code>null</code> if the entry has been retired)
+	 */
+	private byte[] read(final MapEntry entry) {
+		if (!entry.pin())
+			return null;
+		final byte[] value = new byte[entry.length];
+		try {
+			allocator.read(entry.slabClass, entry.chunk, value);
+		} finally {
+			if (entry.unpin()) {
+				allocator.free(entry.slabClass, entry.chunk);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Removes an entry from the index and retires it.
+	 *
+	 * @return <code>true</code> if removed, <code>false</code> if the entry
+	 *         had been removed or replaced already
+	 */
+	private boolean remove(final MapEntry entry) {
+		if (!index.remove(entry.key, entry))
+			return false;
+		size.decrementAndGet();
+		retire(entry);
+		return true;
+	}
+
+	/**
+	 * Removes the value stored for a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return <code>true</code> if an (unexpired) value has been removed,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean remove(final String key) {
+		final MapEntry entry = index.remove(key);
+		if (null == entry)
+			return false;
+		size.decrementAndGet();
+		retire(entry);
+		return !entry.isExpired(System.currentTimeMillis());
+	}
+
+	/**
+	 * Moves a page from another slab class, evicting the entries stored in it.
+	 *
+	 * @return <code>true</code> if memory may have been made available,
+	 *         <code>false</code> if no space could be reclaimed
+	 */
+	private boolean reassignPage(final int slabClass) {
+		final List<MapEntry> owners = new ArrayList<MapEntry>();
+		if (allocator.reassignPage(slabClass, owners))
+			return true;
+		boolean evicted = false;
+		for (final MapEntry owner : owners) {
+			if (remove(owner)) {
+				cacheMetric.evicted();
+				evicted = true;
+			}
+		}
+		// try again (the chunks of pinned entries are freed later)
+		return allocator.reassignPage(slabClass, new ArrayList<MapEntry>()) || evicted;
+	}
+
+	private void retire(final MapEntry entry) {
+		if (entry.retire()) {
+			allocator.free(entry.slabClass, entry.chunk);
+		}
+	}
+
+	/**
+	 * Returns the (unexpired) values of all keys starting with a prefix.
+	 *
+	 * @param prefix
+	 *            the key prefix (may be empty)
+	 * @param limit
+	 *            the max. number of entries to return
+	 * @return a sorted map of keys and values
+	 */
+	public SortedMap<String, byte[]> scan(final String prefix, final int limit) {
+		if (null == prefix)
+			throw new IllegalArgumentException("prefix must not be null");
+		final TreeMap<String, byte[]> result = new TreeMap<String, byte[]>();
+		final long now = System.currentTimeMillis();
+		for (final Entry<String, MapEntry> indexEntry : index.tailMap(prefix).entrySet()) {
+			if ((result.size() >= limit) || !indexEntry.getKey().startsWith(prefix)) {
+				break;
+			}
+			final MapEntry entry = indexEntry.getValue();
+			if (entry.isExpired(now)) {
+				continue;
+			}
+			final byte[] value = read(entry);
+			if (null != value) {
+				result.put(entry.key, value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of entries (including expired entries not removed
+	 * yet).
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Records an access for the eviction policy.
+	 */
+	private void touch(final MapEntry entry, final long now) {
+		if (evictionPolicy == EvictionPolicy.LFU) {
+			int frequency = (int) getFrequency(entry, now);
+			if (frequency < 255) {
+				final double p = 1.0 / ((Math.max(0, frequency - LFU_INITIAL) * LFU_LOG_FACTOR) + 1);
+				if (ThreadLocalRandom.current().nextDouble() < p) {
+					frequency++;
+				}
+			}
+			if (entry.frequency != frequency) {
+				entry.frequency = frequency;
+			}
+		}
+		// avoid writing shared memory when accessed often
+		if (entry.lastAccess != now) {
+			entry.lastAccess = now;
+		}
+	}
+
+	/**
+	 * Visits all (unexpired) entries in key order.
+	 * <p>
+	 * Similar to {@link #scan(String, int)} this does not provide a
+	 * consistent snapshot. Concurrent modifications may or may not be
+	 * visited.
+	 * </p>
+	 *
+	 * @param visitor
+	 *            the visitor
+	 * @throws IOException
+	 *             if thrown by the visitor
+	 */
+	public void visit(final Visitor visitor) throws IOException {
+		final long now = System.currentTimeMillis();
+		for (final MapEntry entry : index.values()) {
+			if (entry.isExpired(now)) {
+				continue;
+			}
+			final byte[] value = read(entry);
+			if (null != value) {
+				visitor.visit(entry.key, entry.expiresAt, value);
+			}
+		}
+	}
+}
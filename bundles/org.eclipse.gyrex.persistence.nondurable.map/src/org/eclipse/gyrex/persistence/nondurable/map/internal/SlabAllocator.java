@@ -0,0 +1,470 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.nondurable.map.internal;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A memory-capped slab allocator for storing values as bytes.
+ * <p>
+ * Memory is reserved in pages which are assigned to slab classes on demand.
+ * Each slab class splits its pages into chunks of a fixed size (powers of two
+ * between {@link #MIN_CHUNK_SIZE} and the page size). A value is stored in a
+ * single chunk of the smallest class that fits it. Pages are either byte
+ * arrays or direct (off-heap) buffers.
+ * </p>
+ * <p>
+ * If a class runs out of chunks and no more pages can be reserved, callers
+ * have to evict values of that class (see
+ * {@link #sample(int, int, Random, MapEntry[])}) or move a page from another
+ * class (see {@link #reassignPage(int, List)}). A page is moved once all
+ * values stored in it have been evicted. Only one page is moved at a time.
+ * </p>
+ * <p>
+ * Pages are released when the allocator is closed and all chunks have been
+ * freed. Direct buffers are released immediately instead of waiting for the
+ * garbage collector.
+ * </p>
+ * <p>
+ * Allocating and freeing chunks is thread safe. Reading and writing chunk
+ * contents is not synchronized; callers must ensure that a chunk is not freed
+ * while it's accessed.
+ * </p>
+ */
+final class SlabAllocator {
+
+	/**
+	 * A slab class (guarded by itself).
+	 */
+	private static final class SlabClass {
+
+		final int chunkSize;
+		final int chunksPerPage;
+
+		/** pages (replaced when growing, entries are never modified) */
+		volatile Object[] pages = new Object[0];
+
+		/** the entries owning the allocated chunks */
+		MapEntry[] owners = new MapEntry[0];
+
+		/** freed chunks */
+		int[] free = new int[16];
+		int freeCount;
+
+		/** chunks handed out from the pages so far */
+		int used;
+
+		/** number of allocated chunks */
+		int allocated;
+
+		/**
+		 * the first chunk of the (last) page being moved to another class
+		 * (<code>-1</code> if none)
+		 */
+		int draining = -1;
+
+		SlabClass(final int chunkSize, final int pageSize) {
+			this.chunkSize = chunkSize;
+			chunksPerPage = pageSize / chunkSize;
+		}
+	}
+
+	/** the size of the smallest chunks */
+	static final int MIN_CHUNK_SIZE = 64;
+
+	private static final int MIN_CHUNK_SHIFT = Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+
+	/**
+	 * Releases the memory of a direct buffer without waiting for the garbage
+	 * collector (if supported by the JVM).
+	 */
+	private static void release(final ByteBuffer buffer) {
+		if (!buffer.isDirect())
+			return;
+		try {
+			final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			final Object cleaner = cleanerMethod.invoke(buffer);
+			if (null != cleaner) {
+				final Method cleanMethod = cleaner.getClass().getMethod("clean");
+				cleanMethod.setAccessible(true);
+				cleanMethod.invoke(cleaner);
+			}
+		} catch (final Exception | LinkageError e) {
+			// not supported; the buffer is released when garbage collected
+		}
+	}
+
+	private final int pageSize;
+	private final long maxPages;
+	private final boolean offHeap;
+	private final SlabClass[] classes;
+	private final AtomicLong reservedPages = new AtomicLong();
+
+	/** guards moving pages between classes */
+	private final Object reassignLock = new Object();
+
+	/** the class a page is moved from (guarded by {@link #reassignLock}) */
+	private int reassignFrom = -1;
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param maxMemory
+	 *            the max. number of bytes to allocate (must be at least one
+	 *            page)
+	 * @param pageSize
+	 *            the page size (a power of two of at least
+	 *            {@link #MIN_CHUNK_SIZE}; this is also the max. value size)
+	 * @param offHeap
+	 *            <code>true</code> for allocating direct buffers,
+	 *            <code>false</code> for allocating heap memory
+	 */
+	SlabAllocator(final long maxMemory, final int pageSize, final boolean offHeap) {
+		if ((pageSize < MIN_CHUNK_SIZE) || (Integer.bitCount(pageSize) != 1))
+			throw new IllegalArgumentException("page size must be a power of two of at least " + MIN_CHUNK_SIZE);
+		if (maxMemory < pageSize)
+			throw new IllegalArgumentException("max. memory must be at least one page (" + pageSize + " bytes)");
+		this.pageSize = pageSize;
+		this.offHeap = offHeap;
+		maxPages = maxMemory / pageSize;
+		classes = new SlabClass[(Integer.numberOfTrailingZeros(pageSize) - MIN_CHUNK_SHIFT) + 1];
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = new SlabClass(MIN_CHUNK_SIZE << i, pageSize);
+		}
+	}
+
+	/**
+	 * Allocates a chunk.
+	 *
+	 * @param slabClass
+	 *            the slab class
+	 * @param owner
+	 *            the entry owning the chunk
+	 * @return the chunk (or <code>-1</code> if the class has no free chunk and
+	 *         the memory limit has been reached or the allocator is closed)
+	 */
+	int allocate(final int slabClass, final MapEntry owner) {
+		final SlabClass c = classes[slabClass];
+		synchronized (c) {
+			if (closed)
+				return -1;
+			final int chunk = nextChunk(c);
+			if (chunk >= 0) {
+				c.owners[chunk] = owner;
+				c.allocated++;
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Closes the allocator.
+	 * <p>
+	 * No more chunks can be allocated. Pages are released once all chunks of
+	 * their class have been freed.
+	 * </p>
+	 */
+	void close() {
+		closed = true;
+		for (final SlabClass c : classes) {
+			synchronized (c) {
+				if (c.allocated == 0) {
+					releasePages(c);
+				}
+			}
+		}
+	}
+
+	private int nextChunk(final SlabClass c) {
+		for (int i = c.freeCount - 1; i >= 0; i--) {
+			final int chunk = c.free[i];
+			if ((c.draining < 0) || (chunk < c.draining)) {
+				c.free[i] = c.free[--c.freeCount];
+				return chunk;
+			}
+			// keep chunks of a page being moved (in case the move is canceled)
+		}
+
+		final Object[] pages = c.pages;
+		final int capacity = c.draining >= 0 ? c.draining : pages.length * c.chunksPerPage;
+		if (c.used < capacity)
+			return c.used++;
+		if (c.draining >= 0)
+			return -1; // don't reserve new pages while giving away one
+
+		// reserve new page
+		long reserved;
+		do {
+			reserved = reservedPages.get();
+			if (reserved >= maxPages)
+				return -1;
+		} while (!reservedPages.compareAndSet(reserved, reserved + 1));
+
+		final Object[] newPages = Arrays.copyOf(pages, pages.length + 1);
+		newPages[pages.length] = offHeap ? ByteBuffer.allocateDirect(pageSize) : new byte[pageSize];
+		c.owners = Arrays.copyOf(c.owners, newPages.length * c.chunksPerPage);
+		c.pages = newPages;
+		return c.used++;
+	}
+
+	/**
+	 * Frees a chunk.
+	 *
+	 * @param slabClass
+	 *            the slab class
+	 * @param chunk
+	 *            the chunk
+	 */
+	void free(final int slabClass, final int chunk) {
+		final SlabClass c = classes[slabClass];
+		synchronized (c) {
+			c.owners[chunk] = null;
+			if (c.freeCount == c.free.length) {
+				c.free = Arrays.copyOf(c.free, c.free.length * 2);
+			}
+			c.free[c.freeCount++] = chunk;
+			if ((--c.allocated == 0) && closed) {
+				releasePages(c);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes reserved for pages.
+	 *
+	 * @return the reserved bytes
+	 */
+	long getMemoryUsed() {
+		return reservedPages.get() * pageSize;
+	}
+
+	/**
+	 * Returns the slab class for storing a value.
+	 *
+	 * @param length
+	 *            the value length
+	 * @return the slab class (or <code>-1</code> if the value is larger than a
+	 *         page)
+	 */
+	int getSlabClass(final int length) {
+		if (length > pageSize)
+			return -1;
+		if (length <= MIN_CHUNK_SIZE)
+			return 0;
+		return (32 - Integer.numberOfLeadingZeros(length - 1)) - MIN_CHUNK_SHIFT;
+	}
+
+	/**
+	 * Returns the number of slab classes.
+	 *
+	 * @return the number of slab classes
+	 */
+	int getSlabClassCount() {
+		return classes.length;
+	}
+
+	/**
+	 * Reads a chunk.
+	 *
+	 * @param slabClass
+	 *            the slab class
+	 * @param chunk
+	 *            the chunk
+	 * @param value
+	 *            the array to read into (length is the number of bytes to
+	 *            read)
+	 */
+	void read(final int slabClass, final int chunk, final byte[] value) {
+		final SlabClass c = classes[slabClass];
+		final Object page = c.pages[chunk / c.chunksPerPage];
+		final int offset = (chunk % c.chunksPerPage) * c.chunkSize;
+		if (page instanceof byte[]) {
+			System.arraycopy(page, offset, value, 0, value.length);
+		} else {
+			final ByteBuffer buffer = ((ByteBuffer) page).duplicate();
+			buffer.position(offset);
+			buffer.get(value);
+		}
+	}
+
+	/**
+	 * Moves a page from another slab class to a slab class which ran out of
+	 * memory.
+	 * <p>
+	 * The class with the most pages gives away its last page. Before the page
+	 * can be moved, all values stored in it must be evicted. The owners of
+	 * those values are added to the specified list. The caller has to evict
+	 * them and call this method again. While a page is being moved, no more
+	 * chunks of it are allocated.
+	 * </p>
+	 *
+	 * @param slabClass
+	 *            the slab class needing memory
+	 * @param owners
+	 *            a list to add the owners of the chunks of the page being
+	 *            moved to
+	 * @return <code>true</code> if memory has been made available to the slab
+	 *         class, <code>false</code> otherwise (eg. no page to move or
+	 *         owners must be evicted first)
+	 */
+	boolean reassignPage(final int slabClass, final List<MapEntry> owners) {
+		synchronized (reassignLock) {
+			if (closed)
+				return false;
+
+			if (reassignFrom < 0) {
+				// pick the class with the most pages
+				int from = -1;
+				for (int i = 0; i < classes.length; i++) {
+					if ((i != slabClass) && (classes[i].pages.length > 0) && ((from < 0) || (classes[i].pages.length > classes[from].pages.length))) {
+						from = i;
+					}
+				}
+				if (from < 0)
+					return false;
+				final SlabClass c = classes[from];
+				synchronized (c) {
+					c.draining = (c.pages.length - 1) * c.chunksPerPage;
+				}
+				reassignFrom = from;
+			}
+
+			final SlabClass from = classes[reassignFrom];
+			Object page;
+			synchronized (from) {
+				if (reassignFrom == slabClass) {
+					// the class needs the page itself
+					from.draining = -1;
+					reassignFrom = -1;
+					return true;
+				}
+
+				final int end = from.pages.length * from.chunksPerPage;
+				for (int chunk = from.draining; chunk < Math.min(end, from.used); chunk++) {
+					if (null != from.owners[chunk]) {
+						owners.add(from.owners[chunk]);
+					}
+				}
+				if (!owners.isEmpty())
+					return false;
+
+				// all chunks are free; remove the page
+				final Object[] pages = from.pages;
+				page = pages[pages.length - 1];
+				from.pages = Arrays.copyOf(pages, pages.length - 1);
+				from.owners = Arrays.copyOf(from.owners, from.draining);
+				from.used = Math.min(from.used, from.draining);
+				int freeCount = 0;
+				for (int i = 0; i < from.freeCount; i++) {
+					if (from.free[i] < from.draining) {
+						from.free[freeCount++] = from.free[i];
+					}
+				}
+				from.freeCount = freeCount;
+				from.draining = -1;
+				reassignFrom = -1;
+			}
+
+			final SlabClass to = classes[slabClass];
+			synchronized (to) {
+				final Object[] pages = to.pages;
+				final Object[] newPages = Arrays.copyOf(pages, pages.length + 1);
+				newPages[pages.length] = page;
+				to.owners = Arrays.copyOf(to.owners, newPages.length * to.chunksPerPage);
+				to.pages = newPages;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Releases all pages of a class (must hold the class lock).
+	 */
+	private void releasePages(final SlabClass c) {
+		final Object[] pages = c.pages;
+		if (pages.length == 0)
+			return;
+		for (final Object page : pages) {
+			if (page instanceof ByteBuffer) {
+				release((ByteBuffer) page);
+			}
+		}
+		c.pages = new Object[0];
+		c.owners = new MapEntry[0];
+		c.used = 0;
+		c.freeCount = 0;
+		c.draining = -1;
+		reservedPages.addAndGet(-pages.length);
+	}
+
+	/**
+	 * Randomly samples allocated chunks of a slab class and returns the
+	 * owners.
+	 *
+	 * @param slabClass
+	 *            the slab class
+	 * @param samples
+	 *            the number of chunks to sample
+	 * @param random
+	 *            the random number source
+	 * @param result
+	 *            the array to fill with owners (at least <code>samples</code>
+	 *            long)
+	 * @return the number of owners found
+	 */
+	int sample(final int slabClass, final int samples, final Random random, final MapEntry[] result) {
+		final SlabClass c = classes[slabClass];
+		int found = 0;
+		synchronized (c) {
+			if (c.used == 0)
+				return 0;
+			for (int i = 0; i < samples; i++) {
+				final MapEntry owner = c.owners[random.nextInt(c.used)];
+				if (null != owner) {
+					result[found++] = owner;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Writes a chunk.
+	 *
+	 * @param slabClass
+	 *            the slab class
+	 * @param chunk
+	 *            the chunk
+	 * @param value
+	 *            the value to write
+	 */
+	void write(final int slabClass, final int chunk, final byte[] value) {
+		final SlabClass c = classes[slabClass];
+		final Object page = c.pages[chunk / c.chunksPerPage];
+		final int offset = (chunk % c.chunksPerPage) * c.chunkSize;
+		if (page instanceof byte[]) {
+			System.arraycopy(value, 0, page, offset, value.length);
+		} else {
+			final ByteBuffer buffer = ((ByteBuffer) page).duplicate();
+			buffer.position(offset);
+			buffer.put(value);
+		}
+	}
+}
@@ -19,7 +19,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ RepositoryRegistryTests.class, RepositoryInjectionTest.class })
+@SuiteClasses({ RepositoryRegistryTests.class, RepositoryInjectionTest.class, DefaultRepositoryLookupStrategyTests.class })
 public class AllPersistenceTests {
 
 	@ClassRule
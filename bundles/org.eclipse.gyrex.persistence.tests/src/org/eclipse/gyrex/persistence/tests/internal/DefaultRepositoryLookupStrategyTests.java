@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.tests.internal;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+import org.eclipse.gyrex.context.IRuntimeContext;
+import org.eclipse.gyrex.context.registry.IRuntimeContextRegistry;
+import org.eclipse.gyrex.persistence.storage.content.RepositoryContentType;
+import org.eclipse.gyrex.persistence.storage.lookup.DefaultRepositoryLookupStrategy;
+import org.eclipse.gyrex.preferences.CloudScope;
+
+import org.eclipse.core.runtime.Path;
+
+import org.osgi.service.prefs.Preferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the repository id cache of the
+ * {@link DefaultRepositoryLookupStrategy}.
+ */
+public class DefaultRepositoryLookupStrategyTests {
+
+	private static final String REPOSITORY_ID = "lookupTest";
+
+	private static final RepositoryContentType EXISTING = new RepositoryContentType("x-gyrex", "lookup", DummyRepo.class.getName(), "1.0");
+	private static final RepositoryContentType ADDED_SUB_TYPE = new RepositoryContentType("x-gyrex", "lookup-added", DummyRepo.class.getName(), "1.0");
+	private static final RepositoryContentType ADDED_TYPE = new RepositoryContentType("x-gyrex-lookup", "added", DummyRepo.class.getName(), "1.0");
+
+	/**
+	 * Assigns a repository without using the lookup strategy (eg. like a
+	 * replicated change).
+	 */
+	private static void assignDirectly(final RepositoryContentType contentType, final String repositoryId) throws Exception {
+		final Preferences assignments = CloudScope.INSTANCE.getNode("org.eclipse.gyrex.persistence").node("assignments");
+		assignments.node(contentType.getMediaTypeType()).node(contentType.getMediaTypeSubType()).put(Path.ROOT.toString(), repositoryId);
+		assignments.flush();
+	}
+
+	private IRuntimeContext context;
+	private DefaultRepositoryLookupStrategy strategy;
+
+	@Before
+	public void setUp() throws Exception {
+		context = PersistenceTestsActivator.getInstance().getService(IRuntimeContextRegistry.class).get(Path.ROOT);
+		strategy = DefaultRepositoryLookupStrategy.getDefault();
+
+		// make sure the media type node exists
+		strategy.setRepository(context, EXISTING, REPOSITORY_ID);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (final RepositoryContentType contentType : new RepositoryContentType[] { EXISTING, ADDED_SUB_TYPE, ADDED_TYPE }) {
+			strategy.setRepository(context, contentType, null);
+		}
+	}
+
+	@Test
+	public void testAssignmentChanged() throws Exception {
+		assertEquals(REPOSITORY_ID, strategy.getRepositoryId(context, EXISTING));
+
+		assignDirectly(EXISTING, "lookupTest2");
+		assertEquals("cache not invalidated", "lookupTest2", strategy.getRepositoryId(context, EXISTING));
+	}
+
+	@Test
+	public void testMediaTypeAdded() throws Exception {
+		assertNull(strategy.getRepositoryId(context, ADDED_TYPE));
+
+		assignDirectly(ADDED_TYPE, REPOSITORY_ID);
+		assertEquals("cache not invalidated", REPOSITORY_ID, strategy.getRepositoryId(context, ADDED_TYPE));
+	}
+
+	@Test
+	public void testSubTypeAddedToExistingMediaType() throws Exception {
+		// the lookup must not stop before observing the existing media type node
+		assertNull(strategy.getRepositoryId(context, ADDED_SUB_TYPE));
+
+		assignDirectly(ADDED_SUB_TYPE, REPOSITORY_ID);
+		assertEquals("cache not invalidated", REPOSITORY_ID, strategy.getRepositoryId(context, ADDED_SUB_TYPE));
+	}
+}
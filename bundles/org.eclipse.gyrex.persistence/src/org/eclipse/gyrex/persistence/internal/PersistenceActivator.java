@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2011 Gunnar Wagenknecht and others.
+ * Copyright (c) 2008, 2013 Gunnar Wagenknecht and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -12,7 +12,9 @@
 package org.eclipse.gyrex.persistence.internal;
 
 import org.eclipse.gyrex.common.runtime.BaseBundleActivator;
+import org.eclipse.gyrex.monitoring.metrics.MetricSet;
 import org.eclipse.gyrex.persistence.internal.storage.ContentTypeTracker;
+import org.eclipse.gyrex.persistence.internal.storage.RepositoryLookupMetrics;
 import org.eclipse.gyrex.persistence.internal.storage.RepositoryProviderRegistry;
 import org.eclipse.gyrex.persistence.internal.storage.RepositoryRegistry;
 import org.eclipse.gyrex.persistence.storage.registry.IRepositoryRegistry;
@@ -58,6 +60,10 @@ public class PersistenceActivator extends BaseBundleActivator {
 
 	private ServiceRegistration repositoryRegistryRegistration;
 
+	/** metrics of the default lookup strategy */
+	private volatile RepositoryLookupMetrics repositoryLookupMetrics;
+	private ServiceRegistration<MetricSet> repositoryLookupMetricsRegistration;
+
 	/**
 	 * Creates a new instance.
 	 * 
@@ -74,6 +80,10 @@ public class PersistenceActivator extends BaseBundleActivator {
 		// start the repository registry
 		repositoryRegistry = new RepositoryRegistry(context);
 		repositoryRegistryRegistration = getServiceHelper().registerService(IRepositoryRegistry.class.getName(), repositoryRegistry, "Eclipse.org", "Gyrex Repository Registry", null, null);
+
+		// register lookup metrics
+		repositoryLookupMetrics = new RepositoryLookupMetrics();
+		repositoryLookupMetricsRegistration = getServiceHelper().registerService(MetricSet.class, repositoryLookupMetrics, "Eclipse Gyrex", repositoryLookupMetrics.getDescription(), null, null);
 	}
 
 	@Override
@@ -86,6 +96,11 @@ public class PersistenceActivator extends BaseBundleActivator {
 		repositoryRegistry.stop();
 		repositoryRegistry = null;
 
+		// unregister lookup metrics
+		repositoryLookupMetricsRegistration.unregister();
+		repositoryLookupMetricsRegistration = null;
+		repositoryLookupMetrics = null;
+
 		// stop the type registry
 		if (repositoryProviderRegistry != null) {
 			repositoryProviderRegistry.close();
@@ -135,6 +150,19 @@ public class PersistenceActivator extends BaseBundleActivator {
 		return registry;
 	}
 
+	/**
+	 * Returns the metrics of the default repository lookup strategy.
+	 * 
+	 * @return the repository lookup metrics
+	 */
+	public RepositoryLookupMetrics getRepositoryLookupMetrics() {
+		final RepositoryLookupMetrics metrics = repositoryLookupMetrics;
+		if (null == metrics)
+			throw createBundleInactiveException();
+
+		return metrics;
+	}
+
 	/**
 	 * Returns the repository type registry.
 	 * 
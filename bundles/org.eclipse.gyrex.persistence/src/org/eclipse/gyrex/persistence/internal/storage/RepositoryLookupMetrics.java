@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2013 AGETO Service GmbH and others.
+ * All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html.
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.gyrex.persistence.internal.storage;
+
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
+import org.eclipse.gyrex.monitoring.metrics.MetricSet;
+import org.eclipse.gyrex.persistence.internal.PersistenceActivator;
+import org.eclipse.gyrex.persistence.storage.lookup.DefaultRepositoryLookupStrategy;
+
+/**
+ * Metrics for the repository lookup cache of
+ * {@link DefaultRepositoryLookupStrategy}.
+ * <p>
+ * Evictions count the invalidations of the whole cache due to assignment
+ * changes.
+ * </p>
+ */
+public class RepositoryLookupMetrics extends MetricSet {
+
+	private final CacheMetric cacheMetric;
+
+	public RepositoryLookupMetrics() {
+		super(PersistenceActivator.SYMBOLIC_NAME + ".lookup.metrics", "Metrics for the default repository lookup strategy.", new CacheMetric("repositoryIdCache"));
+		cacheMetric = getMetric(0, CacheMetric.class);
+	}
+
+	/**
+	 * Returns the repository id cache metric.
+	 *
+	 * @return the cacheMetric
+	 */
+	public CacheMetric getCacheMetric() {
+		return cacheMetric;
+	}
+}
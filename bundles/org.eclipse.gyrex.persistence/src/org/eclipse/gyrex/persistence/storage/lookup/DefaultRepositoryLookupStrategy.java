@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2012 Gunnar Wagenknecht and others.
+ * Copyright (c) 2008, 2013 Gunnar Wagenknecht and others.
  * All rights reserved.
  *
  * This program and the accompanying materials are made available under the
@@ -11,8 +11,17 @@
  *******************************************************************************/
 package org.eclipse.gyrex.persistence.storage.lookup;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 import org.eclipse.gyrex.common.identifiers.IdHelper;
 import org.eclipse.gyrex.context.IRuntimeContext;
+import org.eclipse.gyrex.monitoring.metrics.CacheMetric;
 import org.eclipse.gyrex.persistence.internal.PersistenceActivator;
 import org.eclipse.gyrex.persistence.storage.Repository;
 import org.eclipse.gyrex.persistence.storage.content.RepositoryContentType;
@@ -21,6 +30,11 @@ import org.eclipse.gyrex.persistence.storage.exceptions.ResourceFailureException
 import org.eclipse.gyrex.preferences.CloudScope;
 
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.INodeChangeListener;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.IPreferenceChangeListener;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.NodeChangeEvent;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.PreferenceChangeEvent;
 
 import org.osgi.service.prefs.Preferences;
 
@@ -36,6 +50,12 @@ import org.apache.commons.lang.StringUtils;
  * traversed upwards till a repository is found.
  * </p>
  * <p>
+ * Resolved repository ids are cached by content type and context path. The
+ * cache is invalidated by listeners on the assignment preference nodes
+ * whenever an assignment changes. Concurrent lookups of the same uncached
+ * content type and context path wait for a single preference lookup.
+ * </p>
+ * <p>
  * This class is not intended to be subclassed or instantiated. It provides a
  * {@link #getDefault() default instance} that should be used instead.
  * </p>
@@ -45,6 +65,9 @@ import org.apache.commons.lang.StringUtils;
  */
 public final class DefaultRepositoryLookupStrategy implements IRepositoryLookupStrategy {
 
+	/** marker for cached lookups which did not find an assignment */
+	private static final String NO_ASSIGNMENT = new String("<none>");
+
 	/** the shared instance */
 	private static DefaultRepositoryLookupStrategy sharedInstance;
 
@@ -59,6 +82,35 @@ public final class DefaultRepositoryLookupStrategy implements IRepositoryLookupS
 		return sharedInstance;
 	}
 
+	/** cached repository ids (key: content type, value: map with repository ids by context path) */
+	private final ConcurrentMap<RepositoryContentType, ConcurrentMap<IPath, FutureTask<String>>> repositoryIdCache = new ConcurrentHashMap<RepositoryContentType, ConcurrentMap<IPath, FutureTask<String>>>();
+
+	/** assignment nodes with listeners */
+	private final Set<IEclipsePreferences> observedNodes = Collections.newSetFromMap(new ConcurrentHashMap<IEclipsePreferences, Boolean>());
+
+	/** the bundle activator the cache belongs to (the cache is reset when the bundle is restarted) */
+	private volatile PersistenceActivator cacheOwner;
+
+	private final IPreferenceChangeListener assignmentChangeListener = new IPreferenceChangeListener() {
+		@Override
+		public void preferenceChange(final PreferenceChangeEvent event) {
+			invalidateCache();
+		}
+	};
+
+	private final INodeChangeListener assignmentNodeChangeListener = new INodeChangeListener() {
+		@Override
+		public void added(final NodeChangeEvent event) {
+			invalidateCache();
+		}
+
+		@Override
+		public void removed(final NodeChangeEvent event) {
+			observedNodes.remove(event.getChild());
+			invalidateCache();
+		}
+	};
+
 	/**
 	 * Hidden constructor.
 	 */
@@ -66,6 +118,10 @@ public final class DefaultRepositoryLookupStrategy implements IRepositoryLookupS
 		// empty
 	}
 
+	private CacheMetric getCacheMetric(final PersistenceActivator activator) {
+		return activator.getRepositoryLookupMetrics().getCacheMetric();
+	}
+
 	private Preferences getAssignmentsNode() {
 		return CloudScope.INSTANCE.getNode(PersistenceActivator.SYMBOLIC_NAME).node("assignments");
 	}
@@ -164,18 +220,107 @@ public final class DefaultRepositoryLookupStrategy implements IRepositoryLookupS
 	 *             if an error occurred accessing the configuration data store.
 	 */
 	public String getRepositoryId(final IRuntimeContext context, final RepositoryContentType contentType) throws Exception {
+		final PersistenceActivator activator = PersistenceActivator.getInstance();
+		if (cacheOwner != activator) {
+			resetCache(activator);
+		}
+
+		final IPath contextPath = context.getContextPath();
+		ConcurrentMap<IPath, FutureTask<String>> repositoryIdsByPath = repositoryIdCache.get(contentType);
+		if (null == repositoryIdsByPath) {
+			final ConcurrentMap<IPath, FutureTask<String>> newMap = new ConcurrentHashMap<IPath, FutureTask<String>>(4);
+			repositoryIdsByPath = repositoryIdCache.putIfAbsent(contentType, newMap);
+			if (null == repositoryIdsByPath) {
+				repositoryIdsByPath = newMap;
+			}
+		}
+
+		FutureTask<String> lookup = repositoryIdsByPath.get(contextPath);
+		if (null != lookup) {
+			getCacheMetric(activator).hit();
+		} else {
+			final FutureTask<String> newLookup = new FutureTask<String>(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					final String repositoryId = readRepositoryId(contextPath, contentType);
+					return null != repositoryId ? repositoryId : NO_ASSIGNMENT;
+				}
+			});
+			lookup = repositoryIdsByPath.putIfAbsent(contextPath, newLookup);
+			if (null == lookup) {
+				getCacheMetric(activator).miss();
+				lookup = newLookup;
+				lookup.run();
+			} else {
+				getCacheMetric(activator).hit();
+			}
+		}
+
+		final String repositoryId;
+		try {
+			repositoryId = lookup.get();
+		} catch (final ExecutionException e) {
+			// don't cache failures
+			repositoryIdsByPath.remove(contextPath, lookup);
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}
+		return repositoryId != NO_ASSIGNMENT ? repositoryId : null;
+	}
+
+	private void invalidateCache() {
+		if (repositoryIdCache.isEmpty())
+			return;
+		repositoryIdCache.clear();
+		final PersistenceActivator activator = cacheOwner;
+		if (null != activator) {
+			try {
+				getCacheMetric(activator).evicted();
+			} catch (final IllegalStateException e) {
+				// inactive
+			}
+		}
+	}
+
+	/**
+	 * Registers the change listeners with an assignment node (if not already
+	 * done).
+	 */
+	private void observe(final Preferences node, final boolean observeKeys) {
+		final IEclipsePreferences eclipseNode = (IEclipsePreferences) node;
+		if (!observedNodes.add(eclipseNode))
+			return;
+		eclipseNode.addNodeChangeListener(assignmentNodeChangeListener);
+		if (observeKeys) {
+			eclipseNode.addPreferenceChangeListener(assignmentChangeListener);
+		}
+	}
+
+	/**
+	 * Reads the assigned repository id from the preferences (uncached).
+	 */
+	String readRepositoryId(final IPath contextPath, final RepositoryContentType contentType) throws Exception {
 		/*
 		 * the lookup is simple, we simply walk up the context path until a matching key is found
 		 */
 		final Preferences assignmentsNode = getAssignmentsNode();
-		if (!assignmentsNode.nodeExists(contentType.getMediaType()))
-			return null;
-		final Preferences contentTypeAssignments = assignmentsNode.node(contentType.getMediaTypeType()).node(contentType.getMediaTypeSubType());
+		observe(assignmentsNode, false);
+		if (!assignmentsNode.nodeExists(contentType.getMediaTypeType()))
+			return null; // the assignments node listener invalidates the cache when the node is added
+		final Preferences mediaTypeNode = assignmentsNode.node(contentType.getMediaTypeType());
+		// observe before checking the sub type so that a sub type node added concurrently is not missed
+		observe(mediaTypeNode, false);
+		if (!mediaTypeNode.nodeExists(contentType.getMediaTypeSubType()))
+			return null; // the media type node listener invalidates the cache when the node is added
+		final Preferences contentTypeAssignments = mediaTypeNode.node(contentType.getMediaTypeSubType());
+		observe(contentTypeAssignments, true);
 
 		// TODO: we may be able to support multi-version assignments here; however, that's not supported right now
 
 		// check assignment for specified context path
-		IPath path = context.getContextPath();
+		IPath path = contextPath;
 		String repositoryId = contentTypeAssignments.get(path.toString(), null);
 
 		// walk up the path (while no assignment is available)
@@ -188,6 +333,24 @@ public final class DefaultRepositoryLookupStrategy implements IRepositoryLookupS
 		return repositoryId;
 	}
 
+	private synchronized void resetCache(final PersistenceActivator activator) {
+		if (cacheOwner == activator)
+			return;
+
+		// remove listeners from nodes of a previous bundle activation
+		for (final IEclipsePreferences node : observedNodes) {
+			try {
+				node.removeNodeChangeListener(assignmentNodeChangeListener);
+				node.removePreferenceChangeListener(assignmentChangeListener);
+			} catch (final IllegalStateException e) {
+				// node removed
+			}
+		}
+		observedNodes.clear();
+		repositoryIdCache.clear();
+		cacheOwner = activator;
+	}
+
 	/**
 	 * Sets or unsets a repository for the specified content type in a given
 	 * context
@@ -241,5 +404,8 @@ public final class DefaultRepositoryLookupStrategy implements IRepositoryLookupS
 
 		// flush globally
 		assignmentsNode.flush();
+
+		// don't wait for the change listeners (which may not be attached yet)
+		invalidateCache();
 	}
 }